@@ -1,20 +1,10 @@
 #version 330 core
 
-struct Material {
+#include "uniformBlocks.glsl"
+
+struct MaterialTextures {  // (samplers can't be in uniform blocks, so not in MaterialParams)
     sampler2D diffuse_tex1;    // diffuse map (for diffuse colour)
     sampler2D specular_tex1;   // specular map (for specular reflection)
-    vec3 diffuseColour;        // diffuse colour
-    vec3 specularColour;       // specular colour
-    float K_a;          // ambient reflection coefficient
-    float K_diff;       // diff reflection coeff
-    float K_spec;       // spec reflection coeff
-    float shininess;    // shininness coeff (for specular reflection)
-};
-
-struct DirLight { // directional light in scene (1 atm)
-    vec3 colour;        // light colour
-    vec3 direction;     // light direction
-    float strength;     // light strength/intensity
 };
 
 struct PointLight { // point light
@@ -49,11 +39,8 @@ in VS_OUT {
 
 out vec4 FragColor;
 
-uniform vec3 I_a;
-uniform DirLight dirLight;
-uniform Material material;
-uniform bool materialUsesTextures;
-uniform vec3 wc_cameraPos;
+// Uniforms (I_a, dirLight, material, materialUsesTextures & wc_cameraPos in uniform blocks)
+uniform MaterialTextures materialTex;
 
 
 // function prototypes
@@ -72,8 +59,8 @@ void main()
     vec3 diffColour, specColour, diffComponent, specComponent;
     if(materialUsesTextures){
         // ...from textures (the maps...)
-        diffColour = vec3(texture(material.diffuse_tex1, fs_in.TexCoords));
-        specColour = vec3(texture(material.specular_tex1, fs_in.TexCoords));
+        diffColour = vec3(texture(materialTex.diffuse_tex1, fs_in.TexCoords));
+        specColour = vec3(texture(materialTex.specular_tex1, fs_in.TexCoords));
     } else {
         diffColour = material.diffuseColour;
         specColour = material.specularColour;
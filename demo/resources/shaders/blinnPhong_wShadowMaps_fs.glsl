@@ -1,20 +1,19 @@
 #version 330 core
 
-struct Material {
+#include "uniformBlocks.glsl"
+#include "evsm.glsl"
+
+// shadow filters (ids must match graphics.renderEngine.renderOptionsManager.ShadowFilter)
+#define SHADOW_FILTER_PCF_3X3 0
+#define SHADOW_FILTER_HARDWARE_PCF_2X2 1
+#define SHADOW_FILTER_POISSON 2
+#define SHADOW_FILTER_EVSM 3
+
+#define MAX_POISSON_SAMPLES 16  // (must match RenderContext.MAX_POISSON_SAMPLES)
+
+struct MaterialTextures {  // (samplers can't be in uniform blocks, so not in MaterialParams)
     sampler2D diffuse_tex1;    // diffuse map (for diffuse colour)
     sampler2D specular_tex1;   // specular map (for specular reflection)
-    vec3 diffuseColour;        // diffuse colour
-    vec3 specularColour;       // specular colour
-    float K_a;          // ambient reflection coefficient
-    float K_diff;       // diff reflection coeff
-    float K_spec;       // spec reflection coeff
-    float shininess;    // shininness coeff (for specular reflection)
-};
-
-struct DirLight { // directional light in scene (1 atm)
-    vec3 colour;        // light colour
-    vec3 direction;     // light direction
-    float strength;     // light strength/intensity
 };
 
 
@@ -22,24 +21,31 @@ in VS_OUT {
     vec2 TexCoords;     // texture UV coord
     vec3 wc_normal;     // fragment normal in world coord
     vec3 wc_fragPos;    // fragment position in world coord
-    vec4 lightSpace_fragPos;    // fragment position in directional light's space
 } fs_in;
 
 out vec4 FragColor;
 
-// Uniforms
-uniform vec3 I_a;
-uniform DirLight dirLight;
-
-uniform Material material;
-uniform bool materialUsesTextures;
-
-uniform vec3 wc_cameraPos;
-uniform sampler2D shadowMap;
+// Uniforms (I_a, dirLight, material, materialUsesTextures, wc_cameraPos & receivesShadows in uniform blocks)
+uniform MaterialTextures materialTex;
+uniform sampler2DArray shadowMap;           // (a layer per shadow cascade)
+uniform sampler2DArrayShadow shadowMapCmp;  // same shadow map, w/hw depth comparison & linear filtering (2x2 PCF per fetch)
+uniform sampler2DArray shadowMoments;       // blurred & mipmapped EVSM moments of the shadow map (a layer per cascade)
+
+// Poisson disk (unit radius): points spread so none are too close, so a few taps cover the kernel's area evenly
+// (each point as far as possible from the previous ones, so the 1st 4, 8... are spread over the disk too & fewer
+// taps can be used)
+const vec2 poissonDisk[MAX_POISSON_SAMPLES] = vec2[](
+    vec2(-0.009804, -0.007859), vec2(0.809962, 0.586333), vec2(-0.129155, 0.988031), vec2(0.791948, -0.609903),
+    vec2(-0.919004, 0.383153), vec2(-0.134004, -0.989414), vec2(-0.857322, -0.497941), vec2(0.630941, -0.004685),
+    vec2(0.226536, 0.529684), vec2(-0.359345, 0.473828), vec2(0.199255, -0.534019), vec2(-0.554591, -0.059308),
+    vec2(-0.353176, -0.537166), vec2(0.444274, -0.890307), vec2(-0.992905, -0.096951), vec2(0.311706, 0.949407)
+);
 
 // function prototypes
 vec3 CalcDirLight(DirLight light, vec3 N, vec3 V, vec3 diffColour, vec3 specColour);
-float CalcShadow(DirLight light, vec3 N, vec4 fragPosLightSpace);
+float CalcShadow(DirLight light, vec3 N, vec3 wc_fragPos, vec3 wc_dPdx, vec3 wc_dPdy);
+float CalcCascadeShadow(int cascade, DirLight light, vec3 N, vec3 wc_fragPos, vec3 wc_dPdx, vec3 wc_dPdy);
+float InterleavedGradientNoise(vec2 pixel);
 vec3 toneMapAndDisplayEncode(vec3 linearRGB);
 
 void main()
@@ -55,10 +61,10 @@ void main()
 
     if(materialUsesTextures){
         // ...from textures (the maps...)
-        vec4 diffSampleFromTex = texture(material.diffuse_tex1, fs_in.TexCoords);
+        vec4 diffSampleFromTex = texture(materialTex.diffuse_tex1, fs_in.TexCoords);
         if(diffSampleFromTex.a < 0.1) discard;
         diffColour = vec3(diffSampleFromTex);
-        specColour = vec3(texture(material.specular_tex1, fs_in.TexCoords));
+        specColour = vec3(texture(materialTex.specular_tex1, fs_in.TexCoords));
     } else {
         diffColour = material.diffuseColour;
         specColour = material.specularColour;
@@ -68,7 +74,10 @@ void main()
     vec3 specComponent = material.K_spec * specColour;
 
     // Directional lighting
-    float shadow = CalcShadow(dirLight, N, fs_in.lightSpace_fragPos);
+    // (screen-space derivatives of the position taken here, outside the cascade selection's non-uniform branches,
+    // so the moments map's mip level can be chosen there)
+    vec3 wc_dPdx = dFdx(fs_in.wc_fragPos), wc_dPdy = dFdy(fs_in.wc_fragPos);
+    float shadow = receivesShadows ? CalcShadow(dirLight, N, fs_in.wc_fragPos, wc_dPdx, wc_dPdy) : 0.0;
     I_result += (1.0 - shadow) * CalcDirLight(dirLight, N, V, diffComponent, specComponent);
 
     // ambient light
@@ -102,39 +111,97 @@ vec3 CalcDirLight(DirLight light, vec3 N, vec3 V, vec3 diffComponent, vec3 specC
     return (I_diffuse + I_specular) * light.strength;
 }
 
-float CalcShadow(DirLight light, vec3 N, vec4 fragPosLightSpace)
+// calc shadow of fragment (1: in shadow, 0: lit), from the shadow cascade containing it (blended w/the next one
+// near the end of the cascade)
+float CalcShadow(DirLight light, vec3 N, vec3 wc_fragPos, vec3 wc_dPdx, vec3 wc_dPdy)
+{
+    float viewDepth = -(view_m * vec4(wc_fragPos, 1.0)).z;
+
+    // select cascade: 1st one whose end is further than the fragment
+    int cascade = 0;
+    while(cascade < numOfCascades && viewDepth >= cascadeSplits[cascade]) cascade++;
+    if(cascade == numOfCascades) return 0.0;  // beyond max shadow distance
+
+    float shadow = CalcCascadeShadow(cascade, light, N, wc_fragPos, wc_dPdx, wc_dPdy);
+
+    // blend w/next cascade near the end of this one (last cascade fades out, so shadows don't end abruptly)
+    float blendStart = cascadeBlendStarts[cascade];
+    if(viewDepth > blendStart){
+        float t = (viewDepth - blendStart) / (cascadeSplits[cascade] - blendStart);
+        float nextShadow = cascade + 1 < numOfCascades ? CalcCascadeShadow(cascade + 1, light, N, wc_fragPos, wc_dPdx, wc_dPdy) : 0.0;
+        shadow = mix(shadow, nextShadow, t);
+    }
+    return shadow;
+}
+
+float CalcCascadeShadow(int cascade, DirLight light, vec3 N, vec3 wc_fragPos, vec3 wc_dPdx, vec3 wc_dPdy)
 {
     // (vv all done from dir light's perspective)
+    vec4 fragPosLightSpace = cascadeLightSpace_m[cascade] * vec4(wc_fragPos, 1.0);
 
     // perform perspective divide (used later w/perspective projection; not needed w/orthographic proj)
     vec3 projCoords = fragPosLightSpace.xyz / fragPosLightSpace.w;
     // transform to [0,1] range
     projCoords = projCoords * 0.5 + 0.5;
 
-    float shadow = 1.0;
-    //if(projCoords.z <= 1.0){
-        vec3 L = normalize(-light.direction); // calc to light vector
-        /*
-        float closestDepth = texture(shadowMap, projCoords.xy).r;   // get closest depth value
-        float currentDepth = projCoords.z;  // get depth of current frag
+    vec3 L = normalize(-light.direction); // calc to light vector
 
-        float bias = max(0.05 * (1.0 - dot(N, L)), 0.005);  // calc bias (to avoid 'shadow acne' // moiré pattern aliasing)
-        shadow = currentDepth - bias > closestDepth  ? 1.0 : 0.0; // check whether current frag pos is in shadow
-        */
-        // impl PCF (percentage-closer filtering) to produce softer shadows
-        float currentDepth = projCoords.z;  // get depth of current frag
-        float bias = max(0.001 * (1.0 - dot(N, L)), 0.0015);  // calc bias (to avoid 'shadow acne' // moiré pattern aliasing)
+    float currentDepth = projCoords.z;  // get depth of current frag
 
-        vec2 texelSize = 1.0 / textureSize(shadowMap, 0);
+    if(shadowFilter == SHADOW_FILTER_EVSM){
+        // 1 trilinear fetch of the (pre-filtered) moments; gradients of the shadow map coords from the position's
+        // (orthographic projection, so linear)
+        vec2 dUVdx = 0.5 * (cascadeLightSpace_m[cascade] * vec4(wc_dPdx, 0.0)).xy;
+        vec2 dUVdy = 0.5 * (cascadeLightSpace_m[cascade] * vec4(wc_dPdy, 0.0)).xy;
+        vec4 moments = textureGrad(shadowMoments, vec3(projCoords.xy, cascade), dUVdx, dUVdy);
+        return 1.0 - EVSMVisibility(moments, currentDepth);
+    }
 
+    // impl PCF (percentage-closer filtering) to produce softer shadows
+    // calc bias (to avoid 'shadow acne' // moiré pattern aliasing) in wc units, then in the cascade's depth units
+    float bias = max(0.05 * (1.0 - dot(N, L)), 0.02) / cascadeDepthRanges[cascade];
+
+    vec2 texelSize = 1.0 / textureSize(shadowMap, 0).xy;
+    float refDepth = currentDepth - bias;
+
+    float shadow = 0.0;
+    if(shadowFilter == SHADOW_FILTER_HARDWARE_PCF_2X2){
+        // 4 taps half a texel from the centre, each a bilinear 2x2 PCF by the hw: smooth 3x3-texel footprint
+        // (texture() on a shadow sampler returns the fraction lit)
+        for(int x = 0; x <= 1; ++x){
+            for(int y = 0; y <= 1; ++y){
+                vec2 offset = (vec2(x, y) - 0.5) * texelSize;
+                shadow += 1.0 - texture(shadowMapCmp, vec4(projCoords.xy + offset, cascade, refDepth));
+            }
+        }
+        shadow /= 4.0;
+    } else if(shadowFilter == SHADOW_FILTER_POISSON){
+        // Poisson disk of hw PCF taps, rotated by a per-pixel angle (turns the banding of a fixed kernel into
+        // fine noise, so fewer taps can cover a larger, softer kernel)
+        float angle = 6.2831853 * InterleavedGradientNoise(gl_FragCoord.xy);
+        mat2 rotation = mat2(cos(angle), sin(angle), -sin(angle), cos(angle));
+        vec2 kernelScale = poissonRadius * texelSize;
+        for(int i = 0; i < poissonSamples; ++i){
+            vec2 offset = rotation * poissonDisk[i] * kernelScale;
+            shadow += 1.0 - texture(shadowMapCmp, vec4(projCoords.xy + offset, cascade, refDepth));
+        }
+        shadow /= float(poissonSamples);
+    } else {
+        // 3x3 texels, each fetched & compared here
         for(int x = -1; x <= 1; ++x){
             for(int y = -1; y <= 1; ++y){
-                float pcfDepth = texture(shadowMap, projCoords.xy + vec2(x, y) * texelSize).r;
-                shadow += currentDepth - bias > pcfDepth ? 1.0 : 0.0;
+                float pcfDepth = texture(shadowMap, vec3(projCoords.xy + vec2(x, y) * texelSize, cascade)).r;
+                shadow += refDepth > pcfDepth ? 1.0 : 0.0;
             }
         }
         shadow /= 9.0;
-    //}
+    }
 
     return shadow;
-}
\ No newline at end of file
+}
+
+// pseudo-random value in [0,1) per pixel, w/little low-frequency structure (so rotated kernels look like fine noise)
+float InterleavedGradientNoise(vec2 pixel)
+{
+    return fract(52.9829189 * fract(dot(pixel, vec2(0.06711056, 0.00583715))));
+}
@@ -4,10 +4,17 @@ in vec2 TexCoords;
 
 out vec4 FragColor;
 
-uniform sampler2D depthMap;
+uniform sampler2DArray depthMap;    // (a layer per shadow cascade)
 
 void main()
 {
-    float depthValue = texture(depthMap, TexCoords).r;
+    // show cascades in a 2x2 grid (cascade 0 top left, 1 top right, 2 bottom left, 3 bottom right)
+    ivec2 tile = ivec2(TexCoords * 2.0);
+    int layer = tile.x + (1 - tile.y) * 2;
+    if(layer >= textureSize(depthMap, 0).z){
+        FragColor = vec4(0.0, 0.0, 0.0, 1.0);
+        return;
+    }
+    float depthValue = texture(depthMap, vec3(fract(TexCoords * 2.0), layer)).r;
     FragColor = vec4(vec3(depthValue), 1.0); // orthographic
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+// exponential variance shadow maps (EVSM): depth warping & visibility test shared by the shaders building the
+// moments (shadowMoments_fs.glsl) & the ones sampling them (blinnPhong_wShadowMaps_fs.glsl)
+// (included w/#include "evsm.glsl")
+
+// exponents of the positive & negative warps (max ~42 w/32-bit floats, or the squared warps overflow; a lower
+// negative one is enough, as it only fixes the light bleeding the positive warp can't)
+#define EVSM_POSITIVE_EXPONENT 40.0
+#define EVSM_NEGATIVE_EXPONENT 5.0
+
+#define EVSM_MIN_VARIANCE_SCALE 0.0001  // min variance (relative to the warped depth's slope), avoids acne on flat receivers
+#define EVSM_LIGHT_BLEEDING_REDUCTION 0.25  // fraction of the lowest visibilities cut off (less light bleeding, harder edges)
+
+// warp the given depth ([0,1]) w/both exponentials: (exp(c+ d), -exp(-c- d)), d mapped to [-1,1] first
+// (clamped to [0,1] first: receivers beyond a cascade's far plane have depths > 1, & their squared warps would
+// overflow to inf, so NaN visibilities)
+vec2 WarpDepth(float depth)
+{
+    depth = 2.0 * clamp(depth, 0.0, 1.0) - 1.0;
+    return vec2(exp(EVSM_POSITIVE_EXPONENT * depth), -exp(-EVSM_NEGATIVE_EXPONENT * depth));
+}
+
+// moments stored in the moments map: both warped depths & their squares
+vec4 DepthToMoments(float depth)
+{
+    vec2 warped = WarpDepth(depth);
+    return vec4(warped.x, warped.x * warped.x, warped.y, warped.y * warped.y);
+}
+
+// Chebyshev's upper bound on the fraction of the filter region whose depth (warped) is >= the given one, i.e. lit
+float ChebyshevUpperBound(vec2 moments, float warpedDepth, float minVariance)
+{
+    float variance = max(moments.y - moments.x * moments.x, minVariance);
+    float d = warpedDepth - moments.x;
+    float pMax = variance / (variance + d * d);
+    // (light bleeding reduction: visibilities below the cut-off go to 0, the rest are rescaled to [0,1])
+    pMax = clamp((pMax - EVSM_LIGHT_BLEEDING_REDUCTION) / (1.0 - EVSM_LIGHT_BLEEDING_REDUCTION), 0.0, 1.0);
+    return warpedDepth <= moments.x ? 1.0 : pMax;
+}
+
+// fraction lit of a receiver at the given depth, from the (filtered) moments
+float EVSMVisibility(vec4 moments, float depth)
+{
+    vec2 warped = WarpDepth(depth);
+    // (min variance scaled by the slope of each warp at the receiver's depth)
+    vec2 slope = vec2(EVSM_POSITIVE_EXPONENT, EVSM_NEGATIVE_EXPONENT) * warped * EVSM_MIN_VARIANCE_SCALE;
+    float positive = ChebyshevUpperBound(moments.xy, warped.x, slope.x * slope.x);
+    float negative = ChebyshevUpperBound(moments.zw, warped.y, slope.y * slope.y);
+    return min(positive, negative);
+}
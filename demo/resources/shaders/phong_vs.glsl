@@ -1,5 +1,7 @@
 #version 330 core
 
+#include "uniformBlocks.glsl"     // (viewProj_m)
+
 layout (location = 0) in vec3 oc_pos;       // vertex position in object coord
 layout (location = 1) in vec3 oc_normal;    // vertex normal in obj coord
 layout (location = 2) in vec2 aTexCoords;    // texture UV coord
@@ -10,14 +12,27 @@ out VS_OUT {
     vec3 wc_fragPos; // fragment position in world coord
 } vs_out;
 
+#ifdef INSTANCED
+layout (location = 3) in mat4 instance_model_m;     // per-instance model matrix (locations 3-6)
+layout (location = 7) in mat3 instance_normal_m;    // per-instance matrix to transform normal from oc to wc (locations 7-9)
+#else
 uniform mat4 model_m;   // model matrix
 uniform mat4 mvp_m;     // model-view-projection matrix
 uniform mat4 normal_m;  // matrix to transform normal from oc to wc
+#endif
 
 void main()
 {
+#ifdef INSTANCED
+    mat4 model = instance_model_m;
+    mat3 normalM = instance_normal_m;
+    gl_Position = viewProj_m * model * vec4(oc_pos, 1.0);
+#else
+    mat4 model = model_m;
+    mat3 normalM = mat3(normal_m);
     gl_Position = mvp_m * vec4(oc_pos, 1.0);            // also used as output of shader
-    vs_out.wc_fragPos = vec3(model_m * vec4(oc_pos, 1.0));     // calculate fragment pos in wc
-    vs_out.wc_normal = mat3(normal_m) * oc_normal;             // tranform normal from oc to wc
+#endif
+    vs_out.wc_fragPos = vec3(model * vec4(oc_pos, 1.0));      // calculate fragment pos in wc
+    vs_out.wc_normal = normalM * oc_normal;                   // tranform normal from oc to wc
     vs_out.TexCoords = aTexCoords;
 }
\ No newline at end of file
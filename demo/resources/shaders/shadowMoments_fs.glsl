@@ -0,0 +1,49 @@
+#version 330 core
+
+#include "evsm.glsl"
+
+// one pass of the separable Gaussian blur building the EVSM moments map, at shadow map resolution:
+// - FROM_DEPTH variant: horizontal pass, reads a layer of the shadow map (depths), converts them to moments
+// - otherwise: vertical pass, reads the moments written by the horizontal pass
+
+out vec4 FragColor;
+
+#ifdef FROM_DEPTH
+uniform sampler2DArray depthMap;    // (a layer per shadow cascade)
+uniform int layer;                  // layer to read
+#else
+uniform sampler2D momentsMap;       // moments blurred horizontally
+#endif
+uniform int blurRadius;             // radius of the Gaussian kernel (texels; 0 for no blur)
+
+vec4 FetchMoments(ivec2 texel)
+{
+#ifdef FROM_DEPTH
+    ivec2 size = textureSize(depthMap, 0).xy;
+    return DepthToMoments(texelFetch(depthMap, ivec3(clamp(texel, ivec2(0), size - 1), layer), 0).r);
+#else
+    ivec2 size = textureSize(momentsMap, 0);
+    return texelFetch(momentsMap, clamp(texel, ivec2(0), size - 1), 0);
+#endif
+}
+
+void main()
+{
+#ifdef FROM_DEPTH
+    ivec2 direction = ivec2(1, 0);
+#else
+    ivec2 direction = ivec2(0, 1);
+#endif
+    ivec2 texel = ivec2(gl_FragCoord.xy);
+
+    // Gaussian weights (sigma: half the radius), normalised by their sum
+    float sigma = max(float(blurRadius) * 0.5, 0.5);
+    vec4 sum = vec4(0.0);
+    float weightSum = 0.0;
+    for(int i = -blurRadius; i <= blurRadius; ++i){
+        float weight = exp(-float(i * i) / (2.0 * sigma * sigma));
+        sum += weight * FetchMoments(texel + i * direction);
+        weightSum += weight;
+    }
+    FragColor = sum / weightSum;
+}
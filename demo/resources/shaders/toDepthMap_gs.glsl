@@ -0,0 +1,30 @@
+#version 330 core
+
+#include "uniformBlocks.glsl"     // (cascadeLightSpace_m & numOfCascades)
+
+// renders each triangle to every shadow cascade (layer of the shadow map array) it overlaps, so all cascades are
+// rendered in a single pass
+layout (triangles) in;
+layout (triangle_strip, max_vertices = 12) out;     // (3 * MAX_CASCADES)
+
+uniform int cascadeMask;    // cascades to render to (bit per cascade, e.g. only stale layers of the cached shadow map)
+
+void main()
+{
+    for(int c = 0; c < numOfCascades; c++){
+        if((cascadeMask & (1 << c)) == 0) continue;
+
+        vec4 p0 = cascadeLightSpace_m[c] * gl_in[0].gl_Position;
+        vec4 p1 = cascadeLightSpace_m[c] * gl_in[1].gl_Position;
+        vec4 p2 = cascadeLightSpace_m[c] * gl_in[2].gl_Position;
+
+        // skip cascade if triangle is entirely outside its x/y bounds (depth isn't checked, bc of depth clamping)
+        vec2 minXY = min(min(p0.xy, p1.xy), p2.xy), maxXY = max(max(p0.xy, p1.xy), p2.xy);
+        if(any(lessThan(maxXY, vec2(-1.0))) || any(greaterThan(minXY, vec2(1.0)))) continue;
+
+        gl_Layer = c; gl_Position = p0; EmitVertex();
+        gl_Layer = c; gl_Position = p1; EmitVertex();
+        gl_Layer = c; gl_Position = p2; EmitVertex();
+        EndPrimitive();
+    }
+}
\ No newline at end of file
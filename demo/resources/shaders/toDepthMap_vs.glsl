@@ -1,11 +1,20 @@
 #version 330 core
 
+// (outputs the wc position: the geometry shader projects it into each shadow cascade)
+
 layout (location = 0) in vec3 aPos;
 
-uniform mat4 lightSpace_m;
+#ifdef INSTANCED
+layout (location = 3) in mat4 instance_model_m;     // per-instance model matrix (locations 3-6)
+#else
 uniform mat4 model_m;
+#endif
 
 void main()
 {
-    gl_Position = lightSpace_m * model_m * vec4(aPos, 1.0);
+#ifdef INSTANCED
+    gl_Position = instance_model_m * vec4(aPos, 1.0);
+#else
+    gl_Position = model_m * vec4(aPos, 1.0);
+#endif
 }
\ No newline at end of file
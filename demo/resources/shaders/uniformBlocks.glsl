@@ -0,0 +1,50 @@
+// std140 uniform blocks shared by all programs, bound to fixed binding points (see graphics.shaders.UniformBlocks)
+// (included in the shaders w/#include "uniformBlocks.glsl" -- offsets must match the ones written by the Java side)
+
+#define MAX_CASCADES 4  // max nº of shadow cascades (see graphics.renderEngine.ShadowCascades)
+
+struct DirLight { // directional light in scene (1 atm)
+    vec3 colour;        // light colour             (offset 0)
+    vec3 direction;     // light direction          (16)
+    float strength;     // light strength/intensity (28)
+};
+
+struct MaterialParams { // material's attributes, except its textures (see MaterialTextures)
+    vec3 diffuseColour;     // diffuse colour                                       (offset 0)
+    float K_a;              // ambient reflection coefficient                       (12)
+    vec3 specularColour;    // specular colour                                      (16)
+    float K_diff;           // diff reflection coeff                                (28)
+    float K_spec;           // spec reflection coeff                                (32)
+    float shininess;        // shininness coeff (for specular reflection)           (36)
+};
+
+layout (std140) uniform FrameData {     // per-frame data (binding point 0)
+    mat4 view_m;            // view matrix                      (offset 0)
+    mat4 proj_m;            // projection matrix                (64)
+    mat4 viewProj_m;        // view-projection matrix           (128)
+    mat4 lightSpace_m;      // dir light's light space matrix (of the FROM_LIGHT_POV view)  (192)
+    vec3 wc_cameraPos;      // camera position in wc            (256)
+    vec3 I_a;               // ambient illumination intensity   (272)
+
+    // dir light's shadow cascades (slices of the camera frustum, each rendered to a layer of the shadow map)
+    mat4 cascadeLightSpace_m[MAX_CASCADES];     // light space matrix of each cascade       (288, 64 each)
+    vec4 cascadeSplits;         // view depth at which each cascade ends                    (544)
+    vec4 cascadeBlendStarts;    // view depth at which each blends into the next            (560)
+    vec4 cascadeDepthRanges;    // depth range of each cascade's projection (wc units)      (576)
+    int numOfCascades;          //                                                          (592)
+
+    // shadow map filtering (see graphics.renderEngine.renderOptionsManager.ShadowFilter)
+    int shadowFilter;           // SHADOW_FILTER_... (see blinnPhong_wShadowMaps_fs.glsl)   (596)
+    int poissonSamples;         // nº of taps of the Poisson kernel                         (600)
+    float poissonRadius;        // radius of the Poisson kernel (shadow map texels)         (604)
+};
+
+layout (std140) uniform LightData {     // lights in the scene (binding point 1)
+    DirLight dirLight;      // (offset 0)
+};
+
+layout (std140) uniform DrawData {      // per-draw data, streamed by the InstanceBatcher (binding point 2)
+    MaterialParams material;    // (offset 0)
+    bool materialUsesTextures;  // (48)
+    bool receivesShadows;       // false if entity isn't shadowed (52)
+};
@@ -5,12 +5,17 @@ import org.joml.Vector3f;
 
 /**
  * Represents the camera through which the scene is viewed.
+ * The per-frame methods (calcLookAt, input processing & the getters taking a destination vector) don't allocate:
+ * they reuse the camera's own matrix & scratch vectors.
  */
 public class Camera {
     private Vector3f cameraPos;     // position of camera
     private Vector3f cameraFront;   // vector along which camera is oriented/pointing to
     private Vector3f cameraUp;      // upward direction of camera
 
+    private final Matrix4f lookat_matrix = new Matrix4f();  // (returned by calcLookAt, updated on each call)
+    private final Vector3f tempVec = new Vector3f();        // (scratch)
+
     private double yaw = -90.0;     // like azimuthal angle for 'lens' of camera as if centre of camera at O (spherical polar)
     private double pitch = 0.0;     // like polar angle ...
     private float cameraSpeed =  4.0f; // 1.0f for more 'cinematic' movement
@@ -32,13 +37,12 @@ public class Camera {
 
     /**
      * Get the lookAt matrix from the camera.
+     * Note: the camera's own matrix is returned (& overwritten by the next call), so copy it if it's to be kept.
      * @return lookAt matrix for the current config of the camera.
      */
     public Matrix4f calcLookAt(){
-        Matrix4f lookat_matrix = new Matrix4f();
-        Vector3f target = new Vector3f(cameraPos);
-        target.add(cameraFront);
-        lookat_matrix.lookAt(cameraPos, target, cameraUp); // camera pos, target pos, vector repr up vec in world space
+        Vector3f target = tempVec.set(cameraPos).add(cameraFront);
+        lookat_matrix.setLookAt(cameraPos, target, cameraUp); // camera pos, target pos, vector repr up vec in world space
         return lookat_matrix;
     }
 
@@ -51,22 +55,22 @@ public class Camera {
         float velocity = cameraSpeed * deltaTime;
         if (direction == CameraMovement.FORWARD) {
             // FORWWARD -> cameraPos += cameraFront * velocity
-            cameraPos.add(getCameraFront().mul(velocity));
+            cameraPos.add(tempVec.set(cameraFront).mul(velocity));
         }if (direction == CameraMovement.BACKWARD) {
             // BACKWARD -> cameraPos -= cameraFront * velocity
-            cameraPos.sub(getCameraFront().mul(velocity));
+            cameraPos.sub(tempVec.set(cameraFront).mul(velocity));
         }if (direction == CameraMovement.LEFT) {
             // LEFT -> cameraPos -= normalize(cross(cameraFront, cameraUp)) * velocity
-            cameraPos.sub(getCameraFront().cross(cameraUp).normalize().mul(velocity));
+            cameraPos.sub(tempVec.set(cameraFront).cross(cameraUp).normalize().mul(velocity));
         }if (direction == CameraMovement.RIGHT) {
             // RIGHT -> cameraPos += normalize(cross(cameraFront, cameraUp)) * velocity
-            cameraPos.add(getCameraFront().cross(cameraUp).normalize().mul(velocity));
+            cameraPos.add(tempVec.set(cameraFront).cross(cameraUp).normalize().mul(velocity));
         }if (direction == CameraMovement.UPWARD) {
             // UPWARD -> cameraPos += cameraUp * velocity
-            cameraPos.add(getCameraUp().mul(velocity));
+            cameraPos.add(tempVec.set(cameraUp).mul(velocity));
         }if (direction == CameraMovement.DOWNWARD) {
             // DOWNWARD -> cameraPos -= cameraUp * velocity
-            cameraPos.sub(getCameraUp().mul(velocity));
+            cameraPos.sub(tempVec.set(cameraUp).mul(velocity));
         }
     }
 
@@ -88,11 +92,10 @@ public class Camera {
             if (pitch < -89.0f) pitch = -89.0;
         }
 
-        Vector3f direction = new Vector3f();
-        direction.setComponent(0, (float) (Math.cos(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch))));
-        direction.setComponent(1, (float) Math.toRadians(pitch));
-        direction.setComponent(2, (float) (Math.sin(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch))));
-        cameraFront = direction.normalize();
+        cameraFront.set((float) (Math.cos(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch))),
+                (float) Math.toRadians(pitch),
+                (float) (Math.sin(Math.toRadians(yaw)) * Math.cos(Math.toRadians(pitch))))
+                .normalize();   // (updated in place, so no new vector per mouse event)
     }
 
     /**
@@ -115,6 +118,20 @@ public class Camera {
     public Vector3f getCameraUp() {
         return new Vector3f(cameraUp);
     }
+    /**
+     * Copy the camera's position into the given vector (w/o allocating, unlike getCameraPos()).
+     * @return dest
+     */
+    public Vector3f getCameraPos(Vector3f dest) {
+        return dest.set(cameraPos);
+    }
+    /**
+     * Copy the camera's front vector into the given vector (w/o allocating, unlike getCameraFront()).
+     * @return dest
+     */
+    public Vector3f getCameraFront(Vector3f dest) {
+        return dest.set(cameraFront);
+    }
     public double getFOV(){
         return fov;
     }
@@ -0,0 +1,276 @@
+package graphics.core;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
+import static org.lwjgl.opengl.GL33.glBindSampler;
+
+/**
+ * Tracks the OpenGL state set through it (program, VAO, framebuffers, texture & sampler bindings, viewport,
+ * enabled capabilities, face culling, polygon mode & clear colour), so calls that would set the state it already
+ * has are skipped instead of reaching the driver.
+ * All state changes of the tracked kinds must go through this class (else the tracked state is out of date); code
+ * that changes it directly, or deletes tracked objects, must tell it (see invalidate() & the onXDeleted() methods).
+ * State is unknown until 1st set, so the 1st call of each kind is always issued.
+ * Keeps the nº of calls issued & skipped (bc redundant) since the last resetStats(), e.g. per frame.
+ */
+public class GLState {
+
+    private static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 16;
+
+    // (only these capabilities are tracked; others are always enabled/disabled)
+    private static final int[] TRACKED_CAPS = {GL_CULL_FACE, GL_DEPTH_TEST, GL_DEPTH_CLAMP, GL_MULTISAMPLE, GL_BLEND, GL_POLYGON_OFFSET_FILL};
+    private static final int[] capStates = new int[TRACKED_CAPS.length];      // 0: disabled, 1: enabled
+
+    // (texture bindings tracked per unit for these targets only)
+    private static final int[] TRACKED_TEX_TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY};
+    private static final int[][] boundTextures = new int[MAX_TEXTURE_UNITS][TRACKED_TEX_TARGETS.length];
+    private static final int[] boundSamplers = new int[MAX_TEXTURE_UNITS];
+
+    private static int program, vertexArray, drawFramebuffer, readFramebuffer, activeTextureUnit;
+    private static int viewportX, viewportY, viewportWidth, viewportHeight;
+    private static int cullFaceMode, frontFaceWinding, polygonMode;
+    private static float clearR, clearG, clearB, clearA;
+    private static boolean clearColourKnown;
+
+    private static int numOfIssuedCalls = 0, numOfElidedCalls = 0;
+
+    static {
+        invalidate();
+    }
+
+    /**
+     * Forget all tracked state (e.g. after code that doesn't go through this class changed it), so the next call
+     * of each kind is issued.
+     */
+    public static void invalidate(){
+        program = vertexArray = drawFramebuffer = readFramebuffer = activeTextureUnit = UNKNOWN;
+        viewportX = viewportY = viewportWidth = viewportHeight = UNKNOWN;
+        cullFaceMode = frontFaceWinding = polygonMode = UNKNOWN;
+        clearColourKnown = false;
+        for (int i = 0; i < capStates.length; i++) capStates[i] = UNKNOWN;
+        for (int[] unit : boundTextures) for (int t = 0; t < unit.length; t++) unit[t] = UNKNOWN;
+        for (int u = 0; u < boundSamplers.length; u++) boundSamplers[u] = UNKNOWN;
+    }
+
+    /**
+     * Records whether a call was issued or skipped, & returns true if it must be issued.
+     */
+    private static boolean mustIssue(boolean changed){
+        if (changed) numOfIssuedCalls++;
+        else numOfElidedCalls++;
+        return changed;
+    }
+
+    // --- objects bound ---
+
+    /**
+     * Use the given shader program (glUseProgram).
+     */
+    public static void useProgram(int handle){
+        if (!mustIssue(handle != program)) return;
+        glUseProgram(handle);
+        program = handle;
+    }
+
+    /**
+     * Bind the given vertex array object (glBindVertexArray).
+     * (VAOs don't need to be unbound after drawing: every VAO bind goes through here, & nothing binds an index
+     * buffer outside of a VAO being set up)
+     */
+    public static void bindVertexArray(int handle){
+        if (!mustIssue(handle != vertexArray)) return;
+        glBindVertexArray(handle);
+        vertexArray = handle;
+    }
+
+    /**
+     * Bind the given framebuffer (glBindFramebuffer).
+     * @param target GL_FRAMEBUFFER (both draw & read), GL_DRAW_FRAMEBUFFER or GL_READ_FRAMEBUFFER
+     * @param handle framebuffer to bind (0 for the default framebuffer)
+     */
+    public static void bindFramebuffer(int target, int handle){
+        boolean draw = target != GL_READ_FRAMEBUFFER, read = target != GL_DRAW_FRAMEBUFFER;
+        if (!mustIssue((draw && handle != drawFramebuffer) || (read && handle != readFramebuffer))) return;
+        glBindFramebuffer(target, handle);
+        if (draw) drawFramebuffer = handle;
+        if (read) readFramebuffer = handle;
+    }
+
+    /**
+     * Make the given texture unit the active one (glActiveTexture).
+     * @param unit index of the texture unit (0, 1, ..., not GL_TEXTURE0 + i)
+     */
+    public static void activeTexture(int unit){
+        if (!mustIssue(unit != activeTextureUnit)) return;
+        glActiveTexture(GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+    }
+
+    /**
+     * Bind the given texture to the given texture unit (making it the active unit only if the texture isn't
+     * already bound to it).
+     * @param unit index of the texture unit (0, 1, ...)
+     * @param target texture target (e.g. GL_TEXTURE_2D)
+     * @param handle texture to bind
+     */
+    public static void bindTexture(int unit, int target, int handle){
+        int t = trackedTextureTarget(target);
+        if (t >= 0 && unit < MAX_TEXTURE_UNITS && boundTextures[unit][t] == handle) {
+            numOfElidedCalls++;
+            return;
+        }
+        activeTexture(unit);
+        bindTexture(target, handle);
+    }
+
+    /**
+     * Bind the given texture to the active texture unit (e.g. to create or modify it).
+     * @param target texture target (e.g. GL_TEXTURE_2D)
+     * @param handle texture to bind
+     */
+    public static void bindTexture(int target, int handle){
+        int t = trackedTextureTarget(target);
+        boolean tracked = t >= 0 && activeTextureUnit >= 0 && activeTextureUnit < MAX_TEXTURE_UNITS;
+        if (!mustIssue(!tracked || boundTextures[activeTextureUnit][t] != handle)) return;
+        glBindTexture(target, handle);
+        if (tracked) boundTextures[activeTextureUnit][t] = handle;
+    }
+
+    /**
+     * Bind the given sampler object to the given texture unit (glBindSampler; doesn't change the active unit).
+     * @param unit index of the texture unit (0, 1, ...)
+     * @param handle sampler to bind (0 to use the bound texture's own sampling params again)
+     */
+    public static void bindSampler(int unit, int handle){
+        boolean tracked = unit < MAX_TEXTURE_UNITS;
+        if (!mustIssue(!tracked || boundSamplers[unit] != handle)) return;
+        glBindSampler(unit, handle);
+        if (tracked) boundSamplers[unit] = handle;
+    }
+
+    private static int trackedTextureTarget(int target){
+        for (int t = 0; t < TRACKED_TEX_TARGETS.length; t++) if (TRACKED_TEX_TARGETS[t] == target) return t;
+        return -1;
+    }
+
+    // --- fixed-function state ---
+
+    /**
+     * Set the viewport (glViewport).
+     */
+    public static void viewport(int x, int y, int width, int height){
+        if (!mustIssue(x != viewportX || y != viewportY || width != viewportWidth || height != viewportHeight)) return;
+        glViewport(x, y, width, height);
+        viewportX = x;
+        viewportY = y;
+        viewportWidth = width;
+        viewportHeight = height;
+    }
+
+    /**
+     * Enable or disable the given capability (glEnable/glDisable).
+     */
+    public static void setEnabled(int cap, boolean enabled){
+        int c = 0;
+        while (c < TRACKED_CAPS.length && TRACKED_CAPS[c] != cap) c++;
+        int state = enabled ? 1 : 0;
+        if (!mustIssue(c == TRACKED_CAPS.length || capStates[c] != state)) return;
+        if (enabled) glEnable(cap);
+        else glDisable(cap);
+        if (c < TRACKED_CAPS.length) capStates[c] = state;
+    }
+    public static void enable(int cap){
+        setEnabled(cap, true);
+    }
+    public static void disable(int cap){
+        setEnabled(cap, false);
+    }
+
+    /**
+     * Set which faces are culled (glCullFace).
+     */
+    public static void cullFace(int mode){
+        if (!mustIssue(mode != cullFaceMode)) return;
+        glCullFace(mode);
+        cullFaceMode = mode;
+    }
+
+    /**
+     * Set the winding of front faces (glFrontFace).
+     */
+    public static void frontFace(int winding){
+        if (!mustIssue(winding != frontFaceWinding)) return;
+        glFrontFace(winding);
+        frontFaceWinding = winding;
+    }
+
+    /**
+     * Set the polygon rasterisation mode of front & back faces (glPolygonMode).
+     */
+    public static void polygonMode(int mode){
+        if (!mustIssue(mode != polygonMode)) return;
+        glPolygonMode(GL_FRONT_AND_BACK, mode);
+        polygonMode = mode;
+    }
+
+    /**
+     * Set the colour to clear colour buffers to (glClearColor).
+     */
+    public static void clearColour(float r, float g, float b, float a){
+        if (!mustIssue(!clearColourKnown || r != clearR || g != clearG || b != clearB || a != clearA)) return;
+        glClearColor(r, g, b, a);
+        clearR = r;
+        clearG = g;
+        clearB = b;
+        clearA = a;
+        clearColourKnown = true;
+    }
+
+    // --- deleted objects (GL unbinds them, & their handles may be reused) ---
+
+    public static void onProgramDeleted(int handle){
+        if (program == handle) program = UNKNOWN;
+    }
+    public static void onVertexArrayDeleted(int handle){
+        if (vertexArray == handle) vertexArray = UNKNOWN;
+    }
+    public static void onFramebufferDeleted(int handle){
+        if (drawFramebuffer == handle) drawFramebuffer = UNKNOWN;
+        if (readFramebuffer == handle) readFramebuffer = UNKNOWN;
+    }
+    public static void onTextureDeleted(int handle){
+        for (int[] unit : boundTextures) for (int t = 0; t < unit.length; t++) if (unit[t] == handle) unit[t] = UNKNOWN;
+    }
+    public static void onSamplerDeleted(int handle){
+        for (int u = 0; u < boundSamplers.length; u++) if (boundSamplers[u] == handle) boundSamplers[u] = UNKNOWN;
+    }
+
+    // --- stats ---
+
+    /**
+     * Reset the nº of calls issued & skipped (e.g. at the start of each frame).
+     */
+    public static void resetStats(){
+        numOfIssuedCalls = numOfElidedCalls = 0;
+    }
+
+    /**
+     * Print nº of state calls issued & skipped (bc redundant) since the last resetStats().
+     */
+    public static void printStats(){
+        System.out.println(String.format("GL state: %d calls issued, %d redundant skipped", numOfIssuedCalls, numOfElidedCalls));
+    }
+
+    public static int getNumOfIssuedCalls() {
+        return numOfIssuedCalls;
+    }
+    public static int getNumOfElidedCalls() {
+        return numOfElidedCalls;
+    }
+}
@@ -0,0 +1,130 @@
+package graphics.core;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjecti64v;
+
+/**
+ * Measures the GPU time taken by the GL commands issued btwn {@link #begin} & {@link #end} (GL_TIME_ELAPSED queries),
+ * averaged over the frames measured since the last {@link #reset}.
+ * Results are read a few frames after they're issued (a ring of queries), so reading them never stalls the CPU
+ * waiting for the GPU. Timers can't be nested (only one GL_TIME_ELAPSED query can be active at a time).
+ */
+public class GpuTimer {
+
+    private static final int NUM_OF_QUERIES = 4;    // (max nº of frames in flight before a result must be read)
+
+    private final String name;
+    private final int[] queries = new int[NUM_OF_QUERIES];
+    private final boolean[] queryPending = new boolean[NUM_OF_QUERIES];
+    private final int[] queryGeneration = new int[NUM_OF_QUERIES];  // (results of queries issued before a reset are dropped)
+    private int nextQuery = 0;
+    private int activeQuery = -1;
+    private int generation = 0;
+    // (results read into these, bc glGetQueryObjecti/i64 wrap a new stack buffer every call)
+    private IntBuffer available = MemoryUtil.memAllocInt(1);
+    private LongBuffer result = MemoryUtil.memAllocLong(1);
+
+    private long totalNanos = 0;
+    private int numOfSamples = 0;
+
+    /**
+     * @param name name of what's timed (for printing)
+     */
+    public GpuTimer(String name){
+        this.name = name;
+    }
+
+    /**
+     * Start timing the GL commands issued from now on (until {@link #end}).
+     * Frames in which all queries are still pending (GPU several frames behind) aren't timed.
+     */
+    public void begin(){
+        if (queries[0] == 0) glGenQueries(queries);    // (created on 1st use, once there's a GL context)
+        collectResults();
+        if (queryPending[nextQuery]) return;
+
+        activeQuery = nextQuery;
+        nextQuery = (nextQuery + 1) % NUM_OF_QUERIES;
+        glBeginQuery(GL_TIME_ELAPSED, queries[activeQuery]);
+    }
+
+    /**
+     * Stop timing (the result is read in a later frame).
+     */
+    public void end(){
+        if (activeQuery < 0) return;
+        glEndQuery(GL_TIME_ELAPSED);
+        queryPending[activeQuery] = true;
+        queryGeneration[activeQuery] = generation;
+        activeQuery = -1;
+    }
+
+    /**
+     * Read the results of the queries the GPU has finished (w/o waiting for the others).
+     */
+    private void collectResults(){
+        for (int i = 0; i < NUM_OF_QUERIES; i++) {
+            if (!queryPending[i]) continue;
+            glGetQueryObjectiv(queries[i], GL_QUERY_RESULT_AVAILABLE, available);
+            if (available.get(0) == GL_FALSE) continue;
+            glGetQueryObjecti64v(queries[i], GL_QUERY_RESULT, result);
+            long nanos = result.get(0);
+            queryPending[i] = false;
+            if (queryGeneration[i] != generation) continue;
+            totalNanos += nanos;
+            numOfSamples++;
+        }
+    }
+
+    /**
+     * Drop the measurements so far (& those of queries still pending), e.g. after changing what's being timed.
+     */
+    public void reset(){
+        generation++;
+        totalNanos = 0;
+        numOfSamples = 0;
+    }
+
+    /**
+     * Returns the average GPU time (in ms) of the frames measured since the last reset, or 0 if none.
+     */
+    public double getAverageMs(){
+        return numOfSamples == 0 ? 0 : totalNanos / (numOfSamples * 1e6);
+    }
+
+    /**
+     * Returns the nº of frames measured since the last reset.
+     */
+    public int getNumOfSamples(){
+        return numOfSamples;
+    }
+
+    /**
+     * Print the average GPU time since the last reset.
+     */
+    public void printStats(){
+        System.out.println(String.format("GPU time (%s): %.3f ms avg over %d frames", name, getAverageMs(), numOfSamples));
+    }
+
+    /**
+     * Delete the timer's queries (& free its result buffers).
+     */
+    public void deallocateResources(){
+        MemoryUtil.memFree(available);
+        MemoryUtil.memFree(result);
+        available = null;
+        result = null;
+        if (queries[0] == 0) return;
+        glDeleteQueries(queries);
+        for (int i = 0; i < NUM_OF_QUERIES; i++) {
+            queries[i] = 0;
+            queryPending[i] = false;
+        }
+    }
+}
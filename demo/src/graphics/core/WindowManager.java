@@ -42,7 +42,7 @@ public class WindowManager {
         // make the OpenGL context current
         glfwMakeContextCurrent(window);
         createCapabilities();  // necessary here
-        glViewport(0, 0, SCR_WIDTH, SCR_HEIGHT);   // set OpenGL window/viewport (OpenGL will render in this viewport)
+        GLState.viewport(0, 0, SCR_WIDTH, SCR_HEIGHT);   // set OpenGL window/viewport (OpenGL will render in this viewport)
 
         // position at centre of screen
         GLFWVidMode mode = glfwGetVideoMode(glfwGetPrimaryMonitor());
@@ -77,27 +77,27 @@ public class WindowManager {
      * Clear screen to background colour, by clearing colour & depth buffers too...
      */
     public static void clearScreen(){
-        glClearColor(bgColour.x, bgColour.y, bgColour.z, 1.0f); // specify colour to clear to
+        GLState.clearColour(bgColour.x, bgColour.y, bgColour.z, 1.0f); // specify colour to clear to
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);     // clear screen's color buffer & depth buffer
     }
 
     /**
-     * Clear screen to background colour, w/o clearing any buffers. (calls glClearColor)
+     * Clear screen to background colour, w/o clearing any buffers. (sets glClearColor, if not already set)
      */
     public static void clearColour(){
-        glClearColor(bgColour.x, bgColour.y, bgColour.z, 1.0f); // specify colour to clear to
+        GLState.clearColour(bgColour.x, bgColour.y, bgColour.z, 1.0f); // specify colour to clear to
     }
     /**
-     * Clear screen to given colour, w/o clearing any buffers. (calls glClearColor)
+     * Clear screen to given colour, w/o clearing any buffers. (sets glClearColor, if not already set)
      */
     public static void clearColour(Vector3f colour){
-        glClearColor(colour.x, colour.y, colour.z, 1.0f);   // specify colour to clear to
+        GLState.clearColour(colour.x, colour.y, colour.z, 1.0f);   // specify colour to clear to
     }
     /**
-     * Clear screen to given colour, w/o clearing any buffers. (calls glClearColor)
+     * Clear screen to given colour, w/o clearing any buffers. (sets glClearColor, if not already set)
      */
     public static void clearColour(float r, float g, float b){
-        glClearColor(r, g, b, 1.0f);   // specify colour to clear to
+        GLState.clearColour(r, g, b, 1.0f);   // specify colour to clear to
     }
 
     /**
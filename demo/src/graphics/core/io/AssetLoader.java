@@ -0,0 +1,132 @@
+package graphics.core.io;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous asset loading pipeline.
+ *
+ * Reading & decoding of assets (images, models...) is done on a pool of worker threads, and only the final
+ * OpenGL upload is queued to be run on the GL thread (the thread that owns the OpenGL context).
+ * The queued uploads are drained by calling processGLUploads() once per frame, which runs uploads only
+ * until the per-frame time budget is used up (so the render loop is never stalled by asset loading).
+ */
+public class AssetLoader {
+
+    private static final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            new WorkerThreadFactory()
+    );
+    private static final Queue<Runnable> glUploadQueue = new ConcurrentLinkedQueue<>(); // uploads to run on GL thread
+    private static final AtomicInteger numOfPendingAssets = new AtomicInteger(0);     // assets not yet on the GPU
+
+    private static long uploadBudgetNanos = 2_000_000;  // max time spent on GL uploads per frame (2ms)
+
+    /**
+     * Run the given task on a worker thread.
+     * @param task task to run (must not make any OpenGL calls!)
+     * @return {@link CompletableFuture} for the result of the task
+     */
+    public static <T> CompletableFuture<T> submit(Supplier<T> task){
+        return CompletableFuture.supplyAsync(task, workers);
+    }
+
+    /**
+     * Load an asset: run the given load task on a worker thread & then queue the given upload task
+     * to be run on the GL thread w/the result of the load task.
+     * @param loadTask task that reads & decodes the asset (must not make any OpenGL calls!)
+     * @param glUploadTask task that uploads the decoded asset to the GPU (run on the GL thread)
+     * @return {@link CompletableFuture} completed once the asset has been uploaded to the GPU
+     */
+    public static <T> CompletableFuture<T> load(Supplier<T> loadTask, Consumer<T> glUploadTask){
+        CompletableFuture<T> uploaded = new CompletableFuture<>();
+        numOfPendingAssets.incrementAndGet();
+
+        submit(loadTask).whenComplete((data, e) -> {
+            if (e != null) {
+                numOfPendingAssets.decrementAndGet();
+                uploaded.completeExceptionally(e);
+                System.err.println("Failed to load asset: " + e.getMessage());
+                return;
+            }
+            glUploadQueue.add(() -> {
+                try {
+                    glUploadTask.accept(data);
+                    uploaded.complete(data);
+                } catch (RuntimeException uploadException) {
+                    uploaded.completeExceptionally(uploadException);
+                    System.err.println("Failed to upload asset: " + uploadException.getMessage());
+                } finally {
+                    numOfPendingAssets.decrementAndGet();
+                }
+            });
+        });
+        return uploaded;
+    }
+
+    /**
+     * Run the queued GL uploads until the queue is empty or the per-frame upload time budget is used up.
+     * Must be called from the GL thread (e.g. once per frame in the render loop).
+     * Note: at least one upload is run per call, so that progress is always made.
+     */
+    public static void processGLUploads(){
+        long startT = System.nanoTime();
+        Runnable upload;
+        while ((upload = glUploadQueue.poll()) != null) {
+            upload.run();
+            if (System.nanoTime() - startT >= uploadBudgetNanos) break;
+        }
+    }
+
+    /**
+     * Block until all requested assets have been loaded & uploaded to the GPU.
+     * Must be called from the GL thread.
+     */
+    public static void finishAll(){
+        while (numOfPendingAssets.get() > 0) {
+            Runnable upload = glUploadQueue.poll();
+            if (upload != null) upload.run();
+            else Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Stop the worker threads (pending loads are discarded).
+     */
+    public static void shutdown(){
+        workers.shutdownNow();
+        glUploadQueue.clear();
+    }
+
+    /**
+     * Returns nº of assets which have been requested but not yet uploaded to the GPU.
+     */
+    public static int getNumOfPendingAssets(){
+        return numOfPendingAssets.get();
+    }
+
+    public static void setUploadBudgetMillis(double millis){
+        uploadBudgetNanos = (long) (millis * 1_000_000);
+    }
+
+    /**
+     * Creates the (daemon) worker threads, so that they don't keep the app alive once the window is closed.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNum = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "asset-loader-" + threadNum.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
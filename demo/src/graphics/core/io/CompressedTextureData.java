@@ -0,0 +1,44 @@
+package graphics.core.io;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encapsulates the data of a block-compressed texture loaded (or converted) by CompressedTextureLoader.
+ * This data includes:
+ *      - the compressed data of every mipmap level (level 0 first), in direct ByteBuffers
+ *      - OpenGL internal format of the compressed data (to pass to glCompressedTexImage2D)
+ *      - width & height of the base level
+ */
+public class CompressedTextureData {
+    private List<ByteBuffer> levels;
+    private int width, height;
+    private int glInternalFormat;
+
+    CompressedTextureData(List<ByteBuffer> levels, int width, int height, int glInternalFormat){
+        this.levels = List.copyOf(levels);
+        this.width = width;
+        this.height = height;
+        this.glInternalFormat = glInternalFormat;
+    }
+
+    public List<ByteBuffer> getLevels() {
+        return levels;
+    }
+
+    public int getNumOfLevels() {
+        return levels.size();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getGLInternalFormat() {
+        return glInternalFormat;
+    }
+}
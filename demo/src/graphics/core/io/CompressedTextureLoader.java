@@ -0,0 +1,265 @@
+package graphics.core.io;
+
+import graphics.textures.compression.BCEncoder;
+import graphics.textures.compression.BCFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+
+/**
+ * To load block-compressed textures (w/their full mipmap chain) from KTX (v1.1) container files.
+ *
+ * The first time a texture image is loaded, it is converted: the full mipmap chain is generated on the CPU,
+ * each level is encoded into a block-compressed format ({@link BCFormat}: BC1 for RGB, BC3 for RGBA) & the
+ * result is stored in a .ktx file next to the source image (e.g. container2.png.ktx). Later loads just
+ * memory-map the .ktx file, as long as it is newer than the source image & has the requested format.
+ */
+public class CompressedTextureLoader {
+
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final int KTX_HEADER_SIZE = 64;  // identifier (12 bytes) + 13 uint32 fields
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];   // lookup table to convert 8-bit sRGB to linear
+    static {
+        for (int i = 0; i < 256; i++) {
+            float v = i / 255f;
+            SRGB_TO_LINEAR[i] = v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    private static boolean enabled = false; // set once it's known if the GL context supports the compressed formats
+
+    /**
+     * Loads the compressed version of the given texture image, converting the image (& storing the result
+     * next to it) if there's no up-to-date .ktx file for it.
+     * Doesn't make any OpenGL calls, so can be called from any thread.
+     * @param filename {@link String} filename/filepath of the (uncompressed) texture image file
+     * @param isRGBA true if the texture has an alpha channel
+     * @param isSRGB true if the texture's colours are in sRGB space
+     * @return {@link CompressedTextureData} w/all mipmap levels of the compressed texture
+     */
+    public static CompressedTextureData loadOrConvert(String filename, boolean isRGBA, boolean isSRGB){
+        BCFormat format = isRGBA ? BCFormat.BC3 : BCFormat.BC1;
+        int glInternalFormat = format.getGLInternalFormat(isSRGB);
+        Path sourcePath = Paths.get(filename);
+        Path ktxPath = Paths.get(filename + ".ktx");
+
+        CompressedTextureData data = readKTX(sourcePath, ktxPath, glInternalFormat);
+        if (data == null) {
+            data = convert(filename, format, isSRGB);
+            writeKTX(ktxPath, data, format);
+        }
+        return data;
+    }
+
+    /**
+     * Load the given texture image, generate its full mipmap chain & encode every level into the given format.
+     */
+    static CompressedTextureData convert(String filename, BCFormat format, boolean isSRGB){
+        ImageData img = ImageLoader.loadImage(filename, true);
+        int width = img.getWidth();
+        int height = img.getHeight();
+        byte[] rgba = toRGBA(img);
+        img.free();
+
+        List<ByteBuffer> levels = new ArrayList<>();
+        levels.add(BCEncoder.encode(rgba, width, height, format));
+        while (width > 1 || height > 1) {
+            int nextWidth = Math.max(1, width / 2);
+            int nextHeight = Math.max(1, height / 2);
+            rgba = downsample(rgba, width, height, nextWidth, nextHeight, isSRGB);
+            width = nextWidth;
+            height = nextHeight;
+            levels.add(BCEncoder.encode(rgba, width, height, format));
+        }
+
+        return new CompressedTextureData(levels, img.getWidth(), img.getHeight(), format.getGLInternalFormat(isSRGB));
+    }
+
+    /**
+     * Copy the image's (RGBA) pixel data into a byte array w/4 bytes (R,G,B,A) per pixel, bottom row first.
+     */
+    private static byte[] toRGBA(ImageData img){
+        int width = img.getWidth(), height = img.getHeight();
+        ByteBuffer src = img.getByteBuffer();
+        byte[] rgba = new byte[width * height * 4];
+        boolean isABGR = img.getGLType() != GL_UNSIGNED_BYTE;   // packed uint format: bytes stored as A,B,G,R
+
+        for (int y = 0; y < height; y++) {
+            int srcRow = img.needsVerticalFlip() ? height - 1 - y : y;     // (blocks can't be flipped on the GPU)
+            for (int x = 0; x < width; x++) {
+                int s = (srcRow * width + x) * 4;
+                int d = (y * width + x) * 4;
+                if (isABGR) {
+                    rgba[d] = src.get(s + 3);
+                    rgba[d + 1] = src.get(s + 2);
+                    rgba[d + 2] = src.get(s + 1);
+                    rgba[d + 3] = src.get(s);
+                } else {
+                    for (int c = 0; c < 4; c++) rgba[d + c] = src.get(s + c);
+                }
+            }
+        }
+        return rgba;
+    }
+
+    /**
+     * Downsample the image w/a box filter (2x2 pixels, or 2x1/1x2 when a dimension is already 1).
+     * Colour channels of sRGB images are averaged in linear space.
+     */
+    private static byte[] downsample(byte[] rgba, int width, int height, int nextWidth, int nextHeight, boolean isSRGB){
+        byte[] next = new byte[nextWidth * nextHeight * 4];
+        for (int y = 0; y < nextHeight; y++) {
+            int y0 = Math.min(y * 2, height - 1), y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < nextWidth; x++) {
+                int x0 = Math.min(x * 2, width - 1), x1 = Math.min(x * 2 + 1, width - 1);
+                int[] samples = {(y0 * width + x0) * 4, (y0 * width + x1) * 4, (y1 * width + x0) * 4, (y1 * width + x1) * 4};
+                int d = (y * nextWidth + x) * 4;
+                for (int c = 0; c < 4; c++) {
+                    boolean linearise = isSRGB && c < 3;    // alpha is always linear
+                    float sum = 0;
+                    for (int s : samples) {
+                        int v = rgba[s + c] & 0xFF;
+                        sum += linearise ? SRGB_TO_LINEAR[v] : v / 255f;
+                    }
+                    float avg = sum / 4;
+                    if (linearise) avg = linearToSRGB(avg);
+                    next[d + c] = (byte) Math.round(avg * 255);
+                }
+            }
+        }
+        return next;
+    }
+
+    private static float linearToSRGB(float v){
+        return v <= 0.0031308f ? v * 12.92f : 1.055f * (float) Math.pow(v, 1 / 2.4f) - 0.055f;
+    }
+
+    /**
+     * Read the given KTX file, if it exists, is newer than the source image & has the given internal format.
+     * The returned levels are views of the memory-mapped file.
+     * @return {@link CompressedTextureData} read, or null if there's no valid KTX file
+     */
+    private static CompressedTextureData readKTX(Path sourcePath, Path ktxPath, int glInternalFormat){
+        if (!Files.isRegularFile(ktxPath)) return null;
+
+        try (FileChannel channel = FileChannel.open(ktxPath, StandardOpenOption.READ)) {
+            if (Files.exists(sourcePath)
+                    && Files.getLastModifiedTime(ktxPath).compareTo(Files.getLastModifiedTime(sourcePath)) < 0)
+                return null;    // source image changed since it was converted
+
+            long fileSize = channel.size();
+            if (fileSize < KTX_HEADER_SIZE) return null;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            for (int i = 0; i < KTX_IDENTIFIER.length; i++) if (mapped.get(i) != KTX_IDENTIFIER[i]) return null;
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(12) != KTX_ENDIANNESS) mapped.order(ByteOrder.BIG_ENDIAN);
+            if (mapped.getInt(12) != KTX_ENDIANNESS) return null;
+
+            // header fields (uint32): 16 glType, 20 glTypeSize, 24 glFormat, 28 glInternalFormat, 32 glBaseInternalFormat,
+            // 36 pixelWidth, 40 pixelHeight, 44 pixelDepth, 48 nºArrayElements, 52 nºFaces, 56 nºMipmapLevels, 60 bytesOfKeyValueData
+            if (mapped.getInt(28) != glInternalFormat) return null;
+            BCFormat format = BCFormat.fromGLInternalFormat(glInternalFormat);
+            int width = mapped.getInt(36);
+            int height = mapped.getInt(40);
+            int numOfLevels = mapped.getInt(56);
+            if (format == null || width <= 0 || height <= 0 || mapped.getInt(44) != 0 || mapped.getInt(52) != 1 || numOfLevels <= 0)
+                return null;
+
+            long offset = KTX_HEADER_SIZE + Integer.toUnsignedLong(mapped.getInt(60));
+            List<ByteBuffer> levels = new ArrayList<>();
+            for (int level = 0; level < numOfLevels; level++) {
+                int levelWidth = Math.max(1, width >> level);
+                int levelHeight = Math.max(1, height >> level);
+                int imageSize = format.getImageSize(levelWidth, levelHeight);
+                if (offset + 4 + imageSize > fileSize || mapped.getInt((int) offset) != imageSize) return null;
+
+                ByteBuffer levelData = mapped.duplicate();
+                levelData.position((int) offset + 4).limit((int) offset + 4 + imageSize);
+                levels.add(levelData.slice());
+                offset += 4 + ((imageSize + 3) & ~3);   // image data padded to 4 bytes
+            }
+
+            return new CompressedTextureData(levels, width, height, glInternalFormat);
+        } catch (IOException e) {
+            System.err.println("Failed to read KTX file " + ktxPath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the given compressed texture to a KTX file (replacing any previous file).
+     * Failing to write the file isn't fatal -- the texture is just converted again next time.
+     */
+    private static void writeKTX(Path ktxPath, CompressedTextureData data, BCFormat format){
+        ByteBuffer header = ByteBuffer.allocate(KTX_HEADER_SIZE).order(ByteOrder.nativeOrder());
+        header.put(KTX_IDENTIFIER)
+                .putInt(KTX_ENDIANNESS)
+                .putInt(0)                                  // glType (0 for compressed)
+                .putInt(1)                                  // glTypeSize
+                .putInt(0)                                  // glFormat (0 for compressed)
+                .putInt(data.getGLInternalFormat())
+                .putInt(format.getGLBaseInternalFormat())
+                .putInt(data.getWidth())
+                .putInt(data.getHeight())
+                .putInt(0)                                  // pixelDepth (2D texture)
+                .putInt(0)                                  // nº of array elements (not an array)
+                .putInt(1)                                  // nº of faces (not a cubemap)
+                .putInt(data.getNumOfLevels())
+                .putInt(0);                                 // bytes of key/value data
+        header.flip();
+
+        try {
+            Path tempPath = Files.createTempFile(ktxPath.toAbsolutePath().getParent(), ktxPath.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                ByteBuffer imageSize = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+                for (ByteBuffer level : data.getLevels()) {
+                    imageSize.clear();
+                    imageSize.putInt(0, level.remaining());
+                    writeFully(channel, imageSize);
+                    writeFully(channel, level.duplicate());
+                    // (BC blocks are 8 or 16 bytes, so no padding needed)
+                }
+            }
+            Files.move(tempPath, ktxPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to write KTX file " + ktxPath + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    /**
+     * Returns true if textures are to be loaded as block-compressed textures.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enable/disable loading textures as block-compressed textures. Should only be enabled if the GL context
+     * supports S3TC (EXT_texture_compression_s3tc) & sRGB (EXT_texture_sRGB) compressed formats.
+     */
+    public static void setEnabled(boolean enabled) {
+        CompressedTextureLoader.enabled = enabled;
+    }
+}
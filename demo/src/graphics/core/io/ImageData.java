@@ -1,24 +1,40 @@
 package graphics.core.io;
 
-import java.awt.image.BufferedImage;
 import java.nio.ByteBuffer;
 
+import static org.lwjgl.system.MemoryUtil.memFree;
+
 /**
  * Encapsulates data from an image that is loaded in ImageLoader.loadImage(...).
  * This data includes:
- *      - BufferedImage & ByteBuffer representations of the image data
+ *      - off-heap ByteBuffer w/the image's pixel data (must be freed by calling free() once uploaded to the GPU)
+ *      - OpenGL pixel format & type of the pixel data (to pass to glTexImage2D)
  *      - width & height of the image
+ *      - whether the pixel data still has to be flipped vertically (on the GPU, when the image is loaded w/o flipping)
  */
 public class ImageData {
-    private BufferedImage bufferedImage;
     private ByteBuffer byteBuffer;
     private int width, height;
+    private int glFormat, glType;
+    private boolean needsVerticalFlip;
 
-    ImageData(BufferedImage bufferedImage, ByteBuffer byteBuffer){
-        this.bufferedImage = bufferedImage;
+    ImageData(ByteBuffer byteBuffer, int width, int height, int glFormat, int glType, boolean needsVerticalFlip){
         this.byteBuffer = byteBuffer;
-        this.width = bufferedImage.getWidth();
-        this.height = bufferedImage.getHeight();
+        this.width = width;
+        this.height = height;
+        this.glFormat = glFormat;
+        this.glType = glType;
+        this.needsVerticalFlip = needsVerticalFlip;
+    }
+
+    /**
+     * Free the off-heap pixel data. The ByteBuffer must not be used after calling this method.
+     */
+    public void free(){
+        if(byteBuffer != null) {
+            memFree(byteBuffer);
+            byteBuffer = null;
+        }
     }
 
     public ByteBuffer getByteBuffer() {
@@ -32,4 +48,16 @@ public class ImageData {
     public int getHeight() {
         return height;
     }
+
+    public int getGLFormat() {
+        return glFormat;
+    }
+
+    public int getGLType() {
+        return glType;
+    }
+
+    public boolean needsVerticalFlip() {
+        return needsVerticalFlip;
+    }
 }
@@ -1,26 +1,44 @@
 package graphics.core.io;
 
-import org.lwjgl.BufferUtils;
-
 import javax.imageio.ImageIO;
-import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
 
 /**
  * To load images from files.
+ *
+ * Decoded pixel data is written straight into an off-heap buffer (flipping vertically while copying, if needed),
+ * reading the raster's DataBuffer directly for the common formats decoded by ImageIO (3-byte BGR, 4-byte ABGR,
+ * packed int RGB/ARGB & 16-bit sRGB). Other formats (e.g. greyscale or indexed) are converted one row at a time.
+ * Where the raster's layout can be uploaded to OpenGL as is (3-byte BGR as RGB, 4-byte ABGR as RGBA), whole rows
+ * are bulk copied & the channel order is handled by the GL pixel format/type.
+ * The vertical flip can also be left to OpenGL (see {@link #setFlipOnGPU}), so the rows are copied in the image's
+ * order & no flip is done on the CPU at all.
  */
 public class ImageLoader {
 
     private static boolean flipVertically = true;   // true if must flip img vertically when loading it
+    private static boolean flipOnGPU = false;       // true if vertical flip is to be done by OpenGL, not when loading
 
     /**
      * Loads the specified image and returns its image data:
-     *      - BufferedImage & ByteBuffer representations of the image data
+     *      - off-heap ByteBuffer w/the pixel data (to be freed by calling ImageData.free())
+     *      - OpenGL format & type of the pixel data
      *      - width & height of the image
+     *      - whether the pixel data still has to be flipped vertically (when the flip is left to OpenGL)
      * @param filename {@link String} filename/filepath of the image file to load
      * @param isRGBA true if should interpret image data as RGBA instead of RGB
      * @return {@link ImageData} object containin the image's data.
@@ -33,44 +51,203 @@ public class ImageLoader {
         } catch (IOException e) {
             throw new RuntimeException("Failed to load texture image file: " + filename);
         }
+        if (img == null) throw new RuntimeException("Unsupported texture image file format: " + filename);
+
+        // flip image vertically (OpenGL 0.0 texture y-coord at bottom-left corner; img has it at top-left)
+        // -- done while copying the rows, unless it's left to OpenGL (must not flip vertically for cubemap texture images)
+        boolean flipWhileCopying = flipVertically && !flipOnGPU;
 
-        // get texture width & height
         int width = img.getWidth();
         int height = img.getHeight();
+        int channels = isRGBA ? 4 : 3;
+        ByteBuffer buffer = memAlloc(width * height * channels);
+
+        int glFormat = isRGBA ? GL_RGBA : GL_RGB;
+        int glType = GL_UNSIGNED_BYTE;
+
+        Raster raster = img.getRaster();
+        int type = img.getType();
+        if (type == BufferedImage.TYPE_3BYTE_BGR && !isRGBA && isPixelInterleaved(raster, 3)) {
+            copyRows(raster, buffer, width * 3, height, flipWhileCopying);
+            glFormat = GL_BGR;
+        } else if (type == BufferedImage.TYPE_4BYTE_ABGR && isRGBA && isPixelInterleaved(raster, 4)) {
+            copyRows(raster, buffer, width * 4, height, flipWhileCopying);
+            // bytes are A,B,G,R -- read as a packed uint, R ends up in the most significant byte on little-endian
+            glType = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? GL_UNSIGNED_INT_8_8_8_8 : GL_UNSIGNED_INT_8_8_8_8_REV;
+        } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && isPixelInterleaved(raster, type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4)) {
+            convertBGRRows(raster, buffer, width, height, type == BufferedImage.TYPE_4BYTE_ABGR, isRGBA, flipWhileCopying);
+        } else if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferInt) {
+            convertPackedIntRows(raster, buffer, width, height, type == BufferedImage.TYPE_INT_ARGB, isRGBA, flipWhileCopying);
+        } else if (isSRGBUShortInterleaved(img)) {
+            convertUShortRows(raster, buffer, width, height, isRGBA, flipWhileCopying);
+        } else {
+            convertGenericRows(img, buffer, width, height, isRGBA, flipWhileCopying);
+        }
+
+        buffer.clear(); // whole buffer holds pixel data
+
+        return new ImageData(buffer, width, height, glFormat, glType, flipVertically && flipOnGPU);
+    }
+
+    /**
+     * Returns true if the raster's pixel data is a single byte array w/the given nº of bands per pixel & no padding.
+     */
+    private static boolean isPixelInterleaved(Raster raster, int numBands){
+        return raster.getSampleModel() instanceof PixelInterleavedSampleModel
+                && raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getNumBands() == numBands
+                && ((PixelInterleavedSampleModel) raster.getSampleModel()).getScanlineStride() == raster.getWidth() * numBands
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+    }
+
+    /**
+     * Bulk copy the raster's rows (of rowBytes bytes each) as they are into the buffer.
+     */
+    private static void copyRows(Raster raster, ByteBuffer buffer, int rowBytes, int height, boolean flip){
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int srcOffset = dataBuffer.getOffset();
+
+        if (!flip) {
+            buffer.put(data, srcOffset, rowBytes * height);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            buffer.position((height - 1 - y) * rowBytes);
+            buffer.put(data, srcOffset + y * rowBytes, rowBytes);
+        }
+    }
+
+    /**
+     * Convert rows of 3-byte BGR or 4-byte ABGR pixels to RGB or RGBA.
+     */
+    private static void convertBGRRows(Raster raster, ByteBuffer buffer, int width, int height, boolean srcHasAlpha, boolean isRGBA, boolean flip){
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int srcBands = srcHasAlpha ? 4 : 3;
+        int dstBands = isRGBA ? 4 : 3;
+
+        for (int y = 0; y < height; y++) {
+            int src = dataBuffer.getOffset() + y * width * srcBands;
+            int dst = (flip ? height - 1 - y : y) * width * dstBands;
+            for (int x = 0; x < width; x++, src += srcBands, dst += dstBands) {
+                int s = srcHasAlpha ? src + 1 : src;    // skip alpha (1st byte in ABGR)
+                buffer.put(dst, data[s + 2]);            // Red component
+                buffer.put(dst + 1, data[s + 1]);        // Green component
+                buffer.put(dst + 2, data[s]);            // Blue component
+                if (isRGBA) buffer.put(dst + 3, srcHasAlpha ? data[src] : (byte) 0xFF); // Alpha component (if using RGBA)
+            }
+        }
+    }
 
-        if(flipVertically) {
-            // flip image vertically (OpenGL 0.0 texture y-coord at top-left corner; img has it at bottom-left)
-            AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
-            tx.translate(0, -img.getHeight());
-            AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
-            img = op.filter(img, null);
-        } // must not flip vertically for cubemap texture images
-
-        // convert BufferedImage to ByteBuffer for OpenGL functions
-        int[] pixels = new int[width*height];
-        img.getRGB(0, 0, width, height, pixels, 0, width);
-
-        ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * (isRGBA ? 4 : 3)); //4 for RGBA, 3 for RGB
-
-        for(int y = 0; y < height; y++){
-            for(int x = 0; x < width; x++){
-                int pixel = pixels[y * width + x];
-                buffer.put((byte) ((pixel >> 16) & 0xFF));     // Red component
-                buffer.put((byte) ((pixel >> 8 ) & 0xFF));     // Green component
-                buffer.put((byte) ((pixel >> 0 ) & 0xFF));     // Blue component
-                if(isRGBA) buffer.put((byte) ((pixel >> 24) & 0xFF));     // Alpha component (if using RGBA)
+    /**
+     * Convert rows of packed int (A)RGB pixels to RGB or RGBA.
+     */
+    private static void convertPackedIntRows(Raster raster, ByteBuffer buffer, int width, int height, boolean srcHasAlpha, boolean isRGBA, boolean flip){
+        DataBufferInt dataBuffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = dataBuffer.getData();
+        int scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int dstBands = isRGBA ? 4 : 3;
+
+        for (int y = 0; y < height; y++) {
+            int src = dataBuffer.getOffset() + y * scanlineStride;
+            int dst = (flip ? height - 1 - y : y) * width * dstBands;
+            for (int x = 0; x < width; x++, dst += dstBands) {
+                int pixel = data[src + x];
+                buffer.put(dst, (byte) ((pixel >> 16) & 0xFF));     // Red component
+                buffer.put(dst + 1, (byte) ((pixel >> 8) & 0xFF));  // Green component
+                buffer.put(dst + 2, (byte) (pixel & 0xFF));         // Blue component
+                if (isRGBA) buffer.put(dst + 3, srcHasAlpha ? (byte) ((pixel >> 24) & 0xFF) : (byte) 0xFF);
             }
         }
+    }
+
+    /**
+     * Returns true if the image is a 16 bits per channel sRGB image (e.g. 48/64-bit PNGs), whose pixel data
+     * is a single short array of interleaved R,G,B(,A) samples.
+     */
+    private static boolean isSRGBUShortInterleaved(BufferedImage img){
+        Raster raster = img.getRaster();
+        if (!(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferUShort)
+                || raster.getDataBuffer().getNumBanks() != 1
+                || !img.getColorModel().getColorSpace().isCS_sRGB()
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+            return false;
 
-        buffer.flip(); // important!
+        PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+        int numBands = raster.getNumBands();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        if ((numBands != 3 && numBands != 4) || sampleModel.getPixelStride() != numBands
+                || sampleModel.getScanlineStride() != raster.getWidth() * numBands)
+            return false;
+        for (int i = 0; i < numBands; i++) if (bandOffsets[i] != i) return false;   // R,G,B(,A) order
+        return true;
+    }
 
-        // create ImageData obj to return the img's info
-        ImageData imgData = new ImageData(img, buffer);
+    /**
+     * Convert rows of 16 bits per channel R,G,B(,A) pixels to 8 bits per channel RGB or RGBA.
+     */
+    private static void convertUShortRows(Raster raster, ByteBuffer buffer, int width, int height, boolean isRGBA, boolean flip){
+        DataBufferUShort dataBuffer = (DataBufferUShort) raster.getDataBuffer();
+        short[] data = dataBuffer.getData();
+        int srcBands = raster.getNumBands();
+        boolean srcHasAlpha = srcBands == 4;
+        int dstBands = isRGBA ? 4 : 3;
 
-        return imgData;
+        for (int y = 0; y < height; y++) {
+            int src = dataBuffer.getOffset() + y * width * srcBands;
+            int dst = (flip ? height - 1 - y : y) * width * dstBands;
+            for (int x = 0; x < width; x++, src += srcBands, dst += dstBands) {
+                buffer.put(dst, to8Bit(data[src]));          // Red component
+                buffer.put(dst + 1, to8Bit(data[src + 1]));  // Green component
+                buffer.put(dst + 2, to8Bit(data[src + 2]));  // Blue component
+                if (isRGBA) buffer.put(dst + 3, srcHasAlpha ? to8Bit(data[src + 3]) : (byte) 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Scale a 16-bit (unsigned) sample to 8 bits, rounding to nearest.
+     */
+    private static byte to8Bit(short sample){
+        return (byte) (((sample & 0xFFFF) + 128) / 257);
+    }
+
+    /**
+     * Convert rows of any other image type to RGB or RGBA, one row at a time (using BufferedImage.getRGB).
+     */
+    private static void convertGenericRows(BufferedImage img, ByteBuffer buffer, int width, int height, boolean isRGBA, boolean flip){
+        int[] row = new int[width];  // only 1 row of pixels is converted to ints at a time
+        int dstBands = isRGBA ? 4 : 3;
+
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            int dst = (flip ? height - 1 - y : y) * width * dstBands;
+            for (int x = 0; x < width; x++, dst += dstBands) {
+                int pixel = row[x];
+                buffer.put(dst, (byte) ((pixel >> 16) & 0xFF));     // Red component
+                buffer.put(dst + 1, (byte) ((pixel >> 8) & 0xFF));  // Green component
+                buffer.put(dst + 2, (byte) (pixel & 0xFF));         // Blue component
+                if (isRGBA) buffer.put(dst + 3, (byte) ((pixel >> 24) & 0xFF)); // Alpha component (if using RGBA)
+            }
+        }
     }
 
     public static void setFlipVertically(boolean flipVertically) {
         ImageLoader.flipVertically = flipVertically;
     }
+
+    /**
+     * Set whether the vertical flip (if enabled) is done by OpenGL when the image is uploaded to a texture,
+     * instead of while copying the pixel data. If true, the pixel data is left in the image's row order and
+     * ImageData.needsVerticalFlip() is true.
+     */
+    public static void setFlipOnGPU(boolean flipOnGPU) {
+        ImageLoader.flipOnGPU = flipOnGPU;
+    }
 }
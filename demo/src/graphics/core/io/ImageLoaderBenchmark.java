@@ -0,0 +1,95 @@
+package graphics.core.io;
+
+import org.lwjgl.BufferUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares the time to load the demo's texture images w/{@link ImageLoader} against the loader it replaced
+ * (flip w/an AffineTransformOp, getRGB of the whole image into an int[], 1 put per channel into a heap buffer).
+ * Each image is loaded (decoded, flipped & converted to RGB/RGBA pixel data) a nº of times w/each loader, after a
+ * few warm-up rounds (so the JIT has compiled both). No GL context needed (nothing is uploaded).
+ *
+ * Run from the demo directory: java -cp out:lib/* graphics.core.io.ImageLoaderBenchmark [dir] [rounds]
+ */
+class ImageLoaderBenchmark {
+
+    private static final int WARM_UP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        File dir = new File(args.length > 0 ? args[0] : "./resources/textures");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".png") || name.endsWith(".jpg"));
+        if (files == null || files.length == 0) throw new RuntimeException("No images found in " + dir);
+        Arrays.sort(files);
+
+        long totalOld = 0, totalNew = 0;
+        System.out.println(String.format("%-28s %10s %10s %8s", "image", "old (ms)", "new (ms)", "speedup"));
+        for (File file : files) {
+            boolean isRGBA = file.getName().endsWith(".png");
+            for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+                loadImageOld(file.getPath(), isRGBA);
+                ImageLoader.loadImage(file.getPath(), isRGBA).free();
+            }
+
+            long oldNanos = 0, newNanos = 0;
+            for (int i = 0; i < rounds; i++) {  // (interleaved, so both see the same disk cache & GC state)
+                long start = System.nanoTime();
+                loadImageOld(file.getPath(), isRGBA);
+                oldNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                ImageLoader.loadImage(file.getPath(), isRGBA).free();
+                newNanos += System.nanoTime() - start;
+            }
+            totalOld += oldNanos;
+            totalNew += newNanos;
+            System.out.println(String.format("%-28s %10.2f %10.2f %7.2fx", file.getName(),
+                    oldNanos / (rounds * 1e6), newNanos / (rounds * 1e6), (double) oldNanos / newNanos));
+        }
+        System.out.println(String.format("%-28s %10.2f %10.2f %7.2fx", "total (per round)",
+                totalOld / (rounds * 1e6), totalNew / (rounds * 1e6), (double) totalOld / totalNew));
+    }
+
+    /**
+     * The previous ImageLoader.loadImage (returns the pixel data only).
+     */
+    private static ByteBuffer loadImageOld(String filename, boolean isRGBA){
+        BufferedImage img;
+        try {
+            img = ImageIO.read(new File(filename));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load texture image file: " + filename);
+        }
+        int width = img.getWidth();
+        int height = img.getHeight();
+
+        AffineTransform tx = AffineTransform.getScaleInstance(1, -1);
+        tx.translate(0, -img.getHeight());
+        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+        img = op.filter(img, null);
+
+        int[] pixels = new int[width*height];
+        img.getRGB(0, 0, width, height, pixels, 0, width);
+
+        ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * (isRGBA ? 4 : 3));
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                int pixel = pixels[y * width + x];
+                buffer.put((byte) ((pixel >> 16) & 0xFF));
+                buffer.put((byte) ((pixel >> 8 ) & 0xFF));
+                buffer.put((byte) ((pixel >> 0 ) & 0xFF));
+                if(isRGBA) buffer.put((byte) ((pixel >> 24) & 0xFF));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,227 @@
+package graphics.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-disk binary cache of the (post-processed) vertex & index streams of imported models, so that
+ * {@link ModelLoader} can skip re-importing a model file on warm starts.
+ *
+ * Each model has one cache file (in the cache directory, named after the hash of the model's path),
+ * which stores a header followed by the data streams:
+ *      - header: magic nº, version, byte order mark, import flags, source file mtime, source path hash,
+ *                nº of vertices, nº of indices, nº of submeshes, size of submesh table & nº of LODs
+ *      - positions (3 floats per vertex), normals (3 floats per vertex), tex coords (2 floats per vertex)
+ *      - indices (1 uint per index)
+ *      - submesh table: for each submesh, 1st index, nº of indices & (UTF-8) name, padded to 4 bytes
+ *      - LOD table: for each LOD, 1st index, nº of indices & error (float)
+ * all in native byte order. A cache file is only used if the source path, source mtime & import flags
+ * stored in it match the requested ones.
+ *
+ * Warm loads memory-map the cache file & return views of the mapped file, which can be passed straight
+ * to glBufferData (no parsing & no copies into heap arrays).
+ */
+public class MeshCache {
+
+    private static final int MAGIC = 0x4D534843;         // "MSHC"
+    private static final int VERSION = 3;
+    private static final int BYTE_ORDER_MARK = 0x01020304; // read back differently if file written w/other byte order
+    private static final int HEADER_SIZE = 64;          // bytes (header padded to keep data streams aligned)
+    private static final int LOD_ENTRY_SIZE = 12;       // bytes per LOD in the LOD table
+
+    private static Path cacheDirectory = Paths.get("./cache/meshes");
+    private static boolean enabled = true;
+
+    /**
+     * Load the cached data of the given model file, if there is a valid cache file for it.
+     * @param filename {@link String} filename/filepath of the model file
+     * @param importFlags flags used when importing the model (cached data only valid for the same flags)
+     * @return {@link ModelData} w/buffers that are views of the memory-mapped cache file,
+     *         or null if there's no valid cached data for the model.
+     */
+    public static ModelData load(String filename, int importFlags){
+        if(!enabled) return null;
+
+        Path sourcePath = Paths.get(filename).toAbsolutePath().normalize();
+        Path cachePath = getCachePath(sourcePath);
+        if(!Files.isRegularFile(cachePath)) return null;
+
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if(fileSize < HEADER_SIZE) return null;
+
+            // mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            mapped.order(ByteOrder.nativeOrder());
+
+            // --- validate header ---
+            if(mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || mapped.getInt(8) != BYTE_ORDER_MARK)
+                return null;
+            if(mapped.getInt(12) != importFlags
+                    || mapped.getLong(16) != Files.getLastModifiedTime(sourcePath).toMillis()
+                    || mapped.getLong(24) != hashPath(sourcePath))
+                return null;
+
+            int vertexCount = mapped.getInt(32);
+            int indexCount = mapped.getInt(36);
+            int subMeshCount = mapped.getInt(40);
+            int subMeshTableSize = mapped.getInt(44);
+            int lodCount = mapped.getInt(48);
+            long expectedSize = HEADER_SIZE + (long) vertexCount * (3 + 3 + 2) * Float.BYTES + (long) indexCount * Integer.BYTES
+                    + subMeshTableSize + (long) lodCount * LOD_ENTRY_SIZE;
+            if(vertexCount < 0 || indexCount < 0 || subMeshCount < 0 || subMeshTableSize < 0 || lodCount < 1
+                    || fileSize != expectedSize)
+                return null;
+
+            // --- slice data streams ---
+            int offset = HEADER_SIZE;
+            ByteBuffer positions = slice(mapped, offset, vertexCount * 3 * Float.BYTES);
+            offset += positions.capacity();
+            ByteBuffer normals = slice(mapped, offset, vertexCount * 3 * Float.BYTES);
+            offset += normals.capacity();
+            ByteBuffer texCoords = slice(mapped, offset, vertexCount * 2 * Float.BYTES);
+            offset += texCoords.capacity();
+            ByteBuffer indices = slice(mapped, offset, indexCount * Integer.BYTES);
+            offset += indices.capacity();
+
+            // --- read submesh table ---
+            List<ModelData.SubMesh> subMeshes = new ArrayList<>(subMeshCount);
+            for(int i = 0; i < subMeshCount; i++) {
+                int firstIndex = mapped.getInt(offset);
+                int subMeshIndexCount = mapped.getInt(offset + 4);
+                byte[] name = new byte[mapped.getInt(offset + 8)];
+                ((ByteBuffer) mapped.duplicate().position(offset + 12)).get(name);
+                subMeshes.add(new ModelData.SubMesh(new String(name, StandardCharsets.UTF_8), firstIndex, subMeshIndexCount));
+                offset += 12 + ((name.length + 3) & ~3);
+            }
+
+            // --- read LOD table ---
+            List<ModelData.LODLevel> lodLevels = new ArrayList<>(lodCount);
+            for(int i = 0; i < lodCount; i++, offset += LOD_ENTRY_SIZE)
+                lodLevels.add(new ModelData.LODLevel(mapped.getInt(offset), mapped.getInt(offset + 4), mapped.getFloat(offset + 8)));
+
+            return new ModelData(positions, indices, normals, texCoords, vertexCount, indexCount, subMeshes, lodLevels);
+        } catch (IOException e) {
+            System.err.println("Failed to read mesh cache file " + cachePath + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the given model data to the model's cache file (replacing any previous cache file).
+     * Failing to write the cache isn't fatal -- the model is just imported again next time.
+     * @param filename {@link String} filename/filepath of the model file
+     * @param importFlags flags used when importing the model
+     * @param data {@link ModelData} to store
+     */
+    public static void store(String filename, int importFlags, ModelData data){
+        if(!enabled) return;
+
+        Path sourcePath = Paths.get(filename).toAbsolutePath().normalize();
+        Path cachePath = getCachePath(sourcePath);
+
+        try {
+            Files.createDirectories(cacheDirectory);
+
+            ByteBuffer subMeshTable = createSubMeshTable(data.getSubMeshes());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+            header.putInt(MAGIC).putInt(VERSION).putInt(BYTE_ORDER_MARK).putInt(importFlags)
+                    .putLong(Files.getLastModifiedTime(sourcePath).toMillis())
+                    .putLong(hashPath(sourcePath))
+                    .putInt(data.getVertexCount())
+                    .putInt(data.getIndexCount())
+                    .putInt(data.getSubMeshes().size())
+                    .putInt(subMeshTable.remaining())
+                    .putInt(data.getLODLevels().size());
+            header.clear(); // write whole (padded) header
+
+            // write to temp file 1st & then move it, so a partially written cache file is never read
+            Path tempPath = Files.createTempFile(cacheDirectory, cachePath.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                writeFully(channel, data.getVertexPositions().duplicate());
+                writeFully(channel, data.getVertexNormals().duplicate());
+                writeFully(channel, data.getTextureCoordinates().duplicate());
+                writeFully(channel, data.getVertexIndices().duplicate());
+                writeFully(channel, subMeshTable);
+                writeFully(channel, createLODTable(data.getLODLevels()));
+            }
+            Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to write mesh cache file " + cachePath + ": " + e.getMessage());
+        }
+    }
+
+    private static ByteBuffer createSubMeshTable(List<ModelData.SubMesh> subMeshes){
+        List<byte[]> names = new ArrayList<>(subMeshes.size());
+        int size = 0;
+        for(ModelData.SubMesh subMesh : subMeshes) {
+            byte[] name = subMesh.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += 12 + ((name.length + 3) & ~3);
+        }
+
+        ByteBuffer table = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        for(int i = 0; i < subMeshes.size(); i++) {
+            byte[] name = names.get(i);
+            table.putInt(subMeshes.get(i).getFirstIndex()).putInt(subMeshes.get(i).getIndexCount()).putInt(name.length);
+            table.put(name);
+            table.position((table.position() + 3) & ~3);    // pad to 4 bytes
+        }
+        table.flip();
+        return table;
+    }
+
+    private static ByteBuffer createLODTable(List<ModelData.LODLevel> lodLevels){
+        ByteBuffer table = ByteBuffer.allocate(lodLevels.size() * LOD_ENTRY_SIZE).order(ByteOrder.nativeOrder());
+        for(ModelData.LODLevel lod : lodLevels) table.putInt(lod.getFirstIndex()).putInt(lod.getIndexCount()).putFloat(lod.getError());
+        table.flip();
+        return table;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length){
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static Path getCachePath(Path sourcePath){
+        return cacheDirectory.resolve(sourcePath.getFileName() + "-" + Long.toHexString(hashPath(sourcePath)) + ".meshcache");
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the given path.
+     */
+    private static long hashPath(Path path){
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : path.toString().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static void setCacheDirectory(String directory) {
+        MeshCache.cacheDirectory = Paths.get(directory);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        MeshCache.enabled = enabled;
+    }
+}
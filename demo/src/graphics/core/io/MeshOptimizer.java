@@ -0,0 +1,314 @@
+package graphics.core.io;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Import-time optimiser of the index & vertex buffers of models (run once per model, before it's cached
+ * by {@link MeshCache}). For each submesh:
+ *      1. vertex cache optimisation: triangles reordered w/Tipsify (Sander et al. 2007), so that vertices
+ *         are reused while still in the GPU's post-transform vertex cache
+ *      2. overdraw optimisation: the Tipsify order is split into clusters (at Tipsify's dead-ends & wherever a
+ *         cluster's cache efficiency is close to the mesh's), & clusters are sorted so that the ones facing
+ *         outwards (most likely to occlude the others) are drawn 1st
+ * Then, for the whole model:
+ *      3. vertex fetch optimisation: vertices reordered in the order they're 1st used by the index buffer
+ *         (so vertex fetches are mostly sequential)
+ *
+ * The vertex cache efficiency before & after is reported as ACMR (average cache miss ratio: transformed
+ * vertices per triangle) & ATVR (average transform to vertex ratio: transformed vertices per vertex, 1 is optimal).
+ */
+public class MeshOptimizer {
+
+    private static final int CACHE_SIZE = 16;           // nº of entries of the (FIFO) vertex cache simulated
+    private static final float CLUSTER_THRESHOLD = 1.05f;   // soft cluster boundary if cluster ACMR <= threshold * ACMR
+    private static final int MIN_CLUSTER_SIZE = 32;     // min nº of triangles in a cluster ended by a soft boundary
+
+    /**
+     * Returns the optimised version of the given model data (the given data isn't modified).
+     * @param data {@link ModelData} of an imported model
+     * @param name name of the model (for the report printed)
+     * @return {@link ModelData} w/optimised (reordered) indices & vertices
+     */
+    public static ModelData optimize(ModelData data, String name){
+        long startT = System.nanoTime();
+        int vertexCount = data.getVertexCount();
+        int[] indices = new int[data.getIndexCount()];
+        data.getVertexIndices().duplicate().order(data.getVertexIndices().order()).asIntBuffer().get(indices);
+        float[] positions = new float[vertexCount * 3];
+        data.getVertexPositions().duplicate().order(data.getVertexPositions().order()).asFloatBuffer().get(positions);
+
+        float acmrBefore = calcACMR(indices, vertexCount);
+
+        // --- vertex cache & overdraw optimisation, per submesh (so submesh index ranges are kept) ---
+        for (ModelData.SubMesh subMesh : data.getSubMeshes()) {
+            int[] subIndices = Arrays.copyOfRange(indices, subMesh.getFirstIndex(), subMesh.getFirstIndex() + subMesh.getIndexCount());
+            int[] optimized = optimizeTriangleOrder(subIndices, vertexCount, positions);
+            System.arraycopy(optimized, 0, indices, subMesh.getFirstIndex(), optimized.length);
+        }
+
+        float acmrAfter = calcACMR(indices, vertexCount);
+        int numOfTriangles = indices.length / 3;
+        System.out.println(String.format("Optimised mesh %s: ACMR %.3f -> %.3f, ATVR %.3f -> %.3f (%.1fms)", name,
+                acmrBefore, acmrAfter, acmrBefore * numOfTriangles / Math.max(1, vertexCount),
+                acmrAfter * numOfTriangles / Math.max(1, vertexCount), (System.nanoTime() - startT) / 1e6));
+
+        // --- vertex fetch optimisation ---
+        return remapVertices(data, indices);
+    }
+
+    /**
+     * Reorder the given triangles for the vertex cache & overdraw (steps 1 & 2 above), w/o changing the vertices.
+     * @param indices triangles (3 indices each)
+     * @param vertexCount nº of vertices
+     * @param positions vertex positions (3 floats per vertex)
+     * @return reordered indices
+     */
+    static int[] optimizeTriangleOrder(int[] indices, int vertexCount, float[] positions){
+        IntList clusterStarts = new IntList();
+        int[] optimized = tipsify(indices, vertexCount, clusterStarts);
+        return sortClusters(optimized, splitClusters(optimized, vertexCount, clusterStarts), positions);
+    }
+
+    /**
+     * Reorder the given triangles w/Tipsify, for the vertex cache.
+     * @param clusterStarts filled w/the triangle offsets at which Tipsify hit a dead-end (hard cluster boundaries)
+     * @return reordered indices
+     */
+    private static int[] tipsify(int[] indices, int vertexCount, IntList clusterStarts){
+        int numOfTriangles = indices.length / 3;
+
+        // --- vertex -> triangles adjacency (CSR) ---
+        int[] liveTriangles = new int[vertexCount];        // nº of triangles not yet emitted, per vertex
+        for (int index : indices) liveTriangles[index]++;
+        int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) adjacencyStart[v + 1] = adjacencyStart[v] + liveTriangles[v];
+        int[] adjacency = new int[indices.length];
+        int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for (int i = 0; i < indices.length; i++) adjacency[fill[indices[i]]++] = i / 3;
+
+        int[] cacheTime = new int[vertexCount];         // time each vertex last entered the cache
+        boolean[] emitted = new boolean[numOfTriangles];
+        IntList deadEndStack = new IntList();
+        IntList candidates = new IntList();
+        int[] output = new int[indices.length];
+        int outputSize = 0;
+        int time = CACHE_SIZE + 1;
+        int cursor = 0;     // for finding the next vertex w/live triangles, once the dead-end stack is empty
+
+        int fanningVertex = indices.length > 0 ? indices[0] : -1;
+        while (fanningVertex >= 0) {
+            // --- emit all live triangles around the fanning vertex ---
+            candidates.size = 0;
+            for (int a = adjacencyStart[fanningVertex]; a < adjacencyStart[fanningVertex + 1]; a++) {
+                int t = adjacency[a];
+                if (emitted[t]) continue;
+                emitted[t] = true;
+                for (int c = 0; c < 3; c++) {
+                    int v = indices[t * 3 + c];
+                    output[outputSize++] = v;
+                    deadEndStack.add(v);
+                    candidates.add(v);
+                    liveTriangles[v]--;
+                    if (time - cacheTime[v] > CACHE_SIZE) cacheTime[v] = time++;   // cache miss
+                }
+            }
+
+            // --- next fanning vertex: candidate still in cache after its triangles are emitted, w/oldest entry
+            // (candidates out of cache have priority 0, so never picked: if none is in cache, it's a dead-end) ---
+            int next = -1, bestPriority = 0;
+            for (int i = 0; i < candidates.size; i++) {
+                int v = candidates.data[i];
+                if (liveTriangles[v] <= 0) continue;
+                int priority = 0;
+                if (time - cacheTime[v] + 2 * liveTriangles[v] <= CACHE_SIZE) priority = time - cacheTime[v];
+                if (priority > bestPriority) {
+                    bestPriority = priority;
+                    next = v;
+                }
+            }
+            if (next == -1) {   // dead-end: use most recently referenced vertex w/live triangles, else next in order
+                while (deadEndStack.size > 0 && next == -1) {
+                    int v = deadEndStack.data[--deadEndStack.size];
+                    if (liveTriangles[v] > 0) next = v;
+                }
+                while (next == -1 && cursor < vertexCount) {
+                    if (liveTriangles[cursor] > 0) next = cursor;
+                    cursor++;
+                }
+                if (next != -1) clusterStarts.add(outputSize / 3);
+            }
+            fanningVertex = next;
+        }
+        return output;
+    }
+
+    /**
+     * Add soft cluster boundaries to the given hard boundaries: a new cluster is started once the current one's
+     * ACMR is within CLUSTER_THRESHOLD of the whole submesh's (so reordering the clusters barely affects
+     * vertex cache efficiency).
+     * @return triangle offsets at which each cluster starts (incl. 0)
+     */
+    private static int[] splitClusters(int[] indices, int vertexCount, IntList hardBoundaries){
+        int numOfTriangles = indices.length / 3;
+        float threshold = calcACMR(indices, vertexCount) * CLUSTER_THRESHOLD;
+
+        IntList starts = new IntList();
+        starts.add(0);
+        int[] cacheTime = new int[vertexCount];
+        int time = CACHE_SIZE + 1;
+        int clusterMisses = 0, clusterStart = 0, nextHard = 0;
+        for (int t = 0; t < numOfTriangles; t++) {
+            boolean hard = nextHard < hardBoundaries.size && hardBoundaries.data[nextHard] == t;
+            if (hard) nextHard++;
+            if (t > clusterStart && (hard
+                    || (t - clusterStart >= MIN_CLUSTER_SIZE && (float) clusterMisses / (t - clusterStart) <= threshold))) {
+                starts.add(t);
+                clusterStart = t;
+                clusterMisses = 0;
+                time += CACHE_SIZE + 1;     // cluster may be drawn after any other: assume cold cache
+            }
+            for (int c = 0; c < 3; c++) {
+                int v = indices[t * 3 + c];
+                if (time - cacheTime[v] > CACHE_SIZE) {
+                    cacheTime[v] = time++;
+                    clusterMisses++;
+                }
+            }
+        }
+        return Arrays.copyOf(starts.data, starts.size);
+    }
+
+    /**
+     * Sort the clusters so that the ones facing away from the submesh's centre are drawn 1st.
+     * @return reordered indices
+     */
+    private static int[] sortClusters(int[] indices, int[] clusterStarts, float[] positions){
+        int numOfTriangles = indices.length / 3;
+        int numOfClusters = clusterStarts.length;
+        if (numOfClusters <= 1) return indices;
+
+        // --- area weighted centroid & normal of each cluster (& centroid of the submesh) ---
+        float[] clusterCentroids = new float[numOfClusters * 3], clusterNormals = new float[numOfClusters * 3];
+        float[] clusterAreas = new float[numOfClusters];
+        double[] meshCentroid = new double[3];
+        double meshArea = 0;
+        for (int k = 0; k < numOfClusters; k++) {
+            int end = k + 1 < numOfClusters ? clusterStarts[k + 1] : numOfTriangles;
+            for (int t = clusterStarts[k]; t < end; t++) {
+                int a = indices[t * 3] * 3, b = indices[t * 3 + 1] * 3, c = indices[t * 3 + 2] * 3;
+                float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+                float e2x = positions[c] - positions[a], e2y = positions[c + 1] - positions[a + 1], e2z = positions[c + 2] - positions[a + 2];
+                float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+                float area = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+                for (int i = 0; i < 3; i++) {
+                    float centre = (positions[a + i] + positions[b + i] + positions[c + i]) / 3;
+                    clusterCentroids[k * 3 + i] += centre * area;
+                    meshCentroid[i] += centre * area;
+                }
+                clusterNormals[k * 3] += nx;
+                clusterNormals[k * 3 + 1] += ny;
+                clusterNormals[k * 3 + 2] += nz;
+                clusterAreas[k] += area;
+            }
+            meshArea += clusterAreas[k];
+        }
+        for (int i = 0; i < 3; i++) meshCentroid[i] /= Math.max(meshArea, 1e-20);
+
+        // --- sort key: how much the cluster faces away from the centre ---
+        Integer[] order = new Integer[numOfClusters];
+        float[] keys = new float[numOfClusters];
+        for (int k = 0; k < numOfClusters; k++) {
+            order[k] = k;
+            float normalLength = (float) Math.sqrt(clusterNormals[k * 3] * clusterNormals[k * 3]
+                    + clusterNormals[k * 3 + 1] * clusterNormals[k * 3 + 1] + clusterNormals[k * 3 + 2] * clusterNormals[k * 3 + 2]);
+            if (clusterAreas[k] <= 0 || normalLength <= 0) continue;
+            float dot = 0;
+            for (int i = 0; i < 3; i++)
+                dot += (clusterCentroids[k * 3 + i] / clusterAreas[k] - (float) meshCentroid[i]) * clusterNormals[k * 3 + i];
+            keys[k] = dot / normalLength;
+        }
+        Arrays.sort(order, (k1, k2) -> Float.compare(keys[k2], keys[k1]));
+
+        int[] sorted = new int[indices.length];
+        int offset = 0;
+        for (int k : order) {
+            int start = clusterStarts[k] * 3;
+            int end = (k + 1 < numOfClusters ? clusterStarts[k + 1] : numOfTriangles) * 3;
+            System.arraycopy(indices, start, sorted, offset, end - start);
+            offset += end - start;
+        }
+        return sorted;
+    }
+
+    /**
+     * Reorder the vertices in the order they're 1st referenced by the given indices (unreferenced vertices last),
+     * & remap the indices accordingly.
+     */
+    private static ModelData remapVertices(ModelData data, int[] indices){
+        int vertexCount = data.getVertexCount();
+        int[] remap = new int[vertexCount];     // old vertex index -> new vertex index
+        Arrays.fill(remap, -1);
+        int[] newToOld = new int[vertexCount];
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] == -1) {
+                remap[v] = next;
+                newToOld[next++] = v;
+            }
+            indices[i] = remap[v];
+        }
+        for (int v = 0; v < vertexCount; v++) if (remap[v] == -1) newToOld[next++] = v;
+
+        ByteBuffer vPositions = remapStream(data.getVertexPositions(), newToOld, 3);
+        ByteBuffer vNormals = remapStream(data.getVertexNormals(), newToOld, 3);
+        ByteBuffer texCoords = remapStream(data.getTextureCoordinates(), newToOld, 2);
+        ByteBuffer vIndices = BufferUtils.createByteBuffer(indices.length * Integer.BYTES);
+        vIndices.asIntBuffer().put(indices);
+
+        return new ModelData(vPositions, vIndices, vNormals, texCoords, vertexCount, indices.length, data.getSubMeshes(),
+                data.getLODLevels());
+    }
+
+    private static ByteBuffer remapStream(ByteBuffer stream, int[] newToOld, int numOfComponents){
+        FloatBuffer src = stream.duplicate().order(stream.order()).asFloatBuffer();
+        ByteBuffer dst = BufferUtils.createByteBuffer(newToOld.length * numOfComponents * Float.BYTES);
+        FloatBuffer dstF = dst.asFloatBuffer();
+        for (int v : newToOld)
+            for (int c = 0; c < numOfComponents; c++) dstF.put(src.get(v * numOfComponents + c));
+        return dst;
+    }
+
+    /**
+     * Average cache miss ratio of the given indices (transformed vertices per triangle), for a FIFO vertex cache.
+     */
+    public static float calcACMR(int[] indices, int vertexCount){
+        if (indices.length < 3) return 0;
+        int[] cacheTime = new int[vertexCount];
+        int time = CACHE_SIZE + 1, misses = 0;
+        for (int v : indices) {
+            if (time - cacheTime[v] > CACHE_SIZE) {
+                cacheTime[v] = time++;
+                misses++;
+            }
+        }
+        return (float) misses / (indices.length / 3);
+    }
+
+    /**
+     * Growable list of primitive ints.
+     */
+    private static class IntList {
+        int[] data = new int[64];
+        int size;
+
+        void add(int value){
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+}
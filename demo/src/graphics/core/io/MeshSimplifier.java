@@ -0,0 +1,390 @@
+package graphics.core.io;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Import-time generation of levels of detail (LODs) of models, by quadric error edge collapse (Garland & Heckbert 1997).
+ *
+ * Edges are collapsed onto one of their existing vertices (half-edge collapses), so the LODs reuse the model's vertices
+ * & only need their own indices -- these are appended to the model's index buffer (see {@link ModelData.LODLevel}).
+ * Collapses are done on the welded mesh (vertices w/the same position, e.g. split bc of different normals, are
+ * collapsed together), cheapest 1st (error = sum of squared distances to the planes of the collapsed triangles).
+ * To preserve the model's silhouette & texturing, vertices are never moved if they are on:
+ *      - a border (edge w/a single triangle) or a non-manifold edge
+ *      - a UV seam (vertices w/the same position but different tex coords)
+ *      - the boundary between 2 submeshes
+ * & collapses that would flip a triangle are rejected.
+ *
+ * Each LOD halves the nº of triangles of the previous one, until MAX_NUM_OF_LODS, MIN_NUM_OF_TRIANGLES or
+ * MAX_ERROR (relative to the model's size) is reached, or the mesh can't be simplified any further.
+ */
+public class MeshSimplifier {
+
+    private static final int MAX_NUM_OF_LODS = 5;           // incl. LOD 0 (full detail)
+    private static final int MIN_NUM_OF_TRIANGLES = 32;     // don't simplify LODs w/fewer triangles
+    private static final float LOD_REDUCTION = 0.5f;        // target nº of triangles of a LOD, relative to the previous one
+    private static final float MIN_REDUCTION = 0.85f;       // LOD discarded if it keeps more of the previous LOD's triangles
+    private static final float MAX_ERROR = 0.05f;           // max LOD error, relative to the model's bounding sphere radius
+
+    /**
+     * Returns the given model data w/simplified LODs appended to its indices (the given data isn't modified).
+     * The model must only have LOD 0.
+     * @param data {@link ModelData} of an imported model
+     * @param name name of the model (for the report printed)
+     * @return {@link ModelData} w/the same vertices & the LODs' indices appended to the indices
+     */
+    public static ModelData generateLODs(ModelData data, String name){
+        long startT = System.nanoTime();
+        int vertexCount = data.getVertexCount();
+        int[] indices = new int[data.getIndexCount()];
+        data.getVertexIndices().duplicate().order(data.getVertexIndices().order()).asIntBuffer().get(indices);
+        float[] positions = readFloats(data.getVertexPositions(), vertexCount * 3);
+        float[] normals = readFloats(data.getVertexNormals(), vertexCount * 3);
+        float[] texCoords = readFloats(data.getTextureCoordinates(), vertexCount * 2);
+
+        Simplifier simplifier = new Simplifier(positions, normals, texCoords, vertexCount, indices, data.getSubMeshes());
+
+        // --- simplify LOD by LOD (each LOD continues from the previous one) ---
+        List<int[]> lodIndices = new ArrayList<>();
+        List<Float> lodErrors = new ArrayList<>();
+        int previousNumOfTriangles = indices.length / 3;
+        while (lodIndices.size() + 1 < MAX_NUM_OF_LODS && previousNumOfTriangles >= MIN_NUM_OF_TRIANGLES) {
+            simplifier.simplify((int) (previousNumOfTriangles * LOD_REDUCTION));
+            int numOfTriangles = simplifier.getNumOfTriangles();
+            if (numOfTriangles > previousNumOfTriangles * MIN_REDUCTION) break;   // (can't be simplified much more)
+
+            lodIndices.add(MeshOptimizer.optimizeTriangleOrder(simplifier.getIndices(), vertexCount, positions));
+            lodErrors.add(simplifier.getError());
+            previousNumOfTriangles = numOfTriangles;
+        }
+
+        // --- append LODs' indices ---
+        int totalIndexCount = indices.length;
+        for (int[] lod : lodIndices) totalIndexCount += lod.length;
+        ByteBuffer vIndices = BufferUtils.createByteBuffer(totalIndexCount * Integer.BYTES);
+        vIndices.asIntBuffer().put(indices);
+
+        List<ModelData.LODLevel> lodLevels = new ArrayList<>();
+        lodLevels.add(new ModelData.LODLevel(0, indices.length, 0));
+        StringBuilder report = new StringBuilder().append(indices.length / 3);
+        int offset = indices.length;
+        for (int i = 0; i < lodIndices.size(); i++) {
+            int[] lod = lodIndices.get(i);
+            vIndices.duplicate().position(offset * Integer.BYTES).order(vIndices.order()).asIntBuffer().put(lod);
+            lodLevels.add(new ModelData.LODLevel(offset, lod.length, lodErrors.get(i)));
+            offset += lod.length;
+            report.append(" -> ").append(lod.length / 3);
+        }
+        System.out.println(String.format("Generated %d LODs for %s: %s triangles (%.1fms)", lodIndices.size(), name,
+                report, (System.nanoTime() - startT) / 1e6));
+
+        return new ModelData(data.getVertexPositions(), vIndices, data.getVertexNormals(), data.getTextureCoordinates(),
+                vertexCount, totalIndexCount, data.getSubMeshes(), lodLevels);
+    }
+
+    private static float[] readFloats(ByteBuffer buffer, int count){
+        float[] floats = new float[count];
+        buffer.duplicate().order(buffer.order()).asFloatBuffer().get(floats);
+        return floats;
+    }
+
+    /**
+     * State of the simplification of a model: its current triangles & the quadrics of its (welded) vertices.
+     */
+    private static class Simplifier {
+        private final float[] positions, normals, texCoords;
+        private final int[] weld;           // vertex -> welded vertex (1st vertex w/the same position)
+        private final int[] siblingsStart, siblings;     // welded vertex -> vertices w/its position (CSR)
+        private final boolean[] locked;     // welded vertices that are never collapsed
+        private final double[] quadrics;    // 10 coefficients (symmetric 4x4 matrix) per welded vertex
+        private final double maxCost;
+        private int[] triangles;            // current indices (3 per triangle)
+        private int[] triangleSubMesh;      // submesh of each triangle
+        private int numOfTriangles;
+        private double error = 0;           // max cost of the collapses done so far
+
+        Simplifier(float[] positions, float[] normals, float[] texCoords, int vertexCount, int[] indices,
+                   List<ModelData.SubMesh> subMeshes){
+            this.positions = positions;
+            this.normals = normals;
+            this.texCoords = texCoords;
+            this.triangles = indices.clone();
+            this.numOfTriangles = indices.length / 3;
+            this.triangleSubMesh = new int[numOfTriangles];
+            for (int s = 0; s < subMeshes.size(); s++) {
+                ModelData.SubMesh subMesh = subMeshes.get(s);
+                Arrays.fill(triangleSubMesh, subMesh.getFirstIndex() / 3, (subMesh.getFirstIndex() + subMesh.getIndexCount()) / 3, s);
+            }
+
+            // --- weld vertices w/the same position (sort by position & group equal ones) ---
+            Integer[] order = new Integer[vertexCount];
+            for (int v = 0; v < vertexCount; v++) order[v] = v;
+            Arrays.sort(order, this::comparePositions);
+            weld = new int[vertexCount];
+            siblings = new int[vertexCount];
+            siblingsStart = new int[vertexCount + 1];
+            int[] groupStart = new int[vertexCount];    // (per sorted position)
+            for (int i = 0; i < vertexCount; i++) {
+                groupStart[i] = i > 0 && comparePositions(order[i - 1], order[i]) == 0 ? groupStart[i - 1] : i;
+                weld[order[i]] = order[groupStart[i]];
+            }
+            int[] count = new int[vertexCount];
+            for (int v = 0; v < vertexCount; v++) count[weld[v]]++;
+            for (int v = 0; v < vertexCount; v++) siblingsStart[v + 1] = siblingsStart[v] + count[v];
+            int[] fill = Arrays.copyOf(siblingsStart, vertexCount);
+            for (int v = 0; v < vertexCount; v++) siblings[fill[weld[v]]++] = v;
+
+            // --- lock UV seams, borders, non-manifold edges & submesh boundaries ---
+            locked = new boolean[vertexCount];
+            for (int w = 0; w < vertexCount; w++) {
+                for (int i = siblingsStart[w] + 1; i < siblingsStart[w + 1]; i++) {
+                    int a = siblings[siblingsStart[w]] * 2, b = siblings[i] * 2;
+                    if (texCoords[a] != texCoords[b] || texCoords[a + 1] != texCoords[b + 1]) locked[w] = true;
+                }
+            }
+            Map<Long, Integer> edgeCounts = new HashMap<>();
+            int[] vertexSubMesh = new int[vertexCount];
+            Arrays.fill(vertexSubMesh, -1);
+            for (int t = 0; t < numOfTriangles; t++) {
+                for (int c = 0; c < 3; c++) {
+                    int a = weld[triangles[t * 3 + c]], b = weld[triangles[t * 3 + (c + 1) % 3]];
+                    edgeCounts.merge(edgeKey(a, b), 1, Integer::sum);
+                    if (vertexSubMesh[a] == -1) vertexSubMesh[a] = triangleSubMesh[t];
+                    else if (vertexSubMesh[a] != triangleSubMesh[t]) locked[a] = true;
+                }
+            }
+            for (Map.Entry<Long, Integer> edge : edgeCounts.entrySet()) {
+                if (edge.getValue() == 2) continue;
+                locked[(int) (edge.getKey() >>> 32)] = true;
+                locked[(int) (long) edge.getKey()] = true;
+            }
+
+            // --- quadrics: sum of the planes of the triangles around each vertex ---
+            quadrics = new double[vertexCount * 10];
+            float radius = 0;
+            for (int t = 0; t < numOfTriangles; t++) {
+                double[] plane = calcPlane(weld[triangles[t * 3]], weld[triangles[t * 3 + 1]], weld[triangles[t * 3 + 2]]);
+                if (plane == null) continue;
+                for (int c = 0; c < 3; c++) addPlane(weld[triangles[t * 3 + c]], plane);
+            }
+            float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE}, max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+            for (int i = 0; i < vertexCount * 3; i++) {
+                min[i % 3] = Math.min(min[i % 3], positions[i]);
+                max[i % 3] = Math.max(max[i % 3], positions[i]);
+            }
+            for (int c = 0; c < 3 && vertexCount > 0; c++) radius += (max[c] - min[c]) * (max[c] - min[c]) / 4;
+            maxCost = MAX_ERROR * MAX_ERROR * radius;   // (radius is squared)
+        }
+
+        /**
+         * Collapse edges (cheapest 1st, in passes of independent collapses) until the mesh has at most the
+         * given nº of triangles, or no more collapses are possible.
+         */
+        void simplify(int targetNumOfTriangles){
+            int vertexCount = weld.length;
+            int[] remap = new int[vertexCount];
+            boolean[] touched = new boolean[vertexCount];
+
+            while (numOfTriangles > targetNumOfTriangles) {
+                // --- welded vertex -> triangles adjacency (CSR) ---
+                int[] adjacencyStart = new int[vertexCount + 1];
+                for (int i = 0; i < numOfTriangles * 3; i++) adjacencyStart[weld[triangles[i]] + 1]++;
+                for (int v = 0; v < vertexCount; v++) adjacencyStart[v + 1] += adjacencyStart[v];
+                int[] adjacency = new int[numOfTriangles * 3];
+                int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+                for (int i = 0; i < numOfTriangles * 3; i++) adjacency[fill[weld[triangles[i]]]++] = i / 3;
+
+                // --- candidate collapses: cheapest direction of each edge ---
+                int numOfCandidates = 0;
+                int[] from = new int[numOfTriangles * 3], to = new int[numOfTriangles * 3];
+                double[] costs = new double[numOfTriangles * 3];
+                for (int i = 0; i < numOfTriangles * 3; i++) {
+                    int a = weld[triangles[i]], b = weld[triangles[i - i % 3 + (i + 1) % 3]];
+                    if (a > b) continue;    // (each interior edge is in 2 triangles, once in each direction)
+                    double costAB = locked[a] ? Double.MAX_VALUE : calcCost(a, b);
+                    double costBA = locked[b] ? Double.MAX_VALUE : calcCost(b, a);
+                    if (Math.min(costAB, costBA) > maxCost) continue;
+                    from[numOfCandidates] = costAB <= costBA ? a : b;
+                    to[numOfCandidates] = costAB <= costBA ? b : a;
+                    costs[numOfCandidates++] = Math.min(costAB, costBA);
+                }
+                if (numOfCandidates == 0) return;
+                Integer[] order = new Integer[numOfCandidates];
+                for (int i = 0; i < numOfCandidates; i++) order[i] = i;
+                Arrays.sort(order, (c1, c2) -> Double.compare(costs[c1], costs[c2]));
+
+                // --- collapse independent edges (none of their triangles' vertices touched by another collapse) ---
+                for (int v = 0; v < vertexCount; v++) remap[v] = v;
+                Arrays.fill(touched, false);
+                int numOfRemoved = 0, numOfCollapses = 0;
+                for (int c : order) {
+                    if (numOfTriangles - numOfRemoved <= targetNumOfTriangles) break;
+                    int u = from[c], v = to[c];
+                    if (touched[u] || touched[v] || flipsTriangles(u, v, adjacency, adjacencyStart)) continue;
+
+                    remap[u] = v;
+                    touched[u] = touched[v] = true;
+                    for (int q = 0; q < 10; q++) quadrics[v * 10 + q] += quadrics[u * 10 + q];
+                    error = Math.max(error, costs[c]);
+                    numOfCollapses++;
+                    for (int a = adjacencyStart[u]; a < adjacencyStart[u + 1]; a++) {
+                        int t = adjacency[a];
+                        boolean hasV = false;
+                        for (int k = 0; k < 3; k++) {
+                            int w = weld[triangles[t * 3 + k]];
+                            touched[w] = true;
+                            hasV |= w == v;
+                        }
+                        if (hasV) numOfRemoved++;
+                    }
+                }
+                if (numOfCollapses == 0) return;
+
+                // --- apply collapses & remove degenerate triangles ---
+                int numOfKept = 0;
+                for (int t = 0; t < numOfTriangles; t++) {
+                    for (int k = 0; k < 3; k++) {
+                        int vertex = triangles[t * 3 + k];
+                        if (remap[weld[vertex]] != weld[vertex]) triangles[t * 3 + k] = closestSibling(remap[weld[vertex]], vertex);
+                    }
+                    int a = weld[triangles[t * 3]], b = weld[triangles[t * 3 + 1]], c = weld[triangles[t * 3 + 2]];
+                    if (a == b || b == c || c == a) continue;
+                    System.arraycopy(triangles, t * 3, triangles, numOfKept * 3, 3);
+                    triangleSubMesh[numOfKept++] = triangleSubMesh[t];
+                }
+                numOfTriangles = numOfKept;
+            }
+        }
+
+        /**
+         * Returns current indices, sorted by submesh.
+         */
+        int[] getIndices(){
+            Integer[] order = new Integer[numOfTriangles];
+            for (int t = 0; t < numOfTriangles; t++) order[t] = t;
+            Arrays.sort(order, (t1, t2) -> Integer.compare(triangleSubMesh[t1], triangleSubMesh[t2]));  // (stable)
+            int[] indices = new int[numOfTriangles * 3];
+            for (int t = 0; t < numOfTriangles; t++) System.arraycopy(triangles, order[t] * 3, indices, t * 3, 3);
+            return indices;
+        }
+
+        int getNumOfTriangles(){
+            return numOfTriangles;
+        }
+
+        /**
+         * Returns (approximate) max distance between the simplified & the original surface.
+         */
+        float getError(){
+            return (float) Math.sqrt(error);
+        }
+
+        /**
+         * Returns true if moving welded vertex u to v would flip (or make degenerate) any triangle around u
+         * that isn't removed by the collapse.
+         */
+        private boolean flipsTriangles(int u, int v, int[] adjacency, int[] adjacencyStart){
+            for (int a = adjacencyStart[u]; a < adjacencyStart[u + 1]; a++) {
+                int t = adjacency[a];
+                int w0 = weld[triangles[t * 3]], w1 = weld[triangles[t * 3 + 1]], w2 = weld[triangles[t * 3 + 2]];
+                if (w0 == v || w1 == v || w2 == v) continue;    // (removed)
+                double[] before = calcNormal(w0, w1, w2);
+                double[] after = calcNormal(w0 == u ? v : w0, w1 == u ? v : w1, w2 == u ? v : w2);
+                if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Returns the vertex w/the position of welded vertex w whose tex coords & normal are closest to the given vertex's.
+         */
+        private int closestSibling(int w, int vertex){
+            int best = w;
+            float bestDistance = Float.MAX_VALUE;
+            for (int i = siblingsStart[w]; i < siblingsStart[w + 1]; i++) {
+                int s = siblings[i];
+                float distance = 0;
+                for (int c = 0; c < 2; c++) distance += square(texCoords[s * 2 + c] - texCoords[vertex * 2 + c]);
+                for (int c = 0; c < 3; c++) distance += square(normals[s * 3 + c] - normals[vertex * 3 + c]);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = s;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Cost of collapsing welded vertex u onto v: error of the merged quadrics at v's position.
+         */
+        private double calcCost(int u, int v){
+            double x = positions[v * 3], y = positions[v * 3 + 1], z = positions[v * 3 + 2];
+            double cost = 0;
+            for (int w : new int[]{u, v}) {
+                int q = w * 10;
+                cost += quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z + 2 * quadrics[q + 3] * x
+                        + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z + 2 * quadrics[q + 6] * y
+                        + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+            }
+            return Math.max(cost, 0);
+        }
+
+        private void addPlane(int w, double[] p){
+            int q = w * 10;
+            quadrics[q] += p[0] * p[0];
+            quadrics[q + 1] += p[0] * p[1];
+            quadrics[q + 2] += p[0] * p[2];
+            quadrics[q + 3] += p[0] * p[3];
+            quadrics[q + 4] += p[1] * p[1];
+            quadrics[q + 5] += p[1] * p[2];
+            quadrics[q + 6] += p[1] * p[3];
+            quadrics[q + 7] += p[2] * p[2];
+            quadrics[q + 8] += p[2] * p[3];
+            quadrics[q + 9] += p[3] * p[3];
+        }
+
+        /**
+         * Plane (unit normal & distance) of the given triangle, or null if it's degenerate.
+         */
+        private double[] calcPlane(int a, int b, int c){
+            double[] n = calcNormal(a, b, c);
+            double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            if (length == 0) return null;
+            for (int i = 0; i < 3; i++) n[i] /= length;
+            double d = -(n[0] * positions[a * 3] + n[1] * positions[a * 3 + 1] + n[2] * positions[a * 3 + 2]);
+            return new double[]{n[0], n[1], n[2], d};
+        }
+
+        /**
+         * (Unnormalised) normal of the given triangle.
+         */
+        private double[] calcNormal(int a, int b, int c){
+            double e1x = positions[b * 3] - positions[a * 3], e1y = positions[b * 3 + 1] - positions[a * 3 + 1], e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+            double e2x = positions[c * 3] - positions[a * 3], e2y = positions[c * 3 + 1] - positions[a * 3 + 1], e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+            return new double[]{e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+        }
+
+        private int comparePositions(int a, int b){
+            for (int c = 0; c < 3; c++) {
+                int result = Float.compare(positions[a * 3 + c], positions[b * 3 + c]);
+                if (result != 0) return result;
+            }
+            return 0;
+        }
+
+        private static long edgeKey(int a, int b){
+            return (long) Math.min(a, b) << 32 | Math.max(a, b);
+        }
+
+        private static float square(float v){
+            return v * v;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package graphics.core.io;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Encapsulates the data of a model that is imported in ModelLoader.importModel(...).
+ * This data includes:
+ *      - vertex positions, normals & texture coordinates (tightly packed floats: 3, 3 & 2 per vertex)
+ *      - vertex indices (unsigned ints, 3 per triangle)
+ *      - nº of vertices & indices
+ *      - the submeshes (e.g. groups/objects in an .obj file) the model is made of: ranges of the indices
+ *      - the model's levels of detail (LODs): ranges of the indices, w/LOD 0 (full detail) 1st & the
+ *        simplified LODs (if any, see {@link MeshSimplifier}) appended after it -- the submeshes are ranges of LOD 0
+ * The data is stored in direct {@link ByteBuffer}s (in native byte order) which can be passed straight to
+ * glBufferData -- these may be memory-mapped views of a {@link MeshCache} file.
+ * (No OpenGL objects, so it can be created on any thread & later uploaded to the GPU on the GL thread.)
+ */
+public class ModelData {
+    private ByteBuffer vPositions;
+    private ByteBuffer vIndeces;
+    private ByteBuffer vNormals;
+    private ByteBuffer texCoords;
+    private int vertexCount, indexCount;
+    private List<SubMesh> subMeshes;
+    private List<LODLevel> lodLevels;
+
+    /**
+     * Creates model data w/a single LOD (all the indices).
+     */
+    ModelData(ByteBuffer vPositions, ByteBuffer vIndeces, ByteBuffer vNormals, ByteBuffer texCoords,
+              int vertexCount, int indexCount, List<SubMesh> subMeshes){
+        this(vPositions, vIndeces, vNormals, texCoords, vertexCount, indexCount, subMeshes,
+                List.of(new LODLevel(0, indexCount, 0)));
+    }
+
+    ModelData(ByteBuffer vPositions, ByteBuffer vIndeces, ByteBuffer vNormals, ByteBuffer texCoords,
+              int vertexCount, int indexCount, List<SubMesh> subMeshes, List<LODLevel> lodLevels){
+        this.vPositions = vPositions;
+        this.vIndeces = vIndeces;
+        this.vNormals = vNormals;
+        this.texCoords = texCoords;
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.subMeshes = List.copyOf(subMeshes);
+        this.lodLevels = List.copyOf(lodLevels);
+    }
+
+    public ByteBuffer getVertexPositions() {
+        return vPositions;
+    }
+
+    public ByteBuffer getVertexIndices() {
+        return vIndeces;
+    }
+
+    public ByteBuffer getVertexNormals() {
+        return vNormals;
+    }
+
+    public ByteBuffer getTextureCoordinates() {
+        return texCoords;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public List<SubMesh> getSubMeshes() {
+        return subMeshes;
+    }
+
+    public List<LODLevel> getLODLevels() {
+        return lodLevels;
+    }
+
+    /**
+     * A part of a model (e.g. a group/object in an .obj file), drawn w/a contiguous range of the model's indices.
+     */
+    public static class SubMesh {
+        private final String name;
+        private final int firstIndex, indexCount;
+
+        public SubMesh(String name, int firstIndex, int indexCount){
+            this.name = name;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+
+        public String getName() {
+            return name;
+        }
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+        public int getIndexCount() {
+            return indexCount;
+        }
+    }
+
+    /**
+     * A level of detail of a model, drawn w/a contiguous range of the model's indices.
+     */
+    public static class LODLevel {
+        private final int firstIndex, indexCount;
+        private final float error;
+
+        public LODLevel(int firstIndex, int indexCount, float error){
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+            this.error = error;
+        }
+
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+        public int getIndexCount() {
+            return indexCount;
+        }
+        /**
+         * Returns (approximate) max distance between the LOD's surface & the full detail surface, in object coords.
+         */
+        public float getError() {
+            return error;
+        }
+    }
+}
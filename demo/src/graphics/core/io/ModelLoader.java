@@ -1,93 +1,165 @@
 package graphics.core.io;
 
+import graphics.core.resources.GPUResourceManager;
 import graphics.shapes.meshes.Mesh;
 import graphics.shapes.meshes.MeshFromOBJ;
+import org.lwjgl.BufferUtils;
 import org.lwjgl.assimp.*;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
 
 /**
  * To load models.
  */
 public class ModelLoader {
 
-    // map of filenames to meshes created from .obj files ( to ensure only 1 mesh is created per .obj file)
-    private static Map<String, MeshFromOBJ> mapFilenameToInstance = new HashMap<>();
+    // assimp post-processing flags used when importing models (part of the mesh cache key)
+    private static final int IMPORT_FLAGS = Assimp.aiProcess_Triangulate | Assimp.aiProcess_JoinIdenticalVertices;
+    // mesh cache key for models imported w/OBJParser (bit not used by assimp, so the 2 importers' caches never mix)
+    private static final int NATIVE_OBJ_IMPORT_FLAGS = 0x80000000;
+    // mesh cache key bit for models optimised w/MeshOptimizer (not used in IMPORT_FLAGS either)
+    private static final int OPTIMIZED_IMPORT_FLAG = 0x40000000;
+    // mesh cache key bit for models w/LODs generated by MeshSimplifier
+    private static final int LODS_IMPORT_FLAG = 0x20000000;
+
+    // true if .obj files are to be imported w/the (parallel, pure Java) OBJParser instead of Assimp
+    private static boolean useNativeOBJParser = true;
+    // true if imported models are to be optimised (index & vertex order) w/MeshOptimizer before being cached
+    private static boolean optimizeMeshes = true;
+    // true if simplified LODs of imported models are to be generated w/MeshSimplifier before being cached
+    private static boolean generateLODs = true;
 
     /**
-     * Creates a Mesh object for the model in the given .OBJ file
+     * Creates a Mesh object for the model in the given .OBJ file.
+     * Meshes are shared through the {@link GPUResourceManager} (to ensure only 1 mesh is created per .obj file)
+     * & should be released w/{@link GPUResourceManager#release} once no longer used.
      * @param filename {@link String} filename/filepath of the .OBJ file to load
      * @param useFaceCulling true if face culling is to be used when rendering the created Mesh
      * @return {@link Mesh} for the model from the .OBJ file.
      */
     public static Mesh loadModel(String filename, boolean useFaceCulling){
-        MeshFromOBJ returnValue = mapFilenameToInstance.getOrDefault(filename, null);
-
-        if( returnValue == null) {
-            // create assimp scene obj
-            AIScene scene = Assimp.aiImportFile(filename,
-                    Assimp.aiProcess_Triangulate |
-                            Assimp.aiProcess_JoinIdenticalVertices
-            );
-            if (scene == null) System.err.println("Couldn't load model at" + filename); // todo: raise exception instead
-
-            // get 1st mesh
-            AIMesh mesh = AIMesh.create(scene.mMeshes().get(0)); // get 1st mesh
-            int vertexCount = mesh.mNumVertices();
-            int faceCount = mesh.mNumFaces();
-
-            AIVector3D.Buffer vertices = mesh.mVertices(); // store vertices in buffer
-            AIVector3D.Buffer normals = mesh.mNormals();
-            AIFace.Buffer faces = mesh.mFaces();
-
-            float[] vPositions = new float[vertexCount * 3];
-            float[] vNormals = new float[vertexCount * 3];
-            int[] vIndeces = new int[vertexCount * 3];
-            float[] texCoords = new float[vertexCount * 2];
-
-            // add all vertex positions, indices, normals & texture coords in AImesh into appropriate arrays
+        return GPUResourceManager.acquire(getResourceKey(filename),
+                () -> new MeshFromOBJ(importModel(filename), useFaceCulling));    // import model & create Mesh obj
+    }
+
+    /**
+     * Creates a Mesh object for the model in the given .OBJ file, without blocking the calling thread.
+     * The model is imported on a worker thread by {@link AssetLoader} & the returned mesh is loaded
+     * onto the GPU later on, when the GL uploads are processed (until then the mesh isn't rendered).
+     * Must be called from the GL thread.
+     * @param filename {@link String} filename/filepath of the .OBJ file to load
+     * @param useFaceCulling true if face culling is to be used when rendering the created Mesh
+     * @return {@link Mesh} for the model from the .OBJ file (possibly not loaded onto the GPU yet).
+     */
+    public static Mesh loadModelAsync(String filename, boolean useFaceCulling){
+        return GPUResourceManager.acquire(getResourceKey(filename), () -> {
+            MeshFromOBJ mesh = new MeshFromOBJ(useFaceCulling);
+            AssetLoader.load(() -> importModel(filename), mesh::loadData);
+            return mesh;
+        });
+    }
+
+    private static String getResourceKey(String filename){
+        return "mesh:" + filename;
+    }
+
+    /**
+     * Imports the model in the given .OBJ file, and returns its data.
+     * Uses the model's {@link MeshCache} file if valid, else imports the model using {@link OBJParser}
+     * (or Assimp, for other file formats or if the native parser is disabled), optimises it w/{@link MeshOptimizer},
+     * generates its LODs w/{@link MeshSimplifier} & caches the result (so these are only done once per model).
+     * Doesn't make any OpenGL calls, so can be called from any thread.
+     * @param filename {@link String} filename/filepath of the .OBJ file to load
+     * @return {@link ModelData} object containing the model's data.
+     */
+    public static ModelData importModel(String filename){
+        boolean useNativeParser = useNativeOBJParser && filename.toLowerCase().endsWith(".obj");
+        int importFlags = (useNativeParser ? NATIVE_OBJ_IMPORT_FLAGS : IMPORT_FLAGS) | (optimizeMeshes ? OPTIMIZED_IMPORT_FLAG : 0)
+                | (generateLODs ? LODS_IMPORT_FLAG : 0);
+
+        ModelData modelData = MeshCache.load(filename, importFlags);    // warm start: mapped cache file
+        if (modelData == null) {
+            modelData = useNativeParser ? OBJParser.parse(filename) : importModelWithAssimp(filename);
+            if (optimizeMeshes) modelData = MeshOptimizer.optimize(modelData, filename);
+            if (generateLODs) modelData = MeshSimplifier.generateLODs(modelData, filename);
+            MeshCache.store(filename, importFlags, modelData);
+        }
+        return modelData;
+    }
+
+    public static void setUseNativeOBJParser(boolean useNativeOBJParser) {
+        ModelLoader.useNativeOBJParser = useNativeOBJParser;
+    }
+
+    public static void setOptimizeMeshes(boolean optimizeMeshes) {
+        ModelLoader.optimizeMeshes = optimizeMeshes;
+    }
+
+    public static void setGenerateLODs(boolean generateLODs) {
+        ModelLoader.generateLODs = generateLODs;
+    }
+
+    /**
+     * Imports the model in the given .OBJ file using Assimp, and returns its data.
+     * @param filename {@link String} filename/filepath of the .OBJ file to load
+     * @return {@link ModelData} object containing the model's data.
+     */
+    private static ModelData importModelWithAssimp(String filename){
+        // create assimp scene obj
+        AIScene scene = Assimp.aiImportFile(filename, IMPORT_FLAGS);
+        if (scene == null) throw new RuntimeException("Couldn't load model at " + filename);
+
+        // get 1st mesh
+        AIMesh mesh = AIMesh.create(scene.mMeshes().get(0)); // get 1st mesh
+        int vertexCount = mesh.mNumVertices();
+        int faceCount = mesh.mNumFaces();
+
+        AIVector3D.Buffer vertices = mesh.mVertices(); // store vertices in buffer
+        AIVector3D.Buffer normals = mesh.mNormals();
+        AIFace.Buffer faces = mesh.mFaces();
+
+        ByteBuffer vPositions = BufferUtils.createByteBuffer(vertexCount * 3 * Float.BYTES);
+        ByteBuffer vNormals = BufferUtils.createByteBuffer(vertexCount * 3 * Float.BYTES);
+        ByteBuffer texCoords = BufferUtils.createByteBuffer(vertexCount * 2 * Float.BYTES);
+
+        // vertex positions & normals: assimp stores them as tightly packed 3-float vectors, so copy in bulk
+        memCopy(vertices.address(), memAddress(vPositions), (long) vertexCount * AIVector3D.SIZEOF);
+        if (normals != null) memCopy(normals.address(), memAddress(vNormals), (long) vertexCount * AIVector3D.SIZEOF);
+
+        // texture coords (assimp stores them as 3-float vectors, only need 1st 2 components)
+        if (mesh.mNumUVComponents().get(0) != 0) { // there are tex coords
+            AIVector3D.Buffer aiTexCoords = mesh.mTextureCoords(0);
+            FloatBuffer texCoordsF = texCoords.asFloatBuffer();
             for (int i = 0; i < vertexCount; i++) {
-                // vertices
-                AIVector3D vertex = vertices.get(i);
-                vPositions[i * 3] = vertex.x();
-                vPositions[i * 3 + 1] = vertex.y();
-                vPositions[i * 3 + 2] = vertex.z();
-
-                // normals
-                AIVector3D normal = normals.get(i);
-                vNormals[i * 3] = normal.x();
-                vNormals[i * 3 + 1] = normal.y();
-                vNormals[i * 3 + 2] = normal.z();
-
-                // indices
-                if (i < faceCount) {
-                    IntBuffer faceIndeces = faces.get(i).mIndices();
-                    vIndeces[i * 3] = faceIndeces.get(0);
-                    vIndeces[i * 3 + 1] = faceIndeces.get(1);
-                    vIndeces[i * 3 + 2] = faceIndeces.get(2);
-                }
-
-                // texture coords
-                float texX = 0.0f;
-                float texY = 0.0f;
-                if (mesh.mNumUVComponents().get(0) != 0) { // there are tex coords
-                    AIVector3D texCoord = mesh.mTextureCoords(0).get(i);
-                    texX = texCoord.x();
-                    texY = texCoord.y();
-                }
-                texCoords[i * 2] = texX;
-                texCoords[i * 2 + 1] = texY;
+                AIVector3D texCoord = aiTexCoords.get(i);
+                texCoordsF.put(i * 2, texCoord.x());
+                texCoordsF.put(i * 2 + 1, texCoord.y());
             }
+        }
 
-            // return Mesh obj
-            returnValue = new MeshFromOBJ(vPositions, vIndeces, vNormals, texCoords, useFaceCulling);
-
-            // place into map
-            mapFilenameToInstance.put(filename, returnValue);
+        // indices, for all (triangle) faces -- skip points & lines left by aiProcess_Triangulate
+        ByteBuffer vIndeces = BufferUtils.createByteBuffer(faceCount * 3 * Integer.BYTES);
+        IntBuffer vIndecesI = vIndeces.asIntBuffer();
+        for (int i = 0; i < faceCount; i++) {
+            AIFace face = faces.get(i);
+            if (face.mNumIndices() != 3) continue;
+            IntBuffer faceIndeces = face.mIndices();
+            vIndecesI.put(faceIndeces.get(0));
+            vIndecesI.put(faceIndeces.get(1));
+            vIndecesI.put(faceIndeces.get(2));
         }
+        int indexCount = vIndecesI.position();
+        vIndeces.limit(indexCount * Integer.BYTES);
+
+        Assimp.aiReleaseImport(scene);  // free assimp's copy of the model
 
-        return returnValue;
+        List<ModelData.SubMesh> subMeshes = List.of(new ModelData.SubMesh(mesh.mName().dataString(), 0, indexCount));
+        return new ModelData(vPositions, vIndeces, vNormals, texCoords, vertexCount, indexCount, subMeshes);
     }
 }
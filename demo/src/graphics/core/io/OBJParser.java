@@ -0,0 +1,604 @@
+package graphics.core.io;
+
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Pure Java parser for Wavefront .obj files (alternative to importing them w/Assimp).
+ *
+ * The file is memory-mapped & split into line-aligned chunks, which are parsed in parallel (on the common
+ * fork/join pool) into primitive arrays. The chunks are then merged: relative indices are resolved,
+ * identical (position, tex coord, normal) corners are merged into a single vertex (w/a primitive open
+ * addressing hash map, no boxing) & faces are triangulated (as fans).
+ * Each group/object ('g'/'o' statement) of the file becomes its own {@link ModelData.SubMesh}.
+ *
+ * Supports the statements needed for meshes: v, vt, vn, f, g & o (others, e.g. mtllib/usemtl/s, are ignored).
+ * If the file has no normals, smooth normals are computed from the faces.
+ */
+public class OBJParser {
+
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;    // bytes (smaller files parsed as a single chunk)
+    private static final int MIN_CORNERS_PER_PARTITION = 64 * 1024;  // (smaller models deduplicated as a single partition)
+    private static final String DEFAULT_GROUP_NAME = "default";
+
+    /**
+     * Parses the given .obj file.
+     * @param filename {@link String} filename/filepath of the .obj file to parse
+     * @return {@link ModelData} object containing the model's data.
+     */
+    public static ModelData parse(String filename){
+        return parse(filename, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the given .obj file, in parallel on the given pool (the nº of chunks & of partitions depends on its
+     * parallelism, the result doesn't).
+     */
+    static ModelData parse(String filename, ForkJoinPool pool){
+        Path path = Paths.get(filename);
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new RuntimeException("Model file too large: " + filename);
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't load model at " + filename, e);
+        }
+
+        // --- parse line-aligned chunks in parallel ---
+        int[] chunkStarts = splitIntoChunks(file, pool.getParallelism());
+        List<ChunkParser> tasks = new ArrayList<>(chunkStarts.length - 1);
+        for (int i = 0; i < chunkStarts.length - 1; i++) tasks.add(new ChunkParser(file, chunkStarts[i], chunkStarts[i + 1]));
+        pool.invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                invokeAll(tasks);
+                return null;
+            }
+        });
+
+        ChunkData[] chunks = new ChunkData[tasks.size()];
+        for (int i = 0; i < chunks.length; i++) chunks[i] = tasks.get(i).join();
+
+        try {
+            return merge(chunks, pool);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Invalid model file " + filename + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Split the file into chunks, each starting at the beginning of a line.
+     * @return offsets of the start of each chunk (& the end of the file as the last element)
+     */
+    private static int[] splitIntoChunks(ByteBuffer file, int parallelism){
+        int size = file.limit();
+        int numOfChunks = Math.max(1, Math.min(parallelism * 4, size / MIN_CHUNK_SIZE));
+        int[] starts = new int[numOfChunks + 1];
+        int n = 1;
+        for (int i = 1; i < numOfChunks; i++) {
+            int start = Math.max((int) ((long) size * i / numOfChunks), starts[n - 1]);
+            while (start < size && file.get(start - 1) != '\n') start++;   // move to start of next line
+            if (start > starts[n - 1] && start < size) starts[n++] = start;
+        }
+        starts[n++] = size;
+        return Arrays.copyOf(starts, n);
+    }
+
+    /**
+     * Merge the parsed chunks into the model's data: resolve indices, merge identical vertices & build the submeshes.
+     * Each step is split into independent parts run in parallel (on the given pool): chunks, runs of triangles,
+     * partitions of the vertices & ranges of the buffers.
+     */
+    private static ModelData merge(ChunkData[] chunks, ForkJoinPool pool){
+        // --- offsets of each chunk's vertex data in the whole file (prefix sums) ---
+        int numOfPositions = 0, numOfTexCoords = 0, numOfNormals = 0;
+        for (ChunkData chunk : chunks) {
+            chunk.positionOffset = numOfPositions;
+            chunk.texCoordOffset = numOfTexCoords;
+            chunk.normalOffset = numOfNormals;
+            numOfPositions += chunk.positions.size / 3;
+            numOfTexCoords += chunk.texCoords.size / 2;
+            numOfNormals += chunk.normals.size / 3;
+        }
+        float[] positions = new float[numOfPositions * 3];
+        float[] texCoords = new float[numOfTexCoords * 2];
+        float[] normals = new float[numOfNormals * 3];
+
+        // --- (per chunk) copy its vertex data & resolve its relative indices ---
+        parallelFor(pool, chunks.length, i -> {
+            ChunkData chunk = chunks[i];
+            System.arraycopy(chunk.positions.data, 0, positions, chunk.positionOffset * 3, chunk.positions.size);
+            System.arraycopy(chunk.texCoords.data, 0, texCoords, chunk.texCoordOffset * 2, chunk.texCoords.size);
+            System.arraycopy(chunk.normals.data, 0, normals, chunk.normalOffset * 3, chunk.normals.size);
+            int[] corners = chunk.corners.data;
+            for (int r = 0; r < chunk.relativeCorners.size; r += 2) {
+                int c = chunk.relativeCorners.data[r], relativeMask = chunk.relativeCorners.data[r + 1];
+                if ((relativeMask & 1) != 0) corners[c] += chunk.positionOffset;
+                if ((relativeMask & 2) != 0) corners[c + 1] += chunk.texCoordOffset;
+                if ((relativeMask & 4) != 0) corners[c + 2] += chunk.normalOffset;
+            }
+        });
+
+        // --- group runs of triangles by group name (only the runs' bounds here, they're copied below) ---
+        Map<String, List<int[]>> runsPerGroup = new LinkedHashMap<>();     // (chunk, start, end) of each run
+        String currentGroup = DEFAULT_GROUP_NAME;
+        for (int i = 0; i < chunks.length; i++) {
+            ChunkData chunk = chunks[i];
+            int runStart = 0;
+            for (int g = 0; g <= chunk.groupStarts.size; g++) {
+                int runEnd = g < chunk.groupStarts.size ? chunk.groupStarts.data[g] : chunk.corners.size;
+                if (runEnd > runStart)
+                    runsPerGroup.computeIfAbsent(currentGroup, k -> new ArrayList<>()).add(new int[]{i, runStart, runEnd});
+                if (g < chunk.groupStarts.size) currentGroup = chunk.groupNames.get(g);
+                runStart = runEnd;
+            }
+        }
+
+        // --- copy the runs into a single corners array, group after group (a submesh per group) ---
+        List<int[]> runs = new ArrayList<>();
+        List<int[]> runDestinations = new ArrayList<>();
+        List<ModelData.SubMesh> subMeshes = new ArrayList<>();
+        int numOfCornerInts = 0;
+        for (Map.Entry<String, List<int[]>> group : runsPerGroup.entrySet()) {
+            int groupStart = numOfCornerInts;
+            for (int[] run : group.getValue()) {
+                runs.add(run);
+                runDestinations.add(new int[]{numOfCornerInts});
+                numOfCornerInts += run[2] - run[1];
+            }
+            subMeshes.add(new ModelData.SubMesh(group.getKey(), groupStart / 3, (numOfCornerInts - groupStart) / 3));
+        }
+        int[] corners = new int[numOfCornerInts];
+        parallelFor(pool, runs.size(), r -> {
+            int[] run = runs.get(r);
+            System.arraycopy(chunks[run[0]].corners.data, run[1], corners, runDestinations.get(r)[0], run[2] - run[1]);
+        });
+        int numOfCorners = numOfCornerInts / 3;
+
+        // --- merge identical corners into vertices: the vertices are partitioned by position index, & each
+        // partition has its own hash map (a corner's vertex is always in the partition of its position; partitions
+        // needn't be even, e.g. w/unique positions, so the maps grow as needed) ---
+        int numOfPartitions = Math.max(1, Math.min(pool.getParallelism(), numOfCorners / MIN_CORNERS_PER_PARTITION));
+        VertexMap[] vertexMaps = new VertexMap[numOfPartitions];
+        int[] indices = new int[numOfCorners];      // (index in its partition, then in the whole vertex list)
+        boolean[] addsVertex = new boolean[numOfCorners];   // (true for the 1st corner of each vertex)
+        final int numOfPositionsF = numOfPositions, numOfTexCoordsF = numOfTexCoords, numOfNormalsF = numOfNormals;
+        parallelFor(pool, numOfPartitions, p -> {
+            VertexMap vertexMap = new VertexMap(numOfCorners / numOfPartitions);
+            for (int c = 0, i = 0; c < corners.length; c += 3, i++) {
+                int v = corners[c];
+                if (Math.floorMod(v, numOfPartitions) != p) continue;
+                int vt = corners[c + 1], vn = corners[c + 2];
+                if (v < 0 || v >= numOfPositionsF) throw new RuntimeException("position index out of range: " + (v + 1));
+                if (vt < -1 || vt >= numOfTexCoordsF) throw new RuntimeException("tex coord index out of range: " + (vt + 1));
+                if (vn < -1 || vn >= numOfNormalsF) throw new RuntimeException("normal index out of range: " + (vn + 1));
+                int numOfVertices = vertexMap.size;
+                indices[i] = vertexMap.getOrAdd(v, vt, vn);
+                addsVertex[i] = vertexMap.size > numOfVertices;
+            }
+            vertexMaps[p] = vertexMap;
+        });
+
+        // --- number the vertices in order of their 1st corner, as if merged serially (so the result doesn't depend
+        // on the nº of partitions): 1st corners get their vertex's index, then each partition maps its indices ---
+        int vertexCount = 0;
+        for (int i = 0; i < numOfCorners; i++) if (addsVertex[i]) indices[i] = vertexCount++;
+        int[][] vertexIndices = new int[numOfPartitions][];     // (index in the whole vertex list of each partition's vertices)
+        parallelFor(pool, numOfPartitions, p -> {
+            int[] partitionIndices = vertexIndices[p] = new int[vertexMaps[p].size];
+            int numOfVertices = 0;
+            for (int i = 0; i < numOfCorners; i++) {
+                if (Math.floorMod(corners[i * 3], numOfPartitions) != p) continue;
+                if (addsVertex[i]) partitionIndices[numOfVertices++] = indices[i];   // (a partition adds its vertices in order)
+                else indices[i] = partitionIndices[indices[i]];
+            }
+        });
+
+        // --- build vertex & index buffers ---
+        int indexCount = numOfCorners;
+        ByteBuffer vPositions = BufferUtils.createByteBuffer(vertexCount * 3 * Float.BYTES);
+        ByteBuffer vNormals = BufferUtils.createByteBuffer(vertexCount * 3 * Float.BYTES);
+        ByteBuffer vTexCoords = BufferUtils.createByteBuffer(vertexCount * 2 * Float.BYTES);
+        ByteBuffer vIndeces = BufferUtils.createByteBuffer(indexCount * Integer.BYTES);
+        FloatBuffer positionsF = vPositions.asFloatBuffer();
+        FloatBuffer normalsF = vNormals.asFloatBuffer();
+        FloatBuffer texCoordsF = vTexCoords.asFloatBuffer();
+
+        // (computed serially: faces scatter their normals into shared positions -- only for files w/o normals)
+        float[] smoothNormals = numOfNormals == 0 ? calcSmoothNormals(positions, corners) : null;
+        parallelFor(pool, numOfPartitions, p -> {     // (each partition's vertices, written at absolute positions)
+            int[] vertices = vertexMaps[p].vertices;
+            for (int j = 0; j < vertexMaps[p].size; j++) {
+                int i = vertexIndices[p][j];
+                int v = vertices[j * 3], vt = vertices[j * 3 + 1], vn = vertices[j * 3 + 2];
+                positionsF.put(i * 3, positions, v * 3, 3);
+                if (vt != -1) texCoordsF.put(i * 2, texCoords, vt * 2, 2);
+                if (vn != -1) normalsF.put(i * 3, normals, vn * 3, 3);
+                else if (smoothNormals != null) normalsF.put(i * 3, smoothNormals, v * 3, 3);
+                // (missing tex coords & normals left as 0s, as the buffers are zeroed)
+            }
+        });
+        IntBuffer indicesI = vIndeces.asIntBuffer();
+        indicesI.put(indices, 0, indexCount);
+
+        return new ModelData(vPositions, vIndeces, vNormals, vTexCoords, vertexCount, indexCount, subMeshes);
+    }
+
+    /**
+     * Run body(0), body(1), ... body(n - 1) in parallel on the given pool (& wait for all of them).
+     */
+    private static void parallelFor(ForkJoinPool pool, int n, IntConsumer body){
+        if (n == 1) body.accept(0);
+        else pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(IntStream.range(0, n).mapToObj(i -> ForkJoinTask.adapt(() -> body.accept(i))).collect(Collectors.toList()));
+            }
+        });
+    }
+
+    /**
+     * Smooth normal of each position: sum of the (area weighted) normals of the faces using the position, normalised.
+     */
+    private static float[] calcSmoothNormals(float[] positions, int[] corners){
+        float[] normals = new float[positions.length];
+        for (int c = 0; c < corners.length; c += 9) {
+            int a = corners[c] * 3, b = corners[c + 3] * 3, d = corners[c + 6] * 3;
+            float e1x = positions[b] - positions[a], e1y = positions[b + 1] - positions[a + 1], e1z = positions[b + 2] - positions[a + 2];
+            float e2x = positions[d] - positions[a], e2y = positions[d + 1] - positions[a + 1], e2z = positions[d + 2] - positions[a + 2];
+            float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+            for (int p : new int[]{a, b, d}) {
+                normals[p] += nx;
+                normals[p + 1] += ny;
+                normals[p + 2] += nz;
+            }
+        }
+        for (int p = 0; p < normals.length; p += 3) {
+            float length = (float) Math.sqrt(normals[p] * normals[p] + normals[p + 1] * normals[p + 1] + normals[p + 2] * normals[p + 2]);
+            if (length > 0) {
+                normals[p] /= length;
+                normals[p + 1] /= length;
+                normals[p + 2] /= length;
+            }
+        }
+        return normals;
+    }
+
+    /**
+     * Data parsed from a chunk of the file.
+     * Indices in corners are 0-based; relative (negative) indices are stored relative to the start of the chunk
+     * (& their positions recorded in relativeCorners), as the nº of vertices in the previous chunks isn't known yet.
+     */
+    private static class ChunkData {
+        final FloatList positions = new FloatList(1024), texCoords = new FloatList(1024), normals = new FloatList(1024);
+        final IntList corners = new IntList(4096);          // (v, vt, vn) per triangle corner, -1 if missing
+        final IntList relativeCorners = new IntList(16);    // (offset in corners, mask of relative components) pairs
+        final IntList groupStarts = new IntList(16);        // offsets in corners where each group starts
+        final List<String> groupNames = new ArrayList<>();
+        int positionOffset, texCoordOffset, normalOffset;   // filled in when merging
+    }
+
+    /**
+     * Parses the lines in [start, end) of the file.
+     */
+    private static class ChunkParser extends RecursiveTask<ChunkData> {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer file;
+        private final int start, end;
+        private int pos;    // current position in file
+        private final int[] corner = new int[3];
+        private int cornerRelative;
+
+        ChunkParser(ByteBuffer file, int start, int end){
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected ChunkData compute() {
+            ChunkData chunk = new ChunkData();
+            int[] first = new int[3], prev = new int[3];
+            pos = start;
+            while (pos < end) {
+                skipSpaces();
+                if (pos >= end) break;
+                byte c0 = file.get(pos);
+                byte c1 = pos + 1 < end ? file.get(pos + 1) : (byte) '\n';
+
+                if (c0 == 'v' && isSpace(c1)) {             // v x y z
+                    pos++;
+                    chunk.positions.add(parseFloat()).add(parseFloat()).add(parseFloat());
+                } else if (c0 == 'v' && c1 == 't') {        // vt u v [w]
+                    pos += 2;
+                    chunk.texCoords.add(parseFloat()).add(parseFloat());
+                } else if (c0 == 'v' && c1 == 'n') {        // vn x y z
+                    pos += 2;
+                    chunk.normals.add(parseFloat()).add(parseFloat()).add(parseFloat());
+                } else if (c0 == 'f' && isSpace(c1)) {      // f v[/vt][/vn] ... (triangulated as a fan)
+                    pos++;
+                    int numOfCorners = 0, firstRelative = 0, prevRelative = 0;
+                    while (parseCorner(chunk)) {
+                        if (numOfCorners == 0) {
+                            System.arraycopy(corner, 0, first, 0, 3);
+                            firstRelative = cornerRelative;
+                        } else if (numOfCorners >= 2) {
+                            addRelative(chunk, chunk.corners.size, firstRelative);
+                            addRelative(chunk, chunk.corners.size + 3, prevRelative);
+                            addRelative(chunk, chunk.corners.size + 6, cornerRelative);
+                            chunk.corners.add(first, 0, 3).add(prev, 0, 3).add(corner, 0, 3);
+                        }
+                        System.arraycopy(corner, 0, prev, 0, 3);
+                        prevRelative = cornerRelative;
+                        numOfCorners++;
+                    }
+                } else if ((c0 == 'g' || c0 == 'o') && isSpace(c1)) {  // g/o name
+                    pos++;
+                    chunk.groupStarts.add(chunk.corners.size);
+                    chunk.groupNames.add(parseName());
+                }
+                skipLine();
+            }
+            return chunk;
+        }
+
+        private static void addRelative(ChunkData chunk, int cornerOffset, int relativeMask){
+            if (relativeMask != 0) chunk.relativeCorners.add(cornerOffset).add(relativeMask);
+        }
+
+        /**
+         * Parse the next v[/vt][/vn] corner of a face into corner (0-based indices, -1 if missing).
+         * Relative (negative) indices are made relative to the start of the chunk & flagged in cornerRelative
+         * (bit k set if component k is relative).
+         * @return false if there are no more corners in the line
+         */
+        private boolean parseCorner(ChunkData chunk){
+            skipSpaces();
+            if (pos >= end || isLineEnd(file.get(pos))) return false;
+            cornerRelative = 0;
+            corner[0] = parseIndex(0, chunk.positions.size / 3);
+            corner[1] = corner[2] = -1;
+            if (pos < end && file.get(pos) == '/') {
+                pos++;
+                if (pos < end && file.get(pos) != '/') corner[1] = parseIndex(1, chunk.texCoords.size / 2);
+                if (pos < end && file.get(pos) == '/') {
+                    pos++;
+                    corner[2] = parseIndex(2, chunk.normals.size / 3);
+                }
+            }
+            while (pos < end && !isSpace(file.get(pos)) && !isLineEnd(file.get(pos))) pos++;  // skip junk
+            return true;
+        }
+
+        /**
+         * @param component 0 for position, 1 for tex coord, 2 for normal
+         * @param numInChunk nº of elements of the component parsed so far in this chunk
+         */
+        private int parseIndex(int component, int numInChunk){
+            boolean negative = pos < end && file.get(pos) == '-';
+            if (negative) pos++;
+            int value = 0;
+            while (pos < end) {
+                int d = file.get(pos) - '0';
+                if (d < 0 || d > 9) break;
+                value = value * 10 + d;
+                pos++;
+            }
+            if (value == 0) throw new RuntimeException("invalid index in face at offset " + pos);
+            if (!negative) return value - 1;
+            cornerRelative |= 1 << component;
+            return numInChunk - value;
+        }
+
+        private float parseFloat(){
+            skipSpaces();
+            int tokenStart = pos;
+            boolean negative = false;
+            if (pos < end && (file.get(pos) == '-' || file.get(pos) == '+')) negative = file.get(pos++) == '-';
+
+            long mantissa = 0;
+            int numOfDigits = 0, exponent = 0;
+            byte b;
+            while (pos < end && (b = file.get(pos)) >= '0' && b <= '9') {
+                if (numOfDigits < 18) { mantissa = mantissa * 10 + (b - '0'); numOfDigits++; }
+                else exponent++;
+                pos++;
+            }
+            if (pos < end && file.get(pos) == '.') {
+                pos++;
+                while (pos < end && (b = file.get(pos)) >= '0' && b <= '9') {
+                    if (numOfDigits < 18) { mantissa = mantissa * 10 + (b - '0'); numOfDigits++; exponent--; }
+                    pos++;
+                }
+            }
+
+            if (pos < end && !isSpace(file.get(pos)) && !isLineEnd(file.get(pos))) {
+                // exponent, nan, inf, ... -- uncommon, so leave to Float.parseFloat
+                while (pos < end && !isSpace(file.get(pos)) && !isLineEnd(file.get(pos))) pos++;
+                return parseFloatToken(tokenStart);
+            }
+            if (pos == tokenStart) return 0f;   // missing value (e.g. 'vt u' w/o v)
+            if (exponent >= POWERS_OF_10.length || -exponent >= POWERS_OF_10.length)
+                return parseFloatToken(tokenStart);     // (> 57 integer digits or > 39 decimals, beyond the table)
+
+            double value = exponent >= 0 ? mantissa * POWERS_OF_10[exponent] : mantissa / POWERS_OF_10[-exponent];
+            return (float) (negative ? -value : value);
+        }
+
+        /**
+         * Parse the token in [tokenStart, pos) w/Float.parseFloat (slow path).
+         */
+        private float parseFloatToken(int tokenStart){
+            byte[] token = new byte[pos - tokenStart];
+            for (int i = 0; i < token.length; i++) token[i] = file.get(tokenStart + i);
+            try {
+                return Float.parseFloat(new String(token, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("invalid number '" + new String(token, StandardCharsets.US_ASCII) + "'");
+            }
+        }
+
+        private String parseName(){
+            skipSpaces();
+            int nameStart = pos;
+            int nameEnd = pos;
+            while (pos < end && !isLineEnd(file.get(pos))) {
+                if (!isSpace(file.get(pos))) nameEnd = pos + 1;    // trim trailing spaces
+                pos++;
+            }
+            byte[] name = new byte[nameEnd - nameStart];
+            for (int i = 0; i < name.length; i++) name[i] = file.get(nameStart + i);
+            return name.length == 0 ? DEFAULT_GROUP_NAME : new String(name, StandardCharsets.UTF_8);
+        }
+
+        private void skipSpaces(){
+            while (pos < end && isSpace(file.get(pos))) pos++;
+        }
+
+        private void skipLine(){
+            while (pos < end && file.get(pos) != '\n') pos++;
+            pos++;
+        }
+
+        private static boolean isSpace(byte b){
+            return b == ' ' || b == '\t';
+        }
+
+        private static boolean isLineEnd(byte b){
+            return b == '\n' || b == '\r' || b == '#';
+        }
+    }
+
+    private static final double[] POWERS_OF_10 = new double[40];
+    static {
+        POWERS_OF_10[0] = 1;
+        for (int i = 1; i < POWERS_OF_10.length; i++) POWERS_OF_10[i] = POWERS_OF_10[i - 1] * 10;
+    }
+
+    /**
+     * Hash map from (position, tex coord, normal) index triplets to vertex indices (open addressing, linear probing).
+     * Sized for the expected nº of corners, & grown (doubled & rehashed) if more vertices are added.
+     */
+    private static class VertexMap {
+        int[] vertices;     // (v, vt, vn) of each vertex
+        int size;           // nº of vertices
+        private int[] table;    // vertex index + 1 in each slot, 0 if empty
+        private int mask;
+
+        VertexMap(int expectedNumOfCorners){
+            int capacity = Integer.highestOneBit(Math.max(16, expectedNumOfCorners * 2 - 1)) << 1;
+            table = new int[capacity];
+            mask = capacity - 1;
+            vertices = new int[Math.max(16, expectedNumOfCorners) * 3];
+        }
+
+        int getOrAdd(int v, int vt, int vn){
+            int slot = slotOf(v, vt, vn);
+            while (true) {
+                int index = table[slot] - 1;
+                if (index < 0) break;
+                if (vertices[index * 3] == v && vertices[index * 3 + 1] == vt && vertices[index * 3 + 2] == vn) return index;
+                slot = (slot + 1) & mask;
+            }
+
+            // new vertex (table kept at most half full)
+            if ((size + 1) * 2 > table.length) {
+                grow();
+                slot = slotOf(v, vt, vn);
+                while (table[slot] != 0) slot = (slot + 1) & mask;
+            }
+            if ((size + 1) * 3 > vertices.length) vertices = Arrays.copyOf(vertices, vertices.length * 2);
+            int index = size++;
+            vertices[index * 3] = v;
+            vertices[index * 3 + 1] = vt;
+            vertices[index * 3 + 2] = vn;
+            table[slot] = index + 1;
+            return index;
+        }
+
+        private int slotOf(int v, int vt, int vn){
+            int h = v * 0x9E3779B1 + vt * 0x85EBCA6B + vn * 0xC2B2AE35;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        /**
+         * Double the table's capacity & reinsert the vertices.
+         */
+        private void grow(){
+            table = new int[table.length * 2];
+            mask = table.length - 1;
+            for (int index = 0; index < size; index++) {
+                int slot = slotOf(vertices[index * 3], vertices[index * 3 + 1], vertices[index * 3 + 2]);
+                while (table[slot] != 0) slot = (slot + 1) & mask;
+                table[slot] = index + 1;
+            }
+        }
+    }
+
+    /**
+     * Growable list of primitive floats.
+     */
+    private static class FloatList {
+        float[] data;
+        int size;
+
+        FloatList(int capacity){
+            data = new float[capacity];
+        }
+
+        FloatList add(float value){
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+            return this;
+        }
+    }
+
+    /**
+     * Growable list of primitive ints.
+     */
+    private static class IntList {
+        int[] data;
+        int size;
+
+        IntList(int capacity){
+            data = new int[Math.max(capacity, 4)];
+        }
+
+        IntList add(int value){
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+            return this;
+        }
+
+        IntList add(int[] values, int from, int to){
+            int length = to - from;
+            if (size + length > data.length) data = Arrays.copyOf(data, Math.max(size * 2, size + length));
+            System.arraycopy(values, from, data, size, length);
+            size += length;
+            return this;
+        }
+    }
+}
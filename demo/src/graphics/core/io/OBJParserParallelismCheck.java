@@ -0,0 +1,110 @@
+package graphics.core.io;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Regression check for {@link OBJParser}: parses the same files on pools of different parallelism (so w/different
+ * nº of chunks & of vertex partitions) & checks the results are identical to the single-threaded one.
+ * The files are generated (in a temp directory):
+ *      - a triangle soup w/unique positions (nº of vertices = nº of corners, so the vertex partitions are as
+ *        uneven as they get -- used to overflow the partitions' vertex maps)
+ *      - a grid w/shared vertices, tex coords, groups & relative indices, w/o normals (smooth normals computed)
+ * No GL context needed. Throws a RuntimeException on the 1st mismatch.
+ *
+ * Run from the demo directory: java -cp out:lib/* graphics.core.io.OBJParserParallelismCheck
+ */
+class OBJParserParallelismCheck {
+
+    private static final int[] PARALLELISMS = {1, 2, 3, 4, 8};
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("objParserCheck");
+        try {
+            check(writeTriangleSoup(dir.resolve("soup.obj"), 43691));
+            check(writeGrid(dir.resolve("grid.obj"), 400));
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(dir);
+        }
+        System.out.println("OK");
+    }
+
+    /**
+     * Parse the file at each parallelism & compare to the result at parallelism 1.
+     */
+    private static void check(Path file){
+        ModelData expected = null;
+        for (int parallelism : PARALLELISMS) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            ModelData data;
+            try {
+                data = OBJParser.parse(file.toString(), pool);
+            } finally {
+                pool.shutdown();
+            }
+            System.out.println(String.format("%-10s parallelism %d: %d vertices, %d indices, %d submeshes",
+                    file.getFileName(), parallelism, data.getVertexCount(), data.getIndexCount(), data.getSubMeshes().size()));
+            if (expected == null) expected = data;
+            else compare(expected, data, file.getFileName() + " at parallelism " + parallelism);
+        }
+    }
+
+    private static void compare(ModelData expected, ModelData actual, String what){
+        if (actual.getVertexCount() != expected.getVertexCount() || actual.getIndexCount() != expected.getIndexCount())
+            throw new RuntimeException(what + ": different vertex/index count");
+        if (!actual.getVertexPositions().equals(expected.getVertexPositions())
+                || !actual.getVertexNormals().equals(expected.getVertexNormals())
+                || !actual.getTextureCoordinates().equals(expected.getTextureCoordinates())
+                || !actual.getVertexIndices().equals(expected.getVertexIndices()))
+            throw new RuntimeException(what + ": different vertex/index data");
+        if (actual.getSubMeshes().size() != expected.getSubMeshes().size())
+            throw new RuntimeException(what + ": different nº of submeshes");
+        for (int i = 0; i < expected.getSubMeshes().size(); i++) {
+            ModelData.SubMesh e = expected.getSubMeshes().get(i), a = actual.getSubMeshes().get(i);
+            if (!a.getName().equals(e.getName()) || a.getFirstIndex() != e.getFirstIndex() || a.getIndexCount() != e.getIndexCount())
+                throw new RuntimeException(what + ": different submesh " + i);
+        }
+    }
+
+    /**
+     * Triangles not sharing any vertex, each w/its own 3 (random) positions.
+     */
+    private static Path writeTriangleSoup(Path file, int numOfTriangles) throws IOException {
+        Random random = new Random(1);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII))) {
+            for (int i = 0; i < numOfTriangles * 3; i++)
+                out.println(String.format(Locale.ROOT, "v %f %f %f", random.nextFloat(), random.nextFloat(), random.nextFloat()));
+            for (int t = 0; t < numOfTriangles; t++) out.println("f " + (3 * t + 1) + " " + (3 * t + 2) + " " + (3 * t + 3));
+        }
+        return file;
+    }
+
+    /**
+     * n x n grid of quads (a group per row) sharing their positions, w/a tex coord per row, declared at the start of
+     * the row & indexed relatively (so the quads of a row share their vertices).
+     */
+    private static Path writeGrid(Path file, int n) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.US_ASCII))) {
+            for (int y = 0; y <= n; y++)
+                for (int x = 0; x <= n; x++) out.println(String.format(Locale.ROOT, "v %d %d %f", x, y, Math.sin(x * 0.1) * Math.cos(y * 0.1)));
+            for (int y = 0; y < n; y++) {
+                out.println("g row" + y);
+                out.println(String.format(Locale.ROOT, "vt 0 %f", (float) y / n));
+                for (int x = 0; x < n; x++) {
+                    int i = y * (n + 1) + x + 1;
+                    out.println(String.format("f %d/-1 %d/-1 %d/-1 %d/-1", i, i + 1, i + n + 2, i + n + 1));
+                }
+            }
+        }
+        return file;
+    }
+}
@@ -1,52 +1,334 @@
 package graphics.core.io;
 
+import graphics.core.GLState;
 import graphics.core.WindowManager;
-import org.lwjgl.BufferUtils;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Calendar;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.lwjgl.glfw.GLFW.glfwGetFramebufferSize;
 import static org.lwjgl.opengl.GL11.*;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.system.MemoryUtil.*;
 
+/**
+ * Takes screenshots (& continuous captures of every frame) of the window & writes them to PNG files.
+ *
+ * In async mode (default), the frame is read back into one of a ring of pixel buffer objects (PBOs) at the end
+ * of the frame (in captureFrame()), so glReadPixels returns immediately, & a fence sync is placed after it.
+ * Later frames poll the fences: once a readback has finished, the PBO is mapped & copied out, and the
+ * conversion to an image & the PNG encoding are done on background threads -- the render loop never waits
+ * for the GPU or for the encoder (unless all PBOs are still in flight).
+ * Pixels are read as BGRA/UNSIGNED_INT_8_8_8_8_REV (the native framebuffer layout on most GPUs), which is
+ * the same layout as BufferedImage.TYPE_INT_RGB, so the conversion is just a bulk copy of each row.
+ *
+ * Continuous capture dumps every frame to a numbered PNG file (in its own directory per session).
+ * The PNG files written in continuous capture use a faster (less compressed) setting, to keep up w/the frame rate.
+ */
 public class ScreenshotMaker {
-    private static String directory = "./screenshots/screenshot_";
-    private static DateFormat dateFormat = new SimpleDateFormat("dd-mm-yyyy_hh-mm-ss");
+    private static String directory = "./screenshots/";
+    private static DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss");
 
+    private static final int NUM_OF_PBOS = 3;               // size of PBO ring (nº of frames a readback may be in flight)
+    private static final int MAX_PENDING_ENCODES = 32;      // max nº of frames waiting to be encoded (bounds memory use)
+    private static final float CONTINUOUS_PNG_QUALITY = 0.75f;  // compression quality for continuous capture (faster)
+
+    private static boolean asyncCapture = true;
+    private static boolean screenshotRequested = false;
+    private static boolean continuousCapture = false;
+    private static String captureDirectory;     // directory of current continuous capture session
+    private static int captureFrameNum;         // nº of next frame of current continuous capture session
+
+    // --- PBO ring ---
+    private static int[] pbos;
+    private static long[] fences = new long[NUM_OF_PBOS];           // fence of readback in each PBO, 0 if PBO is free
+    private static String[] filenames = new String[NUM_OF_PBOS];    // output file of readback in each PBO
+    private static boolean[] fastCompression = new boolean[NUM_OF_PBOS];
+    private static int nextPBO = 0;
+    private static Queue<Integer> inFlight = new ArrayDeque<>();    // PBOs w/readbacks in flight, oldest 1st
+    private static int pboWidth, pboHeight;
+
+    // --- background encoding ---
+    private static final ExecutorService encoders = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            new EncoderThreadFactory()
+    );
+    private static final Semaphore encodeSlots = new Semaphore(MAX_PENDING_ENCODES);
+    private static final AtomicInteger numOfDroppedFrames = new AtomicInteger(0);
+
+    /**
+     * Take a screenshot of the window.
+     * In async mode, the screenshot is taken at the end of the current frame (when captureFrame() is called) & written
+     * in the background; otherwise the framebuffer is read & written immediately (stalls until done).
+     */
     public static void takeScreenshot(){
-        String strDate = dateFormat.format(Calendar.getInstance().getTime()); // get date & time as str
+        if (asyncCapture) {
+            screenshotRequested = true;
+            return;
+        }
+
+        int[] size = getFramebufferSize();
+        int width = size[0], height = size[1];
+        ByteBuffer buffer = memAlloc(width * height * 4);
+        GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+        glReadBuffer(GL_FRONT);     // (called from key callback, after buffers swapped)
+        glReadPixels(0, 0, width, height, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+        encodeAndWrite(buffer, width, height, directory + "screenshot_" + getDateStr() + ".png", false);
+    }
+
+    /**
+     * Start/stop continuous capture, i.e. writing every frame to a (numbered) PNG file.
+     * (only available in async mode)
+     * @param enabled true to start capturing frames, false to stop
+     */
+    public static void setContinuousCapture(boolean enabled){
+        if (enabled && !continuousCapture) {
+            captureDirectory = directory + "capture_" + getDateStr() + "/";
+            captureFrameNum = 0;
+            numOfDroppedFrames.set(0);
+        } else if (!enabled && continuousCapture) {
+            System.out.println("Captured " + captureFrameNum + " frames to " + captureDirectory
+                    + " (" + numOfDroppedFrames.get() + " dropped)");
+        }
+        continuousCapture = enabled && asyncCapture;
+    }
+
+    public static void toggleContinuousCapture(){
+        setContinuousCapture(!continuousCapture);
+    }
+
+    /**
+     * Capture the frame rendered to the default framebuffer's back buffer (if a screenshot was requested or in
+     * continuous capture) & process finished readbacks. Call once per frame, just before swapping buffers.
+     * Must be called from the GL thread.
+     */
+    public static void captureFrame(){
+        if (!asyncCapture) return;
 
-        int bpp = 4;
-        int width = WindowManager.getScrWidth();
-        int height = WindowManager.getScrHeight();
+        processFinishedReadbacks(false);
 
-        glReadBuffer(GL_COLOR_ATTACHMENT0);
-        ByteBuffer buffer = BufferUtils.createByteBuffer(width * height * bpp);
-        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, buffer);
+        if (!screenshotRequested && !continuousCapture) return;
+        String filename;
+        if (continuousCapture) filename = captureDirectory + String.format("frame_%06d.png", captureFrameNum++);
+        else filename = directory + "screenshot_" + getDateStr() + ".png";
+        boolean fast = continuousCapture && !screenshotRequested;
+        screenshotRequested = false;
 
+        int[] size = getFramebufferSize();
+        if (pbos == null || size[0] != pboWidth || size[1] != pboHeight) createPBOs(size[0], size[1]);
 
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        for (int i = 0; i < width; ++i) {
-            for (int j = 0; j < height; ++j) {
-                int index = (i + width * (height - j - 1)) * bpp;
-                int r = buffer.get(index + 0) & 0xFF;
-                int g = buffer.get(index + 1) & 0xFF;
-                int b = buffer.get(index + 2) & 0xFF;
-                image.setRGB(i, j, 0xFF << 24 | r << 16 | g << 8 | b);
+        // oldest readback still using next PBO (only if GPU is NUM_OF_PBOS frames behind) -- wait for it
+        if (fences[nextPBO] != 0) processFinishedReadbacks(true);
+
+        // --- start readback into PBO (returns immediately) ---
+        int pbo = nextPBO;
+        nextPBO = (nextPBO + 1) % NUM_OF_PBOS;
+        GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+        glReadBuffer(GL_BACK);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[pbo]);
+        glReadPixels(0, 0, pboWidth, pboHeight, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        fences[pbo] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        filenames[pbo] = filename;
+        fastCompression[pbo] = fast;
+        inFlight.add(pbo);
+    }
+
+    /**
+     * Copy out finished readbacks (in order) & hand them to the encoder threads.
+     * @param waitForOldest true to block until (at least) the oldest readback in flight has finished
+     */
+    private static void processFinishedReadbacks(boolean waitForOldest){
+        Integer pbo;
+        while ((pbo = inFlight.peek()) != null) {
+            int status = waitForOldest
+                    ? glClientWaitSync(fences[pbo], GL_SYNC_FLUSH_COMMANDS_BIT, GL_TIMEOUT_IGNORED)
+                    : glClientWaitSync(fences[pbo], 0, 0);
+            if (status == GL_TIMEOUT_EXPIRED) return;    // not finished yet (& later ones won't be either)
+            waitForOldest = false;
+
+            inFlight.poll();
+            glDeleteSync(fences[pbo]);
+            fences[pbo] = 0;
+            if (status == GL_WAIT_FAILED) continue;
+
+            // continuous capture: if encoders can't keep up, drop frame rather than stall render loop/use up memory
+            // (screenshots are never dropped)
+            if (!fastCompression[pbo]) encodeSlots.acquireUninterruptibly();
+            else if (!encodeSlots.tryAcquire()) {
+                numOfDroppedFrames.incrementAndGet();
+                continue;
+            }
+
+            // --- copy pixels out of PBO, so it can be reused right away ---
+            int numOfBytes = pboWidth * pboHeight * 4;
+            ByteBuffer pixels = memAlloc(numOfBytes);
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[pbo]);
+            ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, numOfBytes, GL_MAP_READ_BIT);
+            if (mapped != null) {
+                memCopy(memAddress(mapped), memAddress(pixels), numOfBytes);
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
             }
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+            if (mapped == null) {
+                memFree(pixels);
+                encodeSlots.release();
+                continue;
+            }
+            String filename = filenames[pbo];
+            boolean fast = fastCompression[pbo];
+            int width = pboWidth, height = pboHeight;
+            encoders.execute(() -> {
+                try {
+                    encodeAndWrite(pixels, width, height, filename, fast);
+                } finally {
+                    encodeSlots.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * (Re)create the PBO ring for the given framebuffer size (pending readbacks are finished 1st).
+     */
+    private static void createPBOs(int width, int height){
+        while (!inFlight.isEmpty()) processFinishedReadbacks(true);
+        if (pbos != null) glDeleteBuffers(pbos);
+
+        pbos = new int[NUM_OF_PBOS];
+        glGenBuffers(pbos);
+        for (int pbo : pbos) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, pbo);
+            glBufferData(GL_PIXEL_PACK_BUFFER, (long) width * height * 4, GL_STREAM_READ);
         }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        pboWidth = width;
+        pboHeight = height;
+        nextPBO = 0;
+    }
+
+    /**
+     * Convert the given BGRA pixels (rows bottom to top) to an image & write it to a PNG file. Frees the pixel buffer.
+     * @param fast true to use faster (less) compression
+     */
+    private static void encodeAndWrite(ByteBuffer pixels, int width, int height, String filename, boolean fast){
         try {
-            ImageIO.write(image, "png", new File(directory + strDate + ".png"));
+            // BGRA bytes read as ints = 0xAARRGGBB = TYPE_INT_RGB pixel (alpha ignored), so just copy rows (flipping)
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            int[] imageData = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            IntBuffer pixelsI = pixels.asIntBuffer();
+            for (int y = 0; y < height; y++) {
+                pixelsI.position((height - y - 1) * width);
+                pixelsI.get(imageData, y * width, width);
+            }
+            memFree(pixels);
+            pixels = null;
+
+            File file = new File(filename);
+            file.getParentFile().mkdirs();
+            writePNG(image, file, fast);
         } catch (IOException e) {
-            throw new RuntimeException("Failed to write screenshot img output file.");
+            System.err.println("Failed to write screenshot img output file " + filename + ": " + e.getMessage());
+        } finally {
+            if (pixels != null) memFree(pixels);
         }
+    }
 
+    private static void writePNG(BufferedImage image, File file, boolean fast) throws IOException {
+        if (!fast) {
+            ImageIO.write(image, "png", file);
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(CONTINUOUS_PNG_QUALITY);
+        }
+        file.delete();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Finish all pending captures (wait for readbacks & for the files to be written) & free the PBOs.
+     * Must be called from the GL thread, before the context is destroyed.
+     */
+    public static void shutdown(){
+        setContinuousCapture(false);
+        while (!inFlight.isEmpty()) processFinishedReadbacks(true);
+        if (pbos != null) glDeleteBuffers(pbos);
+        pbos = null;
+
+        encoders.shutdown();
+        try {
+            if (!encoders.awaitTermination(30, TimeUnit.SECONDS))
+                System.err.println("Timed out waiting for screenshots to be written.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int[] getFramebufferSize(){
+        int[] width = new int[1], height = new int[1];
+        glfwGetFramebufferSize(WindowManager.getWindowHandle(), width, height);
+        return new int[]{width[0], height[0]};
+    }
+
+    private static String getDateStr(){
+        return dateFormat.format(Calendar.getInstance().getTime()); // get date & time as str
+    }
+
+    public static void setAsyncCapture(boolean asyncCapture) {
+        ScreenshotMaker.asyncCapture = asyncCapture;
+        if (!asyncCapture) continuousCapture = false;
+    }
+
+    public static boolean isContinuousCapture() {
+        return continuousCapture;
+    }
+
+    /**
+     * Creates the (daemon) encoder threads.
+     */
+    private static class EncoderThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNum = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "screenshot-writer-" + threadNum.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
     }
 }
@@ -0,0 +1,23 @@
+package graphics.core.resources;
+
+/**
+ * A resource which owns OpenGL objects (buffers, textures, programs...) & so uses GPU memory.
+ * Resources shared between several users are managed by {@link GPUResourceManager}.
+ */
+public interface GPUResource {
+
+    /**
+     * Returns (approximate) nº of bytes of GPU memory allocated for this resource (0 if not loaded onto the GPU yet).
+     */
+    long getGPUMemorySize();
+
+    /**
+     * Returns true if the resource has been loaded onto the GPU.
+     */
+    boolean isLoaded();
+
+    /**
+     * Delete the resource's OpenGL objects. Must be called from the GL thread.
+     */
+    void deallocateResources();
+}
@@ -0,0 +1,152 @@
+package graphics.core.resources;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Central owner of the GPU resources (meshes, textures, shader programs) shared by several users.
+ *
+ * Resources are created through acquire(key, ...), which returns the existing resource if one w/the same key
+ * already exists (so e.g. a texture file is only loaded once), & are reference counted: each acquire must be
+ * matched by a release once the user no longer needs the resource.
+ * Unreferenced resources aren't deleted right away (they may be acquired again soon), but are kept in
+ * least-recently-released order & deleted (evicted) oldest 1st when the total GPU memory used by the managed
+ * resources exceeds the memory budget (checked once per frame in enforceBudget()).
+ *
+ * All methods must be called from the GL thread.
+ */
+public class GPUResourceManager {
+
+    private static final Map<String, Entry> resourcesByKey = new HashMap<>();
+    private static final Map<GPUResource, Entry> resourcesByInstance = new IdentityHashMap<>();
+    private static final LinkedHashMap<String, Entry> unreferenced = new LinkedHashMap<>();  // least recently released 1st
+    private static final List<Entry> entries = new ArrayList<>();   // (all entries, so the per-frame check doesn't iterate the maps)
+
+    private static long memoryBudget = 512L * 1024 * 1024;  // bytes
+    private static int numOfEvictions = 0;
+
+    /**
+     * Get the resource w/the given key, creating it (w/the given factory) if it doesn't exist yet,
+     * & add a reference to it.
+     * @param key unique key of the resource (e.g. "texture:" + filename)
+     * @param factory creates the resource if there's no resource w/the given key
+     * @return the (shared) resource w/the given key
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends GPUResource> T acquire(String key, Supplier<T> factory){
+        Entry entry = resourcesByKey.get(key);
+        if (entry == null) {
+            entry = new Entry(key, factory.get());
+            resourcesByKey.put(key, entry);
+            resourcesByInstance.put(entry.resource, entry);
+            entries.add(entry);
+        }
+        if (entry.refCount++ == 0) unreferenced.remove(key);
+        return (T) entry.resource;
+    }
+
+    /**
+     * Remove a reference to the given resource. Once unreferenced, the resource may be evicted.
+     * @param resource resource previously returned by acquire
+     * @return false if the resource isn't managed by the resource manager (so the caller still owns it)
+     */
+    public static boolean release(GPUResource resource){
+        Entry entry = resourcesByInstance.get(resource);
+        if (entry == null) return false;
+
+        if (entry.refCount > 0 && --entry.refCount == 0) unreferenced.put(entry.key, entry);
+        return true;
+    }
+
+    /**
+     * Returns true if the given resource is managed by the resource manager (i.e. was returned by acquire).
+     */
+    public static boolean isManaged(GPUResource resource){
+        return resourcesByInstance.containsKey(resource);
+    }
+
+    /**
+     * Evict (delete) least recently released unreferenced resources until the total GPU memory used by the
+     * managed resources is within the memory budget (or there are no more unreferenced resources).
+     * Call once per frame (e.g. in the render loop).
+     */
+    public static void enforceBudget(){
+        long totalBytes = getTotalGPUMemorySize();
+        if (totalBytes <= memoryBudget || unreferenced.isEmpty()) return;
+
+        Iterator<Entry> lru = unreferenced.values().iterator();
+        while (totalBytes > memoryBudget && lru.hasNext()) {
+            Entry entry = lru.next();
+            if (!entry.resource.isLoaded()) continue;   // (still being loaded asynchronously)
+
+            totalBytes -= entry.resource.getGPUMemorySize();
+            entry.resource.deallocateResources();
+            lru.remove();
+            resourcesByKey.remove(entry.key);
+            resourcesByInstance.remove(entry.resource);
+            entries.remove(entry);
+            numOfEvictions++;
+        }
+    }
+
+    /**
+     * Delete all managed resources, referenced or not (e.g. when the app terminates).
+     */
+    public static void deallocateAll(){
+        for (Entry entry : resourcesByKey.values()) entry.resource.deallocateResources();
+        resourcesByKey.clear();
+        resourcesByInstance.clear();
+        unreferenced.clear();
+        entries.clear();
+    }
+
+    /**
+     * Returns total nº of bytes of GPU memory used by the managed resources.
+     */
+    public static long getTotalGPUMemorySize(){
+        long totalBytes = 0;
+        for (int i = 0; i < entries.size(); i++) totalBytes += entries.get(i).resource.getGPUMemorySize();
+        return totalBytes;
+    }
+
+    /**
+     * Print nº of managed (& unreferenced) resources, GPU memory used & nº of evictions so far.
+     */
+    public static void printReport(){
+        System.out.println(String.format("GPU resources: %d (%d unreferenced), %.1f/%.1f MB, %d evicted",
+                resourcesByKey.size(), unreferenced.size(), getTotalGPUMemorySize() / (1024.0 * 1024.0),
+                memoryBudget / (1024.0 * 1024.0), numOfEvictions));
+    }
+
+    public static int getNumOfResources(){
+        return resourcesByKey.size();
+    }
+
+    public static int getNumOfEvictions(){
+        return numOfEvictions;
+    }
+
+    public static void setMemoryBudget(long bytes){
+        memoryBudget = bytes;
+    }
+
+    /**
+     * A managed resource & its nº of references.
+     */
+    private static class Entry {
+        final String key;
+        final GPUResource resource;
+        int refCount = 0;
+
+        Entry(String key, GPUResource resource){
+            this.key = key;
+            this.resource = resource;
+        }
+    }
+}
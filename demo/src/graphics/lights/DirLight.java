@@ -1,30 +1,36 @@
 package graphics.lights;
 
-import graphics.shaders.ShaderProgram;
 import org.joml.Vector3f;
 
+import java.nio.ByteBuffer;
+
 /**
  * Represents a directional light, which has:
  *      - a colour
  *      - an intensity/strength
  *      - a direction
+ * Keeps a version nº, changed whenever its direction is set, so shadow maps rendered from it know when they're stale
+ * (the direction must be changed w/setDirection, which copies the given vector, not by modifying the vector returned
+ * by getDirection()).
  */
 public class DirLight implements LightSource{
     private Vector3f colour;
     private float strength;
     private Vector3f direction;
+    private int version = 0;    // changed whenever the direction is set
 
     public DirLight(Vector3f colour, float strength, Vector3f direction){
         this.colour = colour;
         this.strength = strength;
-        this.direction = direction;
+        this.direction = new Vector3f(direction);
     }
 
     @Override
-    public void uploadSpecsToShader(ShaderProgram shader, String uniformName) {
-        shader.uploadVec3f(uniformName + ".colour", colour);
-        shader.uploadFloat(uniformName + ".strength", strength);
-        shader.uploadVec3f(uniformName + ".direction", direction);
+    public void writeSpecsToBuffer(ByteBuffer buffer, int offset) {
+        // std140 DirLight: vec3 colour (0), vec3 direction (16), float strength (28)
+        colour.get(offset, buffer);
+        direction.get(offset + 16, buffer);
+        buffer.putFloat(offset + 28, strength);
     }
 
     public Vector3f getDirection() {
@@ -33,12 +39,18 @@ public class DirLight implements LightSource{
     public Vector3f getColour() {
         return colour;
     }
-    public Vector3f getLightPosForSMRender(){
-        return new Vector3f(direction).mul(-5);
-    }
 
     public void setDirection(Vector3f direction) {
-        this.direction = direction;
+        if (direction.equals(this.direction)) return;
+        version++;
+        this.direction.set(direction);
+    }
+
+    /**
+     * Returns a nº changed whenever the light's direction changes (see setDirection).
+     */
+    public int getVersion() {
+        return version;
     }
     public void setStrength(float strength) {
         this.strength = strength;
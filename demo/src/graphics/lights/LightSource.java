@@ -1,17 +1,17 @@
 package graphics.lights;
 
 
-import graphics.shaders.ShaderProgram;
+import java.nio.ByteBuffer;
 
 /**
  * Interface to represent a light source in the scene.
  */
 public interface LightSource {
     /**
-     * Upload this source light's info/specification into the given
-     * uniform variable in the specified shader program
-     * @param shader {@link ShaderProgram} to which to upload light specifications
-     * @param uniformName {@link String} name of target uniform variable
+     * Write this source light's info/specification to the given buffer, laid out as the light's struct in a
+     * std140 uniform block (e.g. DirLight in the LightData block, see graphics.shaders.UniformBlocks)
+     * @param buffer {@link ByteBuffer} to which to write light specifications (at absolute offsets)
+     * @param offset offset of the light's struct in the buffer, in bytes
      */
-    void uploadSpecsToShader(ShaderProgram shader, String uniformName);
+    void writeSpecsToBuffer(ByteBuffer buffer, int offset);
 }
\ No newline at end of file
@@ -1,16 +1,20 @@
 package graphics.materials;
 
+import graphics.core.GLState;
+import graphics.core.resources.GPUResourceManager;
 import graphics.shaders.ShaderProgram;
+import graphics.shaders.Uniform;
 import graphics.textures.Texture;
 import graphics.textures.TextureType;
 import org.joml.Vector3f;
 
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
 
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
 
 /**
  * Represents a material, which has:
@@ -76,54 +80,55 @@ public class Material {
     }
 
     /**
-     * Upload the material's attributes to the 'material' uniform in the
-     * given shader program.
+     * Write the material's attributes (except its textures) to the given buffer, laid out as the MaterialParams struct
+     * followed by materialUsesTextures, as in the std140 DrawData uniform block (see graphics.shaders.UniformBlocks).
+     * @param buffer {@link ByteBuffer} to which to write the material (at absolute offsets)
+     * @param offset offset of the material in the buffer, in bytes
      */
-    public void uploadToShader(ShaderProgram shader){
-        shader.uploadFloat("material.K_a", K_a);
-        shader.uploadFloat("material.K_diff", K_diff);
-        shader.uploadFloat("material.K_spec", K_spec);
-        shader.uploadFloat("material.shininess", shininess);
-
-        if(texturesList == null){ // upload colours
-            shader.uploadInt("materialUsesTextures", 0);
-            shader.uploadVec3f("material.diffuseColour", diffColour);
-            shader.uploadVec3f("material.specularColour", specColour);
-        }else{  // upload textures
-            shader.uploadInt("materialUsesTextures", 1);
-            uploadTexturesToShader(shader);
+    public void writeToBuffer(ByteBuffer buffer, int offset){
+        // std140 MaterialParams: vec3 diffuseColour (0), float K_a (12), vec3 specularColour (16), float K_diff (28),
+        //                        float K_spec (32), float shininess (36); then bool materialUsesTextures (48)
+        if(texturesList == null){ // colours
+            diffColour.get(offset, buffer);
+            specColour.get(offset + 16, buffer);
         }
+        buffer.putFloat(offset + 12, K_a);
+        buffer.putFloat(offset + 28, K_diff);
+        buffer.putFloat(offset + 32, K_spec);
+        buffer.putFloat(offset + 36, shininess);
+        buffer.putInt(offset + 48, texturesList == null ? 0 : 1);
     }
 
     /**
      * Upload the material's textures to the appropriate sampler2D in the given shader program.
-     * Currently: upload to attrib of 'material' Material uniform.
-     *      DIFFUSE textures to material.diffuse_texN
-     *      SPECULAR textures to material.specular_texN
-     *      REFLECTION texture to material.reflection_tex
-     * Note: texturesList must not be null
+     * Currently: upload to attrib of 'materialTex' MaterialTextures uniform.
+     *      DIFFUSE textures to materialTex.diffuse_texN
+     *      SPECULAR textures to materialTex.specular_texN
+     * (through the program's uniform handles, resolved once per program -- see {@link Uniforms})
+     * The rest of the material is in the DrawData uniform block (see {@link #writeToBuffer}).
      * @param shader {@link ShaderProgram} to which to upload textures.
      */
-    private void uploadTexturesToShader(ShaderProgram shader) {
-        int diffNum = 1;
-        int specNum = 1;
+    public void uploadTexturesToShader(ShaderProgram shader) {
+        if(texturesList == null) return;
+        Uniforms uniforms = Uniforms.of(shader);
+        int diffNum = 0;
+        int specNum = 0;
 
         for (int i = 0; i < texturesList.size(); i++) {
-            // determine name of uniform to which to upload texture
-            int num = 0;
+            // determine uniform to which to upload texture
             TextureType texType = texturesList.get(i).getType();
-            String typeString = "diffuse_tex";
+            Uniform.IntUniform[] samplers = uniforms.diffuseTextures;
+            int num = 0;
             switch (texType) {
                 case DIFFUSE:
                     num = diffNum++;
-                    //typeString = "diffuse_tex";
                     break;
                 case SPECULAR:
                     num = specNum++;
-                    typeString = "specular_tex";
+                    samplers = uniforms.specularTextures;
                     break;
             }
-            shader.uploadInt("material." + typeString + num, i);     // upload texture
+            if (num < samplers.length) samplers[num].set(i);     // upload texture
         }
     }
 
@@ -133,9 +138,57 @@ public class Material {
     public void bindTextures(){
         if(texturesList != null) {
             for (int i = 0; i < texturesList.size(); i++) {
-                glActiveTexture(GL_TEXTURE0 + i); // activate proper texture unit before binding
-                glBindTexture(GL_TEXTURE_2D, texturesList.get(i).getHandle());  // bind texture to appropriate texture unit
+                // bind texture to appropriate texture unit (skipped if already bound to it)
+                GLState.bindTexture(i, GL_TEXTURE_2D, texturesList.get(i).getHandle());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given material has the same textures (in the same order) as this material, so binding
+     * its textures after this material's can be skipped. (w/o copying the textures lists, unlike getTexturesList())
+     */
+    public boolean hasSameTextures(Material other){
+        if (texturesList == other.texturesList) return true;
+        if (texturesList == null || other.texturesList == null || texturesList.size() != other.texturesList.size()) return false;
+        for (int i = 0; i < texturesList.size(); i++)     // (indexed, bc List.equals allocates iterators)
+            if (!Objects.equals(texturesList.get(i), other.texturesList.get(i))) return false;
+        return true;
+    }
+
+    /**
+     * Release the material's textures (managed by {@link GPUResourceManager}), e.g. when the material is discarded.
+     */
+    public void releaseTextures(){
+        if(texturesList != null) texturesList.forEach(GPUResourceManager::release);
+    }
+
+    /**
+     * Handles of the material texture uniforms of a shader program (resolved once per program, so uploading a
+     * material doesn't build or look up uniform names).
+     */
+    private static class Uniforms {
+        private static final int MAX_TEXTURES_PER_TYPE = 4;    // (materialTex.diffuse_tex1..4, materialTex.specular_tex1..4)
+        private static final Map<ShaderProgram, Uniforms> byProgram = new WeakHashMap<>();
+        private static ShaderProgram lastProgram;   // (most materials are uploaded to the same program as the last one)
+        private static Uniforms lastUniforms;
+
+        final Uniform.IntUniform[] diffuseTextures = new Uniform.IntUniform[MAX_TEXTURES_PER_TYPE];
+        final Uniform.IntUniform[] specularTextures = new Uniform.IntUniform[MAX_TEXTURES_PER_TYPE];
+
+        private Uniforms(ShaderProgram shader){
+            for (int i = 0; i < MAX_TEXTURES_PER_TYPE; i++) {
+                diffuseTextures[i] = shader.getIntUniform("materialTex.diffuse_tex" + (i + 1));
+                specularTextures[i] = shader.getIntUniform("materialTex.specular_tex" + (i + 1));
+            }
+        }
+
+        static Uniforms of(ShaderProgram shader){
+            if (shader != lastProgram) {
+                lastUniforms = byProgram.computeIfAbsent(shader, Uniforms::new);
+                lastProgram = shader;
             }
+            return lastUniforms;
         }
     }
 
@@ -1,13 +1,15 @@
 package graphics.renderEngine;
 
+import graphics.core.GLState;
 import graphics.shaders.ShaderProgram;
 import graphics.shapes.ScreenQuad;
 
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
 
 /**
  * Renderer for rendering a quad/square {@link ScreenQuad} of the size of the screen,
  * which has as 'texture' a greyscale version of the depth map generated by ToDepthMapRenderer...
+ * (its shadow cascades shown in a 2x2 grid)
  */
 public class DepthDebugScreenQuadRenderer {
     private ShaderProgram shaderProgram;    // shader to use for rendering
@@ -18,26 +20,24 @@ public class DepthDebugScreenQuadRenderer {
     }
 
     /**
-     * Prepare {@link ShaderProgram} shaderProgram by binding
-     * {@link ScreenQuad} quad mesh's attributes to it & uploading tex handle to uniform.
+     * Prepare {@link ShaderProgram} shaderProgram by uploading tex handle to uniform.
      */
     public void prepare(ScreenQuad screenQuad) {
         this.quad = screenQuad;
         shaderProgram.use();
 
-        // bind mesh data to shader
-        glBindVertexArray(quad.getMesh().getVAOHandle());
-        shaderProgram.bindDataToShader(0, quad.getMesh().getVertexVBOHandle(), 2);
-        shaderProgram.bindDataToShader(1, quad.getMesh().getTexHandle(), 2);
+        // (mesh's vertex attributes already set up in its arena's VAO)
 
         shaderProgram.uploadInt("depthMap", 0); // tex at texture unit 0
     }
 
     /**
      * Render the quad using the {@link ShaderProgram} associated w/the renderer.
+     * (w/o depth testing, so the screen-space quad isn't discarded bc of the depth test)
      */
     public void render() {
         shaderProgram.use();
+        GLState.disable(GL_DEPTH_TEST);
 
         quad.bindTexture();
         quad.getMesh().render();
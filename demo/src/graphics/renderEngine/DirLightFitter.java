@@ -0,0 +1,237 @@
+package graphics.renderEngine;
+
+import graphics.lights.DirLight;
+import graphics.scene.Entity;
+import graphics.scene.Scene;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.util.List;
+
+/**
+ * Fits the directional light's view & (orthographic) projection matrices to the world-space bounds of what matters
+ * for the shadows in view, instead of a hand-tuned volume: the shadow receivers in the camera's view frustum & the
+ * shadow casters. The projection's rectangle is the receivers' rectangle as seen from the light, snapped outwards to
+ * whole shadow map texels, & its near & far planes are the nearest caster or receiver to the light & the furthest
+ * receiver from it (so all of the depth range is used). (if no receivers are in view, it's fitted to the casters)
+ * The matrices & light position are published through the {@link RenderContext} (e.g. for the FROM_LIGHT_POV
+ * view); padded scene & caster bounds are also kept to tighten the shadow cascades (see {@link ShadowCascades}).
+ * Refitted only when the bounds or the light change, so {@link #update} can be called every frame.
+ */
+public class DirLightFitter {
+
+    private static int shadowMapSize = 1024;     // texels along each side (texel snapping)
+
+    // --- bounds (wc) ---
+    private static final Vector3f sceneBoundsMin = new Vector3f(), sceneBoundsMax = new Vector3f();       // all components
+    private static final Vector3f casterBoundsMin = new Vector3f(), casterBoundsMax = new Vector3f();     // shadow casters
+    private static final Vector3f receiverBoundsMin = new Vector3f(), receiverBoundsMax = new Vector3f(); // receivers in view
+    private static final FrustumCuller receiverCuller = new FrustumCuller();    // (camera's view frustum)
+
+    // --- padded bounds, for the cascades (only change when the bounds move out of them, or shrink a lot) ---
+    private static final Vector3f paddedSceneMin = new Vector3f(Float.POSITIVE_INFINITY), paddedSceneMax = new Vector3f(Float.NEGATIVE_INFINITY);
+    private static final Vector3f paddedCasterMin = new Vector3f(Float.POSITIVE_INFINITY), paddedCasterMax = new Vector3f(Float.NEGATIVE_INFINITY);
+    private static final float PADDING = 0.1f;  // margin of the padded bounds (fraction of the bounds' largest side)
+
+    // --- fitted matrices (published through RenderContext) ---
+    private static final Matrix4f lightView = new Matrix4f(), lightProjection = new Matrix4f();
+    private static final Vector3f lightPos = new Vector3f();
+
+    // --- what the matrices were fitted to ---
+    private static DirLight fittedLight = null;
+    private static int fittedLightVersion;
+    private static final Vector3f fittedCasterMin = new Vector3f(), fittedCasterMax = new Vector3f();
+    private static final Vector3f fittedReceiverMin = new Vector3f(), fittedReceiverMax = new Vector3f();
+
+    // --- scratch ---
+    private static final Vector3f tempMin = new Vector3f(), tempMax = new Vector3f(), corner = new Vector3f();
+    private static final Vector3f casterMin = new Vector3f(), casterMax = new Vector3f();
+    private static final Vector3f up = new Vector3f();
+    private static final Matrix4f invLightView = new Matrix4f(), viewProj = new Matrix4f();
+
+    /**
+     * Calculate the scene's bounds &, if they or the light changed since the last fit, refit the light's matrices
+     * to them (& set them in the {@link RenderContext}).
+     * @param scene {@link Scene} to fit the light of
+     * @param view camera's view matrix (receivers outside its view frustum are left out)
+     * @param projection camera's projection matrix
+     */
+    public static void update(Scene scene, Matrix4f view, Matrix4f projection){
+        // --- bounds: union of the components' (casters' & receivers') bounds, those not known yet are left out ---
+        sceneBoundsMin.set(Float.POSITIVE_INFINITY);
+        sceneBoundsMax.set(Float.NEGATIVE_INFINITY);
+        casterBoundsMin.set(Float.POSITIVE_INFINITY);
+        casterBoundsMax.set(Float.NEGATIVE_INFINITY);
+        receiverBoundsMin.set(Float.POSITIVE_INFINITY);
+        receiverBoundsMax.set(Float.NEGATIVE_INFINITY);
+        receiverCuller.prepare(viewProj.set(projection).mul(view), false);
+        List<Entity> components = scene.getComponents();
+        for (int i = 0; i < components.size(); i++) {
+            Entity component = components.get(i);
+            if (component.hasWorldBounds()) {
+                sceneBoundsMin.min(component.getWorldBoundsMin());
+                sceneBoundsMax.max(component.getWorldBoundsMax());
+            }
+            if (component.hasCasterBounds()) {
+                casterBoundsMin.min(component.getCasterBoundsMin());
+                casterBoundsMax.max(component.getCasterBoundsMax());
+            }
+            component.addVisibleReceiverBounds(receiverCuller, receiverBoundsMin, receiverBoundsMax);
+        }
+        boolean hasCasters = casterBoundsMin.x <= casterBoundsMax.x;
+        boolean hasReceivers = receiverBoundsMin.x <= receiverBoundsMax.x;
+        padBounds(sceneBoundsMin, sceneBoundsMax, paddedSceneMin, paddedSceneMax);
+        padBounds(casterBoundsMin, casterBoundsMax, paddedCasterMin, paddedCasterMax);
+
+        DirLight light = scene.getDirLight();
+        if (light == fittedLight && light.getVersion() == fittedLightVersion
+                && casterBoundsMin.equals(fittedCasterMin) && casterBoundsMax.equals(fittedCasterMax)
+                && receiverBoundsMin.equals(fittedReceiverMin) && receiverBoundsMax.equals(fittedReceiverMax)
+                && RenderContext.getDirLightViewMatrix() != null)
+            return;     // (nothing changed)
+        fittedLight = light;
+        fittedLightVersion = light.getVersion();
+        fittedCasterMin.set(casterBoundsMin);
+        fittedCasterMax.set(casterBoundsMax);
+        fittedReceiverMin.set(receiverBoundsMin);
+        fittedReceiverMax.set(receiverBoundsMax);
+
+        lightViewMatrix(light.getDirection(), lightView);
+        if (hasCasters || hasReceivers) {
+            // bounds in light view space (looking along -z): receivers' rectangle & depth range, extended towards the
+            // light up to the casters (those in front of the receivers still cast shadows on them)
+            if (hasReceivers) lightSpaceBounds(lightView, receiverBoundsMin, receiverBoundsMax, tempMin, tempMax);
+            else lightSpaceBounds(lightView, casterBoundsMin, casterBoundsMax, tempMin, tempMax);
+            if (hasCasters) {
+                lightSpaceBounds(lightView, casterBoundsMin, casterBoundsMax, casterMin, casterMax);
+                tempMax.z = Math.max(tempMax.z, casterMax.z);
+            }
+
+            // rectangle snapped outwards to whole texels: square, exactly shadowMapSize texels wide, w/its min corner
+            // on the texel grid (texel size leaves room for the bounds' min corner to be moved by up to a texel)
+            float size = Math.max(tempMax.x - tempMin.x, tempMax.y - tempMin.y);
+            float texelSize = Math.max(size / (shadowMapSize - 1), 1e-6f);
+            float minX = (float) Math.floor(tempMin.x / texelSize) * texelSize;
+            float minY = (float) Math.floor(tempMin.y / texelSize) * texelSize;
+            float maxX = minX + shadowMapSize * texelSize, maxY = minY + shadowMapSize * texelSize;
+            float margin = Math.max(size, 1) * 0.001f;  // (so bounds on the near & far planes aren't clipped)
+            lightProjection.setOrtho(minX, maxX, minY, maxY, -tempMax.z - margin, -tempMin.z + margin);
+
+            // light position: centre of the rectangle, on the near plane
+            lightView.invert(invLightView).transformPosition((minX + maxX) / 2, (minY + maxY) / 2, tempMax.z + margin, lightPos);
+        } else {    // (nothing to fit yet)
+            lightProjection.setOrtho(-10.0f, 10.0f, -10.0f, 10.0f, -10.0f, 10.0f);
+            lightPos.set(light.getDirection()).normalize().mul(-10.0f);
+        }
+
+        RenderContext.setDirLightViewMatrix(lightView);
+        RenderContext.setDirLightProjMatrix(lightProjection);
+        RenderContext.setDirLightPos(lightPos);
+    }
+
+    /**
+     * Update the given padded AABB so it contains the given AABB w/a margin, snapped outwards to a grid of the
+     * margin's size. It's only changed when the AABB moves out of it (then grown) or is much smaller, so it doesn't
+     * change w/every move of a dynamic entity (which would change the cascades' matrices, so re-render the cached
+     * static casters every frame). (emptied if the AABB is)
+     */
+    private static void padBounds(Vector3f min, Vector3f max, Vector3f paddedMin, Vector3f paddedMax){
+        if (min.x > max.x) {
+            paddedMin.set(Float.POSITIVE_INFINITY);
+            paddedMax.set(Float.NEGATIVE_INFINITY);
+            return;
+        }
+        float size = Math.max(max.x - min.x, Math.max(max.y - min.y, max.z - min.z));
+        float margin = Math.max(PADDING * size, 1e-3f);
+        boolean contains = paddedMin.x <= min.x && paddedMin.y <= min.y && paddedMin.z <= min.z
+                && paddedMax.x >= max.x && paddedMax.y >= max.y && paddedMax.z >= max.z;
+        float maxGap = size + 2 * margin;   // (shrunk once ~3x as large as the AABB, e.g. after a dynamic one left)
+        boolean tooLarge = min.x - paddedMin.x > maxGap || min.y - paddedMin.y > maxGap || min.z - paddedMin.z > maxGap
+                || paddedMax.x - max.x > maxGap || paddedMax.y - max.y > maxGap || paddedMax.z - max.z > maxGap;
+        if (contains && !tooLarge) return;
+        if (tooLarge) {     // (else grown, so it still contains where the AABB was, e.g. a dynamic entity going back & forth)
+            paddedMin.set(Float.POSITIVE_INFINITY);
+            paddedMax.set(Float.NEGATIVE_INFINITY);
+        }
+        paddedMin.min(tempMin.set((float) Math.floor(min.x / margin - 1) * margin, (float) Math.floor(min.y / margin - 1) * margin,
+                (float) Math.floor(min.z / margin - 1) * margin));
+        paddedMax.max(tempMax.set((float) Math.ceil(max.x / margin + 1) * margin, (float) Math.ceil(max.y / margin + 1) * margin,
+                (float) Math.ceil(max.z / margin + 1) * margin));
+    }
+
+    /**
+     * Set the given matrix to the view matrix of a directional light w/the given direction (a rotation only, looking
+     * along the direction from the origin).
+     * @return dest
+     */
+    static Matrix4f lightViewMatrix(Vector3fc lightDirection, Matrix4f dest){
+        up.set(0, 1, 0);
+        if (Math.abs(lightDirection.y()) > 0.99f * lightDirection.length()) up.set(0, 0, 1);    // (light ~vertical)
+        return dest.setLookAlong(lightDirection, up);
+    }
+
+    /**
+     * Calculate the AABB, in the given light view space, of the given world-space AABB.
+     */
+    static void lightSpaceBounds(Matrix4f lightView, Vector3fc min, Vector3fc max, Vector3f destMin, Vector3f destMax){
+        destMin.set(Float.POSITIVE_INFINITY);
+        destMax.set(Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < 8; i++) {
+            lightView.transformPosition((i & 1) == 0 ? min.x() : max.x(), (i & 2) == 0 ? min.y() : max.y(),
+                    (i & 4) == 0 ? min.z() : max.z(), corner);
+            destMin.min(corner);
+            destMax.max(corner);
+        }
+    }
+
+    /**
+     * Returns true if the scene's bounds are known (else nothing in it is loaded yet).
+     */
+    public static boolean hasSceneBounds() {
+        return paddedSceneMin.x <= paddedSceneMax.x;
+    }
+
+    /**
+     * Returns the min corner of the world-space AABB of the scene, padded (see {@link #padBounds}).
+     */
+    public static Vector3f getSceneBoundsMin() {
+        return paddedSceneMin;
+    }
+
+    /**
+     * Returns the max corner of the world-space AABB of the scene, padded (see {@link #padBounds}).
+     */
+    public static Vector3f getSceneBoundsMax() {
+        return paddedSceneMax;
+    }
+
+    /**
+     * Returns true if the shadow casters' bounds are known (else no caster is loaded yet).
+     */
+    public static boolean hasCasterBounds() {
+        return paddedCasterMin.x <= paddedCasterMax.x;
+    }
+
+    /**
+     * Returns the min corner of the world-space AABB of the shadow casters, padded (see {@link #padBounds}).
+     */
+    public static Vector3f getCasterBoundsMin() {
+        return paddedCasterMin;
+    }
+
+    /**
+     * Returns the max corner of the world-space AABB of the shadow casters, padded (see {@link #padBounds}).
+     */
+    public static Vector3f getCasterBoundsMax() {
+        return paddedCasterMax;
+    }
+
+    /**
+     * Set the shadow map size the light's rectangle is snapped to the texels of.
+     */
+    public static void setShadowMapSize(int shadowMapSize) {
+        DirLightFitter.shadowMapSize = shadowMapSize;
+        fittedLight = null;     // (refit)
+    }
+}
@@ -1,14 +1,27 @@
 package graphics.renderEngine;
 
+import graphics.core.GLState;
 import graphics.scene.Entity;
 import graphics.scene.Scene;
 import graphics.shaders.ShaderProgram;
+import org.joml.Matrix4f;
+
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
 
 /**
  * Renderer for rendering entities in the scene using the Phong (or Blinn-phong) illumination model.
+ * Entities sharing a mesh & material are drawn w/a single instanced draw call (see {@link InstanceBatcher}),
+ * so the shader program must be the INSTANCED variant.
+ * Camera, light & ambient illumination are in the shared uniform blocks (see {@link SceneUniforms}).
  */
 public class EntityPhongRenderer extends Renderer{
 
+    private final FrustumCuller culler = new FrustumCuller();
+    private final InstanceBatcher batcher = new InstanceBatcher();
+    private final Matrix4f viewProj = new Matrix4f();
+
     public EntityPhongRenderer(ShaderProgram phongShaderToUse) {
         super(phongShaderToUse);
     }
@@ -16,18 +29,37 @@ public class EntityPhongRenderer extends Renderer{
     @Override
     public void prepare(Scene scene) {
         shaderProgram.use();
-
-        shaderProgram.uploadVec3f("I_a", scene.getI_a()); // set ambient illumination intensity
-        scene.getDirLight().uploadSpecsToShader(shaderProgram, "dirLight");
     }
 
 
     @Override
     public void render(Scene scene) {
         shaderProgram.use();
-        shaderProgram.uploadVec3f("wc_cameraPos", RenderContext.getCameraPos());
+        GLState.enable(GL_DEPTH_TEST);
+        SceneUniforms.update(scene);    // camera, light & ambient illumination (uploaded only if changed)
+
+        viewProj.set(RenderContext.getProjMatrix()).mul(RenderContext.getViewMatrix());
+
+        culler.prepare();   // cull against frustum of current view & projection
+
+        // render components (collect instances, then draw them in batches)
+        batcher.begin(viewProj);
+        List<Entity> components = scene.getComponents();
+        for(int i = 0; i < components.size(); i++) components.get(i).render(batcher, culler);
+        batcher.flush(shaderProgram, true);
+    }
+
+    /**
+     * Returns the renderer's {@link FrustumCuller} (w/the culling stats of the last render).
+     */
+    public FrustumCuller getCuller() {
+        return culler;
+    }
 
-        // render components
-        for(Entity component : scene.getComponents()) component.render(shaderProgram);
+    /**
+     * Returns the renderer's {@link InstanceBatcher} (w/the instancing stats of the last render).
+     */
+    public InstanceBatcher getBatcher() {
+        return batcher;
     }
 }
@@ -1,54 +1,108 @@
 package graphics.renderEngine;
 
+import graphics.core.GLState;
 import graphics.scene.Entity;
 import graphics.scene.Scene;
 import graphics.shaders.ShaderProgram;
+import graphics.shaders.Uniform;
+import org.joml.Matrix4f;
 
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL13.*;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
 
 /**
  * Renderer for rendering entities in the scene using the Phong (or Blinn-phong) illumination model.
  * Also uses shadow mapping for the directional light in the scene.
+ * Entities sharing a mesh & material are drawn w/a single instanced draw call (see {@link InstanceBatcher}),
+ * so the shader program must be the INSTANCED variant.
+ * The shadow map (texture array w/a layer per shadow cascade, see {@link ShadowCascades}) is bound once per render,
+ * at a texture unit after the ones used by materials; it's also bound to the next unit w/a sampler object doing hw
+ * depth comparison & linear filtering (sampler2DArrayShadow), used by the hw PCF & Poisson shadow filters
+ * (the filter used is set in the {@link RenderContext}). The moments map of the shadow map, if any, is bound to the
+ * unit after that, for the EVSM shadow filter (see {@link ShadowMoments}).
+ * Camera, light space matrix, light & ambient illumination are in the shared uniform blocks (see {@link SceneUniforms}).
  */
 public class EntityPhongWShadowMapsRenderer extends Renderer {
 
-    private int shadowMapHandle;
+    public static final int SHADOW_MAP_TEX_UNIT = 8;    // (materials use tex units 0, 1, ...)
+    public static final int SHADOW_MAP_CMP_TEX_UNIT = 9;    // (same shadow map, sampled w/hw depth comparison)
+    public static final int SHADOW_MOMENTS_TEX_UNIT = 10;   // (moments map, for EVSM)
+
+    private int shadowMapHandle, shadowSamplerHandle;
+    private final ShadowMoments shadowMoments;
+    private final FrustumCuller culler = new FrustumCuller();
+    private final InstanceBatcher batcher = new InstanceBatcher();
+    private final Matrix4f viewProj = new Matrix4f();
+    private final Uniform.IntUniform shadowMapUniform, shadowMapCmpUniform, shadowMomentsUniform;
 
-    public EntityPhongWShadowMapsRenderer(ShaderProgram phongShaderToUse, int shadowMapHandle) {
+    /**
+     * @param phongShaderToUse (instanced) blinn-phong w/shadow maps shader program
+     * @param shadowMapHandle handle of the shadow map (depth texture array)
+     * @param shadowSamplerHandle handle of the sampler object to sample it w/depth comparison (see
+     *                            {@link ToDepthTextureRenderer#getShadowSampler})
+     * @param shadowMoments moments map of the shadow map, or null if none (then the EVSM filter can't be used)
+     */
+    public EntityPhongWShadowMapsRenderer(ShaderProgram phongShaderToUse, int shadowMapHandle, int shadowSamplerHandle,
+                                          ShadowMoments shadowMoments) {
         super(phongShaderToUse);
+        shadowMapUniform = shaderProgram.getIntUniform("shadowMap");
+        shadowMapCmpUniform = shaderProgram.getIntUniform("shadowMapCmp");
+        shadowMomentsUniform = shaderProgram.getIntUniform("shadowMoments");
         this.shadowMapHandle = shadowMapHandle;
+        this.shadowSamplerHandle = shadowSamplerHandle;
+        this.shadowMoments = shadowMoments;
     }
 
-    /**
-     * Must be called after setting the light space projection matrix in RenderContext!
-     */
     @Override
     public void prepare(Scene scene) {
         shaderProgram.use();
-
-        shaderProgram.uploadVec3f("I_a", scene.getI_a()); // set ambient illumination intensity
-        scene.getDirLight().uploadSpecsToShader(shaderProgram, "dirLight");
-
-        // set light space model matrix
-        shaderProgram.uploadMatrix4f("lightSpace_m", RenderContext.getDirLightSpaceMatrix());
     }
 
 
+    /**
+     * Must be called after rendering the shadow map (which fits the shadow cascades to the camera)!
+     */
     @Override
     public void render(Scene scene) {
         shaderProgram.use();
-        shaderProgram.uploadVec3f("wc_cameraPos", RenderContext.getCameraPos());
+        GLState.enable(GL_DEPTH_TEST);
+        SceneUniforms.update(scene);    // camera, light space matrix, light & ambient illumination (uploaded only if changed)
 
-        // render components
-        for(Entity component : scene.getComponents()){
-            int offset = component.numOfTexUsedByMaterial();
-            shaderProgram.uploadInt("shadowMap", offset);    // shadow map at tex unit 0 todo
-            glActiveTexture(GL_TEXTURE0 + offset); // activate appropriate texture unit before binding shadow map todo
-            glBindTexture(GL_TEXTURE_2D, shadowMapHandle);  // bind shadow map texture to appropriate texture unit
+        viewProj.set(RenderContext.getProjMatrix()).mul(RenderContext.getViewMatrix());
 
-            component.render(shaderProgram);
+        // bind shadow map texture to its tex units (as is, & w/the depth comparison sampler)
+        shadowMapUniform.set(SHADOW_MAP_TEX_UNIT);
+        GLState.bindTexture(SHADOW_MAP_TEX_UNIT, GL_TEXTURE_2D_ARRAY, shadowMapHandle);
+        shadowMapCmpUniform.set(SHADOW_MAP_CMP_TEX_UNIT);
+        GLState.bindTexture(SHADOW_MAP_CMP_TEX_UNIT, GL_TEXTURE_2D_ARRAY, shadowMapHandle);
+        GLState.bindSampler(SHADOW_MAP_CMP_TEX_UNIT, shadowSamplerHandle);   // (overrides the texture's sampling params)
+        if (shadowMoments != null) {
+            shadowMomentsUniform.set(SHADOW_MOMENTS_TEX_UNIT);
+            GLState.bindTexture(SHADOW_MOMENTS_TEX_UNIT, GL_TEXTURE_2D_ARRAY, shadowMoments.getMomentsTex());
         }
+
+        culler.prepare();   // cull against frustum of current view & projection
+
+        // render components (collect instances, then draw them in batches)
+        batcher.begin(viewProj);
+        List<Entity> components = scene.getComponents();
+        for(int i = 0; i < components.size(); i++) components.get(i).render(batcher, culler);
+        batcher.flush(shaderProgram, true);
+    }
+
+    /**
+     * Returns the renderer's {@link FrustumCuller} (w/the culling stats of the last render).
+     */
+    public FrustumCuller getCuller() {
+        return culler;
+    }
+
+    /**
+     * Returns the renderer's {@link InstanceBatcher} (w/the instancing stats of the last render).
+     */
+    public InstanceBatcher getBatcher() {
+        return batcher;
     }
 }
@@ -0,0 +1,112 @@
+package graphics.renderEngine;
+
+import graphics.scene.Entity;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+
+/**
+ * For culling entities outside the camera's view frustum, hierarchically: an entity's world bounds (see
+ * {@link Entity#getWorldBoundsMin()}) contain its whole subtree, so if they're outside the frustum the whole
+ * subtree is culled, & if they're fully inside the frustum its descendants aren't tested.
+ *
+ * Entities call enter() before rendering their subtree (& skip it if it returns false) & exit() after it.
+ * The frustum can also be extended towards its near plane, for culling shadow casters against a light's volume
+ * (casters between the light & its volume still cast shadows into it).
+ * Counts the nº of entities tested against the frustum, culled & drawn since the last call to prepare().
+ */
+public class FrustumCuller {
+
+    private static boolean enabled = true;
+
+    private static final int ALL_PLANES = FrustumIntersection.PLANE_MASK_NX | FrustumIntersection.PLANE_MASK_PX
+            | FrustumIntersection.PLANE_MASK_NY | FrustumIntersection.PLANE_MASK_PY
+            | FrustumIntersection.PLANE_MASK_NZ | FrustumIntersection.PLANE_MASK_PZ;
+
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProj = new Matrix4f();
+    private int planeMask = ALL_PLANES;     // planes of the frustum tested
+    private int insideDepth = 0;    // > 0 while rendering a subtree that is fully inside the frustum
+
+    // --- stats for the last render ---
+    private int numOfTested = 0, numOfCulled = 0, numOfDrawn = 0;
+
+    /**
+     * Set up the frustum to cull against (using the view & projection matrices in the {@link RenderContext}),
+     * & reset the counters. Call before each render.
+     */
+    public void prepare(){
+        prepare(viewProj.set(RenderContext.getProjMatrix()).mul(RenderContext.getViewMatrix()), false);
+    }
+
+    /**
+     * Set up the frustum of the given view-projection matrix to cull against, & reset the counters.
+     * Call before each render.
+     * @param viewProj view-projection matrix (e.g. the dir light's light space matrix)
+     * @param ignoreNearPlane true to extend the frustum infinitely past its near plane (i.e. towards the light)
+     */
+    public void prepare(Matrix4f viewProj, boolean ignoreNearPlane){
+        frustum.set(viewProj);
+        planeMask = ignoreNearPlane ? ALL_PLANES & ~FrustumIntersection.PLANE_MASK_NZ : ALL_PLANES;
+        insideDepth = 0;
+        numOfTested = numOfCulled = numOfDrawn = 0;
+    }
+
+    /**
+     * Test the given entity's subtree against the frustum, before rendering it.
+     * If it returns true, exit() must be called after rendering the subtree.
+     * @param entity {@link Entity} about to be rendered
+     * @return false if the entity's subtree is outside the frustum (& so shouldn't be rendered)
+     */
+    public boolean enter(Entity entity){
+        if (insideDepth > 0) {      // ancestor fully inside frustum, so no need to test
+            insideDepth++;
+            return true;
+        }
+        if (!enabled || !entity.hasWorldBounds()) return true;  // (can't be culled yet)
+
+        numOfTested++;
+        int result = frustum.intersectAab(entity.getWorldBoundsMin(), entity.getWorldBoundsMax(), planeMask);
+        if (result == FrustumIntersection.INSIDE) insideDepth = 1;
+        else if (result != FrustumIntersection.INTERSECT) {
+            numOfCulled++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Call after rendering the subtree of an entity for which enter() returned true.
+     */
+    public void exit(){
+        if (insideDepth > 0) insideDepth--;
+    }
+
+    /**
+     * Record an entity drawn (for the stats).
+     */
+    public void countDrawn(){
+        numOfDrawn++;
+    }
+
+    /**
+     * Print the nº of entities tested, culled & drawn in the last render.
+     * @param name name of the render pass
+     */
+    public void printStats(String name){
+        System.out.println(String.format("Culling (%s): %d tested, %d culled, %d drawn", name, numOfTested, numOfCulled, numOfDrawn));
+    }
+
+    public int getNumOfTested() {
+        return numOfTested;
+    }
+    public int getNumOfCulled() {
+        return numOfCulled;
+    }
+    public int getNumOfDrawn() {
+        return numOfDrawn;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        FrustumCuller.enabled = enabled;
+    }
+}
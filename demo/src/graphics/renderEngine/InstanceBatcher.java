@@ -0,0 +1,490 @@
+package graphics.renderEngine;
+
+import graphics.core.GLState;
+import graphics.materials.Material;
+import graphics.shaders.ShaderProgram;
+import graphics.shaders.UniformBlocks;
+import graphics.shaders.UniformRingBuffer;
+import graphics.shapes.meshes.GeometryArena;
+import graphics.shapes.meshes.Mesh;
+import graphics.shapes.meshes.VertexLayout;
+import graphics.textures.Texture;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferRange;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL32.glDrawElementsInstancedBaseVertex;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL43.glMultiDrawElementsIndirect;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memAllocFloat;
+import static org.lwjgl.system.MemoryUtil.memAllocInt;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+
+/**
+ * Render queue of a render pass: groups its drawables into batches of instances w/the same mesh (& LOD), material &
+ * shadow receiving flag, so each batch is drawn w/a single instanced draw, & sorts the batches to minimise
+ * GL state changes.
+ *
+ * Entities add their instances (model & normal matrices) while the scene graph is traversed, then flush():
+ *      - gives each batch a 64-bit sort key & radix sorts the batches by it (see sortKey())
+ *      - writes all instances' matrices, in sorted order, into the instance buffer (re-specified every flush, so the
+ *        driver can orphan the old one)
+ *      - writes the DrawData uniform block (material params & shadow receiving flag, see {@link UniformBlocks}) of
+ *        each run of batches w/the same material & flag into a uniform ring buffer, w/a single write
+ *      - draws the batches, skipping material, texture, face culling & VAO changes that are redundant (i.e. the
+ *        state is already set by the previous batch); changing material binds another range of the ring buffer
+ *        to the DrawData binding point, instead of uploading the material's uniforms
+ * W/GL 4.3, the draws are built on the CPU into an indirect buffer (also re-specified every flush) & consecutive
+ * batches w/the same {@link GeometryArena}, material & face culling state are submitted w/a single
+ * glMultiDrawElementsIndirect (each draw's base instance selects its instances in the instance buffer).
+ * The shader program used must be a variant that reads the per-instance matrices (INSTANCED define).
+ */
+public class InstanceBatcher {
+
+    // --- sort key fields (high to low bits): what's most expensive to change is sorted on 1st ---
+    private static final int TEXTURE_SET_SHIFT = 52;    // 12 bits: textures bound
+    private static final int MATERIAL_SHIFT = 36;       // 16 bits: material uniforms
+    private static final int SHADOWS_SHIFT = 35;        // 1 bit: (not) receiving shadows
+    private static final int CULL_SHIFT = 33;           // 2 bits: face culling state
+    private static final int ARENA_SHIFT = 28;          // 5 bits: VAO (vertex format)
+    private static final int DEPTH_SHIFT = 12;          // 16 bits: depth of nearest instance (front to back)
+    private static final int MESH_MASK = 0xFFF;         // 12 bits: mesh (so batches of a mesh are adjacent)
+
+    // ids of the materials, texture sets & meshes drawn so far (for the sort keys)
+    private static final Map<Material, Integer> materialIds = new WeakHashMap<>();
+    private static final Map<Material, Integer> materialTextureSetIds = new WeakHashMap<>();
+    private static final Map<List<Integer>, Integer> textureSetIds = new HashMap<>();     // (by texture handles)
+    private static final Map<Mesh, Integer> meshIds = new WeakHashMap<>();
+    private static int nextMaterialId = 0, nextMeshId = 0;  // (not the maps' sizes, which shrink as entries are GC'd)
+
+    private final Map<BatchKey, Batch> batchesByKey = new HashMap<>();
+    private final List<Batch> batches = new ArrayList<>();   // (sorted in flush)
+    private final BatchKey lookupKey = new BatchKey();         // (reused, to look up batches w/o allocating)
+    private final Matrix4f viewProj = new Matrix4f();          // (for the depth of the instances)
+
+    // --- scratch arrays for sorting ---
+    private long[] sortKeys = new long[64], tempKeys = new long[64];
+    private int[] sortIndices = new int[64], tempIndices = new int[64];
+    private Batch[] sortedBatches = new Batch[64];
+
+    private static final int COMMAND_INTS = 5;  // DrawElementsIndirectCommand: count, instanceCount, firstIndex, baseVertex, baseInstance
+
+    private int instanceVBO = 0, indirectBuffer = 0;
+    private FloatBuffer instanceData = null;
+    private IntBuffer commands = null;
+
+    // --- per-draw uniform data (DrawData block) ---
+    private static final int DRAW_DATA_RING_SIZE = 64 * 1024;
+    private UniformRingBuffer drawDataRing = null;
+    private ByteBuffer drawData = null;         // (staging: DrawData of each entry, drawDataStride apart)
+    private int[] batchDrawData = new int[64];  // index of each (sorted) batch's DrawData entry
+    private int drawDataOffset, drawDataStride; // (offset of the entries written by this flush in the ring buffer)
+
+    // --- state set by the previous batch (while flushing) ---
+    private Material boundMaterial;
+    private int boundCullState;
+    private GeometryArena boundArena;
+    private int boundDrawData;
+
+    // --- stats for the last flush ---
+    private int numOfInstances = 0, numOfBatches = 0, numOfDrawCalls = 0;
+    private int numOfStateChanges = 0, numOfElidedChanges = 0;
+
+    /**
+     * Start collecting the instances of a new render pass (batches of the previous pass are reused).
+     * @param viewProj view-projection matrix of the pass (used to sort batches front to back)
+     */
+    public void begin(Matrix4f viewProj){
+        this.viewProj.set(viewProj);
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            batch.numOfInstances = 0;
+            batch.nearestDepth = 1.0f;
+        }
+    }
+
+    /**
+     * Add an instance of the given mesh to the batch of its mesh, LOD, material & shadow receiving flag.
+     * @param mesh {@link Mesh} to draw (must be loaded)
+     * @param lod level of detail of the mesh to draw
+     * @param material {@link Material} to draw the mesh with, or null if not needed (e.g. depth pass)
+     * @param receivesShadows true if the instance receives shadows (for the shadow mapping shaders)
+     * @param model model matrix of the instance (incl. the mesh's dequantization)
+     * @param normal matrix to transform normals of the instance from oc to wc
+     */
+    public void add(Mesh mesh, int lod, Material material, boolean receivesShadows, Matrix4f model, Matrix3f normal){
+        Batch batch = batchesByKey.get(lookupKey.set(mesh, lod, material, receivesShadows));
+        if (batch == null) {
+            batch = new Batch(new BatchKey().set(mesh, lod, material, receivesShadows));
+            batchesByKey.put(batch.key, batch);
+            batches.add(batch);
+        }
+        batch.add(model, normal);
+
+        // depth (in NDC) of the instance's origin (the mesh's centre if its positions are quantized)
+        float x = model.m30(), y = model.m31(), z = model.m32();
+        float clipZ = viewProj.m02() * x + viewProj.m12() * y + viewProj.m22() * z + viewProj.m32();
+        float clipW = viewProj.m03() * x + viewProj.m13() * y + viewProj.m23() * z + viewProj.m33();
+        float depth = clipW > 0 ? clipZ / clipW : -1.0f;   // (behind the camera: nearest)
+        batch.nearestDepth = Math.min(batch.nearestDepth, depth);
+    }
+
+    /**
+     * Draw all batches added since begin(), using the given (currently active) shader program.
+     * @param shaderProgram {@link ShaderProgram} to draw with (INSTANCED variant)
+     * @param useMaterials true to bind & upload each batch's material (& shadow receiving flag) before drawing it
+     */
+    public void flush(ShaderProgram shaderProgram, boolean useMaterials){
+        // --- drop batches unused in this pass ---
+        numOfInstances = numOfBatches = numOfDrawCalls = numOfStateChanges = numOfElidedChanges = 0;
+        for (int i = batches.size() - 1; i >= 0; i--) {
+            Batch batch = batches.get(i);
+            if (batch.numOfInstances == 0) {
+                batchesByKey.remove(batch.key);
+                batches.remove(i);
+            } else numOfInstances += batch.numOfInstances;
+        }
+        if (numOfInstances == 0) return;
+        numOfBatches = batches.size();
+
+        sortBatches(useMaterials);
+
+        // --- copy all instances into the instance buffer (in sorted order) ---
+        int numOfFloats = numOfInstances * VertexLayout.INSTANCE_FLOATS;
+        if (instanceData == null) instanceData = memAllocFloat(numOfFloats);
+        else if (instanceData.capacity() < numOfFloats) instanceData = memRealloc(instanceData, Math.max(numOfFloats, instanceData.capacity() * 2));
+        instanceData.clear();
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            instanceData.put(batch.data, 0, batch.numOfInstances * VertexLayout.INSTANCE_FLOATS);
+        }
+        instanceData.flip();
+
+        if (instanceVBO == 0) instanceVBO = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+        glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STREAM_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        if (useMaterials) writeDrawData();
+
+        // --- draw batches (1st batch sets all of its state; GLState skips what other renderers left already set) ---
+        boundMaterial = null;
+        boundCullState = -1;
+        boundArena = null;
+        boundDrawData = -1;
+        if (GeometryArena.isMultiDrawIndirectSupported()) drawIndirect(shaderProgram, useMaterials);
+        else {
+            long offset = 0;
+            for (int i = 0; i < batches.size(); i++) {
+                Batch batch = batches.get(i);
+                Mesh mesh = batch.key.mesh;
+                setState(i, shaderProgram, useMaterials);
+                mesh.getAllocation().getArena().bindInstanceAttributes(instanceVBO, offset);
+                glDrawElementsInstancedBaseVertex(GL_TRIANGLES, mesh.getLODIndexCount(batch.key.lod), GL_UNSIGNED_INT,
+                        (long) mesh.getLODFirstIndex(batch.key.lod) * Integer.BYTES, batch.numOfInstances,
+                        mesh.getAllocation().getBaseVertex());
+                offset += (long) batch.numOfInstances * VertexLayout.INSTANCE_STRIDE;
+                numOfDrawCalls++;
+            }
+        }
+    }
+
+    /**
+     * Sort the batches by their sort keys (radix sort, stable so batches w/equal keys keep their order).
+     */
+    private void sortBatches(boolean useMaterials){
+        int n = batches.size();
+        if (sortKeys.length < n) {
+            int length = Math.max(n, sortKeys.length * 2);
+            sortKeys = new long[length];
+            tempKeys = new long[length];
+            sortIndices = new int[length];
+            tempIndices = new int[length];
+            sortedBatches = new Batch[length];
+        }
+        for (int i = 0; i < n; i++) {
+            sortKeys[i] = sortKey(batches.get(i), useMaterials);
+            sortIndices[i] = i;
+        }
+        int[] sorted = RadixSort.sort(sortKeys, sortIndices, n, tempKeys, tempIndices) ? tempIndices : sortIndices;
+
+        for (int i = 0; i < n; i++) sortedBatches[i] = batches.get(sorted[i]);
+        for (int i = 0; i < n; i++) batches.set(i, sortedBatches[i]);
+        Arrays.fill(sortedBatches, 0, n, null);
+    }
+
+    /**
+     * Write the DrawData block of each run of (sorted) batches w/the same material & shadow receiving flag into
+     * the staging buffer, then all of them into the ring buffer at once.
+     * (the entries are drawDataStride apart, so each can be bound w/glBindBufferRange)
+     */
+    private void writeDrawData(){
+        if (drawDataRing == null) {
+            drawDataRing = new UniformRingBuffer(DRAW_DATA_RING_SIZE);
+            drawDataStride = drawDataRing.align(UniformBlocks.DRAW_DATA_SIZE);
+        }
+        if (batchDrawData.length < batches.size()) batchDrawData = new int[Math.max(batches.size(), batchDrawData.length * 2)];
+
+        int size = batches.size() * drawDataStride;     // (at most 1 entry per batch)
+        if (drawData == null) drawData = memAlloc(size);
+        else if (drawData.capacity() < size) drawData = memRealloc(drawData, Math.max(size, drawData.capacity() * 2));
+
+        int numOfEntries = 0;
+        BatchKey previous = null;
+        for (int i = 0; i < batches.size(); i++) {
+            BatchKey key = batches.get(i).key;
+            if (previous == null || key.material != previous.material || key.receivesShadows != previous.receivesShadows) {
+                int offset = numOfEntries++ * drawDataStride;
+                key.material.writeToBuffer(drawData, offset + UniformBlocks.DRAW_MATERIAL);
+                drawData.putInt(offset + UniformBlocks.DRAW_RECEIVES_SHADOWS, key.receivesShadows ? 1 : 0);
+                previous = key;
+            }
+            batchDrawData[i] = numOfEntries - 1;
+        }
+        drawData.position(0).limit(numOfEntries * drawDataStride);
+        drawDataOffset = drawDataRing.write(drawData);
+        drawData.clear();
+    }
+
+    /**
+     * Returns the batch's sort key. From the highest bits: texture set, material, shadow receiving flag, face culling
+     * state, arena, depth (of the nearest instance, so batches w/the same material are drawn front to back, for
+     * early-Z) & mesh. (the pass & shader program are the same for all batches of a flush, so aren't in the key)
+     * W/o materials (e.g. depth pass), only the state, arena, depth & mesh are used.
+     */
+    private static long sortKey(Batch batch, boolean useMaterials){
+        BatchKey key = batch.key;
+        long sortKey = 0;
+        if (useMaterials) {
+            sortKey |= (long) (textureSetId(key.material) & 0xFFF) << TEXTURE_SET_SHIFT;
+            sortKey |= (long) (materialIds.computeIfAbsent(key.material, m -> nextMaterialId++) & 0xFFFF) << MATERIAL_SHIFT;
+            sortKey |= (long) (key.receivesShadows ? 0 : 1) << SHADOWS_SHIFT;
+        }
+        sortKey |= (long) cullState(key.mesh) << CULL_SHIFT;
+        sortKey |= (long) (key.mesh.getAllocation().getArena().getId() & 0x1F) << ARENA_SHIFT;
+        float depth = Math.max(0.0f, Math.min(1.0f, (batch.nearestDepth + 1.0f) / 2.0f));
+        sortKey |= (long) (depth * 0xFFFF) << DEPTH_SHIFT;
+        sortKey |= meshIds.computeIfAbsent(key.mesh, m -> nextMeshId++) & MESH_MASK;
+        return sortKey;
+    }
+
+    /**
+     * Returns id of the material's set of textures (materials w/the same textures have the same id).
+     */
+    private static int textureSetId(Material material){
+        return materialTextureSetIds.computeIfAbsent(material, m -> {
+            List<Integer> handles = new ArrayList<>();
+            if (m.getTexturesList() != null) for (Texture texture : m.getTexturesList()) handles.add(texture.getHandle());
+            return textureSetIds.computeIfAbsent(handles, h -> textureSetIds.size());
+        });
+    }
+
+    /**
+     * Returns the mesh's face culling state: 0 if face culling is disabled, else 1 + front face winding.
+     */
+    private static int cullState(Mesh mesh){
+        if (!mesh.usesFaceCulling()) return 0;
+        return mesh.getGLFrontFaceWinding() == GL_CCW ? 1 : 2;
+    }
+
+    /**
+     * Set the state to draw the (sorted) batch at the given index (material & DrawData range if used, face culling
+     * & arena's VAO), skipping what's already set by the previous batch.
+     */
+    private void setState(int batchIndex, ShaderProgram shaderProgram, boolean useMaterials){
+        BatchKey key = batches.get(batchIndex).key;
+        if (useMaterials) {
+            if (key.material != boundMaterial) {
+                // (textures only rebound if different from the previous material's)
+                if (boundMaterial == null || !boundMaterial.hasSameTextures(key.material))
+                    key.material.bindTextures();
+                else numOfElidedChanges++;
+                key.material.uploadTexturesToShader(shaderProgram);   // (sampler units only, rest is in DrawData)
+                boundMaterial = key.material;
+                numOfStateChanges++;
+            } else numOfElidedChanges++;
+
+            int entry = batchDrawData[batchIndex];
+            if (entry != boundDrawData) {
+                glBindBufferRange(GL_UNIFORM_BUFFER, UniformBlocks.DRAW_DATA, drawDataRing.getHandle(),
+                        drawDataOffset + (long) entry * drawDataStride, UniformBlocks.DRAW_DATA_SIZE);
+                boundDrawData = entry;
+                numOfStateChanges++;
+            } else numOfElidedChanges++;
+        }
+
+        int cullState = cullState(key.mesh);
+        if (cullState != boundCullState) {
+            GLState.setEnabled(GL_CULL_FACE, cullState != 0);
+            if (cullState != 0) GLState.frontFace(key.mesh.getGLFrontFaceWinding());
+            boundCullState = cullState;
+            numOfStateChanges++;
+        } else numOfElidedChanges++;
+
+        GeometryArena arena = key.mesh.getAllocation().getArena();
+        if (arena != boundArena) {
+            arena.bind();
+            boundArena = arena;
+            numOfStateChanges++;
+        } else numOfElidedChanges++;
+    }
+
+    /**
+     * Build the batches' draw commands into the indirect buffer, & submit runs of consecutive batches that can be
+     * drawn together w/a single multi-draw.
+     */
+    private void drawIndirect(ShaderProgram shaderProgram, boolean useMaterials){
+        // --- build draw commands (baseInstance = index of batch's 1st instance in the instance buffer) ---
+        int numOfInts = batches.size() * COMMAND_INTS;
+        if (commands == null) commands = memAllocInt(numOfInts);
+        else if (commands.capacity() < numOfInts) commands = memRealloc(commands, Math.max(numOfInts, commands.capacity() * 2));
+        commands.clear();
+        int baseInstance = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+            Mesh mesh = batch.key.mesh;
+            commands.put(mesh.getLODIndexCount(batch.key.lod)).put(batch.numOfInstances)
+                    .put(mesh.getLODFirstIndex(batch.key.lod)).put(mesh.getAllocation().getBaseVertex()).put(baseInstance);
+            baseInstance += batch.numOfInstances;
+        }
+        commands.flip();
+
+        if (indirectBuffer == 0) indirectBuffer = glGenBuffers();
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectBuffer);
+        glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STREAM_DRAW);
+
+        // --- submit runs of batches w/the same arena, material (if used) & face culling state ---
+        for (int first = 0, next; first < batches.size(); first = next) {
+            BatchKey key = batches.get(first).key;
+            GeometryArena arena = key.mesh.getAllocation().getArena();
+            next = first + 1;
+            while (next < batches.size() && canDrawTogether(key, batches.get(next).key, arena, useMaterials)) next++;
+
+            GeometryArena previousArena = boundArena;
+            setState(first, shaderProgram, useMaterials);
+            if (arena != previousArena) arena.bindInstanceAttributes(instanceVBO, 0);  // (once per arena, bc offset is 0)
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, (long) first * COMMAND_INTS * Integer.BYTES, next - first, 0);
+            numOfDrawCalls++;
+        }
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+    }
+
+    private static boolean canDrawTogether(BatchKey key, BatchKey other, GeometryArena arena, boolean useMaterials){
+        if (other.mesh.getAllocation().getArena() != arena) return false;
+        if (cullState(other.mesh) != cullState(key.mesh)) return false;
+        return !useMaterials || (other.material == key.material && other.receivesShadows == key.receivesShadows);
+    }
+
+    /**
+     * Delete the instance, indirect & DrawData buffers.
+     */
+    public void deallocateResources(){
+        if (instanceVBO != 0) glDeleteBuffers(instanceVBO);
+        if (indirectBuffer != 0) glDeleteBuffers(indirectBuffer);
+        instanceVBO = indirectBuffer = 0;
+        if (drawDataRing != null) drawDataRing.deallocateResources();
+        drawDataRing = null;
+        if (instanceData != null) memFree(instanceData);
+        if (commands != null) memFree(commands);
+        if (drawData != null) memFree(drawData);
+        instanceData = null;
+        commands = null;
+        drawData = null;
+    }
+
+    /**
+     * Print the nº of instances, batches, draw calls & state changes (made & skipped) of the last flush.
+     * @param name name of the render pass
+     */
+    public void printStats(String name){
+        System.out.println(String.format("Instancing (%s): %d instances in %d batches, %d draw calls, %d state changes (%d redundant skipped)",
+                name, numOfInstances, numOfBatches, numOfDrawCalls, numOfStateChanges, numOfElidedChanges));
+    }
+
+    public int getNumOfInstances() {
+        return numOfInstances;
+    }
+    public int getNumOfBatches() {
+        return numOfBatches;
+    }
+    public int getNumOfDrawCalls() {
+        return numOfDrawCalls;
+    }
+    public int getNumOfStateChanges() {
+        return numOfStateChanges;
+    }
+    public int getNumOfElidedChanges() {
+        return numOfElidedChanges;
+    }
+
+    /**
+     * What's shared by all instances of a batch: mesh, LOD, material & shadow receiving flag.
+     * (mesh & material compared by identity)
+     */
+    private static class BatchKey {
+        Mesh mesh;
+        int lod;
+        Material material;
+        boolean receivesShadows;
+
+        BatchKey set(Mesh mesh, int lod, Material material, boolean receivesShadows){
+            this.mesh = mesh;
+            this.lod = lod;
+            this.material = material;
+            this.receivesShadows = receivesShadows;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if (!(o instanceof BatchKey)) return false;
+            BatchKey other = (BatchKey) o;
+            return mesh == other.mesh && lod == other.lod && material == other.material && receivesShadows == other.receivesShadows;
+        }
+
+        @Override
+        public int hashCode(){
+            int hash = System.identityHashCode(mesh);
+            hash = 31 * hash + lod;
+            hash = 31 * hash + System.identityHashCode(material);
+            return 31 * hash + (receivesShadows ? 1 : 0);
+        }
+    }
+
+    /**
+     * Instances of a batch: their model & normal matrices (in the instance buffer's layout), & the depth of
+     * the nearest one.
+     */
+    private static class Batch {
+        final BatchKey key;
+        float[] data = new float[16 * VertexLayout.INSTANCE_FLOATS];
+        int numOfInstances = 0;
+        float nearestDepth = 1.0f;  // (NDC)
+
+        Batch(BatchKey key){
+            this.key = key;
+        }
+
+        void add(Matrix4f model, Matrix3f normal){
+            int offset = numOfInstances * VertexLayout.INSTANCE_FLOATS;
+            if (offset + VertexLayout.INSTANCE_FLOATS > data.length) data = Arrays.copyOf(data, data.length * 2);
+            model.get(data, offset);
+            normal.get(data, offset + 16);
+            numOfInstances++;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package graphics.renderEngine;
+
+import java.util.Arrays;
+
+/**
+ * LSD radix sort of 64-bit (unsigned) sort keys, carrying an int value (e.g. index of the sorted item) w/each key.
+ * Sorts 8 bits per pass (skipping passes in which all keys have the same byte, which is common for sort keys
+ * whose high bits are e.g. a pass or material), & is stable, so equal keys keep their order.
+ */
+class RadixSort {
+
+    private static final int RADIX_BITS = 8, RADIX = 1 << RADIX_BITS;
+    private static final int[] counts = new int[RADIX];    // (scratch, so sorting doesn't allocate; GL thread only)
+
+    /**
+     * Sort the 1st n keys (& their values) in ascending (unsigned) order.
+     * @param keys sort keys
+     * @param values value of each key (moved w/it)
+     * @param n nº of keys to sort
+     * @param tempKeys scratch array, at least n long
+     * @param tempValues scratch array, at least n long
+     * @return true if the sorted keys & values ended up in the scratch arrays (else they're in keys & values)
+     */
+    static boolean sort(long[] keys, int[] values, int n, long[] tempKeys, int[] tempValues){
+        long[] srcKeys = keys, dstKeys = tempKeys;
+        int[] srcValues = values, dstValues = tempValues;
+        boolean inTemp = false;
+
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            // --- histogram of this byte (skip pass if all keys have the same byte) ---
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) counts[(int) (srcKeys[i] >>> shift) & (RADIX - 1)]++;
+            if (n == 0 || counts[(int) (srcKeys[0] >>> shift) & (RADIX - 1)] == n) continue;
+
+            // --- prefix sums -> 1st position of each bucket, then scatter ---
+            for (int b = 0, sum = 0; b < RADIX; b++) {
+                int count = counts[b];
+                counts[b] = sum;
+                sum += count;
+            }
+            for (int i = 0; i < n; i++) {
+                int pos = counts[(int) (srcKeys[i] >>> shift) & (RADIX - 1)]++;
+                dstKeys[pos] = srcKeys[i];
+                dstValues[pos] = srcValues[i];
+            }
+
+            long[] swapKeys = srcKeys; srcKeys = dstKeys; dstKeys = swapKeys;
+            int[] swapValues = srcValues; srcValues = dstValues; dstValues = swapValues;
+            inTemp = !inTemp;
+        }
+        return inTemp;
+    }
+}
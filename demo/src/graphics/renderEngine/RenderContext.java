@@ -1,6 +1,7 @@
 package graphics.renderEngine;
 
 import graphics.renderEngine.renderOptionsManager.RenderOptions;
+import graphics.renderEngine.renderOptionsManager.ShadowFilter;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
@@ -9,6 +10,9 @@ import org.joml.Vector3f;
  * Includes:
  *      - view and projection matrices (calculated using the camera's data in the main program)
  *      - the camera's position and camera front vector
+ *      - the directional light's view & projection matrices & position (fitted to the scene, see DirLightFitter)
+ *      - the directional light's shadow cascades (fitted to the camera by the depth pass)
+ *      - how the shadow map is filtered (& the Poisson kernel's nº of taps & radius)
  * Also includes:
  *      - post-processing effect to use
  */
@@ -16,9 +20,18 @@ public class RenderContext {
     private static Matrix4f viewMatrix, projMatrix;
     private static Vector3f cameraPos, cameraFront;
 
-    private static Matrix4f dirLightViewMatrix, dirLightProjMatrix, dirLightSpaceMatrix;
+    private static Matrix4f dirLightViewMatrix, dirLightProjMatrix;
+    private static final Matrix4f dirLightSpaceMatrix = new Matrix4f();     // (proj * view, recalculated when either changes)
+    private static boolean dirLightSpaceMatrixStale = true;
+    private static Vector3f dirLightPos;    // (pos from which the light's view is rendered, e.g. for FROM_LIGHT_POV)
+    private static ShadowCascades shadowCascades;
 
     private static RenderOptions renderOption = RenderOptions.NORMAL;
+    private static ShadowFilter shadowFilter = ShadowFilter.HARDWARE_PCF_2X2;
+    private static int poissonSamples = 8;          // nº of taps of the Poisson kernel (1 to MAX_POISSON_SAMPLES)
+    private static float poissonRadius = 2.0f;      // radius of the Poisson kernel (in shadow map texels)
+
+    public static final int MAX_POISSON_SAMPLES = 16;   // (must match the size of the Poisson disk in the shader)
 
     public static void setContext(Matrix4f view_m, Matrix4f projection_m, Vector3f camera_pos, Vector3f camera_front){
         viewMatrix = view_m;
@@ -27,18 +40,50 @@ public class RenderContext {
         cameraFront = camera_front;
     }
 
+    /**
+     * Set the dir light's view matrix (must be set again if the matrix is modified, so the light space matrix is
+     * recalculated).
+     */
     public static void setDirLightViewMatrix(Matrix4f dirLightViewMatrix) {
         RenderContext.dirLightViewMatrix = dirLightViewMatrix;
+        dirLightSpaceMatrixStale = true;
     }
 
+    /**
+     * Set the dir light's projection matrix (must be set again if the matrix is modified, so the light space matrix
+     * is recalculated).
+     */
     public static void setDirLightProjMatrix(Matrix4f dirLightProjMatrix) {
         RenderContext.dirLightProjMatrix = dirLightProjMatrix;
+        dirLightSpaceMatrixStale = true;
+    }
+
+    public static void setDirLightPos(Vector3f dirLightPos) {
+        RenderContext.dirLightPos = dirLightPos;
+    }
+
+    public static void setShadowCascades(ShadowCascades shadowCascades) {
+        RenderContext.shadowCascades = shadowCascades;
     }
 
     public static void setRenderOption(RenderOptions renderOption) {
         RenderContext.renderOption = renderOption;
     }
 
+    public static void setShadowFilter(ShadowFilter shadowFilter) {
+        RenderContext.shadowFilter = shadowFilter;
+    }
+
+    /**
+     * Set the Poisson kernel used by the POISSON shadow filter.
+     * @param samples nº of taps (clamped to 1 to {@link #MAX_POISSON_SAMPLES}); each is a hw 2x2 PCF
+     * @param radius radius of the kernel in shadow map texels (larger: softer shadows, but more noise)
+     */
+    public static void setPoissonKernel(int samples, float radius) {
+        poissonSamples = Math.max(1, Math.min(MAX_POISSON_SAMPLES, samples));
+        poissonRadius = radius;
+    }
+
     public static Matrix4f getViewMatrix(){
         return viewMatrix;
     }
@@ -56,9 +101,9 @@ public class RenderContext {
     }
 
     public static Matrix4f getDirLightSpaceMatrix() {
-        if(dirLightSpaceMatrix == null){
-            dirLightSpaceMatrix = new Matrix4f(dirLightProjMatrix);
-            dirLightSpaceMatrix.mul(dirLightViewMatrix);
+        if(dirLightSpaceMatrixStale){   // (view or proj matrix set since last calculated)
+            dirLightSpaceMatrix.set(dirLightProjMatrix).mul(dirLightViewMatrix);
+            dirLightSpaceMatrixStale = false;
         }
         return dirLightSpaceMatrix;
     }
@@ -71,7 +116,27 @@ public class RenderContext {
         return dirLightProjMatrix;
     }
 
+    public static Vector3f getDirLightPos() {
+        return dirLightPos;
+    }
+
+    public static ShadowCascades getShadowCascades() {
+        return shadowCascades;
+    }
+
     public static RenderOptions getRenderOption() {
         return renderOption;
     }
+
+    public static ShadowFilter getShadowFilter() {
+        return shadowFilter;
+    }
+
+    public static int getPoissonSamples() {
+        return poissonSamples;
+    }
+
+    public static float getPoissonRadius() {
+        return poissonRadius;
+    }
 }
@@ -0,0 +1,65 @@
+package graphics.renderEngine;
+
+import graphics.scene.Scene;
+import graphics.shaders.UniformBlocks;
+import graphics.shaders.UniformBuffer;
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Uniform buffers of the per-frame & per-light data shared by all shader programs (the FrameData & LightData
+ * uniform blocks, see {@link UniformBlocks}).
+ * Renderers call {@link #update} before drawing, which writes the current {@link RenderContext} & the scene's lights
+ * to the buffers; they're only uploaded if their data changed since the last upload, so each is uploaded at most
+ * once per frame (& not at all if e.g. the camera & lights don't move), however many programs use them.
+ */
+public class SceneUniforms {
+
+    private static UniformBuffer frameData, lightData;
+    private static final Matrix4f viewProj = new Matrix4f();    // (scratch)
+
+    /**
+     * Write the current rendering context & the given scene's lights to the shared uniform buffers
+     * (& upload them if changed). Must be called from the GL thread, after setting the {@link RenderContext}.
+     * @param scene {@link Scene} whose lights & ambient illumination are uploaded
+     */
+    public static void update(Scene scene){
+        if (frameData == null) {    // (created on 1st use, once there's a GL context)
+            frameData = new UniformBuffer(UniformBlocks.FRAME_DATA, UniformBlocks.FRAME_DATA_SIZE);
+            lightData = new UniformBuffer(UniformBlocks.LIGHT_DATA, UniformBlocks.LIGHT_DATA_SIZE);
+        }
+
+        // --- FrameData ---
+        ByteBuffer frame = frameData.getStaging();
+        Matrix4f view = RenderContext.getViewMatrix(), proj = RenderContext.getProjMatrix();
+        if (view != null && proj != null) {
+            view.get(UniformBlocks.FRAME_VIEW_M, frame);
+            proj.get(UniformBlocks.FRAME_PROJ_M, frame);
+            viewProj.set(proj).mul(view).get(UniformBlocks.FRAME_VIEW_PROJ_M, frame);
+        }
+        if (RenderContext.getDirLightProjMatrix() != null && RenderContext.getDirLightViewMatrix() != null)
+            RenderContext.getDirLightSpaceMatrix().get(UniformBlocks.FRAME_LIGHT_SPACE_M, frame);
+        if (RenderContext.getCameraPos() != null) RenderContext.getCameraPos().get(UniformBlocks.FRAME_CAMERA_POS, frame);
+        scene.getI_a().get(UniformBlocks.FRAME_I_A, frame);
+        if (RenderContext.getShadowCascades() != null) RenderContext.getShadowCascades().writeToBuffer(frame);
+        frame.putInt(UniformBlocks.FRAME_SHADOW_FILTER, RenderContext.getShadowFilter().ordinal());
+        frame.putInt(UniformBlocks.FRAME_POISSON_SAMPLES, RenderContext.getPoissonSamples());
+        frame.putFloat(UniformBlocks.FRAME_POISSON_RADIUS, RenderContext.getPoissonRadius());
+        frameData.upload();
+
+        // --- LightData ---
+        scene.getDirLight().writeSpecsToBuffer(lightData.getStaging(), UniformBlocks.LIGHT_DIR_LIGHT);
+        lightData.upload();
+    }
+
+    /**
+     * Delete the shared uniform buffers (at the end of the program).
+     */
+    public static void deallocateResources(){
+        if (frameData == null) return;
+        frameData.deallocateResources();
+        lightData.deallocateResources();
+        frameData = lightData = null;
+    }
+}
@@ -0,0 +1,255 @@
+package graphics.renderEngine;
+
+import graphics.shaders.UniformBlocks;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cascaded shadow maps for the directional light: the camera's view frustum (up to the max shadow distance) is split
+ * along its depth into cascades, & an orthographic light projection is fitted to each. Each cascade is rendered to a
+ * layer of the shadow map texture array (see {@link ToDepthTextureRenderer}), so near the camera shadow map texels
+ * cover less of the scene, & shadows reach as far as the max shadow distance, at a fixed shadow map memory.
+ *
+ * - split distances blend logarithmic & uniform splits (the "practical" split scheme), see {@link #setSplitLambda}
+ * - each cascade's projection is fitted to the bounding sphere of its slice of the frustum, so its size doesn't
+ *   change when the camera rotates, & its centre is snapped to whole shadow map texels, so shadow edges don't
+ *   shimmer when the camera moves. Its depth range is fitted to the slice, rounded outwards to a quarter of its
+ *   radius (casters in front of its near plane are still rendered bc the depth pass uses depth clamping).
+ *   So a cascade's matrix only changes when the camera moves by a texel or more (or the light moves), which is
+ *   when its cached static shadow casters are rendered again.
+ * - each cascade is also clamped to the scene's bounds (see {@link DirLightFitter}): its depth range never reaches
+ *   past the shadow casters towards the light, nor past the scene away from it, & if the whole scene fits in a
+ *   smaller rectangle than its slice's, that rectangle is used instead. (padded bounds, so dynamic entities moving
+ *   around don't change them every frame, & so the cascades' matrices)
+ * - each cascade (but the 1st) also covers the end of the previous one, where the shaders blend between them
+ *
+ * Must be updated every frame (w/the current camera), before the depth pass. The cascades' light space matrices,
+ * split distances etc. are uploaded in the shared FrameData uniform block (see {@link SceneUniforms}).
+ */
+public class ShadowCascades {
+
+    public static final int MAX_CASCADES = 4;   // (must match MAX_CASCADES in uniformBlocks.glsl)
+
+    private final int numOfCascades;
+    private final int shadowMapWidth, shadowMapHeight;     // size of each cascade's shadow map (texels)
+    private float splitLambda = 0.75f;          // 0: uniform splits, 1: logarithmic splits
+    private float maxShadowDistance = 60.0f;    // max view depth of shadows (if less than the camera's far plane)
+    private float blendFraction = 0.15f;        // fraction of each cascade blended w/the next one
+
+    // --- results (per cascade) ---
+    private final Matrix4f[] lightSpaceMatrices = new Matrix4f[MAX_CASCADES];
+    private final float[] splitDistances = new float[MAX_CASCADES];     // view depth at which each cascade ends
+    private final float[] blendStarts = new float[MAX_CASCADES];        // view depth at which blending w/next one starts
+    private final float[] depthRanges = new float[MAX_CASCADES];        // depth range of each cascade (wc units)
+    private final Matrix4f boundsMatrix = new Matrix4f();   // light space matrix covering all cascades (for culling)
+
+    // --- scratch (so updating doesn't allocate) ---
+    private final Matrix4f lightView = new Matrix4f();
+    private final Matrix4f invViewProj = new Matrix4f();
+    private final Vector3f[] frustumNearCorners = new Vector3f[4], frustumFarCorners = new Vector3f[4];
+    private final Vector3f[] sliceCorners = new Vector3f[8];
+    private final Vector3f centre = new Vector3f(), lightSpaceCentre = new Vector3f(), corner = new Vector3f();
+    private final Vector3f sceneMin = new Vector3f(), sceneMax = new Vector3f();
+    private final Vector3f casterMin = new Vector3f(), casterMax = new Vector3f();
+
+    /**
+     * Create the cascades (fitted on the 1st update).
+     * @param numOfCascades nº of cascades (1 to MAX_CASCADES)
+     * @param shadowMapWidth width of each cascade's shadow map
+     * @param shadowMapHeight height of each cascade's shadow map
+     */
+    public ShadowCascades(int numOfCascades, int shadowMapWidth, int shadowMapHeight){
+        if (numOfCascades < 1 || numOfCascades > MAX_CASCADES)
+            throw new IllegalArgumentException("Nº of shadow cascades must be between 1 & " + MAX_CASCADES);
+        this.numOfCascades = numOfCascades;
+        this.shadowMapWidth = shadowMapWidth;
+        this.shadowMapHeight = shadowMapHeight;
+        for (int i = 0; i < MAX_CASCADES; i++) lightSpaceMatrices[i] = new Matrix4f();
+        for (int i = 0; i < 4; i++) {
+            frustumNearCorners[i] = new Vector3f();
+            frustumFarCorners[i] = new Vector3f();
+        }
+        for (int i = 0; i < 8; i++) sliceCorners[i] = new Vector3f();
+    }
+
+    /**
+     * Split the camera's view frustum & fit each cascade's light space matrix to its slice.
+     * @param view camera's view matrix
+     * @param projection camera's (perspective) projection matrix
+     * @param lightDirection direction of the directional light
+     */
+    public void update(Matrix4f view, Matrix4f projection, Vector3fc lightDirection){
+        float near = projection.perspectiveNear();
+        float far = Math.min(projection.perspectiveFar(), maxShadowDistance);
+        float cameraFar = projection.perspectiveFar();
+
+        // --- corners of the camera frustum in wc (slices are interpolated btwn its near & far corners) ---
+        invViewProj.set(projection).mul(view).invert();
+        for (int i = 0; i < 4; i++) {
+            float x = (i & 1) == 0 ? -1 : 1, y = (i & 2) == 0 ? -1 : 1;
+            invViewProj.transformProject(x, y, -1, frustumNearCorners[i]);
+            invViewProj.transformProject(x, y, 1, frustumFarCorners[i]);
+        }
+
+        // --- light view (rotation only, shared by all cascades, so snapping is in a fixed grid) ---
+        DirLightFitter.lightViewMatrix(lightDirection, lightView);
+
+        // --- scene & casters' bounds in light view space (cascades are clamped to them, if known) ---
+        boolean clampToScene = DirLightFitter.hasSceneBounds();
+        if (clampToScene)
+            DirLightFitter.lightSpaceBounds(lightView, DirLightFitter.getSceneBoundsMin(), DirLightFitter.getSceneBoundsMax(),
+                    sceneMin, sceneMax);
+        float castersMaxZ = clampToScene ? sceneMax.z : Float.MAX_VALUE;     // (nearest point of a caster to the light)
+        if (DirLightFitter.hasCasterBounds()) {
+            DirLightFitter.lightSpaceBounds(lightView, DirLightFitter.getCasterBoundsMin(), DirLightFitter.getCasterBoundsMax(),
+                    casterMin, casterMax);
+            castersMaxZ = Math.min(castersMaxZ, casterMax.z);
+        }
+
+        // --- split distances: blend of logarithmic & uniform splits ---
+        for (int i = 0; i < numOfCascades; i++) {
+            float p = (i + 1) / (float) numOfCascades;
+            float logSplit = near * (float) Math.pow(far / near, p);
+            float uniformSplit = near + (far - near) * p;
+            splitDistances[i] = splitLambda * logSplit + (1 - splitLambda) * uniformSplit;
+        }
+
+        float boundsMinX = Float.MAX_VALUE, boundsMinY = Float.MAX_VALUE, boundsMinZ = Float.MAX_VALUE;
+        float boundsMaxX = -Float.MAX_VALUE, boundsMaxY = -Float.MAX_VALUE, boundsMaxZ = -Float.MAX_VALUE;
+        for (int c = 0; c < numOfCascades; c++) {
+            float sliceNear = c == 0 ? near : blendStarts[c - 1];   // (overlaps previous cascade's blend region)
+            float sliceFar = splitDistances[c];
+            blendStarts[c] = sliceFar - blendFraction * (sliceFar - (c == 0 ? near : splitDistances[c - 1]));
+
+            // corners of the slice in wc (view depth is linear along each corner's edge of the frustum)
+            float tNear = (sliceNear - near) / (cameraFar - near), tFar = (sliceFar - near) / (cameraFar - near);
+            centre.zero();
+            for (int i = 0; i < 4; i++) {
+                frustumNearCorners[i].lerp(frustumFarCorners[i], tNear, sliceCorners[i]);
+                frustumNearCorners[i].lerp(frustumFarCorners[i], tFar, sliceCorners[i + 4]);
+                centre.add(sliceCorners[i]).add(sliceCorners[i + 4]);
+            }
+            centre.mul(1 / 8.0f);
+
+            // bounding sphere of the slice (radius rounded up, so it doesn't change w/rounding errors)
+            float radius = 0;
+            for (int i = 0; i < 8; i++) radius = Math.max(radius, sliceCorners[i].distance(centre));
+            radius = (float) Math.ceil(radius * 16.0f) / 16.0f;
+
+            // depth range of the slice in light view space (looking along -z)
+            float minZ = Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+            for (int i = 0; i < 8; i++) {
+                float z = lightView.transformPosition(sliceCorners[i], corner).z;
+                minZ = Math.min(minZ, z);
+                maxZ = Math.max(maxZ, z);
+            }
+
+            // (towards the light, only up to the casters' bounds: nothing beyond them casts shadows; & away from it,
+            // only up to the scene's bounds, nothing beyond them receives shadows)
+            if (clampToScene) {
+                maxZ = Math.max(minZ, Math.min(maxZ, castersMaxZ));
+                minZ = Math.min(maxZ, Math.max(minZ, sceneMin.z));
+            }
+
+            // (rounded outwards, so small camera moves don't change it -- & invalidate the cached static casters)
+            float zStep = radius * 0.25f;
+            minZ = (float) Math.floor(minZ / zStep) * zStep;
+            maxZ = (float) Math.ceil(maxZ / zStep) * zStep;
+            if (minZ == maxZ) maxZ += zStep;
+
+            // snap the centre to whole texels (in light view space)
+            lightView.transformPosition(centre, lightSpaceCentre);
+            float texelWidth = 2 * radius / shadowMapWidth, texelHeight = 2 * radius / shadowMapHeight;
+            float left = (float) Math.floor(lightSpaceCentre.x / texelWidth) * texelWidth - radius;
+            float bottom = (float) Math.floor(lightSpaceCentre.y / texelHeight) * texelHeight - radius;
+            float right = left + 2 * radius, top = bottom + 2 * radius;
+
+            // if the whole scene fits in a smaller rectangle than the slice's (e.g. far cascades of a small scene),
+            // use the scene's rectangle instead (snapped to its own texels, so it only changes when the scene does)
+            if (clampToScene && sceneMax.x - sceneMin.x < right - left && sceneMax.y - sceneMin.y < top - bottom) {
+                float size = Math.max(Math.max(sceneMax.x - sceneMin.x, sceneMax.y - sceneMin.y), 1e-3f);
+                float sceneTexelWidth = size / (shadowMapWidth - 1), sceneTexelHeight = size / (shadowMapHeight - 1);
+                left = (float) Math.floor(sceneMin.x / sceneTexelWidth) * sceneTexelWidth;
+                bottom = (float) Math.floor(sceneMin.y / sceneTexelHeight) * sceneTexelHeight;
+                right = left + shadowMapWidth * sceneTexelWidth;
+                top = bottom + shadowMapHeight * sceneTexelHeight;
+            }
+
+            lightSpaceMatrices[c].setOrtho(left, right, bottom, top, -maxZ, -minZ).mul(lightView);
+            depthRanges[c] = maxZ - minZ;
+
+            boundsMinX = Math.min(boundsMinX, left);
+            boundsMaxX = Math.max(boundsMaxX, right);
+            boundsMinY = Math.min(boundsMinY, bottom);
+            boundsMaxY = Math.max(boundsMaxY, top);
+            boundsMinZ = Math.min(boundsMinZ, minZ);
+            boundsMaxZ = Math.max(boundsMaxZ, maxZ);
+        }
+        boundsMatrix.setOrtho(boundsMinX, boundsMaxX, boundsMinY, boundsMaxY, -boundsMaxZ, -boundsMinZ).mul(lightView);
+    }
+
+    /**
+     * Write the cascades' data to the given buffer (the staging copy of the FrameData uniform block).
+     */
+    void writeToBuffer(ByteBuffer buffer){
+        for (int c = 0; c < numOfCascades; c++)
+            lightSpaceMatrices[c].get(UniformBlocks.FRAME_CASCADE_LIGHT_SPACE_M + c * 64, buffer);
+        for (int c = 0; c < MAX_CASCADES; c++) {
+            boolean used = c < numOfCascades;
+            buffer.putFloat(UniformBlocks.FRAME_CASCADE_SPLITS + c * 4, used ? splitDistances[c] : 0);
+            buffer.putFloat(UniformBlocks.FRAME_CASCADE_BLEND_STARTS + c * 4, used ? blendStarts[c] : 0);
+            buffer.putFloat(UniformBlocks.FRAME_CASCADE_DEPTH_RANGES + c * 4, used ? depthRanges[c] : 1);
+        }
+        buffer.putInt(UniformBlocks.FRAME_NUM_OF_CASCADES, numOfCascades);
+    }
+
+    /**
+     * Set how the split distances are chosen: 0 for uniform splits (same depth range per cascade), 1 for logarithmic
+     * splits (same ratio of far to near per cascade, i.e. ~same texel density on screen), or a blend of both.
+     */
+    public void setSplitLambda(float splitLambda) {
+        this.splitLambda = Math.max(0, Math.min(1, splitLambda));
+    }
+
+    /**
+     * Set the max view depth to which shadows are rendered (shadows fade out at the end of the last cascade).
+     */
+    public void setMaxShadowDistance(float maxShadowDistance) {
+        this.maxShadowDistance = maxShadowDistance;
+    }
+
+    /**
+     * Set the fraction of each cascade (at its end) in which it's blended w/the next one (0 for no blending).
+     */
+    public void setBlendFraction(float blendFraction) {
+        this.blendFraction = Math.max(0, Math.min(0.5f, blendFraction));
+    }
+
+    public int getNumOfCascades() {
+        return numOfCascades;
+    }
+
+    /**
+     * Returns the light space matrix of the given cascade.
+     */
+    public Matrix4f getLightSpaceMatrix(int cascade) {
+        return lightSpaceMatrices[cascade];
+    }
+
+    /**
+     * Returns the view depth at which the given cascade ends.
+     */
+    public float getSplitDistance(int cascade) {
+        return splitDistances[cascade];
+    }
+
+    /**
+     * Returns a light space matrix whose volume contains all the cascades (e.g. to cull shadow casters once for all).
+     */
+    public Matrix4f getBoundsMatrix() {
+        return boundsMatrix;
+    }
+}
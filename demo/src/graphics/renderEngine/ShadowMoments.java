@@ -0,0 +1,162 @@
+package graphics.renderEngine;
+
+import graphics.core.GLState;
+import graphics.shaders.ShaderProgram;
+import graphics.shaders.Uniform;
+import graphics.shapes.meshes.ScreenQuadMesh;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Moments map of the shadow map, for exponential variance shadow maps (EVSM): a RGBA32F texture array (a layer per
+ * shadow cascade) storing, per texel, both exponential warps of the depth & their squares (see evsm.glsl),
+ * Gaussian-blurred & mipmapped. Unlike the depths, moments can be filtered (blurred, linearly interpolated, averaged
+ * into mipmaps), so the lit pass gets a soft shadow w/a single trilinear fetch per fragment, whatever the width of
+ * the penumbra (the blur is paid once per shadow map texel, not per screen pixel & tap).
+ *
+ * The moments are built from the depths of the shadow map's layers (so the cached static casters are reused, see
+ * {@link ToDepthTextureRenderer}), w/a separable Gaussian blur at shadow map resolution:
+ *      - horizontal pass: depths of a layer -> moments, blurred along x (to a single-layer temp texture)
+ *      - vertical pass: blurred along y (to the layer of the moments map)
+ * & then its mipmaps are generated. Only layers whose depths changed are rebuilt.
+ */
+public class ShadowMoments {
+
+    private final ShaderProgram fromDepthShader, blurShader;    // horizontal & vertical passes (see shadowMoments_fs.glsl)
+    private final Uniform.IntUniform depthMapUniform, layerUniform, fromDepthRadiusUniform;
+    private final Uniform.IntUniform momentsMapUniform, blurRadiusUniform;
+    private final int width, height, numOfLayers;
+    private int blurRadius = 3;     // radius of the Gaussian kernel (texels)
+
+    private int momentsTex, tempTex;
+    private int momentsFbo, tempFbo;
+
+    /**
+     * @param fromDepthShader horizontal pass shader program (FROM_DEPTH variant of shadowMoments_fs.glsl)
+     * @param blurShader vertical pass shader program (shadowMoments_fs.glsl)
+     * @param width width of the shadow map
+     * @param height height of the shadow map
+     * @param numOfLayers nº of layers of the shadow map (cascades)
+     */
+    ShadowMoments(ShaderProgram fromDepthShader, ShaderProgram blurShader, int width, int height, int numOfLayers){
+        this.fromDepthShader = fromDepthShader;
+        this.blurShader = blurShader;
+        this.width = width;
+        this.height = height;
+        this.numOfLayers = numOfLayers;
+        depthMapUniform = fromDepthShader.getIntUniform("depthMap");
+        layerUniform = fromDepthShader.getIntUniform("layer");
+        fromDepthRadiusUniform = fromDepthShader.getIntUniform("blurRadius");
+        momentsMapUniform = blurShader.getIntUniform("momentsMap");
+        blurRadiusUniform = blurShader.getIntUniform("blurRadius");
+    }
+
+    /**
+     * Create the moments map, the temp texture & their fbos.
+     */
+    void prepare(){
+        // moments map: trilinear filtering (mipmaps), clamped to edge
+        momentsTex = glGenTextures();
+        GLState.bindTexture(GL_TEXTURE_2D_ARRAY, momentsTex);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_RGBA32F, width, height, numOfLayers, 0, GL_RGBA, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glGenerateMipmap(GL_TEXTURE_2D_ARRAY);  // (allocate mip levels)
+        GLState.bindTexture(GL_TEXTURE_2D_ARRAY, 0);
+
+        // temp texture (a layer blurred horizontally): read texel by texel, so no filtering
+        tempTex = glGenTextures();
+        GLState.bindTexture(GL_TEXTURE_2D, tempTex);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA32F, width, height, 0, GL_RGBA, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        GLState.bindTexture(GL_TEXTURE_2D, 0);
+
+        tempFbo = glGenFramebuffers();
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, tempFbo);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, tempTex, 0);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Framebuffer is not complete.");
+
+        momentsFbo = glGenFramebuffers();   // (layer attached when rendering it)
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, momentsFbo);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, momentsTex, 0, 0);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+            throw new RuntimeException("Framebuffer is not complete.");
+
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Rebuild the moments of the given layers from the shadow map's depths, & regenerate the mipmaps.
+     * (viewport must be set to the shadow map's size; depth testing is disabled)
+     * @param depthTex shadow map (depth texture array)
+     * @param layers layers to rebuild (bit per layer)
+     */
+    void update(int depthTex, int layers){
+        if (layers == 0) return;
+        GLState.disable(GL_DEPTH_TEST);
+        ScreenQuadMesh quad = ScreenQuadMesh.getInstance();
+
+        for (int l = 0; l < numOfLayers; l++) {
+            if ((layers & (1 << l)) == 0) continue;
+
+            // --- horizontal pass: depths -> moments (temp texture) ---
+            GLState.bindFramebuffer(GL_FRAMEBUFFER, tempFbo);
+            fromDepthShader.use();
+            depthMapUniform.set(0);
+            layerUniform.set(l);
+            fromDepthRadiusUniform.set(blurRadius);
+            GLState.bindTexture(0, GL_TEXTURE_2D_ARRAY, depthTex);
+            quad.render();
+
+            // --- vertical pass: temp texture -> layer of moments map ---
+            GLState.bindFramebuffer(GL_FRAMEBUFFER, momentsFbo);
+            glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, momentsTex, 0, l);
+            blurShader.use();
+            momentsMapUniform.set(0);
+            blurRadiusUniform.set(blurRadius);
+            GLState.bindTexture(0, GL_TEXTURE_2D, tempTex);
+            quad.render();
+        }
+
+        GLState.bindTexture(0, GL_TEXTURE_2D_ARRAY, momentsTex);
+        glGenerateMipmap(GL_TEXTURE_2D_ARRAY);   // (of all layers)
+        GLState.enable(GL_DEPTH_TEST);
+    }
+
+    /**
+     * Delete the moments map, the temp texture & their fbos.
+     */
+    void deallocateResources(){
+        if (momentsTex == 0) return;    // (not prepared)
+        glDeleteFramebuffers(momentsFbo);
+        glDeleteFramebuffers(tempFbo);
+        GLState.onFramebufferDeleted(momentsFbo);
+        GLState.onFramebufferDeleted(tempFbo);
+        glDeleteTextures(momentsTex);
+        glDeleteTextures(tempTex);
+        GLState.onTextureDeleted(momentsTex);
+        GLState.onTextureDeleted(tempTex);
+        momentsFbo = tempFbo = momentsTex = tempTex = 0;
+    }
+
+    /**
+     * Set the radius of the Gaussian blur (texels; 0 for none): wider penumbrae, at the same cost for the lit pass.
+     * (only applied to layers rebuilt from then on)
+     */
+    public void setBlurRadius(int blurRadius) {
+        this.blurRadius = Math.max(0, blurRadius);
+    }
+
+    /**
+     * Returns handle of the moments map (GL_TEXTURE_2D_ARRAY, a layer per cascade).
+     */
+    public int getMomentsTex() {
+        return momentsTex;
+    }
+}
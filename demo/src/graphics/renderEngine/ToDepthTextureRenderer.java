@@ -1,96 +1,381 @@
 package graphics.renderEngine;
 
+import graphics.core.GLState;
 import graphics.core.WindowManager;
+import graphics.renderEngine.renderOptionsManager.RenderOptions;
+import graphics.renderEngine.renderOptionsManager.ShadowFilter;
 import graphics.scene.Entity;
 import graphics.scene.Scene;
 import graphics.shaders.ShaderProgram;
+import graphics.shaders.Uniform;
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+import java.util.List;
 
 import static org.lwjgl.opengl.GL30.*;
-import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.opengl.GL32.GL_DEPTH_CLAMP;
+import static org.lwjgl.opengl.GL32.glFramebufferTexture;
+import static org.lwjgl.opengl.GL33.*;
 
 /**
  * For rendering the scene to a depth texture, rendering it from the directional light's perspective.
+ * The depth texture is a texture array w/a layer per shadow cascade (see {@link ShadowCascades}), fitted to the
+ * camera's view frustum every render (so RenderContext's view & projection must be the camera's); all cascades
+ * are rendered in a single pass, the geometry shader sending each triangle to the layers it overlaps.
+ * Only shadow casters that can cast shadows into the cascades' (orthographic) volumes are rendered: the volume
+ * containing all of them is extended towards the light for culling, & depth clamping is enabled so casters between
+ * the light & a cascade's near plane are still rendered (clamped to the near plane) rather than clipped.
+ * Casters sharing a mesh are drawn w/a single instanced draw call (see {@link InstanceBatcher}).
  *
+ * Static shadow casters (see {@link Entity#isDynamic}) are rendered to a cached depth texture array, & each cascade's
+ * layer of it is only rendered again when something it depends on changes: the cascade's light space matrix (camera
+ * moved by a texel or more, or the light moved), or the static casters (see {@link Entity#getStaticCastersVersion}
+ * & {@link Scene#getVersion}, for components added or removed).
+ * Each render then copies the cached layers to the shadow map (only if they changed, or dynamic casters were drawn
+ * over them) & draws the dynamic casters on top.
  *
- *
+ * The shadow map itself is sampled w/nearest filtering & no depth comparison (e.g. to show it, or compare texels in
+ * the shader); a sampler object is also created to sample it w/hw depth comparison & linear filtering instead
+ * (sampler2DArrayShadow, each fetch a bilinear 2x2 PCF), see {@link #getShadowSampler}.
+ * If moments shaders are given (see {@link #setMomentsShaders}), the EVSM shadow filter can be used too: while it's
+ * the one in use (& the scene is rendered w/shadows), the layers of the shadow map that changed are also turned into
+ * a filterable moments map after each render (see {@link ShadowMoments}).
  */
 public class ToDepthTextureRenderer extends Renderer {
     private int fbo;
     private int depthTex;
-    private int shadowMapWidth, shadowMapHeight;
+    private int shadowSampler;      // (hw PCF: depth comparison & linear filtering)
+    private int shadowMapWidth, shadowMapHeight;    // (size of each cascade's layer)
+    private final ShadowCascades cascades;
+    private final FrustumCuller culler = new FrustumCuller();           // (dynamic casters)
+    private final InstanceBatcher batcher = new InstanceBatcher();
+    private final Uniform.IntUniform cascadeMaskUniform;    // cascades the geometry shader renders to (bit per cascade)
+
+    // --- static casters cache ---
+    private int staticFbo, staticDepthTex;
+    private int copyReadFbo, copyDrawFbo;       // (to copy a layer of the cache to the shadow map)
+    private final FrustumCuller staticCuller = new FrustumCuller();
+    private final InstanceBatcher staticBatcher = new InstanceBatcher();
+    private final Matrix4f[] cachedLightSpaceMatrices = new Matrix4f[ShadowCascades.MAX_CASCADES];  // (when each layer rendered)
+    private final boolean[] cachedLayerValid = new boolean[ShadowCascades.MAX_CASCADES];
+    private final boolean[] shadowMapLayerIsCached = new boolean[ShadowCascades.MAX_CASCADES];  // true if same as its cached layer
+    private Scene cachedScene;
+    private int cachedStaticCastersVersion, cachedLightVersion, cachedSceneVersion;
+
+    // --- stats for the last render ---
+    private int numOfLayersRendered = 0, numOfLayersCopied = 0, numOfMomentsLayersBuilt = 0;
+
+    // --- moments map (EVSM), if enabled ---
+    private ShadowMoments moments = null;
+    private int staleMomentsLayers = ~0;    // layers of the shadow map changed since their moments were built (bit per cascade)
 
-    public ToDepthTextureRenderer(ShaderProgram shaderToUse, int shadowMapWidth, int shadowMapHeight) {
+    /**
+     * @param shaderToUse depth pass shader program (w/the layered geometry shader)
+     * @param shadowMapWidth width of each cascade's shadow map
+     * @param shadowMapHeight height of each cascade's shadow map
+     * @param numOfCascades nº of shadow cascades (1 to {@link ShadowCascades#MAX_CASCADES})
+     */
+    public ToDepthTextureRenderer(ShaderProgram shaderToUse, int shadowMapWidth, int shadowMapHeight, int numOfCascades) {
         super(shaderToUse);
         this.shadowMapWidth = shadowMapWidth;
         this.shadowMapHeight = shadowMapHeight;
+        cascades = new ShadowCascades(numOfCascades, shadowMapWidth, shadowMapHeight);
+        cascadeMaskUniform = shaderProgram.getIntUniform("cascadeMask");
+        for (int i = 0; i < cachedLightSpaceMatrices.length; i++) cachedLightSpaceMatrices[i] = new Matrix4f();
     }
 
     /**
-     * Prepares the framebuffer to which the scene will be rendered when render() is called.
+     * Prepares the framebuffers to which the scene will be rendered when render() is called.
      * @param scene not used in this method (required for extending Renderer)
      */
     @Override
     public void prepare(Scene scene) {
-        // create fbo
-        fbo = glGenFramebuffers();
-        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
-
-        // generate depth map texture
-        depthTex = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, depthTex);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT, shadowMapWidth, shadowMapHeight, 0, GL_DEPTH_COMPONENT, GL_FLOAT, NULL);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER); //glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT); <- for oversampling issues
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER); //glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT); <- for oversampling issues
-        glTexParameterfv(GL_TEXTURE_2D, GL_TEXTURE_BORDER_COLOR, new float[]{1.0f, 1.0f, 1.0f, 1.0f}); // oversampling issues if commented out
-        glBindTexture(GL_TEXTURE_2D, 0);    // unbind tex
-
-        // attach depth map tex as depth attachment of currently bound fbo
-        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_TEXTURE_2D, depthTex, 0);
+        // shadow map & the cache of its static casters: depth texture arrays (a layer per cascade), each
+        // attached (all its layers) as depth attachment of its fbo -- layered rendering
+        depthTex = createDepthTexArray();
+        fbo = createFBO(depthTex);
+        staticDepthTex = createDepthTexArray();
+        staticFbo = createFBO(staticDepthTex);
+        shadowSampler = createShadowSampler();
+        if (moments != null) moments.prepare();
+
+        // fbos to copy a layer btwn them (layers attached when copying)
+        copyReadFbo = createFBO(0);
+        copyDrawFbo = createFBO(0);
+    }
+
+    /**
+     * Create a depth texture array w/a layer per cascade.
+     */
+    private int createDepthTexArray(){
+        int tex = glGenTextures();
+        GLState.bindTexture(GL_TEXTURE_2D_ARRAY, tex);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT, shadowMapWidth, shadowMapHeight, cascades.getNumOfCascades(),
+                0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER); //glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT); <- for oversampling issues
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER); //glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_REPEAT); <- for oversampling issues
+        glTexParameterfv(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BORDER_COLOR, new float[]{1.0f, 1.0f, 1.0f, 1.0f}); // oversampling issues if commented out
+        GLState.bindTexture(GL_TEXTURE_2D_ARRAY, 0);    // unbind tex
+        return tex;
+    }
+
+    /**
+     * Create a sampler object that samples a depth texture w/depth comparison (result: fraction of the 2x2 texels
+     * around the coords whose depth is >= the given depth, i.e. lit) & linear filtering (weights of the 2x2 texels).
+     * Same wrapping & border as the depth textures (outside the shadow map: lit).
+     */
+    private int createShadowSampler(){
+        int sampler = glGenSamplers();
+        glSamplerParameteri(sampler, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glSamplerParameteri(sampler, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glSamplerParameteri(sampler, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
+        glSamplerParameteri(sampler, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+        glSamplerParameterfv(sampler, GL_TEXTURE_BORDER_COLOR, new float[]{1.0f, 1.0f, 1.0f, 1.0f});
+        glSamplerParameteri(sampler, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+        glSamplerParameteri(sampler, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        return sampler;
+    }
+
+    /**
+     * Create a depth-only fbo w/the given depth texture array attached (all its layers), or nothing attached if 0.
+     */
+    private int createFBO(int depthTexArray){
+        int handle = glGenFramebuffers();
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, handle);
+        if (depthTexArray != 0) glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthTexArray, 0);
 
         // set read & write buffers to GL_NONE (to explicitly tell OpenGL no colour data is to be rendered)
         glDrawBuffer(GL_NONE);
         glReadBuffer(GL_NONE);
 
         // check if fbo is complete
-        if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+        if(depthTexArray != 0 && glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
             throw new RuntimeException("Framebuffer is not complete.");
 
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);   // unbind framebuffer
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);   // unbind framebuffer
+        return handle;
     }
 
     @Override
     public void render(Scene scene) {
-        glCullFace(GL_FRONT);   // to avoid peter-panning shadow artifact
+        GLState.cullFace(GL_FRONT);   // to avoid peter-panning shadow artifact
+        GLState.enable(GL_DEPTH_CLAMP);   // (casters in front of near plane clamped to it, not clipped)
+        GLState.enable(GL_DEPTH_TEST);
+
+        // fit cascades to current camera
+        cascades.update(RenderContext.getViewMatrix(), RenderContext.getProjMatrix(), scene.getDirLight().getDirection());
+        RenderContext.setShadowCascades(cascades);
 
         shaderProgram.use();
+        SceneUniforms.update(scene);    // (cascades' light space matrices, in the shared FrameData block)
+        GLState.viewport(0, 0, shadowMapWidth, shadowMapHeight);
+        List<Entity> components = scene.getComponents();
+        // moments only tracked & built while the lit pass uses them (e.g. not in the depth map view)
+        boolean buildMoments = moments != null && RenderContext.getShadowFilter() == ShadowFilter.EVSM
+                && RenderContext.getRenderOption() == RenderOptions.WITH_SHADOWS;
+
+        // --- render static casters to the cached layers that are stale ---
+        boolean staticCastersChanged = scene != cachedScene || scene.getVersion() != cachedSceneVersion
+                || Entity.getStaticCastersVersion() != cachedStaticCastersVersion || scene.getDirLight().getVersion() != cachedLightVersion;
+        int staleLayers = 0;    // (bit per cascade)
+        for (int c = 0; c < cascades.getNumOfCascades(); c++)
+            if (staticCastersChanged || !cachedLayerValid[c] || !cascades.getLightSpaceMatrix(c).equals(cachedLightSpaceMatrices[c]))
+                staleLayers |= 1 << c;
+        numOfLayersRendered = Integer.bitCount(staleLayers);
+        if (staleLayers != 0) renderStaticCasters(scene, staleLayers);
 
-        shaderProgram.uploadMatrix4f("lightSpace_m", RenderContext.getDirLightSpaceMatrix());
+        // --- copy cached layers to the shadow map (unless it has them already) ---
+        numOfLayersCopied = 0;
+        GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, copyReadFbo);
+        GLState.bindFramebuffer(GL_DRAW_FRAMEBUFFER, copyDrawFbo);
+        for (int c = 0; c < cascades.getNumOfCascades(); c++) {
+            if (shadowMapLayerIsCached[c]) continue;
+            glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthTex, 0, c);
+            glFramebufferTextureLayer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, depthTex, 0, c);
+            glBlitFramebuffer(0, 0, shadowMapWidth, shadowMapHeight, 0, 0, shadowMapWidth, shadowMapHeight,
+                    GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+            shadowMapLayerIsCached[c] = true;
+            if (buildMoments) staleMomentsLayers |= 1 << c;
+            numOfLayersCopied++;
+        }
 
-        glViewport(0, 0, shadowMapWidth, shadowMapHeight);
+        // --- render dynamic casters on top (culled against the volume of all cascades, extended towards the light) ---
         bindFBOtoUse();
-        WindowManager.clearDepthBuffer();
+        cascadeMaskUniform.set(~0);     // (all cascades)
+        culler.prepare(cascades.getBoundsMatrix(), true);
+        batcher.begin(cascades.getBoundsMatrix());
+        for(int i = 0; i < components.size(); i++) components.get(i).renderToDepthMap(batcher, culler, true);
+        batcher.flush(shaderProgram, false);
+        if (batcher.getNumOfInstances() > 0) {  // (shadow map layers no longer the same as the cached ones)
+            for (int c = 0; c < cascades.getNumOfCascades(); c++) shadowMapLayerIsCached[c] = false;
+            if (buildMoments) staleMomentsLayers = ~0;
+        }
+
+        GLState.cullFace(GL_BACK);    // reset cull faces to back-facing faces
+        GLState.disable(GL_DEPTH_CLAMP);
+
+        // --- rebuild the moments of the changed layers ---
+        numOfMomentsLayersBuilt = 0;
+        if (buildMoments) {
+            int layers = staleMomentsLayers & ((1 << cascades.getNumOfCascades()) - 1);
+            moments.update(depthTex, layers);
+            numOfMomentsLayersBuilt = Integer.bitCount(layers);
+            staleMomentsLayers = 0;
+        } else {
+            staleMomentsLayers = ~0;    // (all rebuilt once they're used again)
+        }
+
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);   // unbind fbo
+        GLState.viewport(0, 0, WindowManager.getScrWidth(), WindowManager.getScrHeight());    // reset OpenGL viewport
+    }
+
+    /**
+     * Render the static casters to the given layers of the cache (& record what they were rendered with).
+     * @param scene {@link Scene} whose static casters to render
+     * @param layers layers to render (bit per cascade)
+     */
+    private void renderStaticCasters(Scene scene, int layers){
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, staticFbo);
+
+        // clear the layers (clearing a layered attachment clears all its layers, so each is attached on its own)
+        for (int c = 0; c < cascades.getNumOfCascades(); c++) {
+            if ((layers & (1 << c)) == 0) continue;
+            glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthTex, 0, c);
+            WindowManager.clearDepthBuffer();
+        }
+        glFramebufferTexture(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticDepthTex, 0);     // (all layers again)
 
-        // render components
-        for(Entity component : scene.getComponents()) component.renderToDepthMap(shaderProgram);
+        // render static casters to those layers only
+        cascadeMaskUniform.set(layers);
+        staticCuller.prepare(cascades.getBoundsMatrix(), true);
+        staticBatcher.begin(cascades.getBoundsMatrix());
+        List<Entity> components = scene.getComponents();
+        boolean complete = true;    // (false if a caster's mesh is still loading, so must be rendered again)
+        for(int i = 0; i < components.size(); i++) complete &= components.get(i).renderToDepthMap(staticBatcher, staticCuller, false);
+        staticBatcher.flush(shaderProgram, false);
 
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);   // unbind fbo
-        glViewport(0, 0, WindowManager.getScrWidth(), WindowManager.getScrHeight());    // reset OpenGL viewport
-        glCullFace(GL_BACK);    // reset cull faces to back-facing faces
+        for (int c = 0; c < cascades.getNumOfCascades(); c++) {
+            if ((layers & (1 << c)) == 0) continue;
+            cachedLightSpaceMatrices[c].set(cascades.getLightSpaceMatrix(c));
+            cachedLayerValid[c] = complete;
+            shadowMapLayerIsCached[c] = false;
+        }
+        cachedStaticCastersVersion = Entity.getStaticCastersVersion();
+        cachedLightVersion = scene.getDirLight().getVersion();
+        cachedScene = scene;
+        cachedSceneVersion = scene.getVersion();
     }
 
     /**
      * Binds the FBO set up in prepare() (fbo to which to render...)
      */
     private void bindFBOtoUse(){
-        glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, fbo);
     }
 
+    /**
+     * Print nº of cached cascade layers re-rendered & copied to the shadow map in the last render.
+     */
+    public void printCacheStats(){
+        System.out.println(String.format("Shadow map cache: %d/%d cascade layers re-rendered, %d copied",
+                numOfLayersRendered, cascades.getNumOfCascades(), numOfLayersCopied));
+        if (moments != null)
+            System.out.println(String.format("Shadow moments (EVSM): %d/%d cascade layers rebuilt",
+                    numOfMomentsLayersBuilt, cascades.getNumOfCascades()));
+    }
+
+    /**
+     * Delete the shadow map, the cache of its static casters, the moments map (if enabled), their fbos & sampler,
+     * & the instance buffers of both batchers.
+     */
+    public void deallocateResources(){
+        batcher.deallocateResources();
+        staticBatcher.deallocateResources();
+        if (moments != null) moments.deallocateResources();
+        if (depthTex == 0) return;      // (not prepared)
+
+        int[] fbos = {fbo, staticFbo, copyReadFbo, copyDrawFbo};
+        glDeleteFramebuffers(fbos);
+        for (int handle : fbos) GLState.onFramebufferDeleted(handle);
+        glDeleteTextures(depthTex);
+        glDeleteTextures(staticDepthTex);
+        GLState.onTextureDeleted(depthTex);
+        GLState.onTextureDeleted(staticDepthTex);
+        glDeleteSamplers(shadowSampler);
+        GLState.onSamplerDeleted(shadowSampler);
+        fbo = staticFbo = copyReadFbo = copyDrawFbo = depthTex = staticDepthTex = shadowSampler = 0;
+        cachedScene = null;     // (cache gone, so re-rendered if prepared again)
+    }
+
+    /**
+     * Enable the moments map (so the EVSM shadow filter can be used), built w/the given shader programs.
+     * Must be called before prepare().
+     * @param fromDepthShader horizontal blur pass, from the depths (FROM_DEPTH variant of shadowMoments_fs.glsl)
+     * @param blurShader vertical blur pass (shadowMoments_fs.glsl)
+     */
+    public void setMomentsShaders(ShaderProgram fromDepthShader, ShaderProgram blurShader){
+        moments = new ShadowMoments(fromDepthShader, blurShader, shadowMapWidth, shadowMapHeight, cascades.getNumOfCascades());
+    }
+
+    /**
+     * Returns the renderer's {@link FrustumCuller} for dynamic casters (w/the culling stats of the last render).
+     */
+    public FrustumCuller getCuller() {
+        return culler;
+    }
+
+    /**
+     * Returns the renderer's {@link InstanceBatcher} for dynamic casters (w/the instancing stats of the last render).
+     */
+    public InstanceBatcher getBatcher() {
+        return batcher;
+    }
+
+    /**
+     * Returns the renderer's {@link FrustumCuller} for static casters (w/the stats of when they were last rendered).
+     */
+    public FrustumCuller getStaticCuller() {
+        return staticCuller;
+    }
+
+    /**
+     * Returns the renderer's {@link InstanceBatcher} for static casters (w/the stats of when they were last rendered).
+     */
+    public InstanceBatcher getStaticBatcher() {
+        return staticBatcher;
+    }
+
+    /**
+     * Returns the renderer's {@link ShadowCascades} (e.g. to set their split scheme or max shadow distance).
+     */
+    public ShadowCascades getCascades() {
+        return cascades;
+    }
+
+    /**
+     * Returns handle of the depth texture array (GL_TEXTURE_2D_ARRAY, a layer per cascade).
+     */
     public int getDepthTex(){
         return depthTex;
     }
 
+    /**
+     * Returns handle of the sampler object to sample the depth texture array w/hw PCF (sampler2DArrayShadow).
+     */
+    public int getShadowSampler(){
+        return shadowSampler;
+    }
+
+    /**
+     * Returns the moments map (EVSM), or null if not enabled (see {@link #setMomentsShaders}).
+     */
+    public ShadowMoments getMoments(){
+        return moments;
+    }
+
     public int getShadowMapWidth() {
         return shadowMapWidth;
     }
@@ -0,0 +1,20 @@
+package graphics.renderEngine.renderOptionsManager;
+
+/**
+ * Represents the possible ways of filtering the shadow map (i.e. softening shadow edges) when rendering w/shadows.
+ * (ids must match the SHADOW_FILTER_... defines in blinnPhong_wShadowMaps_fs.glsl)
+ */
+public enum ShadowFilter {
+    PCF_3X3,            // 3x3 texels, each fetched & compared in the shader (9 fetches)
+    HARDWARE_PCF_2X2,   // 2x2 taps half a texel apart, each a bilinear 2x2 PCF done by the hw (4 fetches, ~ a 3x3 footprint)
+    POISSON,            // rotated Poisson disk of hw PCF taps (nº of taps & radius set in RenderContext)
+    EVSM;               // exponential variance shadow map: 1 trilinear fetch of the blurred moments (see ShadowMoments)
+
+    /**
+     * Returns the filter after this one (wraps around), e.g. to cycle through them w/a key.
+     */
+    public ShadowFilter next(){
+        ShadowFilter[] filters = values();
+        return filters[(ordinal() + 1) % filters.length];
+    }
+}
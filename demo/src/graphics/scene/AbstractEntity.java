@@ -1,6 +1,7 @@
 package graphics.scene;
 
-import graphics.shaders.ShaderProgram;
+import graphics.renderEngine.FrustumCuller;
+import graphics.renderEngine.InstanceBatcher;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
@@ -15,15 +16,26 @@ public class AbstractEntity extends Entity{
     }
 
     @Override
-    public void render(ShaderProgram shaderProgram) {
+    public void render(InstanceBatcher batcher, FrustumCuller culler) {
+        if(!culler.enter(this)) return;     // subtree outside view frustum
+
         // render children
-        for(Entity child : children) child.render(shaderProgram);
+        for(int i = 0; i < children.size(); i++) children.get(i).render(batcher, culler);   // (indexed, so no iterator per node)
+
+        culler.exit();
     }
 
     @Override
-    public void renderToDepthMap(ShaderProgram shaderProgram) {
+    public boolean renderToDepthMap(InstanceBatcher batcher, FrustumCuller culler, boolean dynamicCasters) {
+        if(skipInDepthPass(dynamicCasters, isDynamic())) return true;   // (no casters of the kind rendered in subtree)
+        if(!culler.enter(this)) return true;     // subtree outside light's volume
+
         // render children
-        for(Entity child : children) child.renderToDepthMap(shaderProgram);
+        boolean complete = true;
+        for(int i = 0; i < children.size(); i++) complete &= children.get(i).renderToDepthMap(batcher, culler, dynamicCasters);
+
+        culler.exit();
+        return complete;
     }
 
     @Override
@@ -1,78 +1,178 @@
 package graphics.scene;
 
+import graphics.core.WindowManager;
+import graphics.core.resources.GPUResourceManager;
+import graphics.renderEngine.FrustumCuller;
+import graphics.renderEngine.InstanceBatcher;
 import graphics.renderEngine.RenderContext;
-import graphics.shaders.ShaderProgram;
 import graphics.shapes.Shape;
+import graphics.shapes.meshes.Mesh;
 import graphics.textures.Texture;
+import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
 import java.util.List;
 
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-
 /**
  * Represents an entity (node in the scene node graph) which
  * has a shape and hence can be rendered.
+ * The level of detail (LOD) of the shape's mesh is selected from its projected size on screen, w/coarser LODs
+ * used when rendering to the depth map (shadow map detail is less visible).
+ * Entities can be excluded from the depth map (castsShadows) & from shadowing (receivesShadows),
+ * e.g. large receivers like floors needn't be rendered to the depth map.
+ * (the LOD of static casters is selected when the cached static shadow map is rendered, so it isn't updated as the
+ * camera moves until the cache is next re-rendered)
+ * Rendering adds an instance to the {@link InstanceBatcher}, so entities sharing a mesh are drawn together.
  */
 public class DrawableEntity extends Entity {
     private Shape shape;
+    private boolean meshBoundsPending = false;  // true if world bounds calculated before the mesh was loaded
+    private boolean castsShadows = true;        // false if not to be rendered to the depth map
+    private boolean receivesShadows = true;     // false if shadows aren't to be applied to it
+    private final Matrix4f model_m = new Matrix4f();    // (updated w/the world bounds, when world transform changes)
+    private final Matrix3f normal_m = new Matrix3f();
+
+    private static float lodPixelError = 1.0f;  // max error (in pixels on screen) of the LOD selected
+    private static float shadowLODBias = 4.0f;  // multiplier of lodPixelError when rendering to the depth map
+    private static final Vector3f tempVec = new Vector3f();     // (scratch vector for LOD selection)
+    private static final Vector3f tempMin = new Vector3f(), tempMax = new Vector3f();    // (scratch AABB)
 
     public DrawableEntity(Entity parent, Matrix4f local_transform, Vector3f shape_scale, Shape shape) {
         super(parent, local_transform, shape_scale);
         this.shape = shape;
+        updateWorldBounds();    // (shape wasn't set yet when calculated in super constructor)
     }
 
     @Override
-    public void render(ShaderProgram shaderProgram) {
-        glBindVertexArray(shape.getMesh().getVAOHandle());
-
-        // bind data to shader
-        shaderProgram.bindDataToShader(0, shape.getMesh().getVertexVBOHandle(), 3);
-        shaderProgram.bindDataToShader(1, shape.getMesh().getNormalHandle(), 3);
-        shaderProgram.bindDataToShader(2, shape.getMesh().getTexHandle(), 2);
+    boolean calcShapeWorldBounds(Vector3f min, Vector3f max) {
+        if(shape == null) return false;     // (called from super constructor)
+        Mesh mesh = shape.getMesh();
+        meshBoundsPending = !mesh.isLoaded();   // (mesh bounds only known once its data is loaded)
+        if(meshBoundsPending) return false;
+
+        // model matrix = world transform matrix & mesh's dequantization of vertex positions,
+        // normal matrix to transform normal vect from oc to wc (normals aren't quantized, so w/o dequantization)
+        model_m.set(world_transform).mul(mesh.getDequantizationMatrix());
+        world_transform.normal(normal_m);
+
+        // mesh's local AABB transformed to wc
+        world_transform.transformAab(mesh.getAABBMin(), mesh.getAABBMax(), tempMin, tempMax);
+        min.min(tempMin);
+        max.max(tempMax);
+        return true;
+    }
 
-        // upload world transform matrix as model matrix to shader
-        shaderProgram.uploadMatrix4f("model_m", world_transform);
+    @Override
+    boolean shapeCastsShadows() {
+        return castsShadows;
+    }
 
-        // calc MVP matrix (once in CPU rather than per fragment in GPU...)
-        Matrix4f mvp =  new Matrix4f(RenderContext.getProjMatrix());
-        mvp.mul(RenderContext.getViewMatrix()).mul(world_transform);
-        shaderProgram.uploadMatrix4f("mvp_m", mvp);
+    @Override
+    boolean shapeReceivesShadows() {
+        return receivesShadows;
+    }
 
-        // calc matrix to transform normal vect from oc to wc
-        Matrix4f normalM = new Matrix4f();
-        world_transform.invert(normalM).transpose();
-        shaderProgram.uploadMatrix4f("normal_m", normalM);
+    @Override
+    public void render(InstanceBatcher batcher, FrustumCuller culler) {
+        if(meshBoundsPending && shape.getMesh().isLoaded()) updateWorldBounds();    // mesh loaded since bounds calculated
+        if(!culler.enter(this)) return;     // subtree outside view frustum
 
-        // render shape
-        shape.bindMaterialTextures();
-        shape.uploadMaterialToShader(shaderProgram);
-        shape.getMesh().render();
+        if(shape.getMesh().isLoaded()){     // (if mesh still being loaded, only render children)
+            // add instance to batch of its mesh & material (drawn when the batcher is flushed)
+            batcher.add(shape.getMesh(), selectLOD(lodPixelError), shape.getMaterial(), receivesShadows, model_m, normal_m);
+            culler.countDrawn();
+        }
 
         // render children
-        for(Entity child : children) child.render(shaderProgram);
+        for(int i = 0; i < children.size(); i++) children.get(i).render(batcher, culler);   // (indexed, so no iterator per node)
+
+        culler.exit();
     }
 
     @Override
-    public void renderToDepthMap(ShaderProgram shaderProgram) {
-        glBindVertexArray(shape.getMesh().getVAOHandle());
-
-        // bind data to shader
-        shaderProgram.bindDataToShader(0, shape.getMesh().getVertexVBOHandle(), 3);
+    public boolean renderToDepthMap(InstanceBatcher batcher, FrustumCuller culler, boolean dynamicCasters) {
+        boolean dynamic = isDynamic();
+        if(skipInDepthPass(dynamicCasters, dynamic)) return true;   // (no casters of the kind rendered in subtree)
 
-        // upload world transform matrix as model matrix to shader
-        shaderProgram.uploadMatrix4f("model_m", world_transform);
+        if(meshBoundsPending && shape.getMesh().isLoaded()) updateWorldBounds();    // mesh loaded since bounds calculated
+        if(!culler.enter(this)) return true;     // subtree outside light's volume (so its meshes are loaded, bc bounds known)
 
-        shape.getMesh().render();
+        boolean complete = true;
+        if(castsShadows && dynamic == dynamicCasters){
+            if(shape.getMesh().isLoaded()){     // (if mesh still being loaded, only render children)
+                batcher.add(shape.getMesh(), selectLOD(lodPixelError * shadowLODBias), null, false, model_m, normal_m);
+                culler.countDrawn();
+            } else if(!dynamic) complete = false;
+        }
 
         // render children
-        for(Entity child : children) child.renderToDepthMap(shaderProgram);
+        for(int i = 0; i < children.size(); i++) complete &= children.get(i).renderToDepthMap(batcher, culler, dynamicCasters);
+
+        culler.exit();
+        return complete;
+    }
+
+    /**
+     * Select the LOD of the shape's mesh to render: the coarsest LOD whose error, projected onto the screen
+     * (w/the view & projection matrices in the {@link RenderContext}), is at most the given nº of pixels.
+     * The projection is done at the point of the mesh's bounding sphere closest to the camera.
+     * @param maxPixelError max error of the LOD selected, in pixels
+     * @return LOD to render
+     */
+    private int selectLOD(float maxPixelError){
+        Mesh mesh = shape.getMesh();
+        if(mesh.getNumOfLODs() == 1) return 0;
+
+        // --- bounding sphere in view space (scaled by world transform) ---
+        world_transform.getScale(tempVec);
+        float scale = Math.max(tempVec.x, Math.max(tempVec.y, tempVec.z));
+        world_transform.transformPosition(mesh.getBoundingSphereCentre(), tempVec);
+        RenderContext.getViewMatrix().transformPosition(tempVec);
+
+        // --- nº of pixels per unit of object space at the closest point of the bounding sphere ---
+        Matrix4f proj = RenderContext.getProjMatrix();
+        float pixelsPerUnit = scale * proj.m11() * WindowManager.getScrHeight() / 2;
+        if(proj.m23() != 0) {   // perspective projection: size decreases w/distance
+            float distance = -tempVec.z - mesh.getBoundingSphereRadius() * scale;
+            if(distance <= 0) return 0;     // (camera inside/behind bounding sphere)
+            pixelsPerUnit /= distance;
+        }
+
+        for(int lod = mesh.getNumOfLODs() - 1; lod > 0; lod--)
+            if(mesh.getLODError(lod) * pixelsPerUnit <= maxPixelError) return lod;
+        return 0;
+    }
+
+    public void setCastsShadows(boolean castsShadows) {
+        if(this.castsShadows == castsShadows) return;
+        if(!isDynamic()) staticCastersChanged();
+        this.castsShadows = castsShadows;
+        updateWorldBounds();    // (shadow casters' bounds)
+    }
+    public void setReceivesShadows(boolean receivesShadows) {
+        this.receivesShadows = receivesShadows;
+    }
+    public boolean castsShadows() {
+        return castsShadows;
+    }
+    public boolean receivesShadows() {
+        return receivesShadows;
+    }
+
+    public static void setLODPixelError(float lodPixelError) {
+        DrawableEntity.lodPixelError = lodPixelError;
+    }
+
+    public static void setShadowLODBias(float shadowLODBias) {
+        DrawableEntity.shadowLODBias = shadowLODBias;
     }
 
     @Override
     public void deallocateMeshResources(){
-        shape.getMesh().deallocateResources();
+        // (meshes & textures shared through the GPUResourceManager are released, & deleted by it)
+        shape.releaseResources();
+        if(!GPUResourceManager.isManaged(shape.getMesh())) shape.getMesh().deallocateResources();
         children.forEach(Entity::deallocateMeshResources);
     }
 
@@ -0,0 +1,91 @@
+package graphics.scene;
+
+import graphics.renderEngine.FrustumCuller;
+import graphics.renderEngine.InstanceBatcher;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+/**
+ * Regression check for the static & dynamic casters' depth map passes ({@link Entity#renderToDepthMap}): each caster
+ * must be reached by exactly one of them, the dynamic one if it's dynamic itself or has a dynamic ancestor (e.g. a
+ * static child of a moving node), the static one otherwise.
+ * The casters are mesh-less probes (so no GL context is needed) counting the passes that reach them, under
+ * {@link AbstractEntity} nodes. Throws a RuntimeException on the 1st mismatch.
+ *
+ * Run from the demo directory: java -cp out:lib/* graphics.scene.DynamicCastersCheck
+ */
+class DynamicCastersCheck {
+
+    public static void main(String[] args) {
+        // static child of a dynamic node
+        AbstractEntity root = new AbstractEntity(null, new Matrix4f());
+        AbstractEntity moving = new AbstractEntity(null, new Matrix4f());
+        AbstractEntity child = new AbstractEntity(null, new Matrix4f());
+        CasterProbe probe = new CasterProbe();
+        root.addChild(moving);
+        moving.addChild(child);
+        child.addChild(probe);
+        moving.setDynamic(true);
+        check(root, probe, true, "static child of a dynamic node");
+
+        // ... static again
+        moving.setDynamic(false);
+        check(root, probe, false, "static subtree");
+
+        // dynamic leaf under static nodes
+        probe.setDynamic(true);
+        check(root, probe, true, "dynamic leaf");
+
+        // dynamic leaf under a dynamic node
+        moving.setDynamic(true);
+        check(root, probe, true, "dynamic leaf of a dynamic node");
+
+        System.out.println("OK");
+    }
+
+    /**
+     * Run both passes from the root & check the probe was reached by the expected one only.
+     */
+    private static void check(Entity root, CasterProbe probe, boolean expectDynamic, String what){
+        probe.numOfStaticPasses = probe.numOfDynamicPasses = 0;
+        FrustumCuller culler = new FrustumCuller();     // (entities w/o bounds are never culled)
+        root.renderToDepthMap(null, culler, false);
+        root.renderToDepthMap(null, culler, true);
+        int expectedStatic = expectDynamic ? 0 : 1, expectedDynamic = expectDynamic ? 1 : 0;
+        System.out.println(String.format("%-32s static pass %d, dynamic pass %d", what, probe.numOfStaticPasses, probe.numOfDynamicPasses));
+        if (probe.numOfStaticPasses != expectedStatic || probe.numOfDynamicPasses != expectedDynamic)
+            throw new RuntimeException(what + ": expected to be reached by the " + (expectDynamic ? "dynamic" : "static") + " pass only");
+    }
+
+    /**
+     * Mesh-less caster counting the depth map passes that reach it (skipping them as a {@link DrawableEntity} does).
+     */
+    private static class CasterProbe extends Entity {
+        int numOfStaticPasses = 0, numOfDynamicPasses = 0;
+
+        CasterProbe(){
+            super(null, new Matrix4f(), new Vector3f(1.0f));
+        }
+
+        @Override
+        public void render(InstanceBatcher batcher, FrustumCuller culler) {
+        }
+
+        @Override
+        public boolean renderToDepthMap(InstanceBatcher batcher, FrustumCuller culler, boolean dynamicCasters) {
+            if (skipInDepthPass(dynamicCasters, isDynamic())) return true;
+            if (dynamicCasters) numOfDynamicPasses++;
+            else numOfStaticPasses++;
+            return true;
+        }
+
+        @Override
+        public void deallocateMeshResources() {
+        }
+
+        @Override
+        public int numOfTexUsedByMaterial() {
+            return 0;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package graphics.scene;
 
-import graphics.shaders.ShaderProgram;
+import graphics.renderEngine.FrustumCuller;
+import graphics.renderEngine.InstanceBatcher;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
@@ -9,6 +10,12 @@ import java.util.List;
 
 /**
  * Represents a node of the scene graph.
+ * Each node keeps a world-space axis-aligned bounding box (AABB) of its subtree (its own shape & its descendants'),
+ * updated whenever world matrices are, used to cull whole subtrees (see {@link FrustumCuller}). It also keeps the
+ * AABB of its own shape & of the shadow casters in its subtree (e.g. to fit the dir light's projection to).
+ * Nodes are static (the default) or dynamic (& so are their subtrees): static shadow casters are rendered to a
+ * cached shadow map, re-rendered only when the static casters change (see {@link #getStaticCastersVersion}),
+ * while dynamic ones are rendered every frame. Nodes that move often should be set dynamic.
  */
 public abstract class Entity {
 
@@ -18,9 +25,20 @@ public abstract class Entity {
     private Matrix4f local_transform;   // position and orientation in relation to parent node
     private Vector3f shape_scale;       // scaling of shape/model w/o affecting children
 
+    private final Vector3f worldBoundsMin = new Vector3f(), worldBoundsMax = new Vector3f(); // AABB of subtree in wc
+    private boolean hasWorldBounds = false;     // false if AABB unknown (e.g. mesh still loading) or empty
+    private final Vector3f shapeBoundsMin = new Vector3f(), shapeBoundsMax = new Vector3f(); // AABB of own shape in wc
+    private boolean hasShapeBounds = false;
+    private final Vector3f casterBoundsMin = new Vector3f(), casterBoundsMax = new Vector3f(); // AABB of shadow casters in subtree
+    private boolean hasCasterBounds = false;    // false if no casters in subtree w/known bounds
+    private boolean isDynamic = false;          // true if node (& so its subtree) moves often
+    private boolean hasDynamicInSubtree = false;    // true if node or any descendant is dynamic
+
+    private static int staticCastersVersion = 0;    // changed whenever static shadow casters may have changed
+
     Entity(Entity parent, Matrix4f local_transform, Vector3f shape_scale){
         this.parent = parent;
-        this.local_transform = local_transform;
+        this.local_transform = new Matrix4f(local_transform);  // (own copy, bc setLocal_transform() copies into it)
         this.shape_scale = shape_scale;
         children = new ArrayList<>();
 
@@ -34,31 +52,176 @@ public abstract class Entity {
      * matrices of its children.
      */
     private void calcWorldMatrix(){
-        Matrix4f localTimesScale = new Matrix4f();
-        local_transform.scale(shape_scale, localTimesScale);    // first get local transform * scale result
+        // (computed in place, so updating transforms doesn't allocate)
+        local_transform.scale(shape_scale, world_transform);    // first get local transform * scale result
 
         // calc world matrix by mult node's (local * scale) matrix w/parent's world matrix.
-        if(parent != null) parent.getWorld_transform().mul(localTimesScale, world_transform);
-        else world_transform = localTimesScale; // if root node, world transform same as local transform (times scale matrix)
+        // (if root node, world transform same as local transform (times scale matrix))
+        if(parent != null) parent.getWorld_transform().mul(world_transform, world_transform);
 
         // repeat for all of current node's children
-        children.forEach(Entity::calcWorldMatrix);
+        for(int i = 0; i < children.size(); i++) children.get(i).calcWorldMatrix();
+
+        calcWorldBounds();  // (after children's, bc contains them)
+    }
+
+    /**
+     * Calculates this node's world bounds: union of its shape's bounds & its children's bounds.
+     * If any of these are unknown, the node has no bounds (& so its subtree can't be culled).
+     * (& its shadow casters' bounds: union of those known, i.e. casters whose bounds are unknown are left out)
+     */
+    private void calcWorldBounds(){
+        shapeBoundsMin.set(Float.POSITIVE_INFINITY);
+        shapeBoundsMax.set(Float.NEGATIVE_INFINITY);
+        boolean known = calcShapeWorldBounds(shapeBoundsMin, shapeBoundsMax);
+        hasShapeBounds = known && shapeBoundsMin.x <= shapeBoundsMax.x;
+        worldBoundsMin.set(shapeBoundsMin);
+        worldBoundsMax.set(shapeBoundsMax);
+        casterBoundsMin.set(Float.POSITIVE_INFINITY);
+        casterBoundsMax.set(Float.NEGATIVE_INFINITY);
+        if(hasShapeBounds && shapeCastsShadows()) {
+            casterBoundsMin.set(shapeBoundsMin);
+            casterBoundsMax.set(shapeBoundsMax);
+        }
+        for(int i = 0; i < children.size(); i++) {
+            Entity child = children.get(i);
+            if(child.hasCasterBounds) {
+                casterBoundsMin.min(child.casterBoundsMin);
+                casterBoundsMax.max(child.casterBoundsMax);
+            }
+            if(!child.hasWorldBounds) {
+                known = false;
+                continue;
+            }
+            worldBoundsMin.min(child.worldBoundsMin);
+            worldBoundsMax.max(child.worldBoundsMax);
+        }
+        hasWorldBounds = known && worldBoundsMin.x <= worldBoundsMax.x;
+        hasCasterBounds = casterBoundsMin.x <= casterBoundsMax.x;
+
+        // (also whether subtree has dynamic nodes, so passes rendering only them can skip fully static subtrees)
+        hasDynamicInSubtree = isDynamic;
+        for(int i = 0; i < children.size(); i++) hasDynamicInSubtree |= children.get(i).hasDynamicInSubtree;
+    }
+
+    /**
+     * Recalculates this node's world bounds & its ancestors' (e.g. after its shape's bounds changed).
+     */
+    void updateWorldBounds(){
+        calcWorldBounds();
+        if(parent != null) parent.updateWorldBounds();
+    }
+
+    /**
+     * Calculates the world-space AABB of this node's own shape (w/o its children), by expanding the given AABB.
+     * @return false if the shape's bounds aren't known yet (nodes w/o a shape return true & leave the AABB as is)
+     */
+    boolean calcShapeWorldBounds(Vector3f min, Vector3f max){
+        return true;
     }
 
     /**
-     * Render the model for which this node is the root in the scene graph, using the
-     * given shader.
-     * ! Light specs must be previously uploaded to the shader before calling this method.
+     * Returns true if this node's own shape is rendered to the depth map (nodes w/o a shape return false).
+     */
+    boolean shapeCastsShadows(){
+        return false;
+    }
+
+    /**
+     * Returns true if shadows are applied to this node's own shape (nodes w/o a shape return false).
+     */
+    boolean shapeReceivesShadows(){
+        return false;
+    }
+
+    /**
+     * Expand the given AABB by the world bounds of the shapes in this node's subtree that receive shadows & aren't
+     * culled by the given culler (e.g. the shadow receivers in the camera's view).
+     * @param culler {@link FrustumCuller} prepared w/the frustum to test against
+     */
+    public void addVisibleReceiverBounds(FrustumCuller culler, Vector3f min, Vector3f max){
+        if(!culler.enter(this)) return;     // subtree outside frustum
+        if(hasShapeBounds && shapeReceivesShadows()) {
+            min.min(shapeBoundsMin);
+            max.max(shapeBoundsMax);
+        }
+        for(int i = 0; i < children.size(); i++) children.get(i).addVisibleReceiverBounds(culler, min, max);
+        culler.exit();
+    }
+
+    /**
+     * Render the model for which this node is the root in the scene graph, by adding its drawables to the
+     * given batcher (drawn when it's flushed). Subtrees outside the camera's view frustum are culled.
      * (note: renders this node's children too)
+     * @param batcher {@link InstanceBatcher} collecting the instances of the current render
+     * @param culler {@link FrustumCuller} prepared for the current render
      */
-    public abstract void render(ShaderProgram shaderProgram);
+    public abstract void render(InstanceBatcher batcher, FrustumCuller culler);
 
     /**
      * Render the model for which this node is the root in the scene graph to the DEPTH
-     * attachment of the currently bound framebuffer. Uses the given shader.
+     * attachment of the currently bound framebuffer, by adding its shadow casters to the given batcher.
+     * Either the static or the dynamic casters are rendered (the static ones are cached, see {@link #isDynamic}).
+     * Subtrees outside the light's volume are culled.
      * (note: renders this node's children too)
+     * @param batcher {@link InstanceBatcher} collecting the instances of the current render
+     * @param culler {@link FrustumCuller} prepared for the current render
+     * @param dynamicCasters true to render the dynamic casters only, false to render the static ones only
+     * @return false if a static caster couldn't be rendered yet (e.g. its mesh is still loading), so the cached
+     * static casters must be rendered again later
      */
-    public abstract void renderToDepthMap(ShaderProgram shaderProgram);
+    public abstract boolean renderToDepthMap(InstanceBatcher batcher, FrustumCuller culler, boolean dynamicCasters);
+
+    /**
+     * Returns true if the node is dynamic: it's dynamic itself or has a dynamic ancestor.
+     */
+    public boolean isDynamic(){
+        return isDynamic || (parent != null && parent.isDynamic());
+    }
+
+    /**
+     * Returns true if any node in this node's subtree (incl. itself) was set dynamic.
+     */
+    public boolean hasDynamicInSubtree(){
+        return hasDynamicInSubtree;
+    }
+
+    /**
+     * Returns true if a depth map pass rendering only the static or only the dynamic casters can skip this node's
+     * subtree: the static pass skips dynamic nodes (their subtree is dynamic too), the dynamic pass skips static nodes
+     * w/no dynamic node in their subtree (nodes under a dynamic one are dynamic, even if not set dynamic themselves).
+     * @param dynamicCasters true for the dynamic casters' pass, false for the static casters'
+     * @param dynamic {@link #isDynamic()} of this node
+     */
+    boolean skipInDepthPass(boolean dynamicCasters, boolean dynamic){
+        return dynamicCasters ? !dynamic && !hasDynamicInSubtree : dynamic;
+    }
+
+    /**
+     * Set whether the node (& its subtree) is dynamic, i.e. moves often: its shadow is then rendered every frame,
+     * instead of w/the cached static casters (which are re-rendered whenever a static node moves).
+     */
+    public void setDynamic(boolean isDynamic){
+        if(this.isDynamic == isDynamic) return;
+        this.isDynamic = isDynamic;
+        updateWorldBounds();    // (updates hasDynamicInSubtree of ancestors)
+        staticCastersChanged();
+    }
+
+    /**
+     * Returns a nº changed whenever the static shadow casters may have changed (static node moved, nodes added or
+     * removed, casters set dynamic...), so renderers caching them know when to render them again.
+     */
+    public static int getStaticCastersVersion(){
+        return staticCastersVersion;
+    }
+
+    /**
+     * Record that the static shadow casters may have changed (see {@link #getStaticCastersVersion}).
+     */
+    static void staticCastersChanged(){
+        staticCastersVersion++;
+    }
 
     /**
      * Deallocate the node's & its childrens mesh's resources.
@@ -92,32 +255,46 @@ public abstract class Entity {
         }
     }
 
+    /**
+     * Recalculates this node's world matrix & its subtree's, & the world bounds of its ancestors.
+     */
+    private void transformChanged(){
+        calcWorldMatrix();
+        if(parent != null) parent.updateWorldBounds();
+        if(!isDynamic()) staticCastersChanged();    // (static subtree moved)
+    }
+
     private void setParent(Entity parent) {
         this.parent = parent;
-        calcWorldMatrix();
+        transformChanged();
+        staticCastersChanged();     // (may have moved btwn static & dynamic subtrees)
     }
     public void setChildren(List<Entity> children) {
         for(Entity child : this.children) child.setParent(null);
         this.children = children;
         for(Entity child : children) child.setParent(this);
+        updateWorldBounds();
+        staticCastersChanged();
     }
     public void setLocal_transform(Matrix4f local_transform) {
         if(!local_transform.equals(this.local_transform)) { // if stmt to avoid unnecessarily calling calcWorldMatrix()
-            this.local_transform = local_transform;
-            calcWorldMatrix();
+            this.local_transform.set(local_transform);    // (copied, so callers can reuse theirs, e.g. every frame)
+            transformChanged();
         }
     }
     public void updateWorld_transform(Matrix4f world_transform) {
         // todo not sure if this method should be allowed... - maybe it's useful for setting up / debugging the entities positions on the scene?
         if (!world_transform.equals(this.world_transform)){ // if stmt to avoid unnecessarily calling calcWorldMatrix()
-            this.world_transform = world_transform;
-            for (Entity child : children) child.calcWorldMatrix();
+            this.world_transform.set(world_transform);    // (copied, bc calcWorldMatrix() writes it in place)
+            for (int i = 0; i < children.size(); i++) children.get(i).calcWorldMatrix();
+            updateWorldBounds();
+            if(!isDynamic()) staticCastersChanged();
         }
     }
     public void setShape_scale(Vector3f shape_scale) {
         if(!shape_scale.equals(this.shape_scale)) { // if stmt to avoid unnecessarily calling calcWorldMatrix()
             this.shape_scale = shape_scale;
-            calcWorldMatrix();
+            transformChanged();
         }
     }
 
@@ -137,4 +314,28 @@ public abstract class Entity {
     public Vector3f getShape_scale() {
         return shape_scale;
     }
+    /**
+     * Returns true if the world bounds of this node's subtree are known (& not empty).
+     */
+    public boolean hasWorldBounds() {
+        return hasWorldBounds;
+    }
+    public Vector3f getWorldBoundsMin() {
+        return worldBoundsMin;
+    }
+    public Vector3f getWorldBoundsMax() {
+        return worldBoundsMax;
+    }
+    /**
+     * Returns true if the world bounds of the shadow casters in this node's subtree are known (& not empty).
+     */
+    public boolean hasCasterBounds() {
+        return hasCasterBounds;
+    }
+    public Vector3f getCasterBoundsMin() {
+        return casterBoundsMin;
+    }
+    public Vector3f getCasterBoundsMax() {
+        return casterBoundsMax;
+    }
 }
@@ -4,21 +4,56 @@ import graphics.lights.*;
 import org.joml.Vector3f;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * Represents the scene: its components (roots of the scene graph), dir light & ambient light.
+ * Keeps a version nº, changed whenever components are added or removed, so renderers caching what they rendered of
+ * the scene (e.g. the static shadow casters) know when it's stale (components must be added & removed w/addComponent
+ * & removeComponent, the list returned by getComponents() can't be modified).
+ */
 public class Scene {
 
-    private List<Entity> components;
+    private final List<Entity> components;
+    private final List<Entity> componentsView;  // (read-only view of components)
     private DirLight dirLight;
     private Vector3f I_a;
+    private int version = 0;    // changed whenever components are added or removed
 
     public Scene(List<Entity> components, DirLight dirLight, Vector3f ambient_intensity) {
-        if(components != null) this.components = components;
+        if(components != null) this.components = new ArrayList<>(components);
         else this.components = new ArrayList<>();
+        componentsView = Collections.unmodifiableList(this.components);
         this.dirLight = dirLight;
         I_a = ambient_intensity;
     }
 
+    /**
+     * Adds the given entity as a component of the scene (a root of the scene graph).
+     */
+    public void addComponent(Entity component){
+        components.add(component);
+        version++;
+    }
+
+    /**
+     * Removes the given component from the scene.
+     * @return true if it was a component of the scene
+     */
+    public boolean removeComponent(Entity component){
+        if(!components.remove(component)) return false;
+        version++;
+        return true;
+    }
+
+    /**
+     * Returns a nº changed whenever components are added or removed.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Deallocate the mesh resources of the SceneNodes that form this scene
      */
@@ -27,7 +62,7 @@ public class Scene {
     }
 
     public List<Entity> getComponents() {
-        return components;
+        return componentsView;
     }
     public DirLight getDirLight() {
         return dirLight;
@@ -0,0 +1,192 @@
+package graphics.shaders;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.*;
+
+/**
+ * On-disk cache of linked shader program binaries (glGetProgramBinary), so that {@link ShaderProgram}s
+ * don't have to be compiled & linked from source on warm starts.
+ *
+ * Each program has one cache file, named after the hash of its shaders' sources & of the driver's
+ * vendor/renderer/version strings (binaries are only valid for the driver that created them).
+ * The file stores a header (magic nº, version, full key hash, binary format, binary length) followed by the binary.
+ * If the driver rejects a cached binary (e.g. after a driver update that kept the same version string),
+ * the program is just built from source again & the cache file replaced.
+ *
+ * Needs GL 4.1 or ARB_get_program_binary (& at least 1 binary format), else the cache is disabled.
+ */
+public class ProgramBinaryCache {
+
+    private static final int MAGIC = 0x50524742;     // "PRGB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static Path cacheDirectory = Paths.get("./cache/shaders");
+    private static boolean enabled = true;
+    private static Boolean supported = null;    // (checked on 1st use, needs GL context)
+    private static String driverString = null;
+
+    // --- stats for startup report ---
+    private static int numOfHits = 0, numOfMisses = 0;
+    private static long hitNanos = 0, missNanos = 0;
+
+    /**
+     * Returns true if program binaries can be cached (cache enabled & supported by the driver).
+     * Must be called from the GL thread.
+     */
+    public static boolean isAvailable(){
+        if (!enabled) return false;
+        if (supported == null) {
+            GLCapabilities caps = GL.getCapabilities();
+            supported = (caps.OpenGL41 || caps.GL_ARB_get_program_binary)
+                    && glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+            driverString = glGetString(GL_VENDOR) + "\n" + glGetString(GL_RENDERER) + "\n" + glGetString(GL_VERSION);
+        }
+        return supported;
+    }
+
+    /**
+     * Hash of the given shader sources & of the driver's vendor/renderer/version strings, used as the cache key.
+     */
+    static long calcKey(Shader... shaders){
+        StringBuilder key = new StringBuilder(driverString);
+        for (Shader shader : shaders) key.append('\0').append(shader.getType()).append('\0').append(shader.getSource());
+        return hash(key.toString());
+    }
+
+    /**
+     * Try to create the program from the cached binary w/the given key.
+     * @param programID handle of (newly created, empty) shader program to load the binary into
+     * @param key cache key of the program (see calcKey)
+     * @return true if the program was loaded from the cache & linked successfully
+     */
+    static boolean load(int programID, long key){
+        long startT = System.nanoTime();
+        Path cachePath = getCachePath(key);
+        if (!Files.isRegularFile(cachePath)) return false;
+
+        try (FileChannel channel = FileChannel.open(cachePath, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) return false;
+
+            ByteBuffer file = BufferUtils.createByteBuffer((int) fileSize).order(ByteOrder.nativeOrder());
+            while (file.hasRemaining()) if (channel.read(file) < 0) return false;
+            file.flip();
+
+            // --- validate header ---
+            if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION || file.getLong(8) != key) return false;
+            int binaryFormat = file.getInt(16);
+            int binaryLength = file.getInt(20);
+            if (binaryLength != fileSize - HEADER_SIZE) return false;
+
+            // --- load binary (driver may still reject it) ---
+            file.position(HEADER_SIZE);
+            glProgramBinary(programID, binaryFormat, file.slice());
+            if (glGetProgrami(programID, GL_LINK_STATUS) == 0) return false;
+        } catch (IOException e) {
+            System.err.println("Failed to read program binary cache file " + cachePath + ": " + e.getMessage());
+            return false;
+        }
+
+        numOfHits++;
+        hitNanos += System.nanoTime() - startT;
+        return true;
+    }
+
+    /**
+     * Write the binary of the given (linked) program to the cache file w/the given key.
+     * Failing to write the cache isn't fatal -- the program is just built from source again next time.
+     * @param programID handle of linked shader program (linked w/GL_PROGRAM_BINARY_RETRIEVABLE_HINT set)
+     * @param key cache key of the program (see calcKey)
+     */
+    static void store(int programID, long key){
+        int binaryLength = glGetProgrami(programID, GL_PROGRAM_BINARY_LENGTH);
+        if (binaryLength <= 0) return;
+
+        ByteBuffer binary = BufferUtils.createByteBuffer(binaryLength);
+        int[] length = new int[1], binaryFormat = new int[1];
+        glGetProgramBinary(programID, length, binaryFormat, binary);
+        binary.limit(length[0]);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC).putInt(VERSION).putLong(key).putInt(binaryFormat[0]).putInt(length[0]);
+        header.flip();
+
+        Path cachePath = getCachePath(key);
+        try {
+            Files.createDirectories(cacheDirectory);
+
+            // write to temp file 1st & then move it, so a partially written cache file is never read
+            Path tempPath = Files.createTempFile(cacheDirectory, cachePath.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) channel.write(header);
+                while (binary.hasRemaining()) channel.write(binary);
+            }
+            Files.move(tempPath, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to write program binary cache file " + cachePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record a program that was built from source (for the startup report).
+     * @param nanos time taken to compile & link the program
+     */
+    static void recordMiss(long nanos){
+        numOfMisses++;
+        missNanos += nanos;
+    }
+
+    /**
+     * Print the nº of programs loaded from the cache (hits) & built from source (misses), & the time spent on each.
+     */
+    public static void printReport(){
+        if (!isAvailable()) {
+            System.out.println("Shader program cache: " + (enabled ? "not supported by driver" : "disabled")
+                    + " -- " + numOfMisses + " programs built from source in " + String.format("%.1f", missNanos / 1e6) + "ms");
+            return;
+        }
+        System.out.println(String.format("Shader program cache: %d hits (%.1fms), %d misses (%.1fms)",
+                numOfHits, hitNanos / 1e6, numOfMisses, missNanos / 1e6));
+    }
+
+    private static Path getCachePath(long key){
+        return cacheDirectory.resolve(Long.toHexString(key) + ".progbin");
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the given string.
+     */
+    private static long hash(String str){
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : str.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public static void setCacheDirectory(String directory) {
+        ProgramBinaryCache.cacheDirectory = Paths.get(directory);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ProgramBinaryCache.enabled = enabled;
+    }
+}
@@ -2,42 +2,95 @@ package graphics.shaders;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.lwjgl.opengl.GL20.*;
 
 /**
  * Represents a single shader to be used later on in a ShaderProgram.
+ * The shader is only compiled when its handle is 1st needed, so that shaders of programs
+ * loaded from the {@link ProgramBinaryCache} are never compiled.
+ * Variants of a shader file can be created by giving a list of defines (e.g. "INSTANCED"), which are
+ * inserted (as #define's) after the #version directive, for use in #ifdef's.
+ * Lines of the form {@code #include "file"} are replaced by the contents of that file (path relative to the
+ * including file), e.g. to share the uniform block declarations (see {@link UniformBlocks}) between shaders.
  */
 public class Shader {
-    private int id;
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("^[ \\t]*#include[ \\t]+\"([^\"]+)\".*$", Pattern.MULTILINE);
+    private static final int MAX_INCLUDE_DEPTH = 8;    // (guards against recursive includes)
+
+    private int id = 0;
     private int type;
     private String filename;
+    private String shaderSource;
+    private String[] defines;
 
     /**
      * Constructor initialises fields & calls load() to read the shader code from
-     * the given filename and builds the shader
-     * @param type the type of shader to build: GL_VERTEX_SHADER or GL_FRAGMENT_SHADER
+     * the given filename (the shader is built when it's 1st used, see getHandle())
+     * @param type the type of shader to build: GL_VERTEX_SHADER, GL_GEOMETRY_SHADER or GL_FRAGMENT_SHADER
      * @param filename  name of the text file with the GLSL shaderID
+     * @param defines names of the macros to define in the shader (to select the shader variant)
      */
-    public Shader(int type, String filename) {
+    public Shader(int type, String filename, String... defines) {
         this.type = type;
         this.filename = filename;
+        this.defines = defines;
         load();
     }
 
     /**
-     * Reads the shader code from the given filename in the constructor & builds the shader
+     * Reads the shader code from the given filename in the constructor
      */
     private void load(){
-        // read the shader's source code from given file
-        String shaderSource = null;
+        // read the shader's source code from given file (& the files it includes)
+        shaderSource = readSource(Paths.get(filename), 0);
+
+        // insert defines after #version directive (which must be the 1st line)
+        if (defines.length > 0) {
+            StringBuilder defineLines = new StringBuilder();
+            for (String define : defines) defineLines.append("#define ").append(define).append('\n');
+            int versionEnd = shaderSource.startsWith("#version") ? shaderSource.indexOf('\n') + 1 : 0;
+            if (versionEnd == 0 && shaderSource.startsWith("#version")) {     // (#version is the only line)
+                shaderSource += "\n";
+                versionEnd = shaderSource.length();
+            }
+            shaderSource = shaderSource.substring(0, versionEnd) + defineLines + shaderSource.substring(versionEnd);
+        }
+    }
+
+    /**
+     * Reads the source code in the given file, replacing each #include line w/the source of the included file.
+     * @param path path of the file to read
+     * @param depth nº of #includes the file is nested in
+     */
+    private String readSource(Path path, int depth){
+        if (depth > MAX_INCLUDE_DEPTH) throw new RuntimeException("Too many nested #includes in shader file: " + filename);
+
+        String source;
         try {
-            shaderSource = String.join("\n", Files.readAllLines(Paths.get(filename)));
+            source = String.join("\n", Files.readAllLines(path));
         } catch (IOException e) {
-            throw new RuntimeException("Failed to load shader file: " + filename);
+            throw new RuntimeException("Failed to load shader file: " + path + (depth > 0 ? " (included in " + filename + ")" : ""));
+        }
+
+        Matcher matcher = INCLUDE_PATTERN.matcher(source);
+        StringBuffer expanded = new StringBuffer();
+        while (matcher.find()) {
+            Path includedPath = path.resolveSibling(matcher.group(1));
+            matcher.appendReplacement(expanded, Matcher.quoteReplacement(readSource(includedPath, depth + 1)));
         }
+        matcher.appendTail(expanded);
+        return expanded.toString();
+    }
 
+    /**
+     * Builds the shader from the source code read in load()
+     */
+    private void compile(){
         // create & compile shader
         id = glCreateShader(type);          // create shader obj
         glShaderSource(id, shaderSource);   // attach shader code
@@ -49,11 +102,35 @@ public class Shader {
             String errorLog = glGetShaderInfoLog(id);
             System.out.println("errorLog: " + errorLog);
             glDeleteShader(id);
-            throw new RuntimeException("Shader compilation failed: consult the log above");
+            id = 0;
+            throw new RuntimeException("Shader compilation failed (" + filename + "): consult the log above");
         }
     }
 
+    /**
+     * Returns handle of the (compiled) shader -- compiles the shader if not compiled yet.
+     */
     public int getHandle() {
+        if (id == 0) compile();
         return id;
     }
+
+    public int getType() {
+        return type;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Returns filename & defines of the shader (identifies the shader variant).
+     */
+    public String getVariantName() {
+        return defines.length == 0 ? filename : filename + "#" + String.join(",", defines);
+    }
+
+    public String getSource() {
+        return shaderSource;
+    }
 }
@@ -1,42 +1,120 @@
 package graphics.shaders;
 
+import graphics.core.GLState;
+import graphics.core.resources.GPUResource;
+import graphics.core.resources.GPUResourceManager;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
-import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
 
-import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
 
+import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_LENGTH;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_RETRIEVABLE_HINT;
+import static org.lwjgl.opengl.GL41.glProgramParameteri;
 
 /**
  * Represents a shader program to be used in an OpenGL application.
- * (currently consists of vertex & fragment shaders only)
+ * (consists of vertex & fragment shaders, & optionally a geometry shader)
+ *
+ * The program's active uniforms are enumerated once, after it's linked (or loaded from its binary), so uniforms are
+ * set through typed {@link Uniform} handles w/pre-resolved locations (e.g. {@link #getMat4Uniform}), which only
+ * upload values that changed. Handles should be got once & kept by the code setting them every frame/draw;
+ * the uploadX(name, ...) methods look up the handle by name on each call.
+ * Data shared by all programs (camera, lights...) is instead in the shared uniform blocks, which are bound to their
+ * binding points once the program is created (see {@link UniformBlocks}).
  */
-public class ShaderProgram {
+public class ShaderProgram implements GPUResource {
     private Shader vertexShader;
+    private Shader geometryShader;      // (null if none)
     private Shader fragmentShader;
     private int id ;
+    private long gpuMemorySize = 0;     // size of program binary, if known
+    private final Map<String, int[]> activeUniforms = new HashMap<>();   // name -> {location, GL type}
+    private final Map<String, Uniform> uniforms = new HashMap<>();       // handles got so far, by name
 
     /**
      * Initialise fields to given values.
-     * Calls createProgram to create a new shader program for OpenGL.
+     * Calls createProgram to create a new shader program for OpenGL (loaded from the {@link ProgramBinaryCache}
+     * if possible, else built from the shaders' source).
      * @param vertexShader {@link Shader} vertex shader to include
      * @param fragmentShader {@link Shader} fragment shader to include
      */
     public ShaderProgram(Shader vertexShader, Shader fragmentShader) {
+        this(vertexShader, null, fragmentShader);
+    }
+
+    /**
+     * Initialise fields to given values & create the program (see {@link #ShaderProgram(Shader, Shader)}).
+     * @param vertexShader {@link Shader} vertex shader to include
+     * @param geometryShader {@link Shader} geometry shader to include (or null if none)
+     * @param fragmentShader {@link Shader} fragment shader to include
+     */
+    public ShaderProgram(Shader vertexShader, Shader geometryShader, Shader fragmentShader) {
         this.vertexShader = vertexShader;
+        this.geometryShader = geometryShader;
         this.fragmentShader = fragmentShader;
         createProgram();
     }
 
     /**
-     * Creates a new shader program & inks shaders together into this created program.
+     * Returns the shader program made of the given shaders, shared through the {@link GPUResourceManager}
+     * (so programs made of the same shader files & variants are only created once).
+     * The returned program should be released w/{@link GPUResourceManager#release} once no longer used.
+     * @param vertexShader {@link Shader} vertex shader to include
+     * @param fragmentShader {@link Shader} fragment shader to include
+     */
+    public static ShaderProgram load(Shader vertexShader, Shader fragmentShader){
+        return GPUResourceManager.acquire("program:" + vertexShader.getVariantName() + ":" + fragmentShader.getVariantName(),
+                () -> new ShaderProgram(vertexShader, fragmentShader));
+    }
+
+    /**
+     * Returns the shader program made of the given shaders, shared through the {@link GPUResourceManager}
+     * (see {@link #load(Shader, Shader)}).
+     * @param vertexShader {@link Shader} vertex shader to include
+     * @param geometryShader {@link Shader} geometry shader to include
+     * @param fragmentShader {@link Shader} fragment shader to include
+     */
+    public static ShaderProgram load(Shader vertexShader, Shader geometryShader, Shader fragmentShader){
+        return GPUResourceManager.acquire("program:" + vertexShader.getVariantName() + ":" + geometryShader.getVariantName()
+                        + ":" + fragmentShader.getVariantName(),
+                () -> new ShaderProgram(vertexShader, geometryShader, fragmentShader));
+    }
+
+    /**
+     * Creates a new shader program: loads its cached binary if there's a valid one, else
+     * links shaders together into this created program (& caches the resulting binary).
      */
     private void createProgram(){
+        boolean useCache = ProgramBinaryCache.isAvailable();
+        long cacheKey = useCache ? (geometryShader == null
+                ? ProgramBinaryCache.calcKey(vertexShader, fragmentShader)
+                : ProgramBinaryCache.calcKey(vertexShader, geometryShader, fragmentShader)) : 0;
 
         id = glCreateProgram();                         // create shader program
+        if (useCache && ProgramBinaryCache.load(id, cacheKey)) {   // warm start: cached binary
+            gpuMemorySize = glGetProgrami(id, GL_PROGRAM_BINARY_LENGTH);
+            reflectUniforms();
+            UniformBlocks.bindBlocks(id);   // (in case the binary doesn't keep the block bindings)
+            return;
+        }
+
+        // cached binary missing or rejected by driver -- build program from source
+        if (useCache) {
+            glDeleteProgram(id);    // (program may be left in failed state by glProgramBinary)
+            id = glCreateProgram();
+            glProgramParameteri(id, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
+        }
+        long startT = System.nanoTime();
         glAttachShader(id, vertexShader.getHandle());   // attach compiled shaders to program
+        if (geometryShader != null) glAttachShader(id, geometryShader.getHandle());
         glAttachShader(id, fragmentShader.getHandle());
         glLinkProgram(id);                              // link attached shaders in one program
 
@@ -48,19 +126,117 @@ public class ShaderProgram {
             glDeleteShader(id);
             throw new RuntimeException("Shader linking failed: consult the log above");
         }
+        ProgramBinaryCache.recordMiss(System.nanoTime() - startT);
+
+        if (useCache) {
+            ProgramBinaryCache.store(id, cacheKey);
+            gpuMemorySize = glGetProgrami(id, GL_PROGRAM_BINARY_LENGTH);
+        }
+        reflectUniforms();
+        UniformBlocks.bindBlocks(id);
+    }
+
+    /**
+     * Enumerate the program's active uniforms (w/their locations & types).
+     * Arrays are recorded under each element's name (name[i]), & the 1st element also under the array's name.
+     */
+    private void reflectUniforms(){
+        activeUniforms.clear();
+        int numOfUniforms = glGetProgrami(id, GL_ACTIVE_UNIFORMS);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer size = stack.mallocInt(1), type = stack.mallocInt(1);
+            for (int i = 0; i < numOfUniforms; i++) {
+                String name = glGetActiveUniform(id, i, size, type);
+                int location = glGetUniformLocation(id, name);
+                if (location < 0) continue;     // (e.g. in a uniform block)
+
+                if (name.endsWith("[0]")) {     // array
+                    String arrayName = name.substring(0, name.length() - 3);
+                    activeUniforms.put(arrayName, new int[]{location, type.get(0)});
+                    for (int e = 1; e < size.get(0); e++) {
+                        String elementName = arrayName + "[" + e + "]";
+                        activeUniforms.put(elementName, new int[]{glGetUniformLocation(id, elementName), type.get(0)});
+                    }
+                }
+                activeUniforms.put(name, new int[]{location, type.get(0)});
+            }
+        }
+    }
+
+    /**
+     * Returns the handle of the given int, bool or sampler uniform.
+     * (if the uniform isn't active in the program, the handle is valid but never uploads)
+     */
+    public Uniform.IntUniform getIntUniform(String name){
+        return getUniform(name, Uniform.IntUniform.class, Uniform.IntUniform::new);
+    }
+    public Uniform.FloatUniform getFloatUniform(String name){
+        return getUniform(name, Uniform.FloatUniform.class, Uniform.FloatUniform::new);
+    }
+    public Uniform.Vec3Uniform getVec3Uniform(String name){
+        return getUniform(name, Uniform.Vec3Uniform.class, Uniform.Vec3Uniform::new);
+    }
+    public Uniform.Mat3Uniform getMat3Uniform(String name){
+        return getUniform(name, Uniform.Mat3Uniform.class, Uniform.Mat3Uniform::new);
+    }
+    public Uniform.Mat4Uniform getMat4Uniform(String name){
+        return getUniform(name, Uniform.Mat4Uniform.class, Uniform.Mat4Uniform::new);
+    }
+
+    /**
+     * Returns the handle of the given uniform, creating it (w/its reflected location) if it's the 1st time it's got.
+     * Throws a RuntimeException if the uniform's type doesn't match the handle's type.
+     */
+    private <T extends Uniform> T getUniform(String name, Class<T> handleClass, BiFunction<String, Integer, T> factory){
+        Uniform uniform = uniforms.get(name);
+        if (uniform == null) {
+            int[] active = activeUniforms.get(name);
+            uniform = factory.apply(name, active == null ? -1 : active[0]);
+            if (active != null && !uniform.acceptsType(active[1]))
+                throw new RuntimeException("Uniform " + name + " isn't of type " + handleClass.getSimpleName());
+            uniforms.put(name, uniform);
+        }
+        if (!handleClass.isInstance(uniform))
+            throw new RuntimeException("Uniform " + name + " already has a handle of another type");
+        return handleClass.cast(uniform);
+    }
+
+    /**
+     * Returns location of the given (active) uniform, or -1 if it isn't active in the program.
+     */
+    private int getUniformLocation(String name){
+        int[] active = activeUniforms.get(name);
+        return active == null ? -1 : active[0];
     }
 
     /**
      * Use this shader program in an OpenGL application.
      */
     public void use(){
-        glUseProgram(id);
+        GLState.useProgram(id);
     }
     /**
      * Delete this shader program in an OpenGL application.
      */
     public void delete(){
         glDeleteProgram(id);
+        GLState.onProgramDeleted(id);
+        id = 0;
+    }
+
+    @Override
+    public void deallocateResources() {
+        if (id != 0) delete();
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return id != 0;
+    }
+
+    @Override
+    public long getGPUMemorySize() {
+        return gpuMemorySize;
     }
 
     /**
@@ -70,7 +246,7 @@ public class ShaderProgram {
      * @param value new integer value
      */
     public void uploadInt(String target, int value){
-        glUniform1i(glGetUniformLocation(id, target), value);
+        getIntUniform(target).set(value);
     }
     /**
      * Sets value of the specified float uniform variable in program to the
@@ -79,7 +255,7 @@ public class ShaderProgram {
      * @param value new float value
      */
     public void uploadFloat(String target, float value){
-        glUniform1f(glGetUniformLocation(id, target), value);
+        getFloatUniform(target).set(value);
     }
 
     /**
@@ -90,7 +266,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload vector
      */
     public void uploadVec3f(String target, float v0, float v1, float v2){
-        glUniform3f(glGetUniformLocation(id, target), v0, v1, v2);   // set vector as uniform value
+        getVec3Uniform(target).set(v0, v1, v2);   // set vector as uniform value
     }
     /**
      * Upload a 3-component vector 'vector' to 'target' shader uniform variable
@@ -98,7 +274,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload vector
      */
     public void uploadVec3f(String target, Vector3f vector){
-        glUniform3f(glGetUniformLocation(id, target), vector.x, vector.y, vector.z);   // set vector as uniform value
+        getVec3Uniform(target).set(vector);   // set vector as uniform value
     }
 
     /**
@@ -107,10 +283,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload matrix
      */
     public void uploadMatrix3f(String target, Matrix3f m) {
-        int targetLocation = glGetUniformLocation(id, target);   // get location of target uniform
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(9);
-        m.get(buffer);  // store matrix in column-major order into buffer
-        glUniformMatrix3fv(targetLocation, false, buffer);   // set matrix as uniform value
+        getMat3Uniform(target).set(m);   // set matrix as uniform value
     }
     /**
      * Upload a 4x4 matrix 'm' to 'target' shader uniform variable
@@ -118,10 +291,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload matrix
      */
     public void uploadMatrix4f(String target, Matrix4f m) {
-        int targetLocation = glGetUniformLocation(id, target);   // get location of target uniform
-        FloatBuffer buffer = BufferUtils.createFloatBuffer(16);
-        m.get(buffer);  // store matrix in column-major order into buffer
-        glUniformMatrix4fv(targetLocation, false, buffer);   // set matrix as uniform value
+        getMat4Uniform(target).set(m);   // set matrix as uniform value
     }
 
     /**
@@ -130,7 +300,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload array
      */
     public void uploadFloatArray(String target, float[] arr){
-        glUniform1fv(glGetUniformLocation(id, target), arr);    // set array as uniform value
+        glUniform1fv(getUniformLocation(target), arr);    // set array as uniform value
     }
     /**
      * Upload a int array to 'target' shader uniform variable
@@ -138,22 +308,7 @@ public class ShaderProgram {
      * @param target name of uniform variable to which to upload array
      */
     public void uploadIntArray(String target, int[] arr){
-        glUniform1iv(glGetUniformLocation(id, target), arr);    // set array as uniform value
-    }
-
-    /**
-     * Tell shader where it can find attributes (inputs...)
-     * @param location location of shader variable to which to bind given data
-     * @param arrayBufferHandle	handle to data (vertex positions, normals or texture coordinates)
-     * @param attribSize "dimensionality" of data/attrib (vertex & normals = 3, texture coords = 2)
-     */
-    public void bindDataToShader(int location, int arrayBufferHandle, int attribSize) {
-        glBindBuffer(GL_ARRAY_BUFFER, arrayBufferHandle); // bind given buffer
-
-        // specify how openGL should interpret the data
-        glVertexAttribPointer(location, attribSize, GL_FLOAT, false, 0, 0);
-        // enable attrib variable
-        glEnableVertexAttribArray(location);
+        glUniform1iv(getUniformLocation(target), arr);    // set array as uniform value
     }
 
     public int getHandle(){
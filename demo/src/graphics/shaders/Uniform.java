@@ -0,0 +1,193 @@
+package graphics.shaders;
+
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.GL_SAMPLER_2D_ARRAY;
+import static org.lwjgl.opengl.GL30.GL_SAMPLER_2D_ARRAY_SHADOW;
+
+/**
+ * Handle of a uniform variable of a {@link ShaderProgram}, whose location is resolved once (see e.g.
+ * {@link ShaderProgram#getIntUniform}), w/a CPU-side copy of the value last uploaded, so setting the value it
+ * already has doesn't upload it again.
+ * As w/ShaderProgram's upload methods, values are uploaded to the program in use, so it must be in use when set.
+ * Uniforms that aren't active in the program (e.g. optimised out, or not in this shader variant) have location -1
+ * & are never uploaded.
+ */
+public abstract class Uniform {
+
+    private static int numOfUploads = 0, numOfSkippedUploads = 0;    // (since the last resetStats())
+
+    final String name;
+    final int location;
+    boolean hasValue = false;   // false until a value has been uploaded (so the copy of the value is valid)
+
+    Uniform(String name, int location){
+        this.name = name;
+        this.location = location;
+    }
+
+    /**
+     * Returns true if a uniform of the given GL type (as returned by glGetActiveUniform) can be set w/this handle.
+     */
+    abstract boolean acceptsType(int glType);
+
+    /**
+     * Returns true if the value must be uploaded: the handle doesn't have a value yet, or it has changed.
+     * (records the upload/skip for the stats)
+     */
+    boolean mustUpload(boolean changed){
+        if (hasValue && !changed) {
+            numOfSkippedUploads++;
+            return false;
+        }
+        hasValue = true;
+        if (location < 0) return false;
+        numOfUploads++;
+        return true;
+    }
+
+    /**
+     * Reset the nº of uniform values uploaded & skipped (e.g. at the start of each frame).
+     */
+    public static void resetStats(){
+        numOfUploads = numOfSkippedUploads = 0;
+    }
+
+    /**
+     * Print nº of uniform values uploaded & skipped (bc unchanged) since the last resetStats().
+     */
+    public static void printStats(){
+        System.out.println(String.format("Uniforms: %d uploaded, %d unchanged skipped", numOfUploads, numOfSkippedUploads));
+    }
+
+    public String getName() {
+        return name;
+    }
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * int, bool or sampler uniform (samplers are set to a texture unit).
+     */
+    public static class IntUniform extends Uniform {
+        private int value;
+
+        IntUniform(String name, int location){
+            super(name, location);
+        }
+
+        public void set(int value){
+            if (!mustUpload(value != this.value)) return;
+            this.value = value;
+            glUniform1i(location, value);
+        }
+
+        @Override
+        boolean acceptsType(int glType) {
+            switch (glType) {
+                case GL_INT: case GL_BOOL:
+                case GL_SAMPLER_2D: case GL_SAMPLER_2D_SHADOW: case GL_SAMPLER_CUBE:
+                case GL_SAMPLER_2D_ARRAY: case GL_SAMPLER_2D_ARRAY_SHADOW:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    public static class FloatUniform extends Uniform {
+        private float value;
+
+        FloatUniform(String name, int location){
+            super(name, location);
+        }
+
+        public void set(float value){
+            if (!mustUpload(Float.floatToIntBits(value) != Float.floatToIntBits(this.value))) return;
+            this.value = value;
+            glUniform1f(location, value);
+        }
+
+        @Override
+        boolean acceptsType(int glType) {
+            return glType == GL_FLOAT;
+        }
+    }
+
+    public static class Vec3Uniform extends Uniform {
+        private float x, y, z;
+
+        Vec3Uniform(String name, int location){
+            super(name, location);
+        }
+
+        public void set(float x, float y, float z){
+            if (!mustUpload(Float.floatToIntBits(x) != Float.floatToIntBits(this.x) || Float.floatToIntBits(y) != Float.floatToIntBits(this.y)
+                    || Float.floatToIntBits(z) != Float.floatToIntBits(this.z))) return;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            glUniform3f(location, x, y, z);
+        }
+
+        public void set(Vector3f vector){
+            set(vector.x, vector.y, vector.z);
+        }
+
+        @Override
+        boolean acceptsType(int glType) {
+            return glType == GL_FLOAT_VEC3;
+        }
+    }
+
+    public static class Mat3Uniform extends Uniform {
+        private final Matrix3f value = new Matrix3f();
+
+        Mat3Uniform(String name, int location){
+            super(name, location);
+        }
+
+        public void set(Matrix3f m){
+            if (!mustUpload(!value.equals(m))) return;
+            value.set(m);
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer buffer = stack.mallocFloat(9);
+                glUniformMatrix3fv(location, false, m.get(buffer));    // (column-major order)
+            }
+        }
+
+        @Override
+        boolean acceptsType(int glType) {
+            return glType == GL_FLOAT_MAT3;
+        }
+    }
+
+    public static class Mat4Uniform extends Uniform {
+        private final Matrix4f value = new Matrix4f();
+
+        Mat4Uniform(String name, int location){
+            super(name, location);
+        }
+
+        public void set(Matrix4f m){
+            if (!mustUpload(!value.equals(m))) return;
+            value.set(m);
+            try (MemoryStack stack = MemoryStack.stackPush()) {
+                FloatBuffer buffer = stack.mallocFloat(16);
+                glUniformMatrix4fv(location, false, m.get(buffer));    // (column-major order)
+            }
+        }
+
+        @Override
+        boolean acceptsType(int glType) {
+            return glType == GL_FLOAT_MAT4;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package graphics.shaders;
+
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * The std140 uniform blocks shared by all shader programs (declared in resources/shaders/uniformBlocks.glsl),
+ * w/the binding point each one is bound to & its size/offsets.
+ * GLSL 330 has no layout(binding = N) qualifier, so each program's blocks are bound to their binding points
+ * by name after it's linked (see {@link #bindBlocks}); the buffers bound to those binding points are then seen by
+ * every program, so per-frame & per-light data is uploaded once instead of once per program.
+ */
+public class UniformBlocks {
+
+    // --- binding points ---
+    public static final int FRAME_DATA = 0;     // camera & light space matrices, camera pos, ambient light, shadows
+    public static final int LIGHT_DATA = 1;     // lights in the scene
+    public static final int DRAW_DATA = 2;      // material params etc. (streamed per draw by the InstanceBatcher)
+
+    // --- block sizes & member offsets (std140, bytes) ---
+    public static final int FRAME_DATA_SIZE = 608;
+    public static final int FRAME_VIEW_M = 0, FRAME_PROJ_M = 64, FRAME_VIEW_PROJ_M = 128, FRAME_LIGHT_SPACE_M = 192,
+            FRAME_CAMERA_POS = 256, FRAME_I_A = 272;
+    public static final int FRAME_CASCADE_LIGHT_SPACE_M = 288,     // (mat4[MAX_CASCADES], 64 bytes each)
+            FRAME_CASCADE_SPLITS = 544, FRAME_CASCADE_BLEND_STARTS = 560, FRAME_CASCADE_DEPTH_RANGES = 576,
+            FRAME_NUM_OF_CASCADES = 592;
+    public static final int FRAME_SHADOW_FILTER = 596, FRAME_POISSON_SAMPLES = 600, FRAME_POISSON_RADIUS = 604;
+
+    public static final int LIGHT_DATA_SIZE = 32;
+    public static final int LIGHT_DIR_LIGHT = 0;
+
+    public static final int DRAW_DATA_SIZE = 64;   // (56 bytes of members, padded to a vec4 multiple as some drivers report)
+    public static final int DRAW_MATERIAL = 0, DRAW_MATERIAL_USES_TEXTURES = 48, DRAW_RECEIVES_SHADOWS = 52;
+
+    /**
+     * Bind each active uniform block of the given (linked) program to its binding point.
+     * Blocks w/an unknown name are left unbound (& reported).
+     * @param programHandle handle of the linked shader program
+     */
+    static void bindBlocks(int programHandle){
+        int numOfBlocks = glGetProgrami(programHandle, GL_ACTIVE_UNIFORM_BLOCKS);
+        for (int i = 0; i < numOfBlocks; i++) {
+            String blockName = glGetActiveUniformBlockName(programHandle, i);
+            int binding = getBindingPoint(blockName);
+            if (binding < 0) {
+                System.err.println("Unknown uniform block " + blockName + ": not bound to a binding point");
+                continue;
+            }
+            glUniformBlockBinding(programHandle, i, binding);
+        }
+    }
+
+    /**
+     * Returns the binding point of the uniform block w/the given name, or -1 if it isn't one of the shared blocks.
+     */
+    private static int getBindingPoint(String blockName){
+        switch (blockName) {
+            case "FrameData": return FRAME_DATA;
+            case "LightData": return LIGHT_DATA;
+            case "DrawData": return DRAW_DATA;
+            default: return -1;
+        }
+    }
+}
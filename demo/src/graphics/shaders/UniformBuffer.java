@@ -0,0 +1,84 @@
+package graphics.shaders;
+
+import graphics.core.resources.GPUResource;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * Uniform buffer object (UBO) holding the data of one of the shared {@link UniformBlocks}, bound to its binding point.
+ * The data is written to a CPU-side staging buffer (see {@link #getStaging()}) & uploaded w/{@link #upload()},
+ * which skips the upload if the data is the same as the last data uploaded.
+ */
+public class UniformBuffer implements GPUResource {
+
+    private int handle;
+    private final int size;
+    private final ByteBuffer staging, uploaded;     // data being written & data last uploaded
+    private boolean hasUploaded = false;
+
+    /**
+     * Create a UBO of the given size & bind it to the given binding point.
+     * @param bindingPoint binding point of the uniform block (see {@link UniformBlocks})
+     * @param size size of the uniform block, in bytes
+     */
+    public UniformBuffer(int bindingPoint, int size){
+        this.size = size;
+        staging = MemoryUtil.memCalloc(size);
+        uploaded = MemoryUtil.memCalloc(size);
+
+        handle = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, handle);
+        glBufferData(GL_UNIFORM_BUFFER, size, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, handle);
+    }
+
+    /**
+     * Returns the staging buffer, to which the block's data is written (at absolute offsets) before {@link #upload()}.
+     */
+    public ByteBuffer getStaging() {
+        return staging;
+    }
+
+    /**
+     * Upload the staged data to the UBO, if it differs from the last data uploaded.
+     * @return true if the data was uploaded
+     */
+    public boolean upload(){
+        if (hasUploaded && staging.equals(uploaded)) return false;   // (compares the remaining bytes, i.e. all of them)
+        glBindBuffer(GL_UNIFORM_BUFFER, handle);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, staging);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        MemoryUtil.memCopy(staging, uploaded);
+        hasUploaded = true;
+        return true;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    @Override
+    public long getGPUMemorySize() {
+        return handle == 0 ? 0 : size;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return handle != 0;
+    }
+
+    @Override
+    public void deallocateResources() {
+        if (handle == 0) return;
+        glDeleteBuffers(handle);
+        handle = 0;
+        MemoryUtil.memFree(staging);
+        MemoryUtil.memFree(uploaded);
+    }
+}
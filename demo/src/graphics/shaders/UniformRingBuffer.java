@@ -0,0 +1,113 @@
+package graphics.shaders;
+
+import graphics.core.resources.GPUResource;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * Uniform buffer used as a ring buffer, to stream uniform block data that changes every draw (e.g. the DrawData block,
+ * see {@link UniformBlocks}): each write goes after the previous one (at an offset aligned to the driver's
+ * UBO offset alignment), & ranges of it are bound w/glBindBufferRange.
+ * Writes map their range unsynchronized (no stall waiting for draws still reading earlier data); when the buffer
+ * is full it's orphaned (re-allocated w/glBufferData) & writing starts again at its start, so data the GPU may
+ * still be reading is never overwritten.
+ */
+public class UniformRingBuffer implements GPUResource {
+
+    private int handle;
+    private int capacity;
+    private int offset = 0;         // where the next write goes
+    private final int alignment;    // (GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT)
+    private int numOfOrphans = 0;
+
+    /**
+     * Create a ring buffer of the given capacity.
+     * @param capacity size of the buffer, in bytes (grows if a single write doesn't fit)
+     */
+    public UniformRingBuffer(int capacity){
+        this.capacity = capacity;
+        alignment = Math.max(1, glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT));
+        handle = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, handle);
+        glBufferData(GL_UNIFORM_BUFFER, capacity, GL_STREAM_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Returns the given size/offset rounded up to the UBO offset alignment (e.g. the stride of consecutive
+     * blocks written at once, each bound w/its own glBindBufferRange).
+     */
+    public int align(int n){
+        return (n + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * Write the given data (from its position to its limit) to the buffer.
+     * @param data data to write
+     * @return offset in the buffer at which the data was written (aligned to the UBO offset alignment)
+     */
+    public int write(ByteBuffer data){
+        int size = data.remaining();
+        glBindBuffer(GL_UNIFORM_BUFFER, handle);
+        if (size > capacity) {      // grow (w/room for a few more writes of this size)
+            capacity = align(size) * 4;
+            offset = capacity;      // (orphans below)
+        }
+        if (offset + size > capacity) {     // full: orphan the buffer & start again at its start
+            glBufferData(GL_UNIFORM_BUFFER, capacity, GL_STREAM_DRAW);
+            offset = 0;
+            numOfOrphans++;
+        }
+
+        int writeOffset = offset;
+        // (mapped as a raw address, bc glMapBufferRange would wrap it in a new ByteBuffer every write)
+        long mapped = nglMapBufferRange(GL_UNIFORM_BUFFER, writeOffset, size,
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_RANGE_BIT | GL_MAP_UNSYNCHRONIZED_BIT);
+        if (mapped == MemoryUtil.NULL) throw new RuntimeException("Failed to map uniform ring buffer");
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), mapped, size);
+        glUnmapBuffer(GL_UNIFORM_BUFFER);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+
+        offset = align(writeOffset + size);
+        return writeOffset;
+    }
+
+    public int getHandle() {
+        return handle;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Returns nº of times the buffer has been orphaned bc it was full (if it's often, the buffer should be larger).
+     */
+    public int getNumOfOrphans() {
+        return numOfOrphans;
+    }
+
+    @Override
+    public long getGPUMemorySize() {
+        return handle == 0 ? 0 : capacity;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return handle != 0;
+    }
+
+    @Override
+    public void deallocateResources() {
+        if (handle == 0) return;
+        glDeleteBuffers(handle);
+        handle = 0;
+    }
+}
@@ -1,10 +1,10 @@
 package graphics.shapes;
 
+import graphics.core.GLState;
 import graphics.shapes.meshes.ScreenQuadMesh;
 import graphics.textures.Texture;
 
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL13.*;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
 
 /**
  * Represents a quadrilateral/square that fills in the entire screen.
@@ -13,6 +13,7 @@ import static org.lwjgl.opengl.GL13.*;
 public class ScreenQuad {
     private final ScreenQuadMesh mesh;
     private int texHandle;
+    private int texTarget = GL_TEXTURE_2D;
 
     public ScreenQuad(Texture texture){
         mesh = ScreenQuadMesh.getInstance();
@@ -24,12 +25,20 @@ public class ScreenQuad {
         this.texHandle = texHandle;
     }
 
+    /**
+     * @param texHandle handle of the texture
+     * @param texTarget texture's target (e.g. GL_TEXTURE_2D_ARRAY)
+     */
+    public ScreenQuad(int texHandle, int texTarget){
+        this(texHandle);
+        this.texTarget = texTarget;
+    }
+
     /**
      * Bind the texture to tex unit 0
      */
     public void bindTexture(){
-        glActiveTexture(GL_TEXTURE0);                // activate proper texture unit before binding
-        glBindTexture(GL_TEXTURE_2D, texHandle);     // bind texture to appropriate texture unit
+        GLState.bindTexture(0, texTarget, texHandle);    // bind texture to tex unit 0 (if not already bound)
     }
 
     public ScreenQuadMesh getMesh() {
@@ -1,7 +1,7 @@
 package graphics.shapes;
 
+import graphics.core.resources.GPUResourceManager;
 import graphics.materials.Material;
-import graphics.shaders.ShaderProgram;
 import graphics.shapes.meshes.Mesh;
 
 /**
@@ -13,6 +13,7 @@ public abstract class Shape {
 
     private final Mesh mesh;
     private Material material;
+    private boolean released = false;
 
     Shape(Mesh mesh, Material material){
         this.mesh = mesh;
@@ -27,11 +28,15 @@ public abstract class Shape {
     }
 
     /**
-     * Bind the shape's material's textures to the appropriate sampler2D in the given shader program.
-     * @param shader {@link ShaderProgram} to which to upload textures.
+     * Release the shape's mesh & material textures (if managed by {@link GPUResourceManager}), so that they can be
+     * evicted once no other shape uses them. Call when the shape is discarded (only the 1st call releases them, so
+     * each entity sharing the shape can call it).
      */
-    public void uploadMaterialToShader(ShaderProgram shader) {
-        material.uploadToShader(shader);
+    public void releaseResources(){
+        if(released) return;
+        released = true;
+        GPUResourceManager.release(mesh);
+        if(material != null) material.releaseTextures();
     }
 
     public Mesh getMesh() {
@@ -5,13 +5,14 @@ import graphics.core.io.ModelLoader;
 
 /**
  * Represents a shape whose mesh is loaded from a model/object file.
+ * (the model is loaded asynchronously, so the shape isn't rendered until its mesh is loaded onto the GPU)
  */
 public class ShapeFromOBJ extends Shape {
     public ShapeFromOBJ(String fileName, Material material, boolean useFaceCulling) {
-        super(ModelLoader.loadModel(fileName, useFaceCulling), material);
+        super(ModelLoader.loadModelAsync(fileName, useFaceCulling), material);
     }
 
     public ShapeFromOBJ(String fileName, boolean useFaceCulling) {
-        super(ModelLoader.loadModel(fileName, useFaceCulling), new Material());
+        super(ModelLoader.loadModelAsync(fileName, useFaceCulling), new Material());
     }
 }
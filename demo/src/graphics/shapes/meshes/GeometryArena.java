@@ -0,0 +1,416 @@
+package graphics.shapes.meshes;
+
+import graphics.core.GLState;
+import org.lwjgl.opengl.GL;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+
+/**
+ * Shared vertex & index buffers from which the meshes' vertex & index data is sub-allocated, so meshes
+ * don't each own a VAO & buffers, & draws of different meshes don't need to switch VAO or rebind buffers.
+ *
+ * There's one arena per vertex format (layout & whether normals & tex coords are stored), w/a single VAO.
+ * Each mesh gets an {@link Allocation}: a range of vertices (drawn w/a base vertex, so its indices stay relative
+ * to its 1st vertex) & a range of indices. Free ranges are kept in a free-list (first fit, coalesced when freed);
+ * when no free range is big enough the buffers grow (contents copied on the GPU), & once enough of the free space
+ * is in holes between allocations, the allocations are compacted to the start of the buffers (compactIfFragmented()).
+ * Allocations may so move, so their offsets must be read when drawing (not cached).
+ *
+ * All methods must be called from the GL thread.
+ */
+public class GeometryArena {
+
+    private static final List<GeometryArena> arenas = new ArrayList<>();
+    private static final int MIN_VERTEX_CAPACITY = 64 * 1024, MIN_INDEX_CAPACITY = 256 * 1024;
+    private static final float MAX_FRAGMENTATION = 0.25f;   // max fraction of capacity in holes before compacting
+    private static int numOfCompactions = 0;
+
+    private final int id;   // (index in arenas, e.g. for sorting draws by arena)
+
+    // --- vertex format ---
+    private final VertexLayout layout;
+    private final boolean hasNormals, hasTexCoords;
+    private final int stride;
+
+    private int vaoHandle = 0;
+    private int vertexVBOHandle = 0, eboHandle = 0;
+    private final FreeList vertexRanges = new FreeList(), indexRanges = new FreeList();    // (in vertices & indices)
+    private final List<Allocation> allocations = new ArrayList<>();
+
+    private GeometryArena(VertexLayout layout, boolean hasNormals, boolean hasTexCoords){
+        this.id = arenas.size();
+        this.layout = layout;
+        this.hasNormals = hasNormals;
+        this.hasTexCoords = hasTexCoords;
+        this.stride = layout.getStride(hasNormals, hasTexCoords);
+    }
+
+    /**
+     * Sub-allocate the given vertices & indices in the arena of their vertex format, & copy them into it.
+     * @param layout {@link VertexLayout} of the vertices
+     * @param hasNormals true if the vertices store normals
+     * @param hasTexCoords true if the vertices store tex coords
+     * @param vertices interleaved vertices (vertexCount * stride bytes, from the buffer's position)
+     * @param vertexCount nº of vertices
+     * @param indices indices (uints, relative to the 1st vertex), from the buffer's position
+     * @param indexCount nº of indices
+     * @return the {@link Allocation} of the data (to be freed when the mesh is deleted)
+     */
+    static Allocation allocate(VertexLayout layout, boolean hasNormals, boolean hasTexCoords,
+                               ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount){
+        GeometryArena arena = null;
+        for (GeometryArena a : arenas)
+            if (a.layout == layout && a.hasNormals == hasNormals && a.hasTexCoords == hasTexCoords) arena = a;
+        if (arena == null) {
+            arena = new GeometryArena(layout, hasNormals, hasTexCoords);
+            arenas.add(arena);
+        }
+        return arena.allocate(vertices, vertexCount, indices, indexCount);
+    }
+
+    private Allocation allocate(ByteBuffer vertices, int vertexCount, ByteBuffer indices, int indexCount){
+        if (vaoHandle == 0) createBuffers(Math.max(MIN_VERTEX_CAPACITY, vertexCount), Math.max(MIN_INDEX_CAPACITY, indexCount));
+
+        // --- find free ranges (compacting or growing the buffers if needed) ---
+        int baseVertex = vertexRanges.allocate(vertexCount);
+        int firstIndex = indexRanges.allocate(indexCount);
+        if (baseVertex < 0 || firstIndex < 0) {
+            if (baseVertex >= 0) vertexRanges.free(baseVertex, vertexCount);
+            if (firstIndex >= 0) indexRanges.free(firstIndex, indexCount);
+            compact(Math.max(vertexRanges.capacity, vertexRanges.used + vertexCount),
+                    Math.max(indexRanges.capacity, indexRanges.used + indexCount), true);
+            baseVertex = vertexRanges.allocate(vertexCount);
+            firstIndex = indexRanges.allocate(indexCount);
+        }
+
+        // --- copy data into its ranges ---
+        glBindBuffer(GL_COPY_WRITE_BUFFER, vertexVBOHandle);
+        nglBufferSubData(GL_COPY_WRITE_BUFFER, (long) baseVertex * stride, (long) vertexCount * stride, memAddress(vertices));
+        glBindBuffer(GL_COPY_WRITE_BUFFER, eboHandle);
+        nglBufferSubData(GL_COPY_WRITE_BUFFER, (long) firstIndex * Integer.BYTES, (long) indexCount * Integer.BYTES, memAddress(indices));
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        Allocation allocation = new Allocation(this, baseVertex, vertexCount, firstIndex, indexCount);
+        allocations.add(allocation);
+        return allocation;
+    }
+
+    private void free(Allocation allocation){
+        vertexRanges.free(allocation.baseVertex, allocation.vertexCount);
+        indexRanges.free(allocation.firstIndex, allocation.indexCount);
+        allocations.remove(allocation);
+    }
+
+    /**
+     * Create the arena's VAO & (empty) buffers w/the given capacities (in vertices & indices).
+     */
+    private void createBuffers(int vertexCapacity, int indexCapacity){
+        vaoHandle = glGenVertexArrays();
+        vertexVBOHandle = createBuffer((long) vertexCapacity * stride);
+        eboHandle = createBuffer((long) indexCapacity * Integer.BYTES);
+        vertexRanges.reset(vertexCapacity);
+        indexRanges.reset(indexCapacity);
+        recordVertexAttributes();
+    }
+
+    private static int createBuffer(long size){
+        int handle = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, handle);
+        glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return handle;
+    }
+
+    /**
+     * Record the vertex attribute layout & the index buffer in the arena's VAO (after (re)creating the buffers).
+     */
+    private void recordVertexAttributes(){
+        GLState.bindVertexArray(vaoHandle);
+        glBindBuffer(GL_ARRAY_BUFFER, vertexVBOHandle);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboHandle);
+
+        long offset = 0;
+        glVertexAttribPointer(layout.getPositionLocation(), layout.getPositionSize(), layout.getPositionGLType(),
+                layout.hasQuantizedPositions(), stride, offset);
+        glEnableVertexAttribArray(layout.getPositionLocation());
+        offset += layout.getPositionBytes();
+        if (hasNormals) {
+            glVertexAttribPointer(layout.getNormalLocation(), layout.hasPackedNormals() ? 4 : 3, layout.getNormalGLType(),
+                    layout.hasPackedNormals(), stride, offset);
+            glEnableVertexAttribArray(layout.getNormalLocation());
+            offset += layout.getNormalBytes();
+        }
+        if (hasTexCoords) {
+            glVertexAttribPointer(layout.getTexCoordLocation(), 2, layout.getTexCoordGLType(), false, stride, offset);
+            glEnableVertexAttribArray(layout.getTexCoordLocation());
+        }
+
+        GLState.bindVertexArray(0);     // (so the index buffer binding isn't changed by mistake)
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Move all allocations to the start of new buffers w/the given capacities (in vertices & indices),
+     * leaving all free space at the end. (copied on the GPU; the old buffers are deleted)
+     * @param grow true if compacting to make room for a new allocation (& so the capacities may double)
+     */
+    private void compact(int vertexCapacity, int indexCapacity, boolean grow){
+        if (grow) {     // (grow geometrically, so the buffers aren't copied on every allocation)
+            if (vertexCapacity > vertexRanges.capacity) vertexCapacity = Math.max(vertexCapacity, vertexRanges.capacity * 2);
+            if (indexCapacity > indexRanges.capacity) indexCapacity = Math.max(indexCapacity, indexRanges.capacity * 2);
+        }
+        int newVBO = createBuffer((long) vertexCapacity * stride);
+        int newEBO = createBuffer((long) indexCapacity * Integer.BYTES);
+
+        // --- copy allocations, packed (vertices & indices separately, each in order of offset) ---
+        List<Allocation> sorted = new ArrayList<>(allocations);
+        sorted.sort(Comparator.comparingInt(a -> a.baseVertex));
+        glBindBuffer(GL_COPY_READ_BUFFER, vertexVBOHandle);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVBO);
+        int nextVertex = 0;
+        for (Allocation a : sorted) {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) a.baseVertex * stride,
+                    (long) nextVertex * stride, (long) a.vertexCount * stride);
+            a.baseVertex = nextVertex;
+            nextVertex += a.vertexCount;
+        }
+        sorted.sort(Comparator.comparingInt(a -> a.firstIndex));
+        glBindBuffer(GL_COPY_READ_BUFFER, eboHandle);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newEBO);
+        int nextIndex = 0;
+        for (Allocation a : sorted) {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) a.firstIndex * Integer.BYTES,
+                    (long) nextIndex * Integer.BYTES, (long) a.indexCount * Integer.BYTES);
+            a.firstIndex = nextIndex;
+            nextIndex += a.indexCount;
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+
+        glDeleteBuffers(vertexVBOHandle);
+        glDeleteBuffers(eboHandle);
+        vertexVBOHandle = newVBO;
+        eboHandle = newEBO;
+        vertexRanges.reset(vertexCapacity, nextVertex);
+        indexRanges.reset(indexCapacity, nextIndex);
+        recordVertexAttributes();
+        numOfCompactions++;
+    }
+
+    /**
+     * Compact the arenas in which too much of the free space is in holes between allocations (e.g. after
+     * meshes are evicted). Call once per frame (e.g. in the render loop).
+     */
+    public static void compactIfFragmented(){
+        for (int i = 0; i < arenas.size(); i++) {     // (indexed, bc called every frame)
+            GeometryArena arena = arenas.get(i);
+            if (arena.vaoHandle == 0) continue;
+            if (arena.vertexRanges.getFragmentedSize() > arena.vertexRanges.capacity * MAX_FRAGMENTATION
+                    || arena.indexRanges.getFragmentedSize() > arena.indexRanges.capacity * MAX_FRAGMENTATION)
+                arena.compact(arena.vertexRanges.capacity, arena.indexRanges.capacity, false);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Bind the arena's VAO (for drawing its meshes).
+     */
+    public void bind(){
+        GLState.bindVertexArray(vaoHandle);     // (skipped if already bound)
+    }
+
+    /**
+     * Point the per-instance attributes (model & normal matrices, see {@link VertexLayout}) of the arena's VAO,
+     * which must be bound, at the given instance buffer (advanced once per instance).
+     * @param instanceVBOHandle handle of the buffer w/the instances' attributes
+     * @param instanceOffset offset (in bytes) of the 1st instance's attributes in the instance buffer
+     */
+    public void bindInstanceAttributes(int instanceVBOHandle, long instanceOffset){
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVBOHandle);
+        for(int i = 0; i < 4; i++) {    // model matrix columns
+            int location = VertexLayout.INSTANCE_MODEL_LOCATION + i;
+            glVertexAttribPointer(location, 4, GL_FLOAT, false, VertexLayout.INSTANCE_STRIDE, instanceOffset + i * 4 * Float.BYTES);
+            glEnableVertexAttribArray(location);
+            glVertexAttribDivisor(location, 1);
+        }
+        for(int i = 0; i < 3; i++) {    // normal matrix columns
+            int location = VertexLayout.INSTANCE_NORMAL_LOCATION + i;
+            glVertexAttribPointer(location, 3, GL_FLOAT, false, VertexLayout.INSTANCE_STRIDE,
+                    instanceOffset + (16 + i * 3) * Float.BYTES);
+            glEnableVertexAttribArray(location);
+            glVertexAttribDivisor(location, 1);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Returns true if multi-draw indirect w/base instances (GL 4.3) is available, so several instanced draws
+     * of an arena can be submitted w/a single glMultiDrawElementsIndirect.
+     */
+    public static boolean isMultiDrawIndirectSupported(){
+        return GL.getCapabilities().OpenGL43;
+    }
+
+    /**
+     * Delete all arenas' VAOs & buffers (e.g. when the app terminates, after all meshes are deleted).
+     */
+    public static void deallocateAll(){
+        for (GeometryArena arena : arenas) {
+            if (arena.vaoHandle == 0) continue;
+            glDeleteVertexArrays(arena.vaoHandle);
+            GLState.onVertexArrayDeleted(arena.vaoHandle);
+            glDeleteBuffers(arena.vertexVBOHandle);
+            glDeleteBuffers(arena.eboHandle);
+        }
+        arenas.clear();
+    }
+
+    /**
+     * Print the nº of arenas & allocations, the memory used/allocated & nº of compactions so far.
+     */
+    public static void printReport(){
+        long usedBytes = 0, capacityBytes = 0;
+        int numOfAllocations = 0;
+        for (GeometryArena arena : arenas) {
+            usedBytes += (long) arena.vertexRanges.used * arena.stride + (long) arena.indexRanges.used * Integer.BYTES;
+            capacityBytes += (long) arena.vertexRanges.capacity * arena.stride + (long) arena.indexRanges.capacity * Integer.BYTES;
+            numOfAllocations += arena.allocations.size();
+        }
+        System.out.println(String.format("Geometry arenas: %d, %d meshes, %.1f/%.1f MB, %d compactions", arenas.size(),
+                numOfAllocations, usedBytes / (1024.0 * 1024.0), capacityBytes / (1024.0 * 1024.0), numOfCompactions));
+    }
+
+    /**
+     * A mesh's range of vertices & range of indices in a {@link GeometryArena}.
+     * (ranges may move when the arena is compacted)
+     */
+    public static class Allocation {
+        private final GeometryArena arena;
+        private int baseVertex, firstIndex;
+        private final int vertexCount, indexCount;
+        private boolean freed = false;
+
+        private Allocation(GeometryArena arena, int baseVertex, int vertexCount, int firstIndex, int indexCount){
+            this.arena = arena;
+            this.baseVertex = baseVertex;
+            this.vertexCount = vertexCount;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+        }
+
+        /**
+         * Return the ranges to the arena's free-list.
+         */
+        void free(){
+            if (freed) return;
+            arena.free(this);
+            freed = true;
+        }
+
+        public GeometryArena getArena() {
+            return arena;
+        }
+        /**
+         * Returns index (in the arena's vertex buffer) of the 1st vertex, to be added to the indices when drawing.
+         */
+        public int getBaseVertex() {
+            return baseVertex;
+        }
+        /**
+         * Returns position (in the arena's index buffer) of the 1st index.
+         */
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+        public int getVertexCount() {
+            return vertexCount;
+        }
+        public int getIndexCount() {
+            return indexCount;
+        }
+    }
+
+    /**
+     * Free ranges of a buffer (in elements, e.g. vertices), sorted by offset & coalesced.
+     */
+    private static class FreeList {
+        private final List<int[]> ranges = new ArrayList<>();     // {offset, size}
+        int capacity = 0, used = 0;
+
+        /**
+         * Set to a buffer w/the given capacity whose 1st usedSize elements are allocated.
+         */
+        void reset(int capacity, int usedSize){
+            this.capacity = capacity;
+            this.used = usedSize;
+            ranges.clear();
+            if (usedSize < capacity) ranges.add(new int[]{usedSize, capacity - usedSize});
+        }
+
+        void reset(int capacity){
+            reset(capacity, 0);
+        }
+
+        /**
+         * Returns offset of a free range of the given size (first fit), or -1 if there's none.
+         */
+        int allocate(int size){
+            if (size == 0) return 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                if (range[1] < size) continue;
+                int offset = range[0];
+                range[0] += size;
+                range[1] -= size;
+                if (range[1] == 0) ranges.remove(i);
+                used += size;
+                return offset;
+            }
+            return -1;
+        }
+
+        void free(int offset, int size){
+            if (size == 0) return;
+            used -= size;
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[0] < offset) i++;
+            ranges.add(i, new int[]{offset, size});
+
+            // coalesce w/next & previous ranges
+            if (i + 1 < ranges.size() && offset + size == ranges.get(i + 1)[0]) {
+                ranges.get(i)[1] += ranges.get(i + 1)[1];
+                ranges.remove(i + 1);
+            }
+            if (i > 0 && ranges.get(i - 1)[0] + ranges.get(i - 1)[1] == offset) {
+                ranges.get(i - 1)[1] += ranges.get(i)[1];
+                ranges.remove(i);
+            }
+        }
+
+        /**
+         * Returns nº of free elements in holes between allocations (i.e. not at the end of the buffer).
+         */
+        int getFragmentedSize(){
+            int free = capacity - used;
+            if (!ranges.isEmpty()) {
+                int[] last = ranges.get(ranges.size() - 1);
+                if (last[0] + last[1] == capacity) free -= last[1];
+            }
+            return free;
+        }
+    }
+}
@@ -1,26 +1,47 @@
 package graphics.shapes.meshes;
 
-import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL30.*;
+import graphics.core.GLState;
+import graphics.core.resources.GPUResource;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
 
 /**
  * Abstract class encapsulating a 3D mesh object.
  * Should have 3D position (vertex positions), UV texture coordinates and normals.
+ * The vertex data is stored interleaved, in the mesh's {@link VertexLayout}, in the shared buffers of the
+ * {@link GeometryArena} of its vertex format (whose VAO records the layout, so no attributes need to be bound
+ * when rendering, & meshes w/the same format are drawn from the same VAO).
+ * The mesh may have several levels of detail (LODs), which share its vertices & are ranges of its index buffer
+ * (LOD 0 is the full detail mesh -- see {@link graphics.core.io.MeshSimplifier}).
  *
  * Note: subclasses representing specific shapes/meshes should implement the singleton
  *      pattern, to avoid unnecessary creation & duplication of buffers.
  */
-public abstract class Mesh {
+public abstract class Mesh implements GPUResource {
 
     // shape/rendering properties
-    private int vaoHandle;
-    private int vertexVBOHandle;
-    private int normalHandle = -1;
-    private int texHandle = -1;
+    private GeometryArena.Allocation allocation;    // mesh's vertex & index ranges in its arena
     private int num_of_triangles;
-    private int eboHandle;
     private int GLFrontFaceWinding;
     private boolean useFaceCulling;
+    private boolean loadedOntoGPU = false;  // false until the mesh data has been loaded onto the GPU
+    private long gpuMemorySize = 0;         // bytes allocated in the mesh's buffers
+    private final VertexLayout layout;
+    private Matrix4f dequantizationMatrix = new Matrix4f();     // (identity unless positions are quantized)
+    private Vector3f aabbMin = new Vector3f(), aabbMax = new Vector3f();  // bounding box (in object coords)
+    private Vector3f boundingSphereCentre = new Vector3f();      // (in object coords)
+    private float boundingSphereRadius = 0;
+    private int[] lodFirstIndices = {0}, lodIndexCounts = {0};  // index range of each LOD
+    private float[] lodErrors = {0};                            // max error of each LOD, in object coords
 
     // abstract methods -- subclasses should implement them
     abstract float[]  initializeVertexPositions();
@@ -29,8 +50,13 @@ public abstract class Mesh {
     abstract float[]  initializeTextureCoordinates();
 
     Mesh(int GLFrontFaceWinding, boolean useFaceCulling){
+        this(GLFrontFaceWinding, useFaceCulling, VertexLayout.COMPACT);
+    }
+
+    Mesh(int GLFrontFaceWinding, boolean useFaceCulling, VertexLayout layout){
         this.GLFrontFaceWinding = GLFrontFaceWinding;
         this.useFaceCulling = useFaceCulling;
+        this.layout = layout;
     }
 
      /**
@@ -55,74 +81,294 @@ public abstract class Mesh {
      * @param textureCoordinates array specifying tex coordinates
      */
     private void loadDataOntoGPU(float[] vertPositions, int[] indices, float[] vertNormals, float[] textureCoordinates) {
-        vaoHandle = glGenVertexArrays();    // create VAO obj
-        glBindVertexArray(vaoHandle);       // bind vertex array (VAO)
-
-        // --- load vertex positions ---
-        vertexVBOHandle = glGenBuffers();                   // create an int buffer & return int ID (create VBO- vertex buffer obj)
-        glBindBuffer(GL_ARRAY_BUFFER, vertexVBOHandle);     // bind buffer (VBO)
-        glBufferData(GL_ARRAY_BUFFER, vertPositions, GL_STATIC_DRAW); // copy vertex data into currently bound buffer
-
-        // --- load vertex indexes ---
-        eboHandle = glGenBuffers();
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboHandle);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
-
-        // --- load vertex normals ---
-        if (vertNormals != null) {
-            normalHandle = glGenBuffers(); // Get an OGL name for a buffer object
-            glBindBuffer(GL_ARRAY_BUFFER, normalHandle); // Bring that buffer object into existence on GPU
-            glBufferData(GL_ARRAY_BUFFER, vertNormals, GL_STATIC_DRAW); // Load the GPU buffer object with data
+        ByteBuffer indicesBuffer = memAlloc(indices.length * Integer.BYTES);
+        indicesBuffer.asIntBuffer().put(indices);
+        try {
+            loadDataOntoGPU(FloatBuffer.wrap(vertPositions), indicesBuffer,
+                    vertNormals == null ? null : FloatBuffer.wrap(vertNormals),
+                    textureCoordinates == null ? null : FloatBuffer.wrap(textureCoordinates), indices.length);
+        } finally {
+            memFree(indicesBuffer);
+        }
+    }
+
+    /**
+     * Move data from the given (direct) buffers to the corresponding OpenGL buffers.
+     * (used for meshes whose data is already in native memory, e.g. memory-mapped from a cache file)
+     * @param vertPositions buffer of vertex positions (3 floats per vertex)
+     * @param indices buffer of indeces for each vertex (uints)
+     * @param vertNormals buffer of normal vectors (3 floats per vertex), or null
+     * @param textureCoordinates buffer specifying tex coordinates (2 floats per vertex), or null
+     * @param numOfIndices nº of indices in the indices buffer
+     */
+    void loadDataOntoGPU(ByteBuffer vertPositions, ByteBuffer indices, ByteBuffer vertNormals, ByteBuffer textureCoordinates, int numOfIndices) {
+        loadDataOntoGPU(vertPositions.asFloatBuffer(), indices,
+                vertNormals == null ? null : vertNormals.asFloatBuffer(),
+                textureCoordinates == null ? null : textureCoordinates.asFloatBuffer(), numOfIndices);
+    }
+
+    /**
+     * Interleave the given vertex data (in the mesh's {@link VertexLayout}) & load it & the indices onto the GPU,
+     * into the {@link GeometryArena} of its vertex format.
+     */
+    private void loadDataOntoGPU(FloatBuffer vertPositions, ByteBuffer indices, FloatBuffer vertNormals, FloatBuffer textureCoordinates, int numOfIndices) {
+        num_of_triangles = numOfIndices;
+        setLODs(new int[]{0}, new int[]{numOfIndices}, new float[]{0});     // (single LOD, unless set afterwards)
+        int vertexCount = vertPositions.remaining() / layout.getPositionSize();
+        boolean hasNormals = vertNormals != null && layout.getNormalLocation() >= 0;
+        boolean hasTexCoords = textureCoordinates != null && layout.getTexCoordLocation() >= 0;
+        int stride = layout.getStride(hasNormals, hasTexCoords);
+
+        ByteBuffer vertices = createInterleavedVertices(vertPositions, vertNormals, textureCoordinates, vertexCount,
+                hasNormals, hasTexCoords, stride);
+
+        // --- load interleaved vertices & indices into the shared buffers of the arena of the vertex format ---
+        allocation = GeometryArena.allocate(layout, hasNormals, hasTexCoords, vertices, vertexCount, indices, numOfIndices);
+        memFree(vertices);
+
+        gpuMemorySize = (long) vertexCount * stride + (long) numOfIndices * Integer.BYTES;
+        loadedOntoGPU = true;
+    }
+
+    /**
+     * Interleave the given vertex data into a (native) buffer, converting it to the formats of the mesh's layout.
+     * If the positions are quantized, also calculates the mesh's dequantization matrix.
+     * @return buffer w/the interleaved vertices (to be freed w/memFree)
+     */
+    private ByteBuffer createInterleavedVertices(FloatBuffer vertPositions, FloatBuffer vertNormals, FloatBuffer textureCoordinates,
+                                                int vertexCount, boolean hasNormals, boolean hasTexCoords, int stride){
+        ByteBuffer vertices = memAlloc(vertexCount * stride);
+        int positionSize = layout.getPositionSize();
+
+        // --- bounding box (for bounding sphere & quantization) ---
+        float[] min = {0, 0, 0}, max = {0, 0, 0};
+        for (int i = 0; i < vertexCount; i++) {
+            for (int c = 0; c < positionSize; c++) {
+                float v = vertPositions.get(vertPositions.position() + i * positionSize + c);
+                min[c] = i == 0 ? v : Math.min(min[c], v);
+                max[c] = i == 0 ? v : Math.max(max[c], v);
+            }
+        }
+        aabbMin.set(min[0], min[1], min[2]);
+        aabbMax.set(max[0], max[1], max[2]);
+        boundingSphereCentre.set((min[0] + max[0]) / 2, (min[1] + max[1]) / 2, (min[2] + max[2]) / 2);
+        boundingSphereRadius = new Vector3f(max[0] - min[0], max[1] - min[1], max[2] - min[2]).length() / 2;
+
+        // --- quantization: positions mapped from the mesh's bounding box to [-1, 1] ---
+        float[] centre = new float[3], halfExtent = {1, 1, 1};
+        if (layout.hasQuantizedPositions()) {
+            for (int c = 0; c < 3 && vertexCount > 0; c++) {
+                centre[c] = (min[c] + max[c]) / 2;
+                halfExtent[c] = Math.max((max[c] - min[c]) / 2, 1e-6f);
+            }
+            dequantizationMatrix = new Matrix4f().translation(centre[0], centre[1], centre[2])
+                    .scale(halfExtent[0], halfExtent[1], halfExtent[2]);
+        }
+
+        for (int i = 0; i < vertexCount; i++) {
+            int base = i * stride;
+
+            // --- position ---
+            int p = vertPositions.position() + i * positionSize;
+            if (layout.hasQuantizedPositions()) {
+                for (int c = 0; c < 3; c++)
+                    vertices.putShort(base + c * Short.BYTES, toSNorm16((vertPositions.get(p + c) - centre[c]) / halfExtent[c]));
+                vertices.putShort(base + 3 * Short.BYTES, (short) 0);   // padding
+            } else {
+                for (int c = 0; c < positionSize; c++) vertices.putFloat(base + c * Float.BYTES, vertPositions.get(p + c));
+            }
+            base += layout.getPositionBytes();
+
+            // --- normal ---
+            if (hasNormals) {
+                int n = vertNormals.position() + i * 3;
+                float nx = vertNormals.get(n), ny = vertNormals.get(n + 1), nz = vertNormals.get(n + 2);
+                if (layout.hasPackedNormals()) {
+                    vertices.putInt(base, toSNorm10(nx) | toSNorm10(ny) << 10 | toSNorm10(nz) << 20);
+                } else {
+                    vertices.putFloat(base, nx).putFloat(base + 4, ny).putFloat(base + 8, nz);
+                }
+                base += layout.getNormalBytes();
+            }
+
+            // --- tex coords ---
+            if (hasTexCoords) {
+                int t = textureCoordinates.position() + i * 2;
+                if (layout.hasHalfFloatTexCoords()) {
+                    vertices.putShort(base, toHalfFloat(textureCoordinates.get(t)));
+                    vertices.putShort(base + 2, toHalfFloat(textureCoordinates.get(t + 1)));
+                } else {
+                    vertices.putFloat(base, textureCoordinates.get(t)).putFloat(base + 4, textureCoordinates.get(t + 1));
+                }
+            }
         }
+        return vertices;
+    }
+
+    /**
+     * Value in [-1, 1] as a 16-bit normalised int.
+     */
+    private static short toSNorm16(float v){
+        return (short) Math.round(Math.max(-1f, Math.min(1f, v)) * 32767f);
+    }
+
+    /**
+     * Value in [-1, 1] as a 10-bit normalised int (in the low 10 bits of the returned int).
+     */
+    private static int toSNorm10(float v){
+        return Math.round(Math.max(-1f, Math.min(1f, v)) * 511f) & 0x3FF;
+    }
+
+    /**
+     * Float as an IEEE 754 half float (round to nearest even; overflow to infinity, underflow to (sub)normals/0).
+     */
+    static short toHalfFloat(float v){
+        int bits = Float.floatToIntBits(v);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
 
-        // --- load texture coordinates ---
-        if (textureCoordinates != null) {
-            texHandle = glGenBuffers();
-            glBindBuffer(GL_ARRAY_BUFFER, texHandle);
-            glBufferData(GL_ARRAY_BUFFER, textureCoordinates, GL_STATIC_DRAW);
+        if (((bits >>> 23) & 0xFF) == 0xFF)     // NaN/infinity
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        if (exp >= 0x1F) return (short) (sign | 0x7C00);    // overflow -> infinity
+        if (exp <= 0) {                                     // subnormal half (or 0)
+            if (exp < -10) return (short) sign;
+            mantissa |= 0x800000;                           // implicit leading 1
+            int shift = 14 - exp;
+            int half = mantissa >> shift;
+            int rest = mantissa & ((1 << shift) - 1), halfway = 1 << (shift - 1);
+            if (rest > halfway || (rest == halfway && (half & 1) != 0)) half++;
+            return (short) (sign | half);
         }
+        int half = exp << 10 | mantissa >> 13;
+        int rest = mantissa & 0x1FFF;
+        if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++;  // (may carry into exponent, which is fine)
+        return (short) (sign | half);
+    }
+
+    /**
+     * Set the index ranges of the mesh's LODs (LOD 0 1st). Must be called after the data is loaded onto the GPU.
+     * @param firstIndices 1st index of each LOD
+     * @param indexCounts nº of indices of each LOD
+     * @param errors max error of each LOD (distance to the full detail surface, in object coords)
+     */
+    void setLODs(int[] firstIndices, int[] indexCounts, float[] errors){
+        lodFirstIndices = firstIndices;
+        lodIndexCounts = indexCounts;
+        lodErrors = errors;
+        num_of_triangles = indexCounts[0];
     }
 
     /**
-     * Draw the mesh using the currently active shader program.
+     * Draw the mesh (full detail) using the currently active shader program.
      */
     public void render(){
-        if(!useFaceCulling) glDisable(GL_CULL_FACE);    // disable face culling
-        else glFrontFace(GLFrontFaceWinding);           // set front facing faces winding (for back face culling)
+        render(0);
+    }
 
-        // draw mesh
-        glBindVertexArray(vaoHandle);
-        glDrawElements(GL_TRIANGLES, num_of_triangles, GL_UNSIGNED_INT, 0);
-        glBindVertexArray(0);
+    /**
+     * Draw the given LOD of the mesh using the currently active shader program.
+     * @param lod level of detail, in [0, getNumOfLODs())
+     */
+    public void render(int lod){
+        if(!loadedOntoGPU) return;  // data not loaded yet (asynchronously loaded mesh)
 
-        if(!useFaceCulling) glEnable(GL_CULL_FACE);     // enable face culling again (bc default is enabled)
+        // set face culling state (skipped if already set, so not reset after drawing)
+        GLState.setEnabled(GL_CULL_FACE, useFaceCulling);
+        if(useFaceCulling) GLState.frontFace(GLFrontFaceWinding);  // set front facing faces winding (for back face culling)
+
+        // draw mesh (indices relative to its 1st vertex in the arena)
+        allocation.getArena().bind();
+        glDrawElementsBaseVertex(GL_TRIANGLES, lodIndexCounts[lod], GL_UNSIGNED_INT,
+                (long) getLODFirstIndex(lod) * Integer.BYTES, allocation.getBaseVertex());
     }
 
+    /**
+     * Free the mesh's ranges of its arena's buffers (the mesh isn't rendered afterwards, until its data is loaded again).
+     */
+    @Override
     public void deallocateResources(){
-        glDeleteVertexArrays(vaoHandle);
-        glDeleteBuffers(vertexVBOHandle);
-        glDeleteBuffers(eboHandle);
-        if (normalHandle != -1) glDeleteVertexArrays(normalHandle);
-        if (texHandle != -1) glDeleteVertexArrays(texHandle);
+        if(!loadedOntoGPU) return;
+        allocation.free();
+        allocation = null;
+        gpuMemorySize = 0;
+        loadedOntoGPU = false;
     }
 
-    public int getVAOHandle(){
-        return vaoHandle;
-    }
-    public int getNormalHandle() {
-        return normalHandle;
+    /**
+     * Returns true if the mesh's data has been loaded onto the GPU (and so the mesh can be rendered).
+     */
+    @Override
+    public boolean isLoaded(){
+        return loadedOntoGPU;
     }
-    public int getTexHandle() {
-        return texHandle;
+
+    @Override
+    public long getGPUMemorySize() {
+        return gpuMemorySize;
     }
-    public int getVertexVBOHandle() {
-        return vertexVBOHandle;
+
+    /**
+     * Returns the mesh's vertex & index ranges in its {@link GeometryArena} (null if not loaded).
+     */
+    public GeometryArena.Allocation getAllocation() {
+        return allocation;
     }
     public int getNumOfTriangles() {
         return num_of_triangles;
     }
-    public int getEboHandle() {
-        return eboHandle;
+    public int getNumOfLODs() {
+        return lodIndexCounts.length;
+    }
+    /**
+     * Returns position of the given LOD's 1st index in the arena's index buffer (may change when it's compacted).
+     */
+    public int getLODFirstIndex(int lod) {
+        return allocation.getFirstIndex() + lodFirstIndices[lod];
+    }
+    public int getLODIndexCount(int lod) {
+        return lodIndexCounts[lod];
+    }
+    /**
+     * Returns max distance between the given LOD's surface & the full detail surface, in object coords.
+     */
+    public float getLODError(int lod) {
+        return lodErrors[lod];
+    }
+    /**
+     * Returns min corner of the mesh's axis-aligned bounding box, in object coords (known once the mesh is loaded).
+     */
+    public Vector3f getAABBMin() {
+        return aabbMin;
+    }
+    public Vector3f getAABBMax() {
+        return aabbMax;
+    }
+    /**
+     * Returns centre of the mesh's bounding sphere, in object coords.
+     */
+    public Vector3f getBoundingSphereCentre() {
+        return boundingSphereCentre;
+    }
+    public float getBoundingSphereRadius() {
+        return boundingSphereRadius;
+    }
+    public VertexLayout getLayout() {
+        return layout;
+    }
+    /**
+     * Returns matrix that maps the mesh's (quantized) vertex positions back to object coords,
+     * to be applied before the model matrix (identity if the positions aren't quantized).
+     */
+    public Matrix4f getDequantizationMatrix() {
+        return dequantizationMatrix;
+    }
+
+    public int getGLFrontFaceWinding() {
+        return GLFrontFaceWinding;
+    }
+    public boolean usesFaceCulling() {
+        return useFaceCulling;
     }
 
     public void setGLFrontFaceWinding(int GLFrontFaceWinding) {
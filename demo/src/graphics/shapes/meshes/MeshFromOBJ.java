@@ -1,44 +1,70 @@
 package graphics.shapes.meshes;
 
+import graphics.core.io.ModelData;
+
+import java.util.List;
+
 import static org.lwjgl.opengl.GL30.*;
 
 /**
  * Represents a mesh that is created from a model loaded by {@link graphics.core.io.ModelLoader}.
  * Set to public only so that {@link graphics.core.io.ModelLoader} can create instances.
  * Not recommended to manually create instances of this class.
+ * (models are usually dense, so their vertices are stored in the most compact layout)
  */
 public class MeshFromOBJ extends Mesh {
-    private float[] vPositions;
-    private int[] vIndeces;
-    private float[] vNormals;
-    private float[] texCoords;
-
-    public MeshFromOBJ(float[] vPositions, int[] vIndeces, float[] vNormals, float[] texCoords, boolean useFaceCulling){
-        super(GL_CCW, useFaceCulling);
-        this.vPositions = vPositions;
-        this.vIndeces = vIndeces;
-        this.vNormals = vNormals;
-        this.texCoords = texCoords;
-        initialize();
+
+    public MeshFromOBJ(ModelData modelData, boolean useFaceCulling){
+        super(GL_CCW, useFaceCulling, VertexLayout.COMPACT_QUANTIZED);
+        loadData(modelData);
+    }
+
+    /**
+     * Creates a mesh w/o any data, which isn't rendered until loadData() is called.
+     * (used when the model is loaded asynchronously)
+     */
+    public MeshFromOBJ(boolean useFaceCulling){
+        super(GL_CCW, useFaceCulling, VertexLayout.COMPACT_QUANTIZED);
     }
 
+    /**
+     * Load the mesh's data onto the GPU. Must be called from the GL thread.
+     * @param modelData {@link ModelData} of the model loaded from the .obj file
+     */
+    public void loadData(ModelData modelData){
+        loadDataOntoGPU(modelData.getVertexPositions(), modelData.getVertexIndices(), modelData.getVertexNormals(),
+                modelData.getTextureCoordinates(), modelData.getIndexCount());
+
+        List<ModelData.LODLevel> lodLevels = modelData.getLODLevels();
+        int[] firstIndices = new int[lodLevels.size()], indexCounts = new int[lodLevels.size()];
+        float[] errors = new float[lodLevels.size()];
+        for (int i = 0; i < lodLevels.size(); i++) {
+            firstIndices[i] = lodLevels.get(i).getFirstIndex();
+            indexCounts[i] = lodLevels.get(i).getIndexCount();
+            errors[i] = lodLevels.get(i).getError();
+        }
+        setLODs(firstIndices, indexCounts, errors);
+    }
+
+    // (data is given as buffers in loadData(), so the array initializers below aren't used)
+
     @Override
     float[] initializeVertexPositions() {
-        return vPositions;
+        return null;
     }
 
     @Override
     int[] initializeVertexIndices() {
-        return vIndeces;
+        return null;
     }
 
     @Override
     float[] initializeVertexNormals() {
-        return vNormals;
+        return null;
     }
 
     @Override
     float[] initializeTextureCoordinates() {
-        return texCoords;
+        return null;
     }
 }
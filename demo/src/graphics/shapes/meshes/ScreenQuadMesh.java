@@ -9,8 +9,11 @@ import static org.lwjgl.opengl.GL11.GL_CCW;
 public class ScreenQuadMesh extends Mesh {
     private static ScreenQuadMesh instance = null;
 
+    // 2D positions at location 0 & tex coords at location 1 (see quad_vs.glsl)
+    private static final VertexLayout LAYOUT = new VertexLayout(2, false, false, true, 0, -1, 1);
+
     private ScreenQuadMesh() {
-        super(GL_CCW, true);
+        super(GL_CCW, true, LAYOUT);
         initialize();
     }
 
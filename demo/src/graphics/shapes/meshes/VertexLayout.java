@@ -0,0 +1,115 @@
+package graphics.shapes.meshes;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+import static org.lwjgl.opengl.GL33.GL_INT_2_10_10_10_REV;
+
+/**
+ * Layout of the vertices of a {@link Mesh}, which are stored interleaved in a single vertex buffer.
+ * Each attribute is stored either as floats or in a more compact (packed) format:
+ *      - positions: 2 or 3 floats, or (3D only) 3 16-bit normalised ints (quantized to the mesh's bounding box,
+ *                   which is undone by the mesh's dequantization matrix -- see {@link Mesh#getDequantizationMatrix()})
+ *      - normals: 3 floats, or packed into a single GL_INT_2_10_10_10_REV (10 bits per component)
+ *      - tex coords: 2 floats, or 2 half floats
+ * The attribute locations are the ones used in the shaders' vertex input layout.
+ *
+ * Instanced draws (see {@link graphics.renderEngine.InstanceBatcher}) also read per-instance attributes from an instance buffer:
+ * the model matrix (4 vec4 columns, at locations 3-6) & the normal matrix (3 vec3 columns, at locations 7-9),
+ * all floats, INSTANCE_STRIDE bytes per instance.
+ */
+public class VertexLayout {
+
+    public static final int INSTANCE_MODEL_LOCATION = 3;
+    public static final int INSTANCE_NORMAL_LOCATION = 7;
+    public static final int INSTANCE_FLOATS = 16 + 9;   // nº of floats per instance (model & normal matrices)
+    public static final int INSTANCE_STRIDE = INSTANCE_FLOATS * Float.BYTES;
+
+    /** all attributes stored as floats (32 bytes per vertex) */
+    public static final VertexLayout FULL_PRECISION = new VertexLayout(3, false, false, false, 0, 1, 2);
+    /** packed normals & half float tex coords (20 bytes per vertex) */
+    public static final VertexLayout COMPACT = new VertexLayout(3, false, true, true, 0, 1, 2);
+    /** 16-bit quantized positions, packed normals & half float tex coords (16 bytes per vertex) */
+    public static final VertexLayout COMPACT_QUANTIZED = new VertexLayout(3, true, true, true, 0, 1, 2);
+
+    private final int positionSize;
+    private final boolean quantizedPositions, packedNormals, halfFloatTexCoords;
+    private final int positionLocation, normalLocation, texCoordLocation;
+
+    /**
+     * @param positionSize nº of components of the vertex positions (2 or 3)
+     * @param quantizedPositions true to store positions as 16-bit normalised ints (only if positionSize is 3)
+     * @param packedNormals true to store normals as GL_INT_2_10_10_10_REV
+     * @param halfFloatTexCoords true to store tex coords as half floats
+     * @param positionLocation attribute location of the positions in the shaders
+     * @param normalLocation attribute location of the normals in the shaders
+     * @param texCoordLocation attribute location of the tex coords in the shaders
+     */
+    public VertexLayout(int positionSize, boolean quantizedPositions, boolean packedNormals, boolean halfFloatTexCoords,
+                        int positionLocation, int normalLocation, int texCoordLocation){
+        if (quantizedPositions && positionSize != 3) throw new IllegalArgumentException("Only 3D positions can be quantized");
+        this.positionSize = positionSize;
+        this.quantizedPositions = quantizedPositions;
+        this.packedNormals = packedNormals;
+        this.halfFloatTexCoords = halfFloatTexCoords;
+        this.positionLocation = positionLocation;
+        this.normalLocation = normalLocation;
+        this.texCoordLocation = texCoordLocation;
+    }
+
+    /**
+     * Returns nº of bytes of the positions in each vertex.
+     * (quantized positions padded to 8 bytes, so the following attributes stay 4-byte aligned)
+     */
+    int getPositionBytes(){
+        return quantizedPositions ? 4 * Short.BYTES : positionSize * Float.BYTES;
+    }
+
+    int getNormalBytes(){
+        return packedNormals ? Integer.BYTES : 3 * Float.BYTES;
+    }
+
+    int getTexCoordBytes(){
+        return halfFloatTexCoords ? 2 * Short.BYTES : 2 * Float.BYTES;
+    }
+
+    /**
+     * Returns nº of bytes per vertex, for a mesh w/or w/o normals & tex coords.
+     */
+    int getStride(boolean hasNormals, boolean hasTexCoords){
+        return getPositionBytes() + (hasNormals ? getNormalBytes() : 0) + (hasTexCoords ? getTexCoordBytes() : 0);
+    }
+
+    int getPositionGLType(){
+        return quantizedPositions ? GL_SHORT : GL_FLOAT;
+    }
+
+    int getNormalGLType(){
+        return packedNormals ? GL_INT_2_10_10_10_REV : GL_FLOAT;
+    }
+
+    int getTexCoordGLType(){
+        return halfFloatTexCoords ? GL_HALF_FLOAT : GL_FLOAT;
+    }
+
+    public int getPositionSize() {
+        return positionSize;
+    }
+    public boolean hasQuantizedPositions() {
+        return quantizedPositions;
+    }
+    public boolean hasPackedNormals() {
+        return packedNormals;
+    }
+    public boolean hasHalfFloatTexCoords() {
+        return halfFloatTexCoords;
+    }
+    public int getPositionLocation() {
+        return positionLocation;
+    }
+    public int getNormalLocation() {
+        return normalLocation;
+    }
+    public int getTexCoordLocation() {
+        return texCoordLocation;
+    }
+}
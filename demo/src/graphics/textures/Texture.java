@@ -1,20 +1,31 @@
 package graphics.textures;
 
+import graphics.core.GLState;
+import graphics.core.io.AssetLoader;
+import graphics.core.io.CompressedTextureData;
+import graphics.core.io.CompressedTextureLoader;
 import graphics.core.io.ImageData;
 import graphics.core.io.ImageLoader;
+import graphics.core.resources.GPUResource;
+import graphics.core.resources.GPUResourceManager;
+
+import java.nio.ByteBuffer;
 
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
 import static org.lwjgl.opengl.GL30.*;
 
 /**
  *  Represents a texture loaded from an image file.
  */
-public class Texture {
+public class Texture implements GPUResource {
     private String filename;
     private int width;
     private int height;
     private int id;
     private TextureType type;
+    private long gpuMemorySize = 0;     // bytes allocated for the texture's image (incl. mipmaps)
 
     public Texture(String filename, boolean isRGBA, TextureType type){
         this.filename = filename;
@@ -22,19 +33,59 @@ public class Texture {
         loadTexture(isRGBA);
     }
 
+    private Texture(String filename, TextureType type){
+        this.filename = filename;
+        this.type = type;
+    }
+
+    /**
+     * Returns the texture for the given image file, shared through the {@link GPUResourceManager} (so each file
+     * is only loaded once). If the texture isn't loaded yet, its image is loaded & decoded on a worker thread
+     * by {@link AssetLoader}. The OpenGL texture object is only created later on, when the GL uploads are
+     * processed (until then the texture's handle is 0, i.e. no texture).
+     * The returned texture should be released w/{@link GPUResourceManager#release} once no longer used.
+     * Must be called from the GL thread.
+     */
+    public static Texture loadAsync(String filename, boolean isRGBA, TextureType type){
+        return GPUResourceManager.acquire("texture:" + filename + (isRGBA ? ":rgba" : ":rgb") + ":" + type,
+                () -> createAsync(filename, isRGBA, type));
+    }
+
+    private static Texture createAsync(String filename, boolean isRGBA, TextureType type){
+        Texture texture = new Texture(filename, type);
+        if(CompressedTextureLoader.isEnabled()) {
+            AssetLoader.load(() -> CompressedTextureLoader.loadOrConvert(filename, isRGBA, type == TextureType.DIFFUSE),
+                    texture::uploadCompressedTexture);
+            return texture;
+        }
+        AssetLoader.load(() -> ImageLoader.loadImage(filename, isRGBA), imgData -> texture.uploadTexture(imgData, isRGBA));
+        return texture;
+    }
+
     /**
      * Load texture image from specified file & create OpenGL texture object
      */
     private void loadTexture(boolean isRGBA){
+        if(CompressedTextureLoader.isEnabled()) {   // load block-compressed version of image (w/precomputed mipmaps)
+            uploadCompressedTexture(CompressedTextureLoader.loadOrConvert(filename, isRGBA, type == TextureType.DIFFUSE));
+            return;
+        }
 
         // load image from file
         ImageData imgData = ImageLoader.loadImage(filename, isRGBA);
+        uploadTexture(imgData, isRGBA);
+    }
+
+    /**
+     * Create OpenGL texture object from the given (already loaded) image data
+     */
+    private void uploadTexture(ImageData imgData, boolean isRGBA){
         width = imgData.getWidth();
         height = imgData.getHeight();
 
         // create OpenGL texture obj (get it's id)
         id = glGenTextures();
-        glBindTexture(GL_TEXTURE_2D, id);  // bind texture
+        GLState.bindTexture(GL_TEXTURE_2D, id);  // bind texture
 
         // generate texture
         /*
@@ -48,10 +99,21 @@ public class Texture {
          *      - format and datatype of the source image
          *      - actual image data
          */
-        if(type == TextureType.DIFFUSE) // tex in sRGB space -- so sRGB values transformed to linear before any calcs
-            glTexImage2D(GL_TEXTURE_2D, 0, (isRGBA ? GL_SRGB_ALPHA : GL_SRGB), width, height, 0, (isRGBA ? GL_RGBA : GL_RGB), GL_UNSIGNED_BYTE, imgData.getByteBuffer());
+        // (pixel format & type depend on the decoded image's layout -- see ImageLoader)
+        int internalFormat;
+        if(imgData.needsVerticalFlip()) // (flipped by a blit, so a format that must be colour-renderable: RGBA8/SRGB8_ALPHA8)
+            internalFormat = type == TextureType.DIFFUSE ? GL_SRGB8_ALPHA8 : GL_RGBA8;
+        else if(type == TextureType.DIFFUSE) // tex in sRGB space -- so sRGB values transformed to linear before any calcs
+            internalFormat = isRGBA ? GL_SRGB_ALPHA : GL_SRGB;
         else // tex in linear space
-            glTexImage2D(GL_TEXTURE_2D, 0, (isRGBA ? GL_RGBA : GL_RGB), width, height, 0, (isRGBA ? GL_RGBA : GL_RGB), GL_UNSIGNED_BYTE, imgData.getByteBuffer());
+            internalFormat = isRGBA ? GL_RGBA : GL_RGB;
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);  // rows are tightly packed (RGB rows may not be a multiple of 4 bytes)
+        glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, imgData.getGLFormat(), imgData.getGLType(), imgData.getByteBuffer());
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);  // reset to default
+        imgData.free();     // pixel data no longer needed once uploaded
+
+        if(imgData.needsVerticalFlip()) flipVerticallyOnGPU(internalFormat);
+
         glGenerateMipmap(GL_TEXTURE_2D);    // generate mipmap
 
         // set the texture wrapping & filtering parameters
@@ -60,33 +122,118 @@ public class Texture {
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
 
-        glBindTexture(GL_TEXTURE_2D, 0); // unbind texture
+        GLState.bindTexture(GL_TEXTURE_2D, 0); // unbind texture
+
+        gpuMemorySize = (long) width * height * 4 * 4 / 3;   // (drivers usually store RGB as RGBA) + 1/3 for mipmaps
+    }
+
+    /**
+     * Create OpenGL texture object from the given block-compressed texture data, uploading all its mipmap levels
+     * (so no mipmaps need to be generated).
+     */
+    private void uploadCompressedTexture(CompressedTextureData texData){
+        width = texData.getWidth();
+        height = texData.getHeight();
+
+        id = glGenTextures();
+        GLState.bindTexture(GL_TEXTURE_2D, id);  // bind texture
+
+        gpuMemorySize = 0;
+        for(int level = 0; level < texData.getNumOfLevels(); level++) {
+            glCompressedTexImage2D(GL_TEXTURE_2D, level, texData.getGLInternalFormat(),
+                    Math.max(1, width >> level), Math.max(1, height >> level), 0, texData.getLevels().get(level));
+            gpuMemorySize += texData.getLevels().get(level).remaining();
+        }
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, texData.getNumOfLevels() - 1);
+
+        // set the texture wrapping & filtering parameters
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+
+        GLState.bindTexture(GL_TEXTURE_2D, 0); // unbind texture
+    }
+
+    /**
+     * Flip the texture's image vertically on the GPU, by blitting it upside down into a new texture of the same
+     * (colour-renderable) format, which replaces this texture's current texture object. Used when the image is
+     * loaded w/o flipping it. Note: the new texture is left bound to GL_TEXTURE_2D.
+     */
+    private void flipVerticallyOnGPU(int internalFormat){
+        int flippedId = glGenTextures();
+        GLState.bindTexture(GL_TEXTURE_2D, flippedId);
+        glTexImage2D(GL_TEXTURE_2D, 0, internalFormat, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+
+        int[] fbos = new int[2];
+        glGenFramebuffers(fbos);
+        GLState.bindFramebuffer(GL_READ_FRAMEBUFFER, fbos[0]);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, id, 0);
+        GLState.bindFramebuffer(GL_DRAW_FRAMEBUFFER, fbos[1]);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, flippedId, 0);
+
+        // dst y-coords swapped => image flipped vertically
+        glBlitFramebuffer(0, 0, width, height, 0, height, width, 0, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+
+        // (deleting the bound fbos binds the default framebuffer; renderers bind the fbo they render to anyway)
+        glDeleteFramebuffers(fbos);
+        GLState.onFramebufferDeleted(fbos[0]);
+        GLState.onFramebufferDeleted(fbos[1]);
+        glDeleteTextures(id);
+        GLState.onTextureDeleted(id);
+        id = flippedId;
     }
 
     /**
      * Set the wrapping method to GL_REPEAT
      */
     public void setTexWrapToRepeat(){
-        glBindTexture(GL_TEXTURE_2D, id);  // bind texture
+        GLState.bindTexture(GL_TEXTURE_2D, id);  // bind texture
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
-        glBindTexture(GL_TEXTURE_2D, 0); // unbind texture
+        GLState.bindTexture(GL_TEXTURE_2D, 0); // unbind texture
     }
 
     /**
      * Set the wrapping method to GL_CLAMP_TO_EDGE
      */
     public void setTexWrapToClampToEdge(){
-        glBindTexture(GL_TEXTURE_2D, id);  // bind texture
+        GLState.bindTexture(GL_TEXTURE_2D, id);  // bind texture
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-        glBindTexture(GL_TEXTURE_2D, 0); // unbind texture
+        GLState.bindTexture(GL_TEXTURE_2D, 0); // unbind texture
     }
 
     public int getHandle(){
         return id;
     }
 
+    /**
+     * Returns true if the texture has been uploaded to the GPU.
+     */
+    @Override
+    public boolean isLoaded(){
+        return id != 0;
+    }
+
+    /**
+     * Delete the OpenGL texture object.
+     */
+    @Override
+    public void deallocateResources(){
+        if(id != 0) {
+            glDeleteTextures(id);
+            GLState.onTextureDeleted(id);
+        }
+        id = 0;
+        gpuMemorySize = 0;
+    }
+
+    @Override
+    public long getGPUMemorySize() {
+        return gpuMemorySize;
+    }
+
     public TextureType getType() {
         return type;
     }
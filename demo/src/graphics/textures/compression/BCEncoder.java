@@ -0,0 +1,170 @@
+package graphics.textures.compression;
+
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * CPU encoder for the block-compressed texture formats in {@link BCFormat}.
+ *
+ * Uses a fast bounding-box endpoint fit per 4x4 block (colour endpoints inset slightly into the block's
+ * colour bounding box, then each pixel is assigned the nearest palette entry). Rows of blocks are encoded
+ * in parallel (on the common fork/join pool).
+ */
+public class BCEncoder {
+
+    /**
+     * Encode the given image into the given block-compressed format.
+     * @param rgba pixel data, 4 bytes (R,G,B,A) per pixel, rows stored bottom to top
+     * @param width width of the image
+     * @param height height of the image
+     * @param format {@link BCFormat} to encode the image into
+     * @return direct {@link ByteBuffer} w/the encoded blocks (ready for glCompressedTexImage2D)
+     */
+    public static ByteBuffer encode(byte[] rgba, int width, int height, BCFormat format){
+        int blocksX = Math.max(1, (width + 3) / 4);
+        int blocksY = Math.max(1, (height + 3) / 4);
+        ByteBuffer out = BufferUtils.createByteBuffer(format.getImageSize(width, height));
+
+        // each row of blocks is written to a separate part of the output, so they can be encoded in parallel
+        IntStream.range(0, blocksY).parallel().forEach(by -> {
+            byte[] block = new byte[16 * 4];    // 4x4 RGBA pixels of current block
+            for (int bx = 0; bx < blocksX; bx++) {
+                fetchBlock(rgba, width, height, bx * 4, by * 4, block);
+                int offset = (by * blocksX + bx) * format.getBlockSize();
+                switch (format) {
+                    case BC1:
+                        encodeColourBlock(block, out, offset);
+                        break;
+                    case BC3:
+                        encodeChannelBlock(block, 3, out, offset);  // alpha
+                        encodeColourBlock(block, out, offset + 8);
+                        break;
+                    case BC5:
+                        encodeChannelBlock(block, 0, out, offset);  // red
+                        encodeChannelBlock(block, 1, out, offset + 8); // green
+                        break;
+                }
+            }
+        });
+
+        return out;
+    }
+
+    /**
+     * Copy the 4x4 block of pixels starting at (x0, y0) into block (pixels outside the image are clamped to the edge).
+     */
+    private static void fetchBlock(byte[] rgba, int width, int height, int x0, int y0, byte[] block){
+        for (int y = 0; y < 4; y++) {
+            int srcY = Math.min(y0 + y, height - 1);
+            for (int x = 0; x < 4; x++) {
+                int srcX = Math.min(x0 + x, width - 1);
+                System.arraycopy(rgba, (srcY * width + srcX) * 4, block, (y * 4 + x) * 4, 4);
+            }
+        }
+    }
+
+    /**
+     * Encode the RGB channels of the block as a BC1 colour block (8 bytes): 2 RGB565 endpoints & 2-bit indices.
+     * Always uses the 4-colour mode (endpoint 0 > endpoint 1), so the block is also valid as the colour part of BC3.
+     */
+    private static void encodeColourBlock(byte[] block, ByteBuffer out, int offset){
+        // --- colour bounding box ---
+        int[] min = {255, 255, 255};
+        int[] max = {0, 0, 0};
+        for (int i = 0; i < 16; i++) {
+            for (int c = 0; c < 3; c++) {
+                int v = block[i * 4 + c] & 0xFF;
+                if (v < min[c]) min[c] = v;
+                if (v > max[c]) max[c] = v;
+            }
+        }
+        // inset bounding box (reduces error, as the endpoints are rarely hit exactly)
+        for (int c = 0; c < 3; c++) {
+            int inset = (max[c] - min[c]) >> 4;
+            min[c] += inset;
+            max[c] -= inset;
+        }
+
+        int c0 = to565(max[0], max[1], max[2]);
+        int c1 = to565(min[0], min[1], min[2]);
+        int indices = 0;
+
+        if (c0 < c1) { int tmp = c0; c0 = c1; c1 = tmp; }
+        if (c0 != c1) {
+            // --- palette: endpoints & 2 interpolated colours ---
+            int[][] palette = new int[4][];
+            palette[0] = from565(c0);
+            palette[1] = from565(c1);
+            palette[2] = new int[3];
+            palette[3] = new int[3];
+            for (int c = 0; c < 3; c++) {
+                palette[2][c] = (2 * palette[0][c] + palette[1][c]) / 3;
+                palette[3][c] = (palette[0][c] + 2 * palette[1][c]) / 3;
+            }
+
+            // --- nearest palette entry for each pixel ---
+            for (int i = 0; i < 16; i++) {
+                int r = block[i * 4] & 0xFF, g = block[i * 4 + 1] & 0xFF, b = block[i * 4 + 2] & 0xFF;
+                int best = 0, bestDist = Integer.MAX_VALUE;
+                for (int p = 0; p < 4; p++) {
+                    int dr = r - palette[p][0], dg = g - palette[p][1], db = b - palette[p][2];
+                    int dist = dr * dr + dg * dg + db * db;
+                    if (dist < bestDist) { bestDist = dist; best = p; }
+                }
+                indices |= best << (i * 2);
+            }
+        } // else: single colour block, all indices 0
+
+        // --- write block (little-endian) ---
+        out.put(offset, (byte) c0).put(offset + 1, (byte) (c0 >> 8));
+        out.put(offset + 2, (byte) c1).put(offset + 3, (byte) (c1 >> 8));
+        for (int i = 0; i < 4; i++) out.put(offset + 4 + i, (byte) (indices >> (i * 8)));
+    }
+
+    /**
+     * Encode a single channel of the block as a BC4 block (8 bytes): 2 8-bit endpoints & 3-bit indices.
+     * (used for BC3 alpha & for both BC5 channels)
+     * @param channel index of the channel to encode (0=R, 1=G, 2=B, 3=A)
+     */
+    private static void encodeChannelBlock(byte[] block, int channel, ByteBuffer out, int offset){
+        int min = 255, max = 0;
+        for (int i = 0; i < 16; i++) {
+            int v = block[i * 4 + channel] & 0xFF;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+
+        long indices = 0;
+        if (max != min) {
+            // 8-value mode (endpoint 0 > endpoint 1): endpoints & 6 interpolated values
+            int[] palette = new int[8];
+            palette[0] = max;
+            palette[1] = min;
+            for (int p = 2; p < 8; p++) palette[p] = ((8 - p) * max + (p - 1) * min) / 7;
+
+            for (int i = 0; i < 16; i++) {
+                int v = block[i * 4 + channel] & 0xFF;
+                int best = 0, bestDist = Integer.MAX_VALUE;
+                for (int p = 0; p < 8; p++) {
+                    int dist = Math.abs(v - palette[p]);
+                    if (dist < bestDist) { bestDist = dist; best = p; }
+                }
+                indices |= (long) best << (i * 3);
+            }
+        } // else: single value block, all indices 0
+
+        out.put(offset, (byte) max).put(offset + 1, (byte) min);
+        for (int i = 0; i < 6; i++) out.put(offset + 2 + i, (byte) (indices >> (i * 8)));
+    }
+
+    private static int to565(int r, int g, int b){
+        return ((r * 31 + 127) / 255) << 11 | ((g * 63 + 127) / 255) << 5 | ((b * 31 + 127) / 255);
+    }
+
+    private static int[] from565(int c){
+        int r = (c >> 11) & 0x1F, g = (c >> 5) & 0x3F, b = c & 0x1F;
+        return new int[]{(r << 3) | (r >> 2), (g << 2) | (g >> 4), (b << 3) | (b >> 2)};
+    }
+}
@@ -0,0 +1,56 @@
+package graphics.textures.compression;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.*;
+import static org.lwjgl.opengl.EXTTextureSRGB.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+
+/**
+ * Block-compressed texture formats (4x4 pixel blocks) that textures can be encoded into by {@link BCEncoder}.
+ *      - BC1 (DXT1): RGB, 8 bytes per block (6:1 compared to RGB8)
+ *      - BC3 (DXT5): RGBA, 16 bytes per block (4:1 compared to RGBA8)
+ *      - BC5 (RGTC2): 2 independent channels (R,G), 16 bytes per block -- for 2-channel data e.g. normal maps
+ */
+public enum BCFormat {
+    BC1(8, GL_COMPRESSED_RGB_S3TC_DXT1_EXT, GL_COMPRESSED_SRGB_S3TC_DXT1_EXT, GL_RGB),
+    BC3(16, GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, GL_COMPRESSED_SRGB_ALPHA_S3TC_DXT5_EXT, GL_RGBA),
+    BC5(16, GL_COMPRESSED_RG_RGTC2, GL_COMPRESSED_RG_RGTC2, GL_RG);
+
+    private final int blockSize;            // bytes per 4x4 block
+    private final int glInternalFormat;     // internal format when data is linear
+    private final int glSRGBInternalFormat; // internal format when data is in sRGB space
+    private final int glBaseInternalFormat;
+
+    BCFormat(int blockSize, int glInternalFormat, int glSRGBInternalFormat, int glBaseInternalFormat){
+        this.blockSize = blockSize;
+        this.glInternalFormat = glInternalFormat;
+        this.glSRGBInternalFormat = glSRGBInternalFormat;
+        this.glBaseInternalFormat = glBaseInternalFormat;
+    }
+
+    /**
+     * Returns the size in bytes of an image of the given size encoded in this format.
+     */
+    public int getImageSize(int width, int height){
+        return Math.max(1, (width + 3) / 4) * Math.max(1, (height + 3) / 4) * blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+    public int getGLInternalFormat(boolean isSRGB) {
+        return isSRGB ? glSRGBInternalFormat : glInternalFormat;
+    }
+    public int getGLBaseInternalFormat() {
+        return glBaseInternalFormat;
+    }
+
+    /**
+     * Returns the format whose (linear or sRGB) GL internal format is the given one, or null if none.
+     */
+    public static BCFormat fromGLInternalFormat(int glInternalFormat){
+        for (BCFormat format : values())
+            if (format.glInternalFormat == glInternalFormat || format.glSRGBInternalFormat == glInternalFormat) return format;
+        return null;
+    }
+}
@@ -2,24 +2,38 @@ package main;
 
 import graphics.camera.Camera;
 import graphics.camera.CameraMovement;
+import graphics.core.GLState;
+import graphics.core.GpuTimer;
 import graphics.core.WindowManager;
+import graphics.core.io.AssetLoader;
+import graphics.core.io.CompressedTextureLoader;
 import graphics.core.io.ScreenshotMaker;
+import graphics.core.resources.GPUResourceManager;
 import graphics.lights.DirLight;
 import graphics.materials.Material;
 import graphics.renderEngine.*;
 import graphics.renderEngine.RenderContext;
+import graphics.renderEngine.renderOptionsManager.RenderOptions;
 import graphics.renderEngine.renderOptionsManager.RenderOptionsManager;
+import graphics.renderEngine.renderOptionsManager.ShadowFilter;
 import graphics.scene.DrawableEntity;
 import graphics.scene.Entity;
 import graphics.scene.Scene;
 import graphics.shapes.*;
+import graphics.shapes.meshes.GeometryArena;
+import graphics.shaders.ProgramBinaryCache;
 import graphics.shaders.Shader;
 import graphics.shaders.ShaderProgram;
+import graphics.shaders.Uniform;
 import graphics.textures.Texture;
 import graphics.textures.TextureType;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import com.sun.management.ThreadMXBean;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -29,6 +43,7 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
 
 /**
  * The main app program.
@@ -40,6 +55,8 @@ class OpenGLApp {
     private ShaderProgram quadShaderProgram;            // shader prog to use for quad
     private ShaderProgram toDepthTexShaderProgram;      // shader prog to use for rendering to depth texture
     private ShaderProgram depthGreyShaderProgram;       // shader prog to render depth map in greyscale
+    private ShaderProgram toMomentsShaderProgram;       // shader prog turning depth map into blurred moments (horizontal pass, EVSM)
+    private ShaderProgram blurMomentsShaderProgram;     // shader prog blurring moments (vertical pass, EVSM)
     private Scene scene;                                // scene to render
     private ScreenQuad screenQuad;                      // quad filling entire screen (scene displayed as it's colour texture...)
     private ScreenQuad screenQuadForSM;                 // quad for greyscale depth map....
@@ -50,6 +67,35 @@ class OpenGLApp {
     private Camera camera = new Camera();   // camera & mouse
     private double lastX = SCR_WIDTH / 2.0f, lastY = SCR_HEIGHT / 2.0f;
     private boolean firstMouse = true;
+    // (reused every frame, so rendering a frame doesn't allocate)
+    private final Matrix4f projection = new Matrix4f();
+    private final Vector3f cameraPos = new Vector3f(), cameraFront = new Vector3f();
+    private final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    // (bytes allocated on the render thread per frame, over the frames since the stats were last printed -- frames
+    // printing them excluded -- so the steady state is reported, not just a frame)
+    private long allocatedBytesTotal = 0, allocatedBytesMax = 0;
+    private int numOfFramesMeasured = 0, numOfFramesAllocating = 0;
+
+    private boolean printCullingStats = false;  // set when I is pressed, to print culling & instancing stats of the next frame
+
+    // --- GPU timing of the passes rendering w/shadows (printed w/the stats, & used by the shadow filter benchmark) ---
+    private final GpuTimer depthPassTimer = new GpuTimer("depth pass");
+    private final GpuTimer shadowedPassTimer = new GpuTimer("lit pass w/shadows");
+    private static final int BENCHMARK_WARM_UP_FRAMES = 10, BENCHMARK_FRAMES = 120;    // (per shadow filter)
+    private int benchmarkFilter = -1;           // shadow filter being benchmarked (-1: no benchmark running)
+    private int benchmarkFrame = 0;
+    private ShadowFilter filterBeforeBenchmark;
+    private final double[] benchmarkLitPassMs = new double[ShadowFilter.values().length];     // (avg per filter)
+    private final double[] benchmarkDepthPassMs = new double[ShadowFilter.values().length];   // (incl. building EVSM moments)
+
+    // --- animation: an entity orbiting the scene (M) & the dir light rotating (L), to see the static shadow casters'
+    // cache at work (the entity is dynamic, so only it is re-rendered every frame; N makes it static to compare) ---
+    private static final float ORBIT_RADIUS = 4.0f, ORBIT_SPEED = 0.8f, LIGHT_ROTATION_SPEED = 0.3f;   // (rad/s)
+    private DrawableEntity orbitingEntity;
+    private boolean moveOrbitingEntity = false, rotateLight = false;
+    private float orbitAngle = 0;
+    private final Matrix4f orbitTransform = new Matrix4f();
+    private final Vector3f lightDirection = new Vector3f();
 
 
     /**
@@ -62,11 +108,15 @@ class OpenGLApp {
         // --- GLFW window creation (& init GLFW context)---
         WindowManager.createWindow();
 
-        glEnable(GL_MULTISAMPLE);   // enable MSAA
-        glEnable(GL_DEPTH_TEST);    // enable depth testing
-        glEnable(GL_CULL_FACE);     // enable culling
-        glCullFace(GL_BACK);        // cull back faces
-        glFrontFace(GL_CCW);        // initially set front faces as those w/counter clockwise winding
+        GLState.enable(GL_MULTISAMPLE);     // enable MSAA
+        GLState.enable(GL_DEPTH_TEST);      // enable depth testing
+        GLState.enable(GL_CULL_FACE);       // enable culling
+        GLState.cullFace(GL_BACK);          // cull back faces
+        GLState.frontFace(GL_CCW);          // initially set front faces as those w/counter clockwise winding
+
+        // use block-compressed textures (w/precomputed mipmaps) if the compressed formats are supported
+        GLCapabilities caps = GL.getCapabilities();
+        CompressedTextureLoader.setEnabled(caps.GL_EXT_texture_compression_s3tc && caps.GL_EXT_texture_sRGB);
 
         // --- callback functions registered after window is created & before render loop is init ---
         setCallbacks();
@@ -76,6 +126,7 @@ class OpenGLApp {
 
         // --- set up shaders ---
         setUpShaders();
+        ProgramBinaryCache.printReport();   // nº of programs loaded from cache vs built from source
     }
 
     /**
@@ -83,28 +134,35 @@ class OpenGLApp {
      */
     private void setUpShaders() {
         // create (blinn-)phong shaders
-        Shader phong_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/phong_vs.glsl");
+        Shader phong_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/phong_vs.glsl", "INSTANCED");
         Shader phong_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/blinnPhong_fs.glsl");
-        phongShaderProgram = new ShaderProgram(phong_vs, phong_fs);
+        phongShaderProgram = ShaderProgram.load(phong_vs, phong_fs);
 
         // create (blinn-)phong shaders w/shadow mapping
-        Shader phongWS_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/phong_shadowMaps_vs.glsl");
+        Shader phongWS_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/phong_shadowMaps_vs.glsl", "INSTANCED");
         Shader phongWS_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/blinnPhong_wShadowMaps_fs.glsl");
-        phongWShadowsShaderProgram = new ShaderProgram(phongWS_vs, phongWS_fs);
+        phongWShadowsShaderProgram = ShaderProgram.load(phongWS_vs, phongWS_fs);
 
         // create quad shaders
         Shader quad_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/quad_vs.glsl");
         Shader quad_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/quad_fs.glsl");
-        quadShaderProgram = new ShaderProgram(quad_vs, quad_fs);
+        quadShaderProgram = ShaderProgram.load(quad_vs, quad_fs);
 
         // create to depth texture shaders
-        Shader toDepthMap_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/toDepthMap_vs.glsl");
+        Shader toDepthMap_vs = new Shader(GL_VERTEX_SHADER, "./resources/shaders/toDepthMap_vs.glsl", "INSTANCED");
+        Shader toDepthMap_gs = new Shader(GL_GEOMETRY_SHADER, "./resources/shaders/toDepthMap_gs.glsl");  // (to each shadow cascade)
         Shader toDepthMap_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/toDepthMap_fs.glsl");
-        toDepthTexShaderProgram = new ShaderProgram(toDepthMap_vs, toDepthMap_fs);
+        toDepthTexShaderProgram = ShaderProgram.load(toDepthMap_vs, toDepthMap_gs, toDepthMap_fs);
 
         // create depth greyscale shaders
         Shader depthMapDebug_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/depthDebug_fs.glsl");
-        depthGreyShaderProgram = new ShaderProgram(quad_vs, depthMapDebug_fs);
+        depthGreyShaderProgram = ShaderProgram.load(quad_vs, depthMapDebug_fs);
+
+        // create shadow moments shaders (separable blur: depths -> moments blurred along x, then along y)
+        Shader toMoments_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/shadowMoments_fs.glsl", "FROM_DEPTH");
+        Shader blurMoments_fs = new Shader(GL_FRAGMENT_SHADER, "./resources/shaders/shadowMoments_fs.glsl");
+        toMomentsShaderProgram = ShaderProgram.load(quad_vs, toMoments_fs);
+        blurMomentsShaderProgram = ShaderProgram.load(quad_vs, blurMoments_fs);
     }
 
     /**
@@ -121,16 +179,16 @@ class OpenGLApp {
         // --- SET UP ENTITIES ---
         // WOODEN CUBES
         List<Texture> woodenCube_texList = Arrays.asList(
-                new Texture("./resources/textures/container2.png", false, TextureType.DIFFUSE),
-                new Texture("./resources/textures/container2_specular.png", false, TextureType.SPECULAR)
+                Texture.loadAsync("./resources/textures/container2.png", false, TextureType.DIFFUSE),
+                Texture.loadAsync("./resources/textures/container2_specular.png", false, TextureType.SPECULAR)
         );
         Material cubeMaterial1 = new Material(woodenCube_texList);
         cubeMaterial1.setK_spec(0.5f);
         Shape cube1 = new Cube(cubeMaterial1);
 
         Material cubeMaterial2 = new Material(Arrays.asList(
-                new Texture("./resources/textures/circuitry-albedo.png", false, TextureType.DIFFUSE),
-                new Texture("./resources/textures/circuitry-metallic.png", false, TextureType.SPECULAR)
+                Texture.loadAsync("./resources/textures/circuitry-albedo.png", false, TextureType.DIFFUSE),
+                Texture.loadAsync("./resources/textures/circuitry-metallic.png", false, TextureType.SPECULAR)
         ));
         Shape cube2 = new Cube(cubeMaterial2);
 
@@ -171,8 +229,9 @@ class OpenGLApp {
         floor_local_transform.translate(0f, -1.0f, 0f)
                 .rotate((float) Math.toRadians(90), 1.0f, 0.0f, 0.0f);
 
-        // create floor entity
-        Entity floor = new DrawableEntity(null, floor_local_transform, new Vector3f(25), square);
+        // create floor entity (only receives shadows, so not rendered to the depth map)
+        DrawableEntity floor = new DrawableEntity(null, floor_local_transform, new Vector3f(25), square);
+        floor.setCastsShadows(false);
 
         // DRAGON
         Shape dragonShape = new ShapeFromOBJ("./resources/models/dragon.obj",
@@ -188,8 +247,14 @@ class OpenGLApp {
         Entity dragon = new DrawableEntity(null, dragon_local_transform, new Vector3f(0.25f), dragonShape);
 
 
+        // ORBITING CUBE (moved around the scene when M is pressed, see animateScene())
+        // (dynamic, so its shadow is rendered every frame instead of w/the cached static casters)
+        orbitingEntity = new DrawableEntity(null, orbitTransform.translation(ORBIT_RADIUS, 2.0f, 0.0f), new Vector3f(0.75f), cube2);
+        orbitingEntity.setDynamic(true);
+
+
         // --- COMPONENTS LIST: add entities to components list
-        List<Entity> components = new ArrayList<>(Arrays.asList(cube1_entity, dragon, floor)); //cube3_entity, floor));
+        List<Entity> components = new ArrayList<>(Arrays.asList(cube1_entity, dragon, floor, orbitingEntity)); //cube3_entity, floor));
 
 
         // --- CREATE SCENE ---
@@ -207,7 +272,7 @@ class OpenGLApp {
         EntityPhongWShadowMapsRenderer entityWShadowsRenderer;    // created after preparing toDepthTextureRenderer (bc uses depth tex handle)
         ScreenQuadRenderer screenQuadRenderer = new ScreenQuadRenderer(quadShaderProgram);
         ToColourTextureRenderer toColourTextureRenderer = new ToColourTextureRenderer();
-        ToDepthTextureRenderer toDepthTextureRenderer = new ToDepthTextureRenderer(toDepthTexShaderProgram, 1024, 1024);
+        ToDepthTextureRenderer toDepthTextureRenderer = new ToDepthTextureRenderer(toDepthTexShaderProgram, 1024, 1024, 4);   // (4 cascades)
         DepthDebugScreenQuadRenderer depthGreyScreenQuadRenderer = new DepthDebugScreenQuadRenderer(depthGreyShaderProgram);
 
         // --------- SET UP SCENE ---------
@@ -215,25 +280,20 @@ class OpenGLApp {
 
         // --------- RENDER LOOP ---------
 
-        //--- directional light's light space matrix, for shadow mapping ---
-        Matrix4f lightProjection = new Matrix4f().ortho(-10.0f, 10.0f, -10.0f, 10.0f, 1.0f, 20f);
-        Matrix4f lightView = new Matrix4f().lookAt(
-                scene.getDirLight().getLightPosForSMRender(),
-                new Vector3f(0),
-                new Vector3f(0.0f, 1.0f, 0.0f)
-        );
-
-        RenderContext.setDirLightViewMatrix(lightView);
-        RenderContext.setDirLightProjMatrix(lightProjection);
+        //--- directional light's view & projection matrices (for the FROM_LIGHT_POV view) are fitted to the scene bounds
+        // every frame (see DirLightFitter); shadow maps use cascades fitted to the camera & the scene bounds ---
+        DirLightFitter.setShadowMapSize(toDepthTextureRenderer.getShadowMapWidth());
 
 
         // --- prepare renderers ---
+        toDepthTextureRenderer.setMomentsShaders(toMomentsShaderProgram, blurMomentsShaderProgram);   // (for EVSM)
         toDepthTextureRenderer.prepare(scene);
 
-        screenQuadForSM = new ScreenQuad(toDepthTextureRenderer.getDepthTex());
+        screenQuadForSM = new ScreenQuad(toDepthTextureRenderer.getDepthTex(), GL_TEXTURE_2D_ARRAY);
         depthGreyScreenQuadRenderer.prepare(screenQuadForSM);
 
-        entityWShadowsRenderer = new EntityPhongWShadowMapsRenderer(phongWShadowsShaderProgram, toDepthTextureRenderer.getDepthTex());
+        entityWShadowsRenderer = new EntityPhongWShadowMapsRenderer(phongWShadowsShaderProgram,
+                toDepthTextureRenderer.getDepthTex(), toDepthTextureRenderer.getShadowSampler(), toDepthTextureRenderer.getMoments());
         entityWShadowsRenderer.prepare(scene);
 
         entityNormalRenderer.prepare(scene);
@@ -250,6 +310,8 @@ class OpenGLApp {
 
         // --- repeat while GLFW isn't instructed to close ---
         while(!WindowManager.windowShouldClose()){
+            long allocatedBytesAtFrameStart = getAllocatedBytes();
+
             // --- per-frame time logic ---
             float currentFrameT = (float) glfwGetTime();
             deltaTime = currentFrameT - lastFrameT;
@@ -258,6 +320,24 @@ class OpenGLApp {
             // --- process keyboard arrows input --
             processAWSDInput(deltaTime);
 
+            // --- move the orbiting entity & rotate the dir light (if enabled) ---
+            animateScene(deltaTime);
+
+            // --- set the camera's context (used by all render options but FROM_LIGHT_POV), & refit dir light's
+            // matrices to the scene (if the bounds in view or the light changed) ---
+            setCameraContext();
+            DirLightFitter.update(scene, RenderContext.getViewMatrix(), RenderContext.getProjMatrix());
+
+            // --- upload loaded assets (textures, meshes) to the GPU, within per-frame time budget ---
+            AssetLoader.processGLUploads();
+
+            // --- evict unused GPU resources if over the GPU memory budget ---
+            GPUResourceManager.enforceBudget();
+            GeometryArena.compactIfFragmented();    // (e.g. after meshes evicted)
+
+            Uniform.resetStats();   // (nº of uniform uploads per frame)
+            GLState.resetStats();   // (nº of GL state calls per frame)
+
             // --- clear screen ---
             WindowManager.clearScreen();
 
@@ -276,13 +356,69 @@ class OpenGLApp {
                     break;
             }
 
+            // --- print nº of entities tested/culled/drawn & nº of draw calls if requested ---
+            boolean printingStats = printCullingStats;
+            if (printCullingStats) {
+                RenderOptions renderOption = RenderContext.getRenderOption();
+                if (renderOption == RenderOptions.WITH_SHADOWS || renderOption == RenderOptions.DEPTH_MAP) {
+                    toDepthTextureRenderer.getStaticCuller().printStats("static shadow casters (when last cached)");
+                    toDepthTextureRenderer.getStaticBatcher().printStats("static shadow casters (when last cached)");
+                    toDepthTextureRenderer.getCuller().printStats("dynamic shadow casters");
+                    toDepthTextureRenderer.getBatcher().printStats("dynamic shadow casters");
+                    toDepthTextureRenderer.printCacheStats();
+                }
+                if (renderOption == RenderOptions.WITH_SHADOWS) {
+                    entityWShadowsRenderer.getCuller().printStats("with shadows");
+                    entityWShadowsRenderer.getBatcher().printStats("with shadows");
+                    System.out.println("Shadow filter: " + RenderContext.getShadowFilter()
+                            + (RenderContext.getShadowFilter() == ShadowFilter.POISSON ? " (" + RenderContext.getPoissonSamples() + " taps)" : ""));
+                    depthPassTimer.printStats();
+                    shadowedPassTimer.printStats();
+                    depthPassTimer.reset();
+                    shadowedPassTimer.reset();
+                } else if (renderOption != RenderOptions.DEPTH_MAP) {
+                    entityNormalRenderer.getCuller().printStats("normal");
+                    entityNormalRenderer.getBatcher().printStats("normal");
+                }
+                Uniform.printStats();
+                GLState.printStats();
+                System.out.println(String.format("Allocated on render thread: %.1f bytes/frame avg over %d frames (max %d, %d frames allocating)",
+                        numOfFramesMeasured == 0 ? 0 : allocatedBytesTotal / (double) numOfFramesMeasured, numOfFramesMeasured,
+                        allocatedBytesMax, numOfFramesAllocating));
+                allocatedBytesTotal = allocatedBytesMax = 0;
+                numOfFramesMeasured = numOfFramesAllocating = 0;
+                printCullingStats = false;
+            }
+
+            // --- step the shadow filter benchmark (if running) ---
+            if (benchmarkFilter >= 0) updateShadowFilterBenchmark();
+
+            // --- capture frame (if screenshot requested/continuous capture) & process finished captures ---
+            ScreenshotMaker.captureFrame();
+
             // --- check events & swap buffers ---
             WindowManager.updateWindow();
             glfwPollEvents(); // checks if any events are triggered, updates window state, & calls corresponding funcs
+
+            if (!printingStats) {
+                long frameAllocatedBytes = getAllocatedBytes() - allocatedBytesAtFrameStart;
+                allocatedBytesTotal += frameAllocatedBytes;
+                allocatedBytesMax = Math.max(allocatedBytesMax, frameAllocatedBytes);
+                numOfFramesMeasured++;
+                if (frameAllocatedBytes > 0) numOfFramesAllocating++;
+            }
         }
 
+        // delete the renderers' instance buffers (& the shadow map, its cache & moments)
+        entityNormalRenderer.getBatcher().deallocateResources();
+        entityWShadowsRenderer.getBatcher().deallocateResources();
+        toDepthTextureRenderer.deallocateResources();
+        depthPassTimer.deallocateResources();
+        shadowedPassTimer.deallocateResources();
+        SceneUniforms.deallocateResources();    // (shared uniform buffers)
+
         glBindBuffer(GL_ARRAY_BUFFER, 0);    // unbind any VBO
-        glBindVertexArray(0);                       // unbind any VAO
+        GLState.bindVertexArray(0);                 // unbind any VAO
     }
 
     // --------------------------------------------------------------------------------------------------------------------------
@@ -294,23 +430,15 @@ class OpenGLApp {
 
         // --- render commands ---
 
-        Matrix4f view = camera.calcLookAt(); // calc view matrix
-        Matrix4f projection = new Matrix4f(); // create projection matrix
-        projection.setPerspective((float) Math.toRadians(camera.getFOV()), (float) SCR_WIDTH / SCR_HEIGHT, 0.1f, 100.0f);
-
-        RenderContext.setContext(view, projection, camera.getCameraPos(), camera.getCameraFront());
-
         entityRenderer.render(scene);
 
         // bind default framebuffer & render quad
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-        glDisable(GL_DEPTH_TEST);       // so that screen-space quad isn't discarded bc of depth test
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
         // clear relevant buffers
         WindowManager.clearColour(1.0f, 1.0f, 1.0f); // optional, to correctly see quad in wireframe mode
         WindowManager.clearColourBuffer();
 
-        screenQuadRenderer.render();    // render screen quad
-        glEnable(GL_DEPTH_TEST);
+        screenQuadRenderer.render();    // render screen quad (w/o depth test)
     }
 
     private void renderFromLight(ToColourTextureRenderer toColourTextureRenderer, EntityPhongRenderer entityRenderer, ScreenQuadRenderer screenQuadRenderer){
@@ -321,36 +449,34 @@ class OpenGLApp {
         // --- render commands ---
 
         Matrix4f view = RenderContext.getDirLightViewMatrix();          // get view matrix
-        Matrix4f projection = RenderContext.getDirLightProjMatrix();    // get proj matrix
+        Matrix4f lightProjection = RenderContext.getDirLightProjMatrix();    // get proj matrix
 
-        RenderContext.setContext(view, projection, scene.getDirLight().getLightPosForSMRender(), scene.getDirLight().getDirection());
+        RenderContext.setContext(view, lightProjection, RenderContext.getDirLightPos(), scene.getDirLight().getDirection());
 
         entityRenderer.render(scene);
 
         // bind default framebuffer & render quad
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-        glDisable(GL_DEPTH_TEST);       // so that screen-space quad isn't discarded bc of depth test
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
         // clear relevant buffers
         WindowManager.clearColour(1.0f, 1.0f, 1.0f); // optional, to correctly see quad in wireframe mode
         WindowManager.clearColourBuffer();
 
-        screenQuadRenderer.render();    // render screen quad
-        glEnable(GL_DEPTH_TEST);
+        screenQuadRenderer.render();    // render screen quad (w/o depth test)
     }
 
     private void renderDepthMap(ToDepthTextureRenderer toDepthTextureRenderer, DepthDebugScreenQuadRenderer depthGreyScreenQuadRenderer){
-
         //--- render to depth map ---
         toDepthTextureRenderer.render(scene);
 
         // --- bind fbo to which to render ---
         depthGreyScreenQuadRenderer.render();
-        glEnable(GL_DEPTH_TEST);
     }
 
     private void renderWithShadows(ToDepthTextureRenderer toDepthTextureRenderer, ToColourTextureRenderer toColourTextureRenderer, EntityPhongWShadowMapsRenderer entityRenderer, ScreenQuadRenderer screenQuadRenderer){
         //--- render to depth map ---
+        depthPassTimer.begin();
         toDepthTextureRenderer.render(scene);
+        depthPassTimer.end();
 
         // --- bind fbo to which to render ---
         toColourTextureRenderer.bindFBOtoUse();
@@ -358,23 +484,106 @@ class OpenGLApp {
 
         // --- render commands ---
 
-        Matrix4f view = camera.calcLookAt(); // calc view matrix
-        Matrix4f projection = new Matrix4f(); // create projection matrix
-        projection.setPerspective((float) Math.toRadians(camera.getFOV()), (float) SCR_WIDTH / SCR_HEIGHT, 0.1f, 100.0f);
-
-        RenderContext.setContext(view, projection, camera.getCameraPos(), camera.getCameraFront());
-
+        shadowedPassTimer.begin();
         entityRenderer.render(scene);
+        shadowedPassTimer.end();
 
         // bind default framebuffer & render quad
-        glBindFramebuffer(GL_FRAMEBUFFER, 0);
-        glDisable(GL_DEPTH_TEST);       // so that screen-space quad isn't discarded bc of depth test
+        GLState.bindFramebuffer(GL_FRAMEBUFFER, 0);
         // clear relevant buffers
         WindowManager.clearColour(1.0f, 1.0f, 1.0f); // optional, to correctly see quad in wireframe mode
         WindowManager.clearColourBuffer();
 
-        screenQuadRenderer.render();    // render screen quad
-        glEnable(GL_DEPTH_TEST);
+        screenQuadRenderer.render();    // render screen quad (w/o depth test)
+    }
+
+    /**
+     * Move the orbiting entity along its orbit & rotate the dir light about the y axis (if enabled, w/M & L).
+     * (in place, so animating doesn't allocate)
+     */
+    private void animateScene(float deltaTime){
+        if (moveOrbitingEntity) {
+            orbitAngle += ORBIT_SPEED * deltaTime;
+            orbitTransform.translation(ORBIT_RADIUS * (float) Math.cos(orbitAngle), 2.0f + 0.25f * (float) Math.sin(3 * orbitAngle),
+                    ORBIT_RADIUS * (float) Math.sin(orbitAngle)).rotateY(-orbitAngle);
+            orbitingEntity.setLocal_transform(orbitTransform);
+        }
+        if (rotateLight) {
+            DirLight light = scene.getDirLight();
+            float angle = LIGHT_ROTATION_SPEED * deltaTime;
+            float cos = (float) Math.cos(angle), sin = (float) Math.sin(angle);
+            Vector3f direction = light.getDirection();
+            light.setDirection(lightDirection.set(direction.x * cos - direction.z * sin, direction.y, direction.x * sin + direction.z * cos));
+        }
+    }
+
+    /**
+     * Set the rendering context's view & projection matrices, camera position & front from the camera.
+     */
+    private void setCameraContext(){
+        Matrix4f view = camera.calcLookAt(); // calc view matrix
+        projection.setPerspective((float) Math.toRadians(camera.getFOV()), (float) SCR_WIDTH / SCR_HEIGHT, 0.1f, 100.0f);
+
+        RenderContext.setContext(view, projection, camera.getCameraPos(cameraPos), camera.getCameraFront(cameraFront));
+    }
+
+    /**
+     * Start the shadow filter benchmark: renders w/shadows using each shadow filter in turn for a nº of frames, &
+     * then prints the average GPU time of the lit & depth passes w/each (relative to the 3x3 PCF loop).
+     * (camera should be kept still while it runs, so all filters render the same view)
+     */
+    private void startShadowFilterBenchmark(){
+        filterBeforeBenchmark = RenderContext.getShadowFilter();
+        RenderContext.setRenderOption(RenderOptions.WITH_SHADOWS);
+        benchmarkFilter = 0;
+        benchmarkFrame = 0;
+        RenderContext.setShadowFilter(ShadowFilter.values()[benchmarkFilter]);
+        System.out.println("Benchmarking shadow filters...");
+    }
+
+    /**
+     * Called after rendering each frame while the shadow filter benchmark runs: skips a few warm-up frames after
+     * each filter change (so measurements of the previous filter still in flight are dropped), measures the
+     * following frames, & moves on to the next filter.
+     */
+    private void updateShadowFilterBenchmark(){
+        benchmarkFrame++;
+        if (benchmarkFrame == BENCHMARK_WARM_UP_FRAMES) {
+            shadowedPassTimer.reset();
+            depthPassTimer.reset();
+        }
+        if (benchmarkFrame < BENCHMARK_WARM_UP_FRAMES + BENCHMARK_FRAMES) return;
+
+        benchmarkLitPassMs[benchmarkFilter] = shadowedPassTimer.getAverageMs();
+        benchmarkDepthPassMs[benchmarkFilter] = depthPassTimer.getAverageMs();
+        benchmarkFilter++;
+        benchmarkFrame = 0;
+        ShadowFilter[] filters = ShadowFilter.values();
+        if (benchmarkFilter < filters.length) {
+            RenderContext.setShadowFilter(filters[benchmarkFilter]);
+            return;
+        }
+
+        // --- done: print results ---
+        double baseline = benchmarkLitPassMs[ShadowFilter.PCF_3X3.ordinal()];
+        System.out.println(String.format("Shadow filter benchmark (GPU time, avg over %d frames each):", BENCHMARK_FRAMES));
+        for (int i = 0; i < filters.length; i++) {
+            String taps = filters[i] == ShadowFilter.POISSON ? " (" + RenderContext.getPoissonSamples() + " taps)" : "";
+            System.out.println(String.format("    %-16s lit pass %.3f ms (%.2fx of PCF_3X3), depth pass %.3f ms%s", filters[i],
+                    benchmarkLitPassMs[i], baseline > 0 ? benchmarkLitPassMs[i] / baseline : 0, benchmarkDepthPassMs[i], taps));
+        }
+        RenderContext.setShadowFilter(filterBeforeBenchmark);
+        benchmarkFilter = -1;
+    }
+
+    /**
+     * Returns nº of bytes allocated on the heap by the current (render) thread so far, or 0 if the JVM can't measure it.
+     * (used to check the per-frame path doesn't allocate -- should be 0 B/frame once assets are loaded & uploaded,
+     * except for frames w/stats printed or screenshots captured)
+     */
+    private long getAllocatedBytes(){
+        if (!threadMXBean.isThreadAllocatedMemorySupported() || !threadMXBean.isThreadAllocatedMemoryEnabled()) return 0;
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
     }
 
     // --------------------------------------------------------------------------------------------------------------------------
@@ -386,7 +595,7 @@ class OpenGLApp {
         long win = WindowManager.getWindowHandle();
 
         // whenever window is resized, call given funct -- adjusts viewport
-        glfwSetFramebufferSizeCallback(win, (long window, int width, int height) -> glViewport(0, 0, width, height));
+        glfwSetFramebufferSizeCallback(win, (long window, int width, int height) -> GLState.viewport(0, 0, width, height));
 
         // whenever key is pressed, repeated or released.
         glfwSetKeyCallback(win, (window, key, scancode, action, mods) -> {
@@ -395,8 +604,8 @@ class OpenGLApp {
                 glfwSetWindowShouldClose(window, true);
             // view in wireframe mode whilst E is pressed
             if (key == GLFW_KEY_E) {
-                if (action == GLFW_PRESS) glPolygonMode(GL_FRONT_AND_BACK, GL_LINE);
-                else if (action == GLFW_RELEASE) glPolygonMode(GL_FRONT_AND_BACK, GL_FILL);
+                if (action == GLFW_PRESS) GLState.polygonMode(GL_LINE);
+                else if (action == GLFW_RELEASE) GLState.polygonMode(GL_FILL);
             }
             // -> AWSD used to move camera (in processArrowsInput() method)
             // number keys used to choose what to render (4 options)
@@ -406,6 +615,38 @@ class OpenGLApp {
             // take 'screenshot' when press F
             if (key == GLFW_KEY_F && action == GLFW_RELEASE)
                 ScreenshotMaker.takeScreenshot();
+            // start/stop capturing every frame when press C
+            if (key == GLFW_KEY_C && action == GLFW_RELEASE)
+                ScreenshotMaker.toggleContinuousCapture();
+            // print frustum culling & instancing stats when press I
+            if (key == GLFW_KEY_I && action == GLFW_RELEASE)
+                printCullingStats = true;
+            // cycle through shadow filters when press P
+            if (key == GLFW_KEY_P && action == GLFW_RELEASE && benchmarkFilter < 0) {
+                RenderContext.setShadowFilter(RenderContext.getShadowFilter().next());
+                System.out.println("Shadow filter: " + RenderContext.getShadowFilter());
+            }
+            // cycle through nº of taps of the Poisson shadow filter (4, 8, 16) when press O
+            if (key == GLFW_KEY_O && action == GLFW_RELEASE && benchmarkFilter < 0) {
+                int samples = RenderContext.getPoissonSamples() * 2;
+                if (samples > RenderContext.MAX_POISSON_SAMPLES) samples = 4;
+                RenderContext.setPoissonKernel(samples, RenderContext.getPoissonRadius());
+                System.out.println("Poisson shadow filter taps: " + samples);
+            }
+            // benchmark the shadow filters' GPU time when press B
+            if (key == GLFW_KEY_B && action == GLFW_RELEASE && benchmarkFilter < 0)
+                startShadowFilterBenchmark();
+            // start/stop moving the orbiting entity when press M
+            if (key == GLFW_KEY_M && action == GLFW_RELEASE)
+                moveOrbitingEntity = !moveOrbitingEntity;
+            // make the orbiting entity static/dynamic when press N (static: all static casters re-rendered as it moves)
+            if (key == GLFW_KEY_N && action == GLFW_RELEASE) {
+                orbitingEntity.setDynamic(!orbitingEntity.isDynamic());
+                System.out.println("Orbiting entity: " + (orbitingEntity.isDynamic() ? "dynamic" : "static"));
+            }
+            // start/stop rotating the dir light when press L
+            if (key == GLFW_KEY_L && action == GLFW_RELEASE)
+                rotateLight = !rotateLight;
         });
 
         // mouse-related callbacks
@@ -450,14 +691,18 @@ class OpenGLApp {
      */
     void terminate(){
 
-        WindowManager.closeWindow();
+        ScreenshotMaker.shutdown();     // finish writing any pending screenshots
+        AssetLoader.shutdown();
+        GPUResourceManager.printReport();
+        GeometryArena.printReport();
 
-        // de-allocate all resources
+        // de-allocate all resources (before the window, & so the GL context, is destroyed)
         scene.deallocateMeshResources();
         screenQuad.getMesh().deallocateResources();
-        phongShaderProgram.delete();
-        quadShaderProgram.delete();
-        toDepthTexShaderProgram.delete();
+        GPUResourceManager.deallocateAll();     // shared meshes, textures & shader programs
+        GeometryArena.deallocateAll();          // (after all meshes are deleted)
+
+        WindowManager.closeWindow();
 
         // clean/delete all other GLFW's resources
         glfwTerminate();